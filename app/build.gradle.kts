@@ -37,6 +37,10 @@ android {
 
         // 第三個參數必須是可直接進入 Java 原始碼的字面量：用雙引號包起來
         buildConfigField("String", "OPENAI_API_KEY", "\"$openaiKey\"")
+
+        // API_BASE_URL：留空 = 正式 Cloud Run；本機測試設成 http://10.0.2.2:8080（:devserver）
+        val apiBaseUrl = props.getProperty("API_BASE_URL") ?: ""
+        buildConfigField("String", "API_BASE_URL", "\"$apiBaseUrl\"")
     }
 
     buildTypes {
@@ -0,0 +1,89 @@
+package com.ld.ainote;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
+
+import com.ld.ainote.data.IoScheduler;
+import com.ld.ainote.net.AiScheduler;
+import com.ld.ainote.net.EndpointMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 除錯用：各 Cloud Run 端點的延遲 / 錯誤統計（入口只在 debug 版的個人頁出現）
+ * 匯出會寫到 Android/data/<pkg>/files/metrics/ 並開啟分享
+ */
+public class EndpointMetricsActivity extends AppCompatActivity {
+
+    private TextView tvReport;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_endpoint_metrics);
+
+        tvReport = findViewById(R.id.tvReport);
+        Button btnRefresh = findViewById(R.id.btnRefresh);
+        Button btnExport = findViewById(R.id.btnExport);
+        Button btnReset = findViewById(R.id.btnReset);
+
+        btnRefresh.setOnClickListener(v -> render());
+        btnExport.setOnClickListener(v -> export());
+        btnReset.setOnClickListener(v -> {
+            EndpointMetrics.get().reset();
+            render();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        render();
+    }
+
+    private String buildReport() {
+        return EndpointMetrics.get().report() + "\n" + IoScheduler.get() + "\n" + AiScheduler.get() + "\n";
+    }
+
+    private void render() {
+        tvReport.setText(buildReport());
+    }
+
+    private void export() {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File dir = new File(getExternalFilesDir(null), "metrics");
+        File out = new File(dir, "endpoint-metrics-" + stamp + ".txt");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("無法建立資料夾：" + dir);
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)) {
+                w.write(buildReport());
+            }
+        } catch (IOException e) {
+            Toast.makeText(this, "匯出失敗：" + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", out);
+        Intent send = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(send, "匯出端點統計"));
+        Toast.makeText(this, "已寫入 " + out.getAbsolutePath(), Toast.LENGTH_SHORT).show();
+    }
+}
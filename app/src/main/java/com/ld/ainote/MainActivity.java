@@ -3,45 +3,73 @@ package com.ld.ainote;
 import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
+import androidx.fragment.app.FragmentTransaction;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
+import com.ld.ainote.data.NotesStore;
 import com.ld.ainote.fragments.AiFragment;
 import com.ld.ainote.fragments.NotesFragment;
 import com.ld.ainote.fragments.ProfileFragment;
 import com.ld.ainote.fragments.OcrFragment;
 
+/**
+ * 底部分頁：每個分頁第一次點到才建立，之後只 show / hide（畫面、捲動位置、監聽都留著）
+ * 筆記資料由 NotesStore 全 App 共用，切分頁不會重新讀 Firestore
+ */
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAB_PREFIX = "tab_";
+
+    private Fragment active;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        loadFragment(new AiFragment());
+        // 先掛上筆記監聽，第一次切到筆記 / AI 分頁時多半已經有資料
+        NotesStore.get().start();
 
         BottomNavigationView nav = findViewById(R.id.bottom_navigation);
-        nav.setOnItemSelectedListener(item -> {
-            int id = item.getItemId();
-            Fragment selected;
-            if (id == R.id.nav_home) {
-                selected = new AiFragment();
-            } else if (id == R.id.nav_notes) {
-                selected = new NotesFragment();
-            } else if (id == R.id.nav_profile) {
-                selected = new ProfileFragment();
-            } else if (id == R.id.nav_ocr) {
-                selected = new OcrFragment();
-            } else {
-                selected = new AiFragment();
+        if (savedInstanceState == null) {
+            showTab(R.id.nav_home);
+        } else {
+            // 系統重建時分頁 Fragment 會自己回來，找出目前顯示中的那個
+            for (Fragment f : getSupportFragmentManager().getFragments()) {
+                if (f.getTag() != null && f.getTag().startsWith(TAB_PREFIX) && !f.isHidden()) active = f;
             }
-            loadFragment(selected);
+        }
+
+        nav.setOnItemSelectedListener(item -> {
+            showTab(item.getItemId());
             return true;
         });
+        // 重複點目前的分頁：什麼都不做（以前會整個重建）
+        nav.setOnItemReselectedListener(item -> {});
+    }
+
+    private void showTab(int itemId) {
+        FragmentManager fm = getSupportFragmentManager();
+        String tag = TAB_PREFIX + itemId;
+        Fragment target = fm.findFragmentByTag(tag);
+        if (target != null && target == active) return;
+
+        FragmentTransaction tx = fm.beginTransaction().setReorderingAllowed(true);
+        if (active != null) tx.hide(active);
+        if (target == null) {
+            target = createTab(itemId);
+            tx.add(R.id.fragment_container, target, tag);
+        } else {
+            tx.show(target);
+        }
+        tx.commit();
+        active = target;
     }
 
-    private void loadFragment(Fragment fragment) {
-        getSupportFragmentManager()
-                .beginTransaction()
-                .replace(R.id.fragment_container, fragment)
-                .commit();
+    private static Fragment createTab(int itemId) {
+        if (itemId == R.id.nav_notes) return new NotesFragment();
+        if (itemId == R.id.nav_profile) return new ProfileFragment();
+        if (itemId == R.id.nav_ocr) return new OcrFragment();
+        return new AiFragment();
     }
 }
@@ -6,6 +6,9 @@ import android.util.Log;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.ld.ainote.data.AiResultCache;
+import com.ld.ainote.data.BlockSyncQueue;
+import com.ld.ainote.net.AiService;
 
 public class MyApp extends Application {
     @Override
@@ -20,5 +23,11 @@ public class MyApp extends Application {
                 .setPersistenceEnabled(true)
                 .build();
         FirebaseFirestore.getInstance().setFirestoreSettings(settings);
+
+        // 啟動離線同步佇列：補送上次未完成的 block 編輯，並監聽連線恢復
+        BlockSyncQueue.get(this);
+
+        // AI 結果磁碟快取：同一份筆記 / 設定再按一次直接回上次的結果
+        AiService.setCache(AiResultCache.get(this));
     }
 }
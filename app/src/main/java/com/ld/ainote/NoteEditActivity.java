@@ -521,17 +521,25 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.ld.ainote.adapters.BlockAdapter;
 import com.ld.ainote.data.BlockRepository;
+import com.ld.ainote.data.BlockSyncQueue;
 import com.ld.ainote.data.FriendRepository;
+import com.ld.ainote.data.LocalBlockStore;
+import com.ld.ainote.data.LockLeaseManager;
+import com.ld.ainote.data.ModelCodecs;
 import com.ld.ainote.data.NoteRepository;
 import com.ld.ainote.models.Friend;
 import com.ld.ainote.models.Note;
 import com.ld.ainote.models.NoteBlock;
 import com.ld.ainote.utils.HighlightUtils;
+import com.ld.ainote.utils.SearchIndex;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
 
 public class NoteEditActivity extends AppCompatActivity {
 
@@ -547,6 +555,19 @@ public class NoteEditActivity extends AppCompatActivity {
     private BlockRepository blockRepo;
     private ListenerRegistration blocksReg;
     private Handler lockUiTicker;
+    // 持有中的鎖交給 lease manager 統一批次續約；太久沒輸入被釋放的 block，再輸入時重新取得
+    private final LockLeaseManager leases = LockLeaseManager.get();
+    private final Set<String> idleReleased = new HashSet<>();
+    // 本機沒有資料時先用分頁串流顯示；Firestore 快照到了之後就以快照為準
+    private static final int FIRST_OPEN_PAGE_SIZE = 50;
+    private boolean snapshotShown = false;
+
+    // ====== 本機儲存 / 離線同步 ======
+    private BlockSyncQueue syncQueue;
+    private LocalBlockStore localStore;
+    private final Handler draftFlusher = new Handler(Looper.getMainLooper());
+    private final Map<String, String> dirtyDrafts = new HashMap<>();
+    private static final long DRAFT_FLUSH_DELAY_MS = 500;
 
     // ====== 其他 UI ======
     private MaterialButton btnSave, btnDelete, btnShare, btnToggleHighlights;
@@ -571,6 +592,8 @@ public class NoteEditActivity extends AppCompatActivity {
         // Repo
         noteRepo = new NoteRepository();
         blockRepo = new BlockRepository();
+        syncQueue = BlockSyncQueue.get(this);
+        localStore = syncQueue.store();
 
         // Intent 參數
         noteId  = getIntent().getStringExtra("note_id");
@@ -606,12 +629,22 @@ public class NoteEditActivity extends AppCompatActivity {
         blockAdapter = new BlockAdapter(new BlockAdapter.Listener() {
             @Override
             public void onAcquireLock(@NonNull NoteBlock block) {
+                idleReleased.remove(block.getId());
                 blockRepo.acquireLock(ownerId, noteId, block.getId())
-                        .addOnFailureListener(e -> Log.d("NoteEditActivity", "鎖定失敗：" + e.getMessage()));
+                        .addOnSuccessListener(v -> leases.hold(ownerId, noteId, block.getId()))
+                        .addOnFailureListener(e -> {
+                            Log.d("NoteEditActivity", "鎖定失敗：" + e.getMessage());
+                            // 離線拿不到鎖：先在本機編輯，存檔時進同步佇列（伺服器仍會用 expectedVersion 檢查衝突）
+                            if (BlockSyncQueue.isNetworkError(e) || LocalBlockStore.isLocalId(block.getId())) {
+                                blockAdapter.setOfflineEditable(block.getId(), true);
+                                Toast.makeText(NoteEditActivity.this, "離線中：先存在本機，連線後自動同步", Toast.LENGTH_SHORT).show();
+                            }
+                        });
             }
 
             @Override
             public void onReleaseLock(@NonNull NoteBlock block) {
+                leases.release(ownerId, noteId, block.getId());
                 blockRepo.releaseLock(ownerId, noteId, block.getId())
                         .addOnFailureListener(e -> { /* ignore */ });
             }
@@ -619,9 +652,8 @@ public class NoteEditActivity extends AppCompatActivity {
             @Override
             public void onAddAfter(@NonNull NoteBlock block) {
                 int nextIndex = block.getIndex() + 1;
-                blockRepo.createBlock(ownerId, noteId, nextIndex, "text", "")
-                        .addOnFailureListener(e ->
-                                Toast.makeText(NoteEditActivity.this, "新增區塊失敗：" + e.getMessage(), Toast.LENGTH_LONG).show());
+                // 先寫本機（立即顯示），背景同步到伺服器
+                syncQueue.enqueueCreate(ownerId, noteId, nextIndex, "text", "");
             }
 
             @Override
@@ -630,18 +662,30 @@ public class NoteEditActivity extends AppCompatActivity {
                         .setTitle("刪除此段落？")
                         .setMessage("確定要刪除這個區塊嗎？此操作無法復原。")
                         .setPositiveButton("刪除", (d, w) -> {
-                            blockRepo.deleteBlock(ownerId, noteId, block.getId())
-                                    .addOnSuccessListener(r ->
-                                            Toast.makeText(NoteEditActivity.this, "已刪除", Toast.LENGTH_SHORT).show())
-                                    .addOnFailureListener(e ->
-                                            Toast.makeText(NoteEditActivity.this, "刪除失敗：" + e.getMessage(), Toast.LENGTH_LONG).show());
+                            blockAdapter.clearDraft(block.getId());
+                            dirtyDrafts.remove(block.getId());
+                            syncQueue.enqueueDelete(ownerId, noteId, block.getId());
+                            Toast.makeText(NoteEditActivity.this, "已刪除", Toast.LENGTH_SHORT).show();
                         })
                         .setNegativeButton("取消", null)
                         .show();
             }
         });
         blockAdapter.setMyUid(myUid);
+        // 草稿寫入本機（稍微延遲合併，避免每個按鍵都寫一次磁碟）
+        blockAdapter.setDraftListener((blockId, text) -> {
+            leases.touch(ownerId, noteId, blockId);
+            if (idleReleased.remove(blockId)) reacquireLock(blockId);
+            dirtyDrafts.put(blockId, text);
+            draftFlusher.removeCallbacks(flushDraftsTask);
+            draftFlusher.postDelayed(flushDraftsTask, DRAFT_FLUSH_DELAY_MS);
+        });
         rvBlocks.setAdapter(blockAdapter);
+        syncQueue.addListener(syncListener);
+        leases.addListener(leaseListener);
+
+        // 先從本機顯示（秒開、離線也看得到），伺服器快照回來再更新
+        loadBlocksFromLocal(true);
 
         // 權限：僅擁有者可刪除/設共編
         boolean iAmOwner = myUid.equals(ownerId);
@@ -738,28 +782,126 @@ public class NoteEditActivity extends AppCompatActivity {
 
                     List<NoteBlock> list = new ArrayList<>();
                     for (DocumentSnapshot d : snap.getDocuments()) {
-                        NoteBlock b = d.toObject(NoteBlock.class);
-                        if (b == null) continue;
-                        b.setId(d.getId());
-                        list.add(b);
+                        list.add(ModelCodecs.block(d));
                     }
 
-                    // 若空 → 一次性補第一個 block（把舊 content 搬進來；沒有就空字串）
                     if (list.isEmpty()) {
+                        // 離線快取是空的不代表伺服器沒有：保留本機內容，等真正的伺服器快照
+                        if (snap.getMetadata().isFromCache()) return;
+                        // 若空 → 一次性補第一個 block（把舊 content 搬進來；沒有就空字串）
                         String initialText = (current != null && !TextUtils.isEmpty(current.getContent()))
                                 ? current.getContent() : "";
-                        blockRepo.createBlock(ownerId, noteId, 0, "text", initialText)
-                                .addOnFailureListener(err ->
-                                        Toast.makeText(NoteEditActivity.this, "自動建立區塊失敗：" + err.getMessage(), Toast.LENGTH_LONG).show());
-                        return; // 等下一輪 snapshot 回來
+                        syncQueue.enqueueCreateIfEmpty(ownerId, noteId, "text", initialText);
+                        return;
                     }
 
-                    blockAdapter.submitSorted(list);
-                    refreshHighlightPanel();
-                    updateToggleText();
+                    // 寫入本機後再以本機內容（含尚未同步的新增 / 刪除）顯示
+                    String o = ownerId, n = noteId;
+                    // 伺服器確認過的快照順便記成索引狀態，列表那邊的 BlockTextIndexer 就不用再抓這本
+                    boolean confirmed = !snap.getMetadata().isFromCache() && !snap.getMetadata().hasPendingWrites();
+                    localStore.executor().execute(() -> {
+                        localStore.replaceBlocks(o, n, list);
+                        if (confirmed) {
+                            localStore.putIndexState(o, n, LocalBlockStore.IndexState.of(list, System.currentTimeMillis()));
+                        }
+                        List<NoteBlock> merged = localStore.loadBlocks(o, n);
+                        runOnUiThread(() -> {
+                            snapshotShown = true;
+                            showBlocks(merged);
+                        });
+                    });
                 });
     }
 
+    /** 從本機讀 blocks（以及草稿）顯示 */
+    private void loadBlocksFromLocal(boolean withDrafts) {
+        if (TextUtils.isEmpty(ownerId) || TextUtils.isEmpty(noteId)) return;
+        String o = ownerId, n = noteId;
+        localStore.executor().execute(() -> {
+            List<NoteBlock> list = localStore.loadBlocks(o, n);
+            Map<String, String> drafts = withDrafts ? localStore.loadDrafts(o, n) : null;
+            runOnUiThread(() -> {
+                if (drafts != null) blockAdapter.restoreDrafts(drafts);
+                if (!list.isEmpty()) showBlocks(list);
+                else if (withDrafts) streamFirstOpen();
+            });
+        });
+    }
+
+    /** 第一次開啟（本機沒有快取）：分頁串流讀 blocks，第一頁先顯示，不必等整篇下載完 */
+    private void streamFirstOpen() {
+        List<NoteBlock> streamed = new ArrayList<>();
+        blockRepo.listBlocksPaged(ownerId, noteId, FIRST_OPEN_PAGE_SIZE, (page, loaded) -> {
+            if (snapshotShown) return;
+            streamed.addAll(page);
+            showBlocks(new ArrayList<>(streamed));
+        }).addOnFailureListener(e -> Log.d("NoteEditActivity", "串流讀取失敗：" + e.getMessage()));
+    }
+
+    private void showBlocks(List<NoteBlock> list) {
+        if (isFinishing() || isDestroyed()) return;
+        blockAdapter.submitSorted(list);
+        indexBlocks(list);
+        refreshHighlightPanel();
+        updateToggleText();
+    }
+
+    /** 把目前的 block 內文同步進全文索引，筆記列表搜尋就找得到 */
+    private void indexBlocks(List<NoteBlock> list) {
+        Map<String, String> texts = new HashMap<>();
+        for (NoteBlock b : list) texts.put(b.getId(), b.getText() == null ? "" : b.getText());
+        SearchIndex.shared().putBlocks(ownerId + "#" + noteId, texts);
+    }
+
+    private final BlockSyncQueue.Listener syncListener = new BlockSyncQueue.Listener() {
+        @Override
+        public void onSynced(@NonNull String o, @NonNull String n) {
+            if (o.equals(ownerId) && n.equals(noteId)) loadBlocksFromLocal(false);
+        }
+
+        @Override
+        public void onRekeyed(@NonNull String o, @NonNull String n,
+                              @NonNull String localId, @NonNull String serverId) {
+            if (!o.equals(ownerId) || !n.equals(noteId)) return;
+            String draft = blockAdapter.rekey(localId, serverId);
+            // 舊 id 的草稿（含 rekey 之後才寫進本機的）清掉，畫面上的草稿改記到新 id 重寫一次
+            dirtyDrafts.remove(localId);
+            localStore.executor().execute(() -> localStore.removeDraft(o, n, localId));
+            if (draft != null) {
+                dirtyDrafts.put(serverId, draft);
+                draftFlusher.removeCallbacks(flushDraftsTask);
+                draftFlusher.postDelayed(flushDraftsTask, DRAFT_FLUSH_DELAY_MS);
+            }
+        }
+    };
+
+    private final Runnable flushDraftsTask = this::flushDrafts;
+
+    private final LockLeaseManager.Listener leaseListener = (o, n, blockId, idle) -> {
+        if (!o.equals(ownerId) || !n.equals(noteId)) return;
+        if (idle) {
+            idleReleased.add(blockId);
+        } else {
+            Toast.makeText(this, "段落的編輯鎖已失效，儲存時可能被拒絕", Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    /** 閒置被釋放後又開始輸入：重新取得鎖（失敗就維持草稿，存檔時由伺服器判斷） */
+    private void reacquireLock(String blockId) {
+        blockRepo.acquireLock(ownerId, noteId, blockId)
+                .addOnSuccessListener(v -> leases.hold(ownerId, noteId, blockId))
+                .addOnFailureListener(e -> Log.d("NoteEditActivity", "重新鎖定失敗：" + e.getMessage()));
+    }
+
+    private void flushDrafts() {
+        draftFlusher.removeCallbacks(flushDraftsTask);
+        if (dirtyDrafts.isEmpty() || TextUtils.isEmpty(ownerId) || TextUtils.isEmpty(noteId)) return;
+        Map<String, String> batch = new HashMap<>(dirtyDrafts);
+        dirtyDrafts.clear();
+        String o = ownerId, n = noteId;
+        localStore.executor().execute(() -> localStore.putDrafts(o, n, batch));
+    }
+
     private final Runnable lockClockTick = new Runnable() {
         @Override public void run() {
             if (blockAdapter != null) blockAdapter.updateLockClock();
@@ -770,6 +912,7 @@ public class NoteEditActivity extends AppCompatActivity {
     @Override
     protected void onStop() {
         super.onStop();
+        flushDrafts();
         if (blocksReg != null) {
             blocksReg.remove();
             blocksReg = null;
@@ -779,6 +922,8 @@ public class NoteEditActivity extends AppCompatActivity {
             lockUiTicker = null;
         }
         // 最佳努力釋放我持有的鎖
+        leases.releaseNote(ownerId, noteId);
+        idleReleased.clear();
         if (blockAdapter != null) {
             List<NoteBlock> cur = blockAdapter.current();
             for (NoteBlock b : cur) {
@@ -789,6 +934,14 @@ public class NoteEditActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        syncQueue.removeListener(syncListener);
+        leases.removeListener(leaseListener);
+        draftFlusher.removeCallbacksAndMessages(null);
+    }
+
     private boolean lockExpired(NoteBlock b) {
         Date until = b.getLockUntil();
         return until == null || System.currentTimeMillis() > until.getTime();
@@ -865,6 +1018,7 @@ public class NoteEditActivity extends AppCompatActivity {
             Toast.makeText(this, "請先建立或載入筆記", Toast.LENGTH_SHORT).show();
             return;
         }
+        flushDrafts();
 
         // 取出所有變更的 drafts
         List<BlockAdapter.PendingEdit> edits = blockAdapter.collectPendingEdits();
@@ -876,41 +1030,75 @@ public class NoteEditActivity extends AppCompatActivity {
             return;
         }
 
-        AtomicInteger done = new AtomicInteger(0);
-        AtomicInteger fail = new AtomicInteger(0);
-        int total = edits.size();
-
+        // 所有草稿 + 我持有的鎖一次送出（一個 request / 一個 transaction）
+        // 尚未同步的本機新增（local- id）伺服器還不認得，直接交給同步佇列
+        List<BlockRepository.BlockEdit> batch = new ArrayList<>();
         for (BlockAdapter.PendingEdit pe : edits) {
             NoteBlock b = pe.block;
-            String newText = pe.newText;
+            if (LocalBlockStore.isLocalId(b.getId())) {
+                queueOfflineEdit(pe);
+                continue;
+            }
             // 使用目前的 index/type 與版本送出
-            blockRepo.updateBlock(ownerId, noteId, b.getId(), newText, b.getType(), b.getIndex(), (int) b.getVersion())
-                    .addOnSuccessListener(v -> {
-                        blockAdapter.clearDraft(b.getId());
-                        if (done.incrementAndGet() + fail.get() == total) {
-                            // 全部完成後釋放我持有的鎖
-                            releaseAllMyLocks();
-                            Toast.makeText(this,
-                                    fail.get() == 0 ? "已儲存所有變更並釋放鎖" : ("部分儲存失敗（" + fail.get() + "/" + total + "）並已釋放鎖"),
-                                    Toast.LENGTH_LONG).show();
+            // 帶上基準內容：長段落只改一小處時送差異，不用整段重傳
+            batch.add(new BlockRepository.BlockEdit(b.getId(), pe.newText, b.getType(), b.getIndex(),
+                    (int) b.getVersion(), b.getText()));
+        }
+        if (batch.isEmpty()) {
+            // 沒有要送的內容，但手上的鎖照樣要放掉，不然別人要等到逾時
+            releaseAllMyLocks();
+            Toast.makeText(this, "已存在本機，連線後自動同步", Toast.LENGTH_LONG).show();
+            return;
+        }
+        List<String> releases = new ArrayList<>();
+        for (NoteBlock b : blockAdapter.current()) {
+            if (myUid.equals(b.getLockHolder()) && !lockExpired(b)) releases.add(b.getId());
+        }
+
+        int total = batch.size();
+        String o = ownerId, n = noteId;
+        blockRepo.updateBlocksBatch(ownerId, noteId, batch, releases)
+                .addOnSuccessListener(results -> {
+                    int fail = total;
+                    for (BlockRepository.BlockResult r : results) {
+                        if (r.released) leases.release(o, n, r.blockId);
+                        if (r.isOk()) {
+                            blockAdapter.clearDraft(r.blockId);
+                            localStore.executor().execute(() -> localStore.removeDraft(o, n, r.blockId));
+                            fail--;
                         }
-                    })
-                    .addOnFailureListener(e -> {
-                        fail.incrementAndGet();
-                        if (done.get() + fail.get() == total) {
-                            releaseAllMyLocks();
-                            Toast.makeText(this,
-                                    "儲存失敗部分（" + fail.get() + "/" + total + "）並已釋放鎖：" + e.getMessage(),
-                                    Toast.LENGTH_LONG).show();
+                    }
+                    Toast.makeText(this,
+                            fail == 0 ? "已儲存所有變更並釋放鎖" : ("部分儲存失敗（" + fail + "/" + total + "）並已釋放鎖"),
+                            Toast.LENGTH_LONG).show();
+                })
+                .addOnFailureListener(e -> {
+                    if (BlockSyncQueue.isNetworkError(e)) {
+                        // 離線：草稿已在本機，排進同步佇列，連線後依 expectedVersion 送出
+                        for (BlockAdapter.PendingEdit pe : edits) {
+                            if (!LocalBlockStore.isLocalId(pe.block.getId())) queueOfflineEdit(pe);
                         }
-                    });
-        }
+                        Toast.makeText(this, "目前離線：已存在本機，連線後自動同步", Toast.LENGTH_LONG).show();
+                        return;
+                    }
+                    // 整批失敗（權限等）：鎖沒被釋放，改走逐塊釋放
+                    releaseAllMyLocks();
+                    Toast.makeText(this,
+                            "儲存失敗（" + total + "/" + total + "）並已釋放鎖：" + e.getMessage(),
+                            Toast.LENGTH_LONG).show();
+                });
+    }
+
+    private void queueOfflineEdit(BlockAdapter.PendingEdit pe) {
+        NoteBlock b = pe.block;
+        syncQueue.enqueueUpdate(ownerId, noteId, b.getId(), pe.newText, b.getType(), b.getIndex(), (int) b.getVersion());
     }
 
     private void releaseAllMyLocks() {
         List<NoteBlock> cur = blockAdapter.current();
         for (NoteBlock b : cur) {
             if (myUid.equals(b.getLockHolder()) && !lockExpired(b)) {
+                leases.release(ownerId, noteId, b.getId());
                 blockRepo.releaseLock(ownerId, noteId, b.getId());
             }
         }
@@ -296,6 +296,7 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
@@ -306,9 +307,11 @@ import com.ld.ainote.models.NoteBlock;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * 改動要點：
@@ -335,6 +338,18 @@ public class BlockAdapter extends ListAdapter<NoteBlock, RecyclerView.ViewHolder
     // 以 blockId 為 key，儲存使用者尚未送出的編輯文字（draft）
     private final Map<String, String> drafts = new HashMap<>();
 
+    // 離線時拿不到鎖：這些 block 允許先在本機編輯，連線後由同步佇列以 expectedVersion 送出
+    private final Set<String> offlineEditable = new HashSet<>();
+
+    // 本機新增的 block 換成伺服器 id：local- → 伺服器 id（還綁著舊 id 的列輸入時照這張表改記）
+    private final Map<String, String> rekeyed = new HashMap<>();
+
+    /** 草稿變動通知（外部用來寫入本機儲存） */
+    public interface DraftListener {
+        void onDraftChanged(@NonNull String blockId, @NonNull String text);
+    }
+    private DraftListener draftListener;
+
     public BlockAdapter(@NonNull Listener listener) {
         super(DIFF);
         this.listener = listener;
@@ -346,6 +361,36 @@ public class BlockAdapter extends ListAdapter<NoteBlock, RecyclerView.ViewHolder
         notifyDataSetChanged();
     }
 
+    public void setDraftListener(DraftListener l) {
+        this.draftListener = l;
+    }
+
+    /** 由本機儲存還原草稿（不覆蓋目前畫面上已有的編輯） */
+    public void restoreDrafts(Map<String, String> saved) {
+        if (saved == null || saved.isEmpty()) return;
+        for (Map.Entry<String, String> e : saved.entrySet()) {
+            if (!drafts.containsKey(e.getKey())) drafts.put(e.getKey(), e.getValue());
+        }
+        notifyDataSetChanged();
+    }
+
+    /** 標記 / 取消某塊為離線可編輯 */
+    public void setOfflineEditable(String blockId, boolean editable) {
+        if (blockId == null) return;
+        boolean changed = editable ? offlineEditable.add(blockId) : offlineEditable.remove(blockId);
+        if (changed) notifyDataSetChanged();
+    }
+
+    /** 本機新增的 block 拿到伺服器 id：草稿與離線可編輯標記搬到新 id；回傳搬過去的草稿（沒有則 null） */
+    @Nullable
+    public String rekey(@NonNull String localId, @NonNull String serverId) {
+        rekeyed.put(localId, serverId);
+        String draft = drafts.remove(localId);
+        if (draft != null) drafts.put(serverId, draft);
+        if (offlineEditable.remove(localId)) offlineEditable.add(serverId);
+        return draft;
+    }
+
     /** 外部每秒呼叫一次以刷新鎖定倒數 */
     public void updateLockClock() {
         notifyItemRangeChanged(0, getItemCount(), "clock");
@@ -411,6 +456,7 @@ public class BlockAdapter extends ListAdapter<NoteBlock, RecyclerView.ViewHolder
     }
 
     private boolean isLockedByMe(NoteBlock b) {
+        if (offlineEditable.contains(b.getId())) return true;
         return !TextUtils.isEmpty(myUid)
                 && myUid.equals(b.getLockHolder())
                 && !lockExpired(b);
@@ -487,7 +533,11 @@ public class BlockAdapter extends ListAdapter<NoteBlock, RecyclerView.ViewHolder
                 if (tvViewText != null) tvViewText.setVisibility(iHoldLock ? View.GONE : View.VISIBLE);
 
                 if (iHoldLock) {
-                    watcher = new SimpleWatcher(text -> drafts.put(b.getId(), text));
+                    watcher = new SimpleWatcher(text -> {
+                        String id = rekeyed.containsKey(b.getId()) ? rekeyed.get(b.getId()) : b.getId();
+                        drafts.put(id, text);
+                        if (draftListener != null) draftListener.onDraftChanged(id, text);
+                    });
                     etEdit.addTextChangedListener(watcher);
                 } else {
                     watcher = null;
@@ -600,11 +650,18 @@ public class BlockAdapter extends ListAdapter<NoteBlock, RecyclerView.ViewHolder
 
     /** 清掉指定 block 的草稿（例如存檔成功後） */
     public void clearDraft(String blockId) {
-        if (blockId != null) drafts.remove(blockId);
+        if (blockId != null) {
+            drafts.remove(blockId);
+            offlineEditable.remove(blockId);
+        }
     }
 
     /** 清掉所有草稿（例如整頁儲存後） */
-    public void clearAllDrafts() { drafts.clear(); }
+    public void clearAllDrafts() {
+        drafts.clear();
+        offlineEditable.clear();
+        rekeyed.clear();
+    }
 
     /** 外部可讀的待送出變更資料結構 */
     public static class PendingEdit {
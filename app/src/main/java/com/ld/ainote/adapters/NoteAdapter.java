@@ -1,18 +1,28 @@
 package com.ld.ainote.adapters;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.view.*;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.ld.ainote.R;
+import com.ld.ainote.adapters.NoteRows.Row;
 import com.ld.ainote.models.Note;
+import com.ld.ainote.utils.SearchIndex;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * 支援：
@@ -21,6 +31,7 @@ import java.util.*;
  * - Header 點擊辨識：getHeaderForPosition(position)
  * - 依需求在標題前顯示 chapter-section（例如 1-2）
  * - ✅ 顯示共筆標示；Header 顯示「（總數｜共筆M）」
+ * - 過濾 / 分組 / 排序與 diff 都在背景執行緒算，主執行緒只套用有變動的列（保留捲動位置與動畫）
  */
 public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
@@ -31,13 +42,41 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     // 原始資料（來自 Firestore → submitAll）
     private final List<Note> all = new ArrayList<>();
-    // 產生後用於顯示的列（Header + Notes）
-    private final List<Row> rows = new ArrayList<>();
+
+    // 重建列與 diff 共用同一條背景執行緒：依序處理，最新一次結果才會被套用
+    private static final Executor ROW_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "note-rows");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private int buildGeneration = 0;
+
+    // 目前顯示的列（Header + Notes）由 differ 管理
+    private final AsyncListDiffer<Row> differ = new AsyncListDiffer<>(
+            new AdapterListUpdateCallback(this),
+            new AsyncDifferConfig.Builder<>(ROW_DIFF).setBackgroundThreadExecutor(ROW_EXECUTOR).build());
+
+    // 穩定 ID：每個列 key 第一次出現時配一個遞增 long，不會像 hashCode 撞號
+    // 每次套用新列後只留目前列的 key，刪掉的筆記 / 收起的類別不會一直累積
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private long nextStableId = 1;
+
+    // 列更新套用完成後通知（例如更新空清單提示）
+    private Runnable onRowsCommitted;
+    public void setOnRowsCommitted(Runnable r) { this.onRowsCommitted = r; }
+
+    public NoteAdapter() {
+        setHasStableIds(true);
+    }
 
     // 狀態
     private boolean grouped = false;
     private String keyword = null;
 
+    // 有索引時關鍵字走倒排索引（含 block 內文、中文 bigram），沒有才退回 contains
+    @Nullable private SearchIndex searchIndex;
+
     // 展開中的類別（只在 grouped=true 時生效）
     private final Set<String> expandedCategories = new HashSet<>();
 
@@ -46,35 +85,9 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private OnItemClickListener listener;
     public void setOnItemClickListener(OnItemClickListener l) { this.listener = l; }
 
-    // 內部行定義
-    public static class Row {
-        final boolean header;
-        final String headerTitle;      // 僅 header 用（類別名）
-        final int headerChildCount;    // header 下子項總數
-        final int headerSharedCount;   // ✅ 該類別內共筆數
-        final Note note;               // 僅 note 用
-
-        // Header 列
-        Row(String headerTitle, int childCount, int sharedCount) {
-            this.header = true;
-            this.headerTitle = headerTitle;
-            this.headerChildCount = childCount;
-            this.headerSharedCount = sharedCount;
-            this.note = null;
-        }
-
-        // Note 列
-        Row(Note n) {
-            this.header = false;
-            this.headerTitle = null;
-            this.headerChildCount = 0;
-            this.headerSharedCount = 0;
-            this.note = n;
-        }
-    }
-
     // ============= 對外 API =============
 
+    /** 外部對沒變的筆記請沿用同一個 Note 物件：內容比對只比參考，沒變的列不會重綁 */
     public void submitAll(List<Note> notes) {
         all.clear();
         if (notes != null) all.addAll(notes);
@@ -91,6 +104,16 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         rebuild();
     }
 
+    public void setSearchIndex(@Nullable SearchIndex index) {
+        this.searchIndex = index;
+        if (keyword != null) rebuild();
+    }
+
+    /** 索引內容變了（例如背景補進 block 文字），搜尋中才需要重跑 */
+    public void refreshSearch() {
+        if (keyword != null) rebuild();
+    }
+
     /** 群組模式下：設定哪些類別是展開狀態 */
     public void setExpandedCategories(Set<String> expanded) {
         expandedCategories.clear();
@@ -101,6 +124,7 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     /** 回傳該 position 的 Header 所代表的類別名稱；若非 Header 或越界，回傳 null */
     @Nullable
     public String getHeaderForPosition(int position) {
+        List<Row> rows = differ.getCurrentList();
         if (position < 0 || position >= rows.size()) return null;
         Row r = rows.get(position);
         return r.header ? r.headerTitle : null;
@@ -108,19 +132,24 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     /** 供外部在滑動刪除後即時拿掉一列（注意：不會更動 all） */
     public void removeLocalAt(int position) {
+        List<Row> rows = differ.getCurrentList();
         if (position < 0 || position >= rows.size()) return;
         if (rows.get(position).header) return; // 不移除 header
-        rows.remove(position);
-        notifyItemRemoved(position);
+        List<Row> next = new ArrayList<>(rows);
+        next.remove(position);
+        buildGeneration++; // 取消還在背景算的舊結果
+        commit(next);
     }
 
     public boolean isHeader(int position) {
+        List<Row> rows = differ.getCurrentList();
         if (position < 0 || position >= rows.size()) return false;
         return rows.get(position).header;
     }
 
     @Nullable
     public Note getItem(int position) {
+        List<Row> rows = differ.getCurrentList();
         if (position < 0 || position >= rows.size()) return null;
         Row r = rows.get(position);
         return r.header ? null : r.note;
@@ -131,62 +160,66 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     // ============= 內部重建展示列 =============
 
+    /** 在主執行緒擷取目前狀態，交給背景執行緒重建列；過時的結果直接丟掉 */
     private void rebuild() {
-        rows.clear();
+        final int gen = ++buildGeneration;
+        final List<Note> notes = new ArrayList<>(all);
+        final boolean grouped = this.grouped;
+        final String keyword = this.keyword;
+        final Set<String> expanded = new HashSet<>(expandedCategories);
+        final SearchIndex index = this.searchIndex;
+        ROW_EXECUTOR.execute(() -> {
+            Map<String, Integer> hits = (keyword != null && index != null) ? index.query(keyword) : null;
+            List<Row> next = NoteRows.build(notes, grouped, keyword, hits, expanded);
+            main.post(() -> {
+                if (gen != buildGeneration) return;
+                commit(next);
+            });
+        });
+    }
 
-        // 1) 過濾（關鍵字比對標題/內容；必要時可加 stack 比對）
-        List<Note> filtered = new ArrayList<>();
-        for (Note n : all) {
-            if (keyword == null) {
-                filtered.add(n);
-            } else {
-                String t = safeLower(n.getTitle());
-                String c = safeLower(n.getContent());
-                if (t.contains(keyword) || c.contains(keyword)) filtered.add(n);
-            }
-        }
+    private void commit(List<Row> next) {
+        differ.submitList(next, () -> {
+            pruneStableIds();
+            if (onRowsCommitted != null) onRowsCommitted.run();
+        });
+    }
 
-        if (!grouped) {
-            // 2A) 扁平模式：照順序直接塞 rows
-            for (Note n : filtered) rows.add(new Row(n));
-        } else {
-            // 2B) 群組模式：依 stack 分組；空值視為 "(未分組)"
-            // 保持插入順序：LinkedHashMap
-            LinkedHashMap<String, List<Note>> map = new LinkedHashMap<>();
-            for (Note n : filtered) {
-                String key = normalizeStack(n.getStack());
-                map.computeIfAbsent(key, k -> new ArrayList<>()).add(n);
-            }
+    private void pruneStableIds() {
+        List<Row> rows = differ.getCurrentList();
+        Set<String> keys = new HashSet<>(rows.size() * 2);
+        for (Row r : rows) keys.add(r.key());
+        stableIds.keySet().retainAll(keys);
+    }
 
-            // 按章節排序 & 計算共筆數
-            for (Map.Entry<String, List<Note>> e : map.entrySet()) {
-                List<Note> group = e.getValue();
-                group.sort((a, b) -> {
-                    int c = Integer.compare(a.getChapter(), b.getChapter());
-                    if (c != 0) return c;
-                    return Integer.compare(a.getSection(), b.getSection());
-                });
-
-                int sharedCount = 0;
-                for (Note n : group) if (n.isShared()) sharedCount++;
-
-                String cat = e.getKey();
-                boolean expanded = expandedCategories.contains(cat);
-
-                rows.add(new Row(cat, group.size(), sharedCount));
-                if (expanded) {
-                    for (Note n : group) rows.add(new Row(n));
-                }
+    private static final DiffUtil.ItemCallback<Row> ROW_DIFF = new DiffUtil.ItemCallback<Row>() {
+        @Override public boolean areItemsTheSame(@NonNull Row a, @NonNull Row b) {
+            return a.key().equals(b.key());
+        }
+        @Override public boolean areContentsTheSame(@NonNull Row a, @NonNull Row b) {
+            if (a.header) {
+                return a.headerChildCount == b.headerChildCount
+                        && a.headerSharedCount == b.headerSharedCount
+                        && a.headerExpanded == b.headerExpanded;
             }
+            return a.note == b.note;
         }
-
-        notifyDataSetChanged();
-    }
+    };
 
     // ============= RecyclerView 標準實作 =============
 
     @Override public int getItemViewType(int position) {
-        return rows.get(position).header ? VIEW_HEADER : VIEW_NOTE;
+        return differ.getCurrentList().get(position).header ? VIEW_HEADER : VIEW_NOTE;
+    }
+
+    @Override public long getItemId(int position) {
+        String key = differ.getCurrentList().get(position).key();
+        Long id = stableIds.get(key);
+        if (id == null) {
+            id = nextStableId++;
+            stableIds.put(key, id);
+        }
+        return id;
     }
 
     @NonNull @Override
@@ -203,13 +236,13 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder h, int pos) {
-        Row r = rows.get(pos);
+        Row r = differ.getCurrentList().get(pos);
         if (r.header) {
             HeaderVH vh = (HeaderVH) h;
 
             // 顯示「類別名（總數｜共筆M）▼/▲」，若共筆=0 則顯示「（總數）」
             String cat = r.headerTitle;
-            boolean expanded = expandedCategories.contains(cat);
+            boolean expanded = r.headerExpanded;
             String arrow = expanded ? " ▲" : " ▼";
             String countText = (r.headerSharedCount > 0)
                     ? ("（" + r.headerChildCount + "｜共筆" + r.headerSharedCount + "）")
@@ -245,7 +278,7 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         }
     }
 
-    @Override public int getItemCount() { return rows.size(); }
+    @Override public int getItemCount() { return differ.getCurrentList().size(); }
 
     // ============= ViewHolders =============
 
@@ -266,16 +299,6 @@ public class NoteAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     // ============= 小工具 =============
 
-    private static String safeLower(String s) {
-        return s == null ? "" : s.toLowerCase(Locale.ROOT);
-    }
-
-    private static String normalizeStack(String s) {
-        if (s == null) return "(未分組)";
-        String t = s.trim();
-        return t.isEmpty() ? "(未分組)" : t;
-    }
-
     private static String buildIndexPrefix(int chapter, int section) {
         if (chapter > 0 && section > 0) return chapter + "-" + section;
         if (chapter > 0) return String.valueOf(chapter);
@@ -0,0 +1,132 @@
+package com.ld.ainote.adapters;
+
+import androidx.annotation.Nullable;
+
+import com.ld.ainote.models.Note;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * NoteAdapter 的展示列：過濾 / 依 stack 分組 / 章節排序（純 Java，不依賴 Android）
+ * NoteAdapter 在背景執行緒呼叫 build；:benchmarks 直接量這裡
+ */
+public final class NoteRows {
+
+    private NoteRows() {}
+
+    /** 一列：類別 Header 或一篇筆記 */
+    public static final class Row {
+        final boolean header;
+        final String headerTitle;      // 僅 header 用（類別名）
+        final int headerChildCount;    // header 下子項總數
+        final int headerSharedCount;   // ✅ 該類別內共筆數
+        final boolean headerExpanded;  // header 箭頭狀態（diff 比對用）
+        final Note note;               // 僅 note 用
+
+        // Header 列
+        Row(String headerTitle, int childCount, int sharedCount, boolean expanded) {
+            this.header = true;
+            this.headerTitle = headerTitle;
+            this.headerChildCount = childCount;
+            this.headerSharedCount = sharedCount;
+            this.headerExpanded = expanded;
+            this.note = null;
+        }
+
+        // Note 列
+        Row(Note n) {
+            this.header = false;
+            this.headerTitle = null;
+            this.headerChildCount = 0;
+            this.headerSharedCount = 0;
+            this.headerExpanded = false;
+            this.note = n;
+        }
+
+        /** 列的身分：header 以類別名、note 以 ownerId#noteId */
+        String key() {
+            return header ? "H:" + headerTitle : "N:" + note.getOwnerId() + "#" + note.getId();
+        }
+    }
+
+    /** hits 為索引查詢結果（key = ownerId#noteId → 分數）；null 代表沒有索引可用，改用字串比對 */
+    public static List<Row> build(List<Note> all, boolean grouped, String keyword,
+                                  @Nullable Map<String, Integer> hits, Set<String> expandedCategories) {
+        List<Row> rows = new ArrayList<>();
+
+        // 1) 過濾（有索引：標題/類別/內容/block 全文；沒有：標題/內容 contains）
+        List<Note> filtered = new ArrayList<>();
+        for (Note n : all) {
+            if (keyword == null) {
+                filtered.add(n);
+            } else if (hits != null) {
+                if (hits.containsKey(n.getOwnerId() + "#" + n.getId())) filtered.add(n);
+            } else {
+                String t = safeLower(n.getTitle());
+                String c = safeLower(n.getContent());
+                if (t.contains(keyword) || c.contains(keyword)) filtered.add(n);
+            }
+        }
+
+        if (!grouped) {
+            // 2A) 扁平模式：搜尋中依相關度排（穩定排序，同分維持原順序），否則照順序直接塞 rows
+            if (hits != null) {
+                filtered.sort((a, b) -> Integer.compare(
+                        scoreOf(hits, b), scoreOf(hits, a)));
+            }
+            for (Note n : filtered) rows.add(new Row(n));
+        } else {
+            // 2B) 群組模式：依 stack 分組；空值視為 "(未分組)"
+            // 保持插入順序：LinkedHashMap
+            LinkedHashMap<String, List<Note>> map = new LinkedHashMap<>();
+            for (Note n : filtered) {
+                String key = normalizeStack(n.getStack());
+                map.computeIfAbsent(key, k -> new ArrayList<>()).add(n);
+            }
+
+            // 按章節排序 & 計算共筆數
+            for (Map.Entry<String, List<Note>> e : map.entrySet()) {
+                List<Note> group = e.getValue();
+                group.sort((a, b) -> {
+                    int c = Integer.compare(a.getChapter(), b.getChapter());
+                    if (c != 0) return c;
+                    return Integer.compare(a.getSection(), b.getSection());
+                });
+
+                int sharedCount = 0;
+                for (Note n : group) if (n.isShared()) sharedCount++;
+
+                String cat = e.getKey();
+                boolean expanded = expandedCategories.contains(cat);
+
+                rows.add(new Row(cat, group.size(), sharedCount, expanded));
+                if (expanded) {
+                    for (Note n : group) rows.add(new Row(n));
+                }
+            }
+        }
+        return rows;
+    }
+
+    // ============= 小工具 =============
+
+    private static int scoreOf(Map<String, Integer> hits, Note n) {
+        Integer v = hits.get(n.getOwnerId() + "#" + n.getId());
+        return v == null ? 0 : v;
+    }
+
+    private static String safeLower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeStack(String s) {
+        if (s == null) return "(未分組)";
+        String t = s.trim();
+        return t.isEmpty() ? "(未分組)" : t;
+    }
+}
@@ -0,0 +1,216 @@
+package com.ld.ainote.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * AI 結果的磁碟快取（同一份 prompt 不再重打 OpenAI）
+ * - key = task + model + age + prompt 的 SHA-256；筆記內容一改，prompt 不同就自然失效
+ * - 每筆一個檔案（cacheDir/ai_results/{sha256(key)}），第一行是寫入時間，其餘是結果文字
+ * - 總大小超過 MAX_BYTES 從最久沒用的開始刪；超過 TTL 視為過期
+ * - 系統清快取時整個資料夾被刪也沒關係，只是變回未命中
+ * - 方法都會碰磁碟，請在背景執行緒呼叫（AiService 的工作執行緒）
+ */
+public final class AiResultCache {
+
+    private static final String TAG = "AiResultCache";
+    private static final String DIR_NAME = "ai_results";
+
+    private static final long MAX_BYTES = 8L * 1024 * 1024;
+    private static final long TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static volatile AiResultCache instance;
+
+    public static AiResultCache get(@NonNull Context ctx) {
+        AiResultCache c = instance;
+        if (c == null) {
+            synchronized (AiResultCache.class) {
+                c = instance;
+                if (c == null) {
+                    c = new AiResultCache(new File(ctx.getApplicationContext().getCacheDir(), DIR_NAME),
+                            MAX_BYTES, TTL_MS);
+                    instance = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static final class Entry {
+        final long bytes;
+        final long createdAt;
+        Entry(long bytes, long createdAt) { this.bytes = bytes; this.createdAt = createdAt; }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final long ttlMs;
+    // 檔名 → 大小 / 寫入時間；access-order，最前面是最久沒用的
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(64, 0.75f, true);
+    private boolean loaded = false;
+    private long totalBytes = 0;
+    private long hits = 0, misses = 0, expired = 0;
+
+    AiResultCache(File dir, long maxBytes, long ttlMs) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    /** 快取 key；age 為 null 代表未指定 */
+    @NonNull
+    public static String key(@NonNull String task, @NonNull String model, @Nullable Integer age,
+                             @NonNull String prompt) {
+        return task + "|" + model + "|" + (age == null ? "-" : age) + "|" + sha256(prompt);
+    }
+
+    @Nullable
+    public synchronized String get(@NonNull String key) {
+        ensureLoaded();
+        String name = sha256(key);
+        Entry e = index.get(name);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        File f = new File(dir, name);
+        if (System.currentTimeMillis() - e.createdAt > ttlMs) {
+            expired++;
+            misses++;
+            remove(name);
+            return null;
+        }
+        try {
+            String raw = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+            int nl = raw.indexOf('\n');
+            hits++;
+            // 檔案修改時間當作「最近使用」，重開 App 後重建 LRU 順序用
+            f.setLastModified(System.currentTimeMillis());
+            return nl < 0 ? "" : raw.substring(nl + 1);
+        } catch (IOException ex) {
+            misses++;
+            remove(name);
+            return null;
+        }
+    }
+
+    public synchronized void put(@NonNull String key, @NonNull String text) {
+        ensureLoaded();
+        String name = sha256(key);
+        long now = System.currentTimeMillis();
+        byte[] data = (now + "\n" + text).getBytes(StandardCharsets.UTF_8);
+        if (data.length > maxBytes) return;
+
+        remove(name);
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        // 先寫暫存檔再改名：寫到一半被殺掉也不會留下半份結果
+        File tmp = new File(dir, name + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException ex) {
+            Log.w(TAG, "put failed", ex);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(dir, name))) {
+            tmp.delete();
+            return;
+        }
+        index.put(name, new Entry(data.length, now));
+        totalBytes += data.length;
+        trim();
+    }
+
+    public synchronized void clear() {
+        ensureLoaded();
+        for (String name : index.keySet()) new File(dir, name).delete();
+        index.clear();
+        totalBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long all = hits + misses;
+        return "AiResultCache{entries=" + index.size() + ", bytes=" + totalBytes + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + " (expired " + expired + ")"
+                + ", hitRate=" + String.format(Locale.ROOT, "%.2f", all == 0 ? 0 : (double) hits / all) + "}";
+    }
+
+    /** 第一次使用時掃資料夾重建索引（依最後使用時間排）；順便清掉過期與殘留的暫存檔 */
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long now = System.currentTimeMillis();
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) { f.delete(); continue; }
+            long createdAt = readCreatedAt(f);
+            if (createdAt <= 0 || now - createdAt > ttlMs) { f.delete(); continue; }
+            index.put(f.getName(), new Entry(f.length(), createdAt));
+            totalBytes += f.length();
+        }
+        trim();
+    }
+
+    private static long readCreatedAt(File f) {
+        byte[] head = new byte[20];
+        try (InputStream in = new FileInputStream(f)) {
+            int n = in.read(head);
+            for (int i = 0; i < n; i++) {
+                if (head[i] == '\n') return Long.parseLong(new String(head, 0, i, StandardCharsets.US_ASCII));
+            }
+        } catch (IOException | NumberFormatException ignore) {
+            // 壞檔：當成過期刪掉
+        }
+        return -1;
+    }
+
+    private void remove(String name) {
+        Entry old = index.remove(name);
+        if (old != null) totalBytes -= old.bytes;
+        new File(dir, name).delete();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            totalBytes -= e.getValue().bytes;
+            new File(dir, e.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    private static String sha256(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.ld.ainote.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.ld.ainote.models.NoteBlock;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * listBlocks 回應的串流解析（Gson JsonReader）
+ * - 邊下載邊解析，直接產生 NoteBlock，不先組整份字串 / JSONObject 樹
+ * - 每解析滿 pageSize 塊就交給 sink，第一頁可以在整份回應下載完之前顯示
+ * 格式：{ success, blocks: [{ id, index, type, text, version, updatedBy, updatedAt, lockHolder, lockUntil, ... }] }
+ */
+final class BlockJsonStream {
+
+    interface PageSink {
+        void onPage(List<NoteBlock> page) throws IOException;
+    }
+
+    private BlockJsonStream() {}
+
+    /** 回傳總塊數 */
+    static int read(Reader in, int pageSize, PageSink sink) throws IOException {
+        JsonReader r = new JsonReader(in);
+        int total = 0;
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (!"blocks".equals(name) || r.peek() != JsonToken.BEGIN_ARRAY) {
+                r.skipValue();
+                continue;
+            }
+            List<NoteBlock> page = new ArrayList<>(Math.min(pageSize, 256));
+            r.beginArray();
+            while (r.hasNext()) {
+                if (r.peek() != JsonToken.BEGIN_OBJECT) { r.skipValue(); continue; }
+                page.add(readBlock(r, total));
+                total++;
+                if (page.size() >= pageSize) {
+                    sink.onPage(page);
+                    page = new ArrayList<>(Math.min(pageSize, 256));
+                }
+            }
+            r.endArray();
+            if (!page.isEmpty()) sink.onPage(page);
+        }
+        r.endObject();
+        return total;
+    }
+
+    private static NoteBlock readBlock(JsonReader r, int position) throws IOException {
+        NoteBlock nb = new NoteBlock();
+        nb.setIndex(position);
+        nb.setType("text");
+        nb.setText("");
+        String id = null, blockId = null;
+
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            switch (name) {
+                case "id":                   id = r.nextString(); break;
+                case "blockId":              blockId = r.nextString(); break;
+                case "index":                nb.setIndex((int) readLong(r, position)); break;
+                case "type":                 nb.setType(r.nextString()); break;
+                case "text":                 nb.setText(r.nextString()); break;
+                case "version":              nb.setVersion(readLong(r, 0)); break;
+                case "updatedBy":            nb.setUpdatedBy(r.nextString()); break;
+                case "updatedByDisplayName": nb.setUpdatedByDisplayName(r.nextString()); break;
+                case "updatedByEmail":       nb.setUpdatedByEmail(r.nextString()); break;
+                case "lockHolder":           nb.setLockHolder(r.nextString()); break;
+                case "updatedAt": {
+                    long ms = readTimestampMillis(r);
+                    if (ms > 0) nb.setUpdatedAt(new Date(ms));
+                    break;
+                }
+                case "lockUntil": {
+                    long ms = readTimestampMillis(r);
+                    if (ms > 0) nb.setLockUntil(new Date(ms));
+                    break;
+                }
+                default: r.skipValue();
+            }
+        }
+        r.endObject();
+        nb.setId(id != null ? id : (blockId != null ? blockId : ""));
+        return nb;
+    }
+
+    private static long readLong(JsonReader r, long fallback) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.NUMBER || t == JsonToken.STRING) {
+            String s = r.nextString();
+            try {
+                return (long) Double.parseDouble(s);
+            } catch (NumberFormatException ignore) {
+                return fallback;
+            }
+        }
+        r.skipValue();
+        return fallback;
+    }
+
+    /** Firestore Timestamp JSON（{_seconds,_nanoseconds} / {seconds,nanoseconds}）、epoch 數字或數字字串；其餘回 0 */
+    private static long readTimestampMillis(JsonReader r) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.BEGIN_OBJECT) {
+            long sec = 0, nanos = 0;
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if ("_seconds".equals(name) || "seconds".equals(name)) sec = readLong(r, 0);
+                else if ("_nanoseconds".equals(name) || "nanoseconds".equals(name)) nanos = readLong(r, 0);
+                else r.skipValue();
+            }
+            r.endObject();
+            return sec * 1000L + nanos / 1_000_000L;
+        }
+        if (t == JsonToken.NUMBER || t == JsonToken.STRING) {
+            long epoch = readLong(r, 0);
+            // >= 1e12 視為毫秒，否則秒
+            return epoch >= 1_000_000_000_000L ? epoch : epoch * 1000L;
+        }
+        r.skipValue();
+        return 0L;
+    }
+}
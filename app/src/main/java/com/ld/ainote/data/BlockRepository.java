@@ -1,289 +1,395 @@
 package com.ld.ainote.data;
 
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
-import com.google.firebase.auth.FirebaseAuth;
 import com.ld.ainote.models.NoteBlock;
+import com.ld.ainote.net.EndpointMetrics;
+import com.ld.ainote.net.Endpoints;
+import com.ld.ainote.net.HttpTransport;
+import com.ld.ainote.net.JsonBody;
+import com.ld.ainote.utils.TextDelta;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /** Cloud Run 版 BlockRepository（送 blockId / expectedVersion） */
 public class BlockRepository {
 
-    private static final String TAG = "BlockRepository";
+    // Cloud Run 完整 URL（API_BASE_URL 有設時改打本機 :devserver，見 Endpoints）
+    private static final String FN_CREATE_BLOCK = Endpoints.url("createBlock");
+    private static final String FN_UPDATE_BLOCK = Endpoints.url("updateBlock");
+    private static final String FN_DELETE_BLOCK = Endpoints.url("deleteBlock");
+    private static final String FN_LIST_BLOCKS  = Endpoints.url("listBlocks");
+    private static final String FN_ACQUIRE_LOCK = Endpoints.url("acquireBlockLock");
+    private static final String FN_RENEW_LOCK   = Endpoints.url("renewBlockLock");
+    private static final String FN_RELEASE_LOCK = Endpoints.url("releaseBlockLock");
+    private static final String FN_UPDATE_BATCH = Endpoints.url("updateBlocksBatch");
+    private static final String FN_RENEW_LOCKS  = Endpoints.url("renewBlockLocks");
 
-    // ✅ Cloud Run 完整 URL
-    private static final String FN_CREATE_BLOCK = "https://createblock-qoe2g6zspa-de.a.run.app";
-    private static final String FN_UPDATE_BLOCK = "https://updateblock-qoe2g6zspa-de.a.run.app";
-    private static final String FN_DELETE_BLOCK = "https://deleteblock-qoe2g6zspa-de.a.run.app";
-    private static final String FN_LIST_BLOCKS  = "https://listblocks-qoe2g6zspa-de.a.run.app";
-    private static final String FN_ACQUIRE_LOCK = "https://acquireblocklock-qoe2g6zspa-de.a.run.app";
-    private static final String FN_RENEW_LOCK   = "https://renewblocklock-qoe2g6zspa-de.a.run.app";
-    private static final String FN_RELEASE_LOCK = "https://releaseblocklock-qoe2g6zspa-de.a.run.app";
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
 
-    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
+    // listBlocks：同一篇同時間的讀取合併，讀完 2 秒內重用；這篇有任何寫入就作廢
+    private static final long BLOCK_LIST_TTL_MS = 2_000L;
+    private static final SingleFlight<List<NoteBlock>> BLOCK_LISTS = new SingleFlight<>(BLOCK_LIST_TTL_MS);
 
-    // ---------- 建立 ----------
-    public Task<Void> createBlock(String ownerId, String noteId, int index, String type, String text) {
+    private static <T> Task<T> invalidatingBlocks(String ownerId, String noteId, Task<T> write) {
+        return write.addOnCompleteListener(IoScheduler.INLINE, t -> BLOCK_LISTS.invalidate(ownerId + "/" + noteId));
+    }
+
+    // ---------- 建立（回傳伺服器產生的 blockId） ----------
+    public Task<String> createBlock(String ownerId, String noteId, int index, String type, String text) {
+        return createBlock(ownerId, noteId, index, type, text, null);
+    }
+
+    /** clientId = 本機暫用 id；重送時伺服器認得是同一塊，快照也會帶回來 */
+    public Task<String> createBlock(String ownerId, String noteId, int index, String type, String text,
+                                    String clientId) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("ownerId", ownerId);
-            body.put("noteId", noteId);
-            body.put("index", index);
-            body.put("type", type == null ? "text" : type); // 與後端預設一致
-            body.put("text", text == null ? "" : text);
-            return callFunctionJson(FN_CREATE_BLOCK, body)
-                    .onSuccessTask(IO, resp -> Tasks.forResult(null));
+            JsonBody body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    .put("index", index)
+                    .put("type", type == null ? "text" : type) // 與後端預設一致
+                    .put("text", text == null ? "" : text);
+            if (clientId != null) body.put("clientId", clientId);
+            return invalidatingBlocks(ownerId, noteId, CloudRunCall.postJson(FN_CREATE_BLOCK, body.build(), IoScheduler.Priority.WRITE)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(new JSONObject(resp).optString("id", ""))));
         } catch (Exception e) {
             return Tasks.forException(e);
         }
     }
 
-    // ---------- 更新（使用 expectedVersion 做衝突檢查） ----------
-    public Task<Void> updateBlock(String ownerId, String noteId, String blockId,
-                                  String text, String type, int index, int version) {
+    // ---------- 更新（使用 expectedVersion 做衝突檢查；回傳伺服器的新版號，沒給時 -1） ----------
+    public Task<Integer> updateBlock(String ownerId, String noteId, String blockId,
+                                     String text, String type, int index, int version) {
+        return updateBlock(ownerId, noteId, blockId, text, type, index, version, null);
+    }
+
+    /** baseText = 版本 version 時的伺服器內容；有給就改送差異（比全文小時） */
+    public Task<Integer> updateBlock(String ownerId, String noteId, String blockId,
+                                  String text, String type, int index, int version, String baseText) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("ownerId", ownerId);
-            body.put("noteId", noteId);
-            // 後端主用 blockId；同送 id 做相容
-            body.put("blockId", blockId);
-            body.put("id", blockId);
-
-            if (text != null)  body.put("text", text);
+            JsonBody body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    // 後端主用 blockId；同送 id 做相容
+                    .put("blockId", blockId)
+                    .put("id", blockId);
+
+            putTextOrDelta(body, text, baseText, version);
             if (type != null)  body.put("type", type);
             if (index >= 0)    body.put("index", index);
             // ✅ 重點：改送 expectedVersion（不要送 version）
             if (version >= 0)  body.put("expectedVersion", version);
 
-            return callFunctionJson(FN_UPDATE_BLOCK, body)
-                    .onSuccessTask(IO, resp -> Tasks.forResult(null));
+            return invalidatingBlocks(ownerId, noteId, CloudRunCall.postJson(FN_UPDATE_BLOCK, body.build(), IoScheduler.Priority.WRITE)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(new JSONObject(resp).optInt("version", -1))));
         } catch (Exception e) {
             return Tasks.forException(e);
         }
     }
 
+    // ---------- 批次更新 + 釋放鎖（一次往返） ----------
+
+    /** 單塊待送出的變更（text/type 為 null、index / expectedVersion < 0 表示不送） */
+    public static class BlockEdit {
+        public final String blockId;
+        public final String text;
+        public final String type;
+        public final int index;
+        public final int expectedVersion;
+        public final String baseText; // expectedVersion 對應的伺服器內容；null 表示一律送全文
+        public BlockEdit(String blockId, String text, String type, int index, int expectedVersion) {
+            this(blockId, text, type, index, expectedVersion, null);
+        }
+        public BlockEdit(String blockId, String text, String type, int index, int expectedVersion, String baseText) {
+            this.blockId = blockId;
+            this.text = text;
+            this.type = type;
+            this.index = index;
+            this.expectedVersion = expectedVersion;
+            this.baseText = baseText;
+        }
+    }
+
+    /**
+     * 有基準內容與基準版號時，改送 { baseLength, pos, del, ins } 差異（伺服器在同一個 transaction 內套用，
+     * 基準不符回 409）；差異不比全文小就照舊送 text
+     */
+    private static void putTextOrDelta(JsonBody target, String text, String baseText, int expectedVersion) {
+        if (text == null) return;
+        if (baseText != null && expectedVersion >= 0) {
+            TextDelta d = TextDelta.compute(baseText, text);
+            if (d.payloadChars() < text.length()) {
+                target.beginObject("delta")
+                        .put("baseLength", d.baseLength)
+                        .put("pos", d.pos)
+                        .put("del", d.del)
+                        .put("ins", d.ins)
+                        .endObject();
+                return;
+            }
+        }
+        target.put("text", text);
+    }
+
+    /** 批次結果（每塊一筆） */
+    public static class BlockResult {
+        public static final String OK = "ok";
+        public static final String NOT_FOUND = "not_found";
+        public static final String LOCKED = "locked";
+        public static final String CONFLICT = "conflict";
+
+        public final String blockId;
+        public final String status;
+        public final int version;      // ok：新版號；conflict：伺服器目前版號；其他為 -1
+        public final boolean released; // 這塊的鎖是否已被釋放
+        BlockResult(String blockId, String status, int version, boolean released) {
+            this.blockId = blockId;
+            this.status = status;
+            this.version = version;
+            this.released = released;
+        }
+        public boolean isOk() { return OK.equals(status); }
+    }
+
+    /**
+     * 一次送出多塊草稿並釋放指定的鎖（取代逐塊 updateBlock + releaseLock）
+     * 每塊各自檢查 expectedVersion / 鎖，單塊失敗不影響其他塊；整個請求失敗才會走 onFailure
+     */
+    public Task<List<BlockResult>> updateBlocksBatch(String ownerId, String noteId,
+                                                     List<BlockEdit> edits, List<String> releaseBlockIds) {
+        try {
+            JsonBody body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId);
+
+            body.beginArray("updates");
+            if (edits != null) {
+                for (BlockEdit e : edits) {
+                    if (e == null || e.blockId == null) continue;
+                    body.beginObject().put("blockId", e.blockId);
+                    putTextOrDelta(body, e.text, e.baseText, e.expectedVersion);
+                    if (e.type != null)          body.put("type", e.type);
+                    if (e.index >= 0)            body.put("index", e.index);
+                    if (e.expectedVersion >= 0)  body.put("expectedVersion", e.expectedVersion);
+                    body.endObject();
+                }
+            }
+            body.endArray();
+
+            body.putStrings("releases", releaseBlockIds);
+
+            return invalidatingBlocks(ownerId, noteId, CloudRunCall.postJson(FN_UPDATE_BATCH, body.build(), IoScheduler.Priority.WRITE)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(parseBatchResults(resp))));
+        } catch (Exception e) {
+            return Tasks.forException(e);
+        }
+    }
+
+    private static List<BlockResult> parseBatchResults(String resp) throws Exception {
+        JSONObject js = new JSONObject(resp);
+        List<BlockResult> out = new ArrayList<>();
+        JSONArray arr = js.optJSONArray("results");
+        if (arr != null) {
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject r = arr.getJSONObject(i);
+                String status = r.optString("status", "");
+                EndpointMetrics.get().recordItemStatus(FN_UPDATE_BATCH, status);
+                out.add(new BlockResult(
+                        r.optString("blockId", ""),
+                        status,
+                        r.optInt("version", -1),
+                        r.optBoolean("released", false)));
+            }
+        }
+        return out;
+    }
+
     // ---------- 刪除 ----------
     public Task<Void> deleteBlock(String ownerId, String noteId, String blockId) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("ownerId", ownerId);
-            body.put("noteId", noteId);
-            body.put("blockId", blockId);
-            body.put("id", blockId); // 相容
-            return callFunctionJson(FN_DELETE_BLOCK, body)
-                    .onSuccessTask(IO, resp -> Tasks.forResult(null));
+            String body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    .put("blockId", blockId)
+                    .put("id", blockId) // 相容
+                    .build();
+            return invalidatingBlocks(ownerId, noteId, CloudRunCall.postJson(FN_DELETE_BLOCK, body, IoScheduler.Priority.WRITE)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(null)));
         } catch (Exception e) {
             return Tasks.forException(e);
         }
     }
 
     // ---------- 取得清單 ----------
+    /** 一頁 block 解析完成（主執行緒）；loaded 為目前累計塊數 */
+    public interface BlockPageListener {
+        void onPage(List<NoteBlock> page, int loaded);
+    }
+
+    private static final int LIST_PAGE_SIZE = 100;
+
+    /** 回傳的清單由所有同時呼叫的人共用，為唯讀 */
     public Task<List<NoteBlock>> listBlocks(String ownerId, String noteId) {
-        TaskCompletionSource<List<NoteBlock>> tcs = new TaskCompletionSource<>();
-        IO.execute(() -> {
-            try {
-                JSONObject body = new JSONObject();
-                body.put("ownerId", ownerId);
-                body.put("noteId", noteId);
-
-                String resp = Tasks.await(callFunctionJson(FN_LIST_BLOCKS, body));
-                JSONObject js = new JSONObject(resp);
-                List<NoteBlock> out = new ArrayList<>();
-                JSONArray arr = js.optJSONArray("blocks");
-                if (arr != null) {
-                    for (int i = 0; i < arr.length(); i++) {
-                        JSONObject b = arr.getJSONObject(i);
-                        NoteBlock nb = new NoteBlock();
-                        nb.setId(b.optString("id", b.optString("blockId", "")));
-                        nb.setIndex(b.optInt("index", i));
-                        nb.setType(b.optString("type", "text"));
-                        nb.setText(b.optString("text", ""));
-                        nb.setVersion(b.optInt("version", 0));
-
-                        // 若你的 NoteBlock 有以下欄位/Setter，可一併帶入（沒有就刪掉這幾行）
-                        try {
-                            if (b.has("updatedBy")) nb.setUpdatedBy(b.optString("updatedBy", null));
-                            if (b.has("lockHolder")) nb.setLockHolder(b.optString("lockHolder", null));
-                            long updatedAtMs = parseTimestampMillis(b.opt("updatedAt"));
-                            if (updatedAtMs > 0) nb.setUpdatedAt(new Date(updatedAtMs));
-                            long lockUntilMs = parseTimestampMillis(b.opt("lockUntil"));
-                            if (lockUntilMs > 0) nb.setLockUntil(new Date(lockUntilMs));
-                        } catch (Throwable ignore) {}
-
-                        out.add(nb);
-                    }
-                }
-                tcs.setResult(out);
-            } catch (Exception e) {
-                tcs.setException(e);
-            }
+        return BLOCK_LISTS.run(ownerId + "/" + noteId, () -> {
+            List<NoteBlock> all = new ArrayList<>();
+            return streamBlocks(ownerId, noteId, LIST_PAGE_SIZE, all::addAll)
+                    .onSuccessTask(IoScheduler.INLINE, n -> Tasks.forResult(Collections.unmodifiableList(all)));
         });
-        return tcs.getTask();
     }
 
-    // ---------- 鎖定 ----------
-    public Task<Void> acquireLock(String ownerId, String noteId, String blockId) {
+    /**
+     * 邊下載邊解析，每 pageSize 塊回呼一次（大型筆記可先顯示第一頁）；Task 完成時回傳總塊數
+     * 不經過 single-flight：每個呼叫端要自己的分頁回呼
+     */
+    public Task<Integer> listBlocksPaged(String ownerId, String noteId, int pageSize,
+                                         BlockPageListener listener) {
+        int[] loaded = { 0 };
+        return streamBlocks(ownerId, noteId, Math.max(1, pageSize), page -> {
+            loaded[0] += page.size();
+            int soFar = loaded[0];
+            MAIN.post(() -> listener.onPage(page, soFar));
+        });
+    }
+
+    private Task<Integer> streamBlocks(String ownerId, String noteId, int pageSize,
+                                       BlockJsonStream.PageSink sink) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("ownerId", ownerId);
-            body.put("noteId", noteId);
-            body.put("blockId", blockId);
-            body.put("id", blockId); // 相容
-            return callFunctionJson(FN_ACQUIRE_LOCK, body)
-                    .onSuccessTask(IO, resp -> Tasks.forResult(null));
+            String json = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    .build();
+            int[] total = { 0 };
+            HttpTransport.BodyReader reader = in -> total[0] = BlockJsonStream.read(in, pageSize, sink);
+            return CloudRunCall.run(FN_LIST_BLOCKS, IoScheduler.Priority.READ,
+                            (token, sample) -> HttpTransport.postJsonStreaming(FN_LIST_BLOCKS, token, json, true, reader, sample))
+                    .onSuccessTask(IoScheduler.INLINE, body -> Tasks.forResult(total[0]));
         } catch (Exception e) {
             return Tasks.forException(e);
         }
     }
 
-    public Task<Void> renewLock(String ownerId, String noteId, String blockId) {
+    // ---------- 鎖定 ----------
+    public Task<Void> acquireLock(String ownerId, String noteId, String blockId) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("ownerId", ownerId);
-            body.put("noteId", noteId);
-            body.put("blockId", blockId);
-            body.put("id", blockId); // 相容
-            return callFunctionJson(FN_RENEW_LOCK, body)
-                    .onSuccessTask(IO, resp -> Tasks.forResult(null));
+            String body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    .put("blockId", blockId)
+                    .put("id", blockId) // 相容
+                    .build();
+            return CloudRunCall.postJson(FN_ACQUIRE_LOCK, body, IoScheduler.Priority.LOCK)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(null));
         } catch (Exception e) {
             return Tasks.forException(e);
         }
     }
 
-    public Task<Void> releaseLock(String ownerId, String noteId, String blockId) {
+    public Task<Void> renewLock(String ownerId, String noteId, String blockId) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("ownerId", ownerId);
-            body.put("noteId", noteId);
-            body.put("blockId", blockId);
-            body.put("id", blockId); // 相容
-            return callFunctionJson(FN_RELEASE_LOCK, body)
-                    .onSuccessTask(IO, resp -> Tasks.forResult(null));
+            String body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    .put("blockId", blockId)
+                    .put("id", blockId) // 相容
+                    .build();
+            return CloudRunCall.postJson(FN_RENEW_LOCK, body, IoScheduler.Priority.LOCK)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(null));
         } catch (Exception e) {
             return Tasks.forException(e);
         }
     }
 
-    // ================== utilities ==================
+    /** 要續約的一把鎖（可跨筆記） */
+    public static class LockRef {
+        public final String ownerId;
+        public final String noteId;
+        public final String blockId;
+        public LockRef(String ownerId, String noteId, String blockId) {
+            this.ownerId = ownerId;
+            this.noteId = noteId;
+            this.blockId = blockId;
+        }
+    }
+
+    /** 批次續約結果（每把鎖一筆） */
+    public static class LockRenewal {
+        public static final String OK = "ok";
+        public static final String NOT_FOUND = "not_found";
+        public static final String LOST = "lost";
+
+        public final String ownerId;
+        public final String noteId;
+        public final String blockId;
+        public final String status;
+        LockRenewal(String ownerId, String noteId, String blockId, String status) {
+            this.ownerId = ownerId;
+            this.noteId = noteId;
+            this.blockId = blockId;
+            this.status = status;
+        }
+        public boolean isOk() { return OK.equals(status); }
+    }
 
-    /** 支援 Firestore Timestamp JSON（{_seconds,_nanoseconds}）或 ISO8601 字串；失敗回 0 */
-    private static long parseTimestampMillis(Object v) {
+    /** 一次續約多把鎖（一個 request / 一個 transaction）；單把失敗看 status，整個請求失敗才走 onFailure */
+    public Task<List<LockRenewal>> renewLocksBatch(List<LockRef> locks) {
         try {
-            if (v == null) return 0L;
-            if (v instanceof JSONObject) {
-                JSONObject o = (JSONObject) v;
-                if (o.has("_seconds")) {
-                    long sec = o.optLong("_seconds", 0L);
-                    long nanos = o.optLong("_nanoseconds", 0L);
-                    return sec * 1000L + (nanos / 1_000_000L);
-                }
-                // 也有可能長這樣 {seconds:123, nanoseconds:456000000}
-                if (o.has("seconds")) {
-                    long sec = o.optLong("seconds", 0L);
-                    long nanos = o.optLong("nanoseconds", 0L);
-                    return sec * 1000L + (nanos / 1_000_000L);
-                }
-            } else if (v instanceof String) {
-                // 嘗試解析 ISO 字串（簡易版）
-                String s = (String) v;
-                // java.util.Date 不直接吃 ISO；用 javax.xml.bind 在舊 Android 會缺
-                // 這裡只處理毫秒/秒級 epoch 字串
-                try {
-                    // 若是數字字串
-                    long epoch = Long.parseLong(s.trim());
-                    // 假設 >= 1e12 視為毫秒，否則秒
-                    return (epoch >= 1_000_000_000_000L) ? epoch : epoch * 1000L;
-                } catch (NumberFormatException ignore) {
-                    // 放棄 ISO 解析，回 0
+            JsonBody body = JsonBody.object().beginArray("locks");
+            if (locks != null) {
+                for (LockRef l : locks) {
+                    if (l == null || l.blockId == null) continue;
+                    body.beginObject()
+                            .put("ownerId", l.ownerId)
+                            .put("noteId", l.noteId)
+                            .put("blockId", l.blockId)
+                            .endObject();
                 }
             }
-        } catch (Throwable ignore) {}
-        return 0L;
+            body.endArray();
+            return CloudRunCall.postJson(FN_RENEW_LOCKS, body.build(), IoScheduler.Priority.LOCK)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(parseRenewals(resp)));
+        } catch (Exception e) {
+            return Tasks.forException(e);
+        }
     }
 
-    // ================== HTTP helper ==================
-    private Task<String> callFunctionJson(String fullUrl, JSONObject body) {
-        TaskCompletionSource<String> tcs = new TaskCompletionSource<>();
-        IO.execute(() -> {
-            try {
-                FirebaseAuth auth = FirebaseAuth.getInstance();
-                if (auth.getCurrentUser() == null) {
-                    tcs.setException(new IllegalStateException("尚未登入"));
-                    return;
-                }
-                String idToken = Tasks.await(auth.getCurrentUser().getIdToken(true)).getToken();
-                if (idToken == null || idToken.isEmpty()) {
-                    tcs.setException(new IllegalStateException("取得 ID Token 失敗"));
-                    return;
-                }
-                if (!fullUrl.startsWith("http")) {
-                    tcs.setException(new IllegalArgumentException("無效的 URL：" + fullUrl));
-                    return;
-                }
-
-                String json = body != null ? body.toString() : "{}";
-                String resp = postJson(fullUrl, idToken, json);
-                tcs.setResult(resp);
-            } catch (Exception e) {
-                Log.e(TAG, "callFunctionJson error", e);
-                tcs.setException(e);
+    private static List<LockRenewal> parseRenewals(String resp) throws Exception {
+        JSONObject js = new JSONObject(resp);
+        List<LockRenewal> out = new ArrayList<>();
+        JSONArray arr = js.optJSONArray("results");
+        if (arr != null) {
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject r = arr.getJSONObject(i);
+                out.add(new LockRenewal(
+                        r.optString("ownerId", ""),
+                        r.optString("noteId", ""),
+                        r.optString("blockId", ""),
+                        r.optString("status", "")));
             }
-        });
-        return tcs.getTask();
+        }
+        return out;
     }
 
-    private String postJson(String urlStr, String idToken, String json) throws Exception {
-        HttpURLConnection conn = null;
+    public Task<Void> releaseLock(String ownerId, String noteId, String blockId) {
         try {
-            URL url = new URL(urlStr);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(30000);
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Authorization", "Bearer " + idToken);
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-
-            byte[] data = json.getBytes(StandardCharsets.UTF_8);
-            conn.setFixedLengthStreamingMode(data.length);
-            try (OutputStream os = new BufferedOutputStream(conn.getOutputStream())) {
-                os.write(data);
-                os.flush();
-            }
-
-            int code = conn.getResponseCode();
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    code >= 200 && code < 300 ? conn.getInputStream() : conn.getErrorStream(),
-                    StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line);
-            String resp = sb.toString();
-
-            if (code < 200 || code >= 300) {
-                throw new Exception("HTTP " + code + ": " + resp);
-            }
-            return resp;
-        } finally {
-            if (conn != null) conn.disconnect();
+            String body = JsonBody.object()
+                    .put("ownerId", ownerId)
+                    .put("noteId", noteId)
+                    .put("blockId", blockId)
+                    .put("id", blockId) // 相容
+                    .build();
+            return CloudRunCall.postJson(FN_RELEASE_LOCK, body, IoScheduler.Priority.LOCK)
+                    .onSuccessTask(IoScheduler.INLINE, resp -> Tasks.forResult(null));
+        } catch (Exception e) {
+            return Tasks.forException(e);
         }
     }
 }
@@ -0,0 +1,322 @@
+package com.ld.ainote.data;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.ld.ainote.models.NoteBlock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 離線優先的 block 寫入佇列
+ * - create / update / delete 先寫進 LocalBlockStore，再依序重送到 Cloud Run
+ * - 網路錯誤 / 5xx / 429 保留在佇列，該筆記指數退避後重試（其他筆記照常送出）；連線恢復時立即重送
+ * - 409 / 423 / 強制刷新 token 後仍 401 等永久錯誤丟掉該操作，但保留本機草稿讓使用者看得到、可再存一次
+ * - update 成功後，同一塊後面排隊的 update 改以伺服器回傳的新版號為基準
+ * - 本機新增的 block 先用 local- id 顯示，同步成功後換成伺服器 id
+ */
+public final class BlockSyncQueue {
+
+    private static final String TAG = "BlockSyncQueue";
+    private static final long MAX_BACKOFF_MS = 60_000L;
+
+    /** 佇列處理完一筆操作（成功或放棄）後，在主執行緒通知；畫面可重新讀取本機資料 */
+    public interface Listener {
+        void onSynced(@NonNull String ownerId, @NonNull String noteId);
+
+        /** 本機新增的 block 拿到伺服器 id（在同一筆的 onSynced 之前通知）；畫面上以 localId 記的狀態要搬過去 */
+        default void onRekeyed(@NonNull String ownerId, @NonNull String noteId,
+                               @NonNull String localId, @NonNull String serverId) { }
+    }
+
+    private static volatile BlockSyncQueue instance;
+
+    public static BlockSyncQueue get(@NonNull Context ctx) {
+        BlockSyncQueue q = instance;
+        if (q == null) {
+            synchronized (BlockSyncQueue.class) {
+                q = instance;
+                if (q == null) {
+                    q = new BlockSyncQueue(ctx.getApplicationContext());
+                    instance = q;
+                }
+            }
+        }
+        return q;
+    }
+
+    private final LocalBlockStore store;
+    private final BlockRepository repo = new BlockRepository();
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // 以下欄位只在 store.executor() 上讀寫
+    private boolean draining = false;
+    private long inFlightSeq = -1; // 送出中的那一筆不能再被合併文字，否則新文字會隨舊請求遺失
+    // 暫時失敗、退避中的筆記（noteKey → 可再送的 uptimeMillis）；同筆記的操作維持順序，其他筆記不受影響
+    private final Map<String, Long> backoffUntil = new HashMap<>();
+    private final Runnable retryTick = () -> store.executor().execute(this::drainOnStore);
+
+    private BlockSyncQueue(Context app) {
+        store = LocalBlockStore.get(app);
+        ConnectivityManager cm = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            try {
+                cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                    @Override public void onAvailable(@NonNull Network network) { drain(); }
+                });
+            } catch (Exception e) {
+                Log.w(TAG, "registerDefaultNetworkCallback failed", e);
+            }
+        }
+        drain(); // App 啟動時把上次沒送完的補送
+    }
+
+    public void addListener(@NonNull Listener l) { listeners.add(l); }
+    public void removeListener(@NonNull Listener l) { listeners.remove(l); }
+
+    @NonNull
+    public LocalBlockStore store() { return store; }
+
+    // ================== 排入操作 ==================
+
+    /** 新增 block：立即以 local- id 寫入本機，背景送出 */
+    public void enqueueCreate(String ownerId, String noteId, int index, String type, String text) {
+        store.executor().execute(() -> createOnStore(ownerId, noteId, index, type, text));
+    }
+
+    private void createOnStore(String ownerId, String noteId, int index, String type, String text) {
+        NoteBlock b = new NoteBlock();
+        b.setId(LocalBlockStore.newLocalId());
+        b.setIndex(index);
+        b.setType(type == null ? "text" : type);
+        b.setText(text == null ? "" : text);
+        b.setVersion(1);
+        store.upsertBlock(ownerId, noteId, b);
+
+        LocalBlockStore.PendingOp op = new LocalBlockStore.PendingOp();
+        op.op = LocalBlockStore.OP_CREATE;
+        op.ownerId = ownerId;
+        op.noteId = noteId;
+        op.blockId = b.getId();
+        op.index = index;
+        op.type = b.getType();
+        op.text = b.getText();
+        store.enqueue(op);
+
+        notifySynced(ownerId, noteId);
+        drainOnStore();
+    }
+
+    /** 新筆記沒有任何 block 時補第一塊；檢查與新增在同一個 store 任務內，連續快照不會重複建立 */
+    public void enqueueCreateIfEmpty(String ownerId, String noteId, String type, String text) {
+        store.executor().execute(() -> {
+            if (store.hasPendingCreate(ownerId, noteId) || !store.loadBlocks(ownerId, noteId).isEmpty()) return;
+            createOnStore(ownerId, noteId, 0, type, text);
+        });
+    }
+
+    /**
+     * 更新文字：同一塊已有待送 update 時只更新文字，expectedVersion 保留第一次的基準版號
+     * （送出中的那筆成功後，onOpDone 會把它改成伺服器的新版號）
+     */
+    public void enqueueUpdate(String ownerId, String noteId, String blockId,
+                              String text, String type, int index, int expectedVersion) {
+        store.executor().execute(() -> {
+            if (!store.mergePendingUpdate(ownerId, noteId, blockId, text, type, index, inFlightSeq)) {
+                LocalBlockStore.PendingOp op = new LocalBlockStore.PendingOp();
+                op.op = LocalBlockStore.OP_UPDATE;
+                op.ownerId = ownerId;
+                op.noteId = noteId;
+                op.blockId = blockId;
+                op.index = index;
+                op.type = type;
+                op.text = text;
+                op.expectedVersion = expectedVersion;
+                store.enqueue(op);
+            }
+            drainOnStore();
+        });
+    }
+
+    public void enqueueDelete(String ownerId, String noteId, String blockId) {
+        store.executor().execute(() -> {
+            store.removeDraft(ownerId, noteId, blockId);
+            if (LocalBlockStore.isLocalId(blockId)) {
+                // 還沒送到伺服器：直接整串丟掉
+                store.dropOpsForBlock(ownerId, noteId, blockId);
+                store.removeBlock(ownerId, noteId, blockId);
+            } else {
+                LocalBlockStore.PendingOp op = new LocalBlockStore.PendingOp();
+                op.op = LocalBlockStore.OP_DELETE;
+                op.ownerId = ownerId;
+                op.noteId = noteId;
+                op.blockId = blockId;
+                store.enqueue(op);
+            }
+            notifySynced(ownerId, noteId);
+            drainOnStore();
+        });
+    }
+
+    // ================== 重送 ==================
+
+    /** 立即重送（連線恢復 / App 啟動）：退避中的筆記也不再等 */
+    public void drain() {
+        store.executor().execute(() -> {
+            backoffUntil.clear();
+            drainOnStore();
+        });
+    }
+
+    private void drainOnStore() {
+        if (draining) return;
+        long now = SystemClock.uptimeMillis();
+        long nextRetry = Long.MAX_VALUE;
+        for (Iterator<Long> it = backoffUntil.values().iterator(); it.hasNext(); ) {
+            long until = it.next();
+            if (until <= now) it.remove();
+            else nextRetry = Math.min(nextRetry, until);
+        }
+        LocalBlockStore.PendingOp op = store.peekNextOp(backoffUntil.keySet());
+        if (op == null) {
+            // 剩下的都在退避：等最早的那個到期再來
+            if (nextRetry != Long.MAX_VALUE) scheduleRetry(nextRetry - now);
+            return;
+        }
+        draining = true;
+        inFlightSeq = op.seq;
+        send(op).addOnCompleteListener(store.executor(), t -> {
+            draining = false;
+            inFlightSeq = -1;
+            if (t.isSuccessful()) {
+                onOpDone(op, t.getResult());
+                drainOnStore();
+            } else if (isRetryable(t.getException())) {
+                store.bumpAttempts(op.seq);
+                backoffUntil.put(LocalBlockStore.noteKey(op.ownerId, op.noteId),
+                        SystemClock.uptimeMillis() + backoffMs(op.attempts + 1));
+                drainOnStore();
+            } else {
+                Log.w(TAG, "drop " + op.op + " " + op.blockId, t.getException());
+                store.removeOp(op.seq);
+                notifySynced(op.ownerId, op.noteId);
+                drainOnStore();
+            }
+        });
+    }
+
+    /** 成功結果：create → 伺服器 id；update → 新版號（字串）；delete → 空字串 */
+    private Task<String> send(LocalBlockStore.PendingOp op) {
+        switch (op.op) {
+            case LocalBlockStore.OP_CREATE:
+                return repo.createBlock(op.ownerId, op.noteId, Math.max(0, op.index), op.type, op.text, op.blockId);
+            case LocalBlockStore.OP_DELETE:
+                return repo.deleteBlock(op.ownerId, op.noteId, op.blockId)
+                        .onSuccessTask(IoScheduler.INLINE, v -> Tasks.forResult(""));
+            default:
+                return repo.updateBlock(op.ownerId, op.noteId, op.blockId, op.text, op.type, op.index, op.expectedVersion)
+                        .onSuccessTask(IoScheduler.INLINE, v -> Tasks.forResult(String.valueOf(v)));
+        }
+    }
+
+    private void onOpDone(LocalBlockStore.PendingOp op, String result) {
+        store.removeOp(op.seq);
+        switch (op.op) {
+            case LocalBlockStore.OP_CREATE:
+                if (result != null && !result.isEmpty()) {
+                    store.rekeyBlock(op.ownerId, op.noteId, op.blockId, result);
+                    notifyRekeyed(op.ownerId, op.noteId, op.blockId, result);
+                } else {
+                    store.removeBlock(op.ownerId, op.noteId, op.blockId);
+                }
+                break;
+            case LocalBlockStore.OP_DELETE:
+                store.removeBlock(op.ownerId, op.noteId, op.blockId);
+                break;
+            default:
+                // 送出中又有新編輯時，後面那筆帶的是舊基準版號：改成伺服器剛回的版號
+                int version = parseVersion(result);
+                if (version > 0) store.rebaseUpdates(op.ownerId, op.noteId, op.blockId, version);
+                // 草稿已送出；若送出後又有新編輯，mergePendingUpdate 會排下一筆，草稿仍保留
+                if (!store.hasOpsForBlock(op.ownerId, op.noteId, op.blockId)) {
+                    store.removeDraft(op.ownerId, op.noteId, op.blockId);
+                }
+                break;
+        }
+        notifySynced(op.ownerId, op.noteId);
+    }
+
+    private static int parseVersion(String result) {
+        try {
+            return result == null ? -1 : Integer.parseInt(result);
+        } catch (NumberFormatException ignore) {
+            return -1;
+        }
+    }
+
+    /** 同時只留一個計時器，改排到最新算出的時間 */
+    private void scheduleRetry(long delayMs) {
+        main.removeCallbacks(retryTick);
+        main.postDelayed(retryTick, Math.max(0, delayMs));
+    }
+
+    private void notifySynced(String ownerId, String noteId) {
+        main.post(() -> {
+            for (Listener l : listeners) l.onSynced(ownerId, noteId);
+        });
+    }
+
+    private void notifyRekeyed(String ownerId, String noteId, String localId, String serverId) {
+        main.post(() -> {
+            for (Listener l : listeners) l.onRekeyed(ownerId, noteId, localId, serverId);
+        });
+    }
+
+    /**
+     * 網路斷線、逾時、伺服器暫時錯誤才重試；其餘（409 版本衝突 / 423 被鎖 / 403 / 404）重試也沒用
+     * 401 也不重試：BlockRepository 已經強制刷新 token 重送過一次，還是 401 代表登入已失效
+     */
+    static boolean isRetryable(Exception e) {
+        if (e == null) return false;
+        if (e instanceof IOException || e.getCause() instanceof IOException) return true;
+        int code = httpStatusOf(e);
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    /** BlockRepository 的錯誤訊息格式為 "HTTP <code>: <body>"；解析不到回 -1 */
+    public static int httpStatusOf(Throwable e) {
+        String m = e == null ? null : e.getMessage();
+        if (m == null || !m.startsWith("HTTP ")) return -1;
+        int end = m.indexOf(':');
+        try {
+            return Integer.parseInt(m.substring(5, end < 0 ? m.length() : end).trim());
+        } catch (NumberFormatException ignore) {
+            return -1;
+        }
+    }
+
+    /** 網路層錯誤（離線 / DNS / 逾時），可用來判斷是否改走離線流程 */
+    public static boolean isNetworkError(Throwable e) {
+        return e instanceof IOException || (e != null && e.getCause() instanceof IOException);
+    }
+
+    static long backoffMs(int attempts) {
+        return Math.min(MAX_BACKOFF_MS, TimeUnit.SECONDS.toMillis(1) << Math.min(attempts, 6));
+    }
+}
@@ -0,0 +1,220 @@
+package com.ld.ainote.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.ld.ainote.data.LocalBlockStore.IndexState;
+import com.ld.ainote.models.Note;
+import com.ld.ainote.models.NoteBlock;
+import com.ld.ainote.utils.SearchIndex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 把 block 文字餵進 SearchIndex
+ * - 每次筆記清單變動呼叫 sync()：新出現的筆記先從 LocalBlockStore 載入文字與索引狀態，載完才排背景補抓
+ * - 沒有索引狀態的筆記整份抓一次；有狀態但超過 REVALIDATE_MS（或筆記本身比狀態新）的，
+ *   先用「最新一筆 updatedAt + 筆數」比對，沒變只更新檢查時間，變了才整份重抓
+ * - 索引狀態存在 SQLite，沒有 block 的筆記也有記錄，重開 App 不會再抓
+ * - 每補完一批呼叫 onUpdated，讓正在搜尋的列表重跑一次
+ */
+public final class BlockTextIndexer {
+
+    private static final String TAG = "BlockTextIndexer";
+    private static final int NOTIFY_EVERY = 20;
+    private static final long REVALIDATE_MS = 6 * 60 * 60 * 1000L;
+
+    private final LocalBlockStore store;
+    private final SearchIndex index = SearchIndex.shared();
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Runnable onUpdated;
+
+    // 以下都只在主執行緒存取
+    private final Set<String> loaded = new HashSet<>();       // 已從本機載入過的筆記
+    private final Map<String, IndexState> states = new HashMap<>();
+    private final Set<String> queued = new HashSet<>();       // 已排進 backlog 或正在抓
+    private final ArrayDeque<Note> backlog = new ArrayDeque<>();
+    @Nullable private List<Note> latest;                      // 本機載入中收到的最新清單
+
+    private boolean loading = false;
+    private boolean running = false;
+    private boolean stopped = false;
+    private int sinceNotify = 0;
+
+    public BlockTextIndexer(@NonNull Context ctx, @NonNull Runnable onUpdated) {
+        this.store = LocalBlockStore.get(ctx);
+        this.onUpdated = onUpdated;
+    }
+
+    public static String keyOf(String ownerId, String noteId) {
+        return ownerId + "#" + noteId;
+    }
+
+    /** 對齊目前的筆記清單（主執行緒呼叫） */
+    public void sync(@NonNull List<Note> notes) {
+        if (stopped) return;
+        latest = new ArrayList<>(notes);
+        if (loading) return; // 載完會用最新清單再跑一次
+
+        Set<String> fresh = new HashSet<>();
+        for (Note n : latest) {
+            if (n == null || n.getId() == null) continue;
+            String key = keyOf(n.getOwnerId(), n.getId());
+            if (!loaded.contains(key)) fresh.add(key);
+        }
+        if (fresh.isEmpty()) {
+            schedule(latest);
+            return;
+        }
+
+        loading = true;
+        store.executor().execute(() -> {
+            Map<String, Map<String, String>> texts = store.loadBlockTexts(fresh);
+            Map<String, IndexState> saved = store.loadIndexStates(fresh);
+            for (Map.Entry<String, Map<String, String>> e : texts.entrySet()) {
+                index.putBlocks(e.getKey(), e.getValue());
+            }
+            main.post(() -> {
+                loading = false;
+                if (stopped) return;
+                loaded.addAll(fresh);
+                states.putAll(saved);
+                if (!texts.isEmpty()) onUpdated.run();
+                List<Note> last = latest;
+                if (last != null) sync(last);
+            });
+        });
+    }
+
+    public void stop() {
+        stopped = true;
+        backlog.clear();
+        queued.clear();
+    }
+
+    /** 排入沒有狀態或狀態過期的筆記 */
+    private void schedule(@NonNull List<Note> notes) {
+        long now = System.currentTimeMillis();
+        for (Note n : notes) {
+            if (n == null || n.getId() == null) continue;
+            String key = keyOf(n.getOwnerId(), n.getId());
+            if (queued.contains(key) || !isStale(states.get(key), n, now)) continue;
+            queued.add(key);
+            backlog.add(n);
+        }
+        if (!running) next();
+    }
+
+    private static boolean isStale(@Nullable IndexState s, @NonNull Note n, long now) {
+        if (s == null) return true;
+        if (now - s.checkedAt > REVALIDATE_MS) return true;
+        return n.getUpdatedAt() != null && n.getUpdatedAt().getTime() > s.checkedAt;
+    }
+
+    private void next() {
+        Note n = stopped ? null : backlog.poll();
+        if (n == null) {
+            running = false;
+            if (sinceNotify > 0) {
+                sinceNotify = 0;
+                onUpdated.run();
+            }
+            return;
+        }
+        running = true;
+        String key = keyOf(n.getOwnerId(), n.getId());
+        CollectionReference blocks = FirebaseFirestore.getInstance()
+                .collection("users").document(n.getOwnerId())
+                .collection("notes").document(n.getId())
+                .collection("blocks");
+        IndexState s = states.get(key);
+        if (s == null) fetchAll(n, key, blocks);
+        else revalidate(n, key, blocks, s);
+    }
+
+    /** 比對最新一筆 updatedAt 與筆數；一樣就只更新檢查時間 */
+    private void revalidate(@NonNull Note n, @NonNull String key,
+                            @NonNull CollectionReference blocks, @NonNull IndexState s) {
+        Task<QuerySnapshot> top = blocks.orderBy("updatedAt", Query.Direction.DESCENDING).limit(1).get();
+        Task<AggregateQuerySnapshot> count = blocks.count().get(AggregateSource.SERVER);
+        Tasks.whenAllSuccess(top, count)
+                .addOnSuccessListener(r -> {
+                    if (stopped) return;
+                    QuerySnapshot q = top.getResult();
+                    Timestamp ts = q == null || q.isEmpty() ? null
+                            : q.getDocuments().get(0).getTimestamp("updatedAt");
+                    long newest = ts == null ? 0 : ts.toDate().getTime();
+                    if (newest == s.newestUpdatedAt && count.getResult().getCount() == s.blockCount) {
+                        IndexState touched = new IndexState(s.newestUpdatedAt, s.blockCount, System.currentTimeMillis());
+                        states.put(key, touched);
+                        store.executor().execute(() -> store.putIndexState(n.getOwnerId(), n.getId(), touched));
+                        done(key, false);
+                    } else {
+                        fetchAll(n, key, blocks);
+                    }
+                })
+                .addOnFailureListener(e -> failed(key, e));
+    }
+
+    private void fetchAll(@NonNull Note n, @NonNull String key, @NonNull CollectionReference blocks) {
+        String ownerId = n.getOwnerId(), noteId = n.getId();
+        blocks.get()
+                .addOnSuccessListener(snap -> {
+                    if (stopped) return;
+                    List<NoteBlock> list = new ArrayList<>();
+                    Map<String, String> texts = new HashMap<>();
+                    for (DocumentSnapshot d : snap.getDocuments()) {
+                        NoteBlock b = ModelCodecs.block(d);
+                        list.add(b);
+                        texts.put(d.getId(), b.getText() == null ? "" : b.getText());
+                    }
+                    index.putBlocks(key, texts);
+                    IndexState st = IndexState.of(list, System.currentTimeMillis());
+                    states.put(key, st);
+                    store.executor().execute(() -> {
+                        if (!list.isEmpty()) store.replaceBlocks(ownerId, noteId, list);
+                        store.putIndexState(ownerId, noteId, st);
+                    });
+                    done(key, true);
+                })
+                .addOnFailureListener(e -> failed(key, e));
+    }
+
+    private void done(@NonNull String key, boolean changed) {
+        queued.remove(key);
+        if (changed && ++sinceNotify >= NOTIFY_EVERY) {
+            sinceNotify = 0;
+            onUpdated.run();
+        }
+        next();
+    }
+
+    /** 失敗不記狀態，下次 sync 會再排 */
+    private void failed(@NonNull String key, @NonNull Exception e) {
+        Log.d(TAG, "backfill " + key + " failed: " + e.getMessage());
+        if (stopped) return;
+        queued.remove(key);
+        next();
+    }
+}
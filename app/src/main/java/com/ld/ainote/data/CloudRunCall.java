@@ -0,0 +1,82 @@
+package com.ld.ainote.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.auth.FirebaseAuth;
+import com.ld.ainote.net.EndpointMetrics;
+import com.ld.ainote.net.HttpTransport;
+
+/**
+ * Cloud Run 端點的共用呼叫流程（BlockRepository / NoteRepository 共用）
+ * - 在 IoScheduler 上依 priority 排隊執行；未登入直接失敗
+ * - token 取自 IdTokenProvider 快取，401 時強制刷新重送一次
+ * - 每次呼叫記一筆 EndpointMetrics（含取 token 的時間）
+ * - 非 2xx 轉成 Exception("HTTP <code>: <body>")，BlockSyncQueue.httpStatusOf 依這個格式判斷
+ */
+final class CloudRunCall {
+
+    private static final String TAG = "CloudRunCall";
+    private static final IoScheduler IO = IoScheduler.get();
+
+    /** 帶著 token 實際送出一次（401 重送時會再呼叫一次） */
+    interface Exchange {
+        @NonNull HttpTransport.Response send(@NonNull String token, @NonNull EndpointMetrics.Sample sample)
+                throws Exception;
+    }
+
+    private CloudRunCall() {}
+
+    /** json：已序列化好的請求 body（JsonBody.build()）；成功回傳回應文字 */
+    static Task<String> postJson(String fullUrl, @Nullable String json, IoScheduler.Priority priority) {
+        String body = json != null ? json : "{}";
+        return run(fullUrl, priority, (token, sample) -> HttpTransport.postJson(fullUrl, token, body, true, sample));
+    }
+
+    /** 自訂送法（例如 postJsonStreaming 邊收邊解析）；成功回傳 Response.body */
+    static Task<String> run(String fullUrl, IoScheduler.Priority priority, Exchange exchange) {
+        TaskCompletionSource<String> tcs = new TaskCompletionSource<>();
+        EndpointMetrics.Sample sample = EndpointMetrics.get().begin(fullUrl);
+        IO.submit(priority, () -> {
+            sample.started();
+            int code = 0;
+            try {
+                if (FirebaseAuth.getInstance().getCurrentUser() == null) {
+                    tcs.setException(new IllegalStateException("尚未登入"));
+                    return;
+                }
+                if (!fullUrl.startsWith("http")) {
+                    tcs.setException(new IllegalArgumentException("無效的 URL：" + fullUrl));
+                    return;
+                }
+
+                IdTokenProvider tokens = IdTokenProvider.get();
+                sample.tokenStart();
+                String token = tokens.getToken();
+                sample.tokenEnd();
+                HttpTransport.Response resp = exchange.send(token, sample);
+                if (resp.code == 401) {
+                    sample.tokenStart();
+                    token = tokens.forceRefresh();
+                    sample.tokenEnd();
+                    resp = exchange.send(token, sample);
+                }
+                code = resp.code;
+                if (!resp.isSuccessful()) {
+                    throw new Exception("HTTP " + resp.code + ": " + resp.body);
+                }
+                sample.finish(code, null);
+                tcs.setResult(resp.body);
+            } catch (Exception e) {
+                sample.finish(code, e);
+                Log.e(TAG, "call " + fullUrl + " error", e);
+                tcs.setException(e);
+            }
+        });
+        return tcs.getTask();
+    }
+}
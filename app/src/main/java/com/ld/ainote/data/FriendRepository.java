@@ -56,8 +56,7 @@ public class FriendRepository {
     private List<Friend> mapFriends(QuerySnapshot snap) {
         List<Friend> list = new ArrayList<>();
         for (DocumentSnapshot d : snap.getDocuments()) {
-            Friend f = d.toObject(Friend.class);
-            if (f == null) f = new Friend();
+            Friend f = ModelCodecs.friend(d);
 
             // 回填 uid（若文件沒存 uid，就用文件 id）
             if (f.getUid() == null || f.getUid().isEmpty()) {
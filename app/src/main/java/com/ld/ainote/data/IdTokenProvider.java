@@ -0,0 +1,179 @@
+package com.ld.ainote.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.auth.GetTokenResult;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Firebase ID Token 快取（取代每次呼叫都 getIdToken(true)）
+ * - 記憶體保存 token 與到期時間，未接近到期前直接回傳（hit）
+ * - 到期前 REFRESH_MARGIN_MS 於背景先行刷新，穩定編輯中不需等 token 網路往返
+ * - 呼叫端遇到 401 時用 forceRefresh() 強制重取一次
+ * - 提供 hit / miss / refresh 計數
+ */
+public final class IdTokenProvider {
+
+    private static final String TAG = "IdTokenProvider";
+
+    // 到期前 5 分鐘就視為需要更新（Firebase ID Token 壽命約 1 小時）
+    private static final long REFRESH_MARGIN_MS = 5 * 60 * 1000L;
+    // 超過這段時間沒人用 token，就不再背景續刷（下次呼叫時再取）
+    private static final long IDLE_STOP_MS = 60 * 60 * 1000L;
+    private static final long FETCH_TIMEOUT_SEC = 15;
+
+    private static volatile IdTokenProvider instance;
+
+    public static IdTokenProvider get() {
+        IdTokenProvider p = instance;
+        if (p == null) {
+            synchronized (IdTokenProvider.class) {
+                p = instance;
+                if (p == null) {
+                    p = new IdTokenProvider();
+                    instance = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "id-token-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong forcedRefreshes = new AtomicLong();
+
+    // 以下欄位由 this 鎖保護
+    private String token;
+    private String tokenUid;
+    private long expiresAtMs;
+    private long lastUsedMs;
+    private ScheduledFuture<?> scheduled;
+
+    private IdTokenProvider() {
+        // 登出或換帳號時丟掉舊 token
+        FirebaseAuth.getInstance().addAuthStateListener(auth -> {
+            FirebaseUser u = auth.getCurrentUser();
+            synchronized (this) {
+                if (u == null || (tokenUid != null && !tokenUid.equals(u.getUid()))) {
+                    clearLocked();
+                }
+            }
+        });
+    }
+
+    /** 取得可用的 ID Token；會阻塞，只能在背景執行緒呼叫 */
+    @NonNull
+    public String getToken() throws Exception {
+        FirebaseUser user = requireUser();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            lastUsedMs = now;
+            if (token != null && user.getUid().equals(tokenUid)
+                    && now < expiresAtMs - REFRESH_MARGIN_MS) {
+                hits.incrementAndGet();
+                return token;
+            }
+        }
+        misses.incrementAndGet();
+        return fetch(user, false);
+    }
+
+    /** 伺服器回 401 時使用：略過快取強制向 Google 重取 */
+    @NonNull
+    public String forceRefresh() throws Exception {
+        FirebaseUser user = requireUser();
+        forcedRefreshes.incrementAndGet();
+        return fetch(user, true);
+    }
+
+    public synchronized void invalidate() {
+        clearLocked();
+    }
+
+    public long hitCount() { return hits.get(); }
+    public long missCount() { return misses.get(); }
+    public long backgroundRefreshCount() { return refreshes.get(); }
+    public long forcedRefreshCount() { return forcedRefreshes.get(); }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "IdTokenProvider{hit=" + hits.get() + ", miss=" + misses.get()
+                + ", bgRefresh=" + refreshes.get() + ", forced=" + forcedRefreshes.get() + "}";
+    }
+
+    // ================== internal ==================
+
+    private static FirebaseUser requireUser() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) throw new IllegalStateException("尚未登入");
+        return user;
+    }
+
+    private String fetch(FirebaseUser user, boolean force) throws Exception {
+        GetTokenResult r = Tasks.await(user.getIdToken(force), FETCH_TIMEOUT_SEC, TimeUnit.SECONDS);
+        String t = r.getToken();
+        if (t == null || t.isEmpty()) throw new IllegalStateException("取得 ID Token 失敗");
+
+        long now = System.currentTimeMillis();
+        long exp = r.getExpirationTimestamp() * 1000L; // 秒 → 毫秒
+        if (exp <= now) exp = now + 55 * 60 * 1000L;    // 取不到到期時間時保守估計
+
+        synchronized (this) {
+            token = t;
+            tokenUid = user.getUid();
+            expiresAtMs = exp;
+            scheduleRefreshLocked(now);
+        }
+        return t;
+    }
+
+    private void scheduleRefreshLocked(long now) {
+        if (scheduled != null) scheduled.cancel(false);
+        long delay = Math.max(0L, expiresAtMs - REFRESH_MARGIN_MS - now);
+        scheduled = refresher.schedule(this::backgroundRefresh, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void backgroundRefresh() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        synchronized (this) {
+            scheduled = null;
+            if (user == null || !user.getUid().equals(tokenUid)) { clearLocked(); return; }
+            if (System.currentTimeMillis() - lastUsedMs > IDLE_STOP_MS) return; // 閒置就不續刷
+        }
+        try {
+            fetch(user, true);
+            refreshes.incrementAndGet();
+        } catch (Exception e) {
+            // 失敗不影響：下次 getToken() 會走 miss 路徑重取
+            Log.w(TAG, "background refresh failed", e);
+        }
+    }
+
+    private void clearLocked() {
+        token = null;
+        tokenUid = null;
+        expiresAtMs = 0L;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+    }
+}
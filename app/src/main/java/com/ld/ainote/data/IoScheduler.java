@@ -0,0 +1,152 @@
+package com.ld.ainote.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repository 共用的 I/O 排程器（取代各自的 newSingleThreadExecutor）
+ * - 依優先權分佇列：LOCK > READ > WRITE，有空位時永遠先派高優先權的工作
+ * - 每個優先權各自有同時執行上限，慢的批次儲存不會佔滿所有執行緒
+ * - 提供佇列深度 / 執行中數量等指標
+ */
+public final class IoScheduler {
+
+    public enum Priority {
+        LOCK(2),   // 取得 / 續約 / 釋放鎖：要搶在鎖過期前送出
+        READ(3),   // 讀取清單
+        WRITE(3);  // 新增 / 更新 / 刪除等一般儲存
+
+        final int maxConcurrent;
+        Priority(int maxConcurrent) { this.maxConcurrent = maxConcurrent; }
+    }
+
+    /** 很輕的後續處理（例如解析回應 JSON）直接在完成的執行緒上跑，不再重新排隊 */
+    public static final Executor INLINE = Runnable::run;
+
+    private static volatile IoScheduler instance;
+
+    public static IoScheduler get() {
+        IoScheduler s = instance;
+        if (s == null) {
+            synchronized (IoScheduler.class) {
+                s = instance;
+                if (s == null) {
+                    s = new IoScheduler();
+                    instance = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    private static final Priority[] ORDER = Priority.values();
+
+    private final Object lock = new Object();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Runnable>[] queues = new ArrayDeque[ORDER.length];
+    private final int[] running = new int[ORDER.length];
+    private final int[] maxDepth = new int[ORDER.length];
+    private final long[] submitted = new long[ORDER.length];
+    private final Executor[] executors = new Executor[ORDER.length];
+
+    private final ThreadPoolExecutor workers;
+
+    private IoScheduler() {
+        int total = 0;
+        for (Priority p : ORDER) {
+            queues[p.ordinal()] = new ArrayDeque<>();
+            executors[p.ordinal()] = r -> submit(p, r);
+            total += p.maxConcurrent;
+        }
+        AtomicInteger seq = new AtomicInteger();
+        // 執行緒數 = 各優先權上限總和；實際併發由 dispatch() 控制，佇列永遠不會拒收
+        workers = new ThreadPoolExecutor(total, total, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "repo-io-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /** 取得指定優先權的 Executor（可直接丟給 Task.onSuccessTask / continueWith） */
+    @NonNull
+    public Executor executor(@NonNull Priority p) {
+        return executors[p.ordinal()];
+    }
+
+    public void submit(@NonNull Priority p, @NonNull Runnable r) {
+        synchronized (lock) {
+            ArrayDeque<Runnable> q = queues[p.ordinal()];
+            q.addLast(r);
+            submitted[p.ordinal()]++;
+            if (q.size() > maxDepth[p.ordinal()]) maxDepth[p.ordinal()] = q.size();
+            dispatchLocked();
+        }
+    }
+
+    // 依優先權順序，把還有名額的佇列工作派給 worker
+    private void dispatchLocked() {
+        for (Priority p : ORDER) {
+            int i = p.ordinal();
+            ArrayDeque<Runnable> q = queues[i];
+            while (!q.isEmpty() && running[i] < p.maxConcurrent) {
+                Runnable task = q.pollFirst();
+                running[i]++;
+                workers.execute(() -> runAndRelease(p, task));
+            }
+        }
+    }
+
+    private void runAndRelease(Priority p, Runnable task) {
+        try {
+            task.run();
+        } finally {
+            synchronized (lock) {
+                running[p.ordinal()]--;
+                dispatchLocked();
+            }
+        }
+    }
+
+    // ================== 指標 ==================
+
+    public int queueDepth(@NonNull Priority p) {
+        synchronized (lock) { return queues[p.ordinal()].size(); }
+    }
+
+    public int inFlight(@NonNull Priority p) {
+        synchronized (lock) { return running[p.ordinal()]; }
+    }
+
+    public int maxQueueDepth(@NonNull Priority p) {
+        synchronized (lock) { return maxDepth[p.ordinal()]; }
+    }
+
+    public long submittedCount(@NonNull Priority p) {
+        synchronized (lock) { return submitted[p.ordinal()]; }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IoScheduler{");
+        synchronized (lock) {
+            for (Priority p : ORDER) {
+                int i = p.ordinal();
+                if (i > 0) sb.append(", ");
+                sb.append(p.name()).append(": queued=").append(queues[i].size())
+                        .append(" running=").append(running[i]).append('/').append(p.maxConcurrent)
+                        .append(" maxQueued=").append(maxDepth[i])
+                        .append(" total=").append(submitted[i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,458 @@
+package com.ld.ainote.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ld.ainote.models.NoteBlock;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 裝置端的 block 快取（SQLite）
+ * - blocks：最後一次從伺服器看到的內容 + 尚未同步的本機新增（id 以 local- 開頭）
+ * - drafts：使用者尚未送出的編輯文字，程序被殺掉也不會遺失
+ * - pending_ops：等待 BlockSyncQueue 重送的 create / update / delete
+ * - index_state：每篇筆記上次寫進搜尋索引時看到的 blocks（BlockTextIndexer 判斷要不要重抓）
+ * 所有方法都會碰磁碟，請在 executor() 上呼叫
+ */
+public final class LocalBlockStore extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "ainote_blocks.db";
+    private static final int DB_VERSION = 2;
+
+    public static final String LOCAL_ID_PREFIX = "local-";
+
+    public static final String OP_CREATE = "create";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_DELETE = "delete";
+
+    private static volatile LocalBlockStore instance;
+
+    public static LocalBlockStore get(@NonNull Context ctx) {
+        LocalBlockStore s = instance;
+        if (s == null) {
+            synchronized (LocalBlockStore.class) {
+                s = instance;
+                if (s == null) {
+                    s = new LocalBlockStore(ctx.getApplicationContext());
+                    instance = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    // 單一執行緒：快照寫入 / 草稿 / 佇列操作依送出順序執行，不會互相覆蓋
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "local-block-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private LocalBlockStore(Context ctx) {
+        super(ctx, DB_NAME, null, DB_VERSION);
+    }
+
+    @NonNull
+    public ExecutorService executor() { return executor; }
+
+    public static boolean isLocalId(@Nullable String blockId) {
+        return blockId != null && blockId.startsWith(LOCAL_ID_PREFIX);
+    }
+
+    public static String newLocalId() {
+        return LOCAL_ID_PREFIX + UUID.randomUUID();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE blocks ("
+                + "owner_id TEXT NOT NULL, note_id TEXT NOT NULL, block_id TEXT NOT NULL,"
+                + "idx INTEGER, type TEXT, text TEXT, version INTEGER,"
+                + "updated_by TEXT, updated_by_name TEXT, updated_by_email TEXT, updated_at INTEGER,"
+                + "lock_holder TEXT, lock_until INTEGER,"
+                + "PRIMARY KEY (owner_id, note_id, block_id))");
+        db.execSQL("CREATE TABLE drafts ("
+                + "owner_id TEXT NOT NULL, note_id TEXT NOT NULL, block_id TEXT NOT NULL,"
+                + "text TEXT, updated_at INTEGER,"
+                + "PRIMARY KEY (owner_id, note_id, block_id))");
+        db.execSQL("CREATE TABLE pending_ops ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "op TEXT NOT NULL, owner_id TEXT NOT NULL, note_id TEXT NOT NULL, block_id TEXT,"
+                + "idx INTEGER, type TEXT, text TEXT, expected_version INTEGER,"
+                + "attempts INTEGER DEFAULT 0, created_at INTEGER)");
+        createIndexState(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldV, int newV) {
+        if (oldV < 2) createIndexState(db);
+    }
+
+    private static void createIndexState(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE index_state ("
+                + "owner_id TEXT NOT NULL, note_id TEXT NOT NULL,"
+                + "newest_updated_at INTEGER, block_count INTEGER, checked_at INTEGER,"
+                + "PRIMARY KEY (owner_id, note_id))");
+    }
+
+    // ================== 佇列中的操作 ==================
+
+    /** pending_ops 的一列 */
+    public static class PendingOp {
+        public long seq;
+        public String op;
+        public String ownerId;
+        public String noteId;
+        public String blockId;
+        public int index = -1;
+        public String type;
+        public String text;
+        public int expectedVersion = -1;
+        public int attempts;
+    }
+
+    // ================== blocks ==================
+
+    /** 讀出本機看到的 blocks（含尚未同步的新增，排除已排程刪除的） */
+    @NonNull
+    public List<NoteBlock> loadBlocks(String ownerId, String noteId) {
+        List<NoteBlock> out = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT block_id, idx, type, text, version, updated_by, updated_by_name, updated_by_email,"
+                        + " updated_at, lock_holder, lock_until FROM blocks"
+                        + " WHERE owner_id=? AND note_id=? AND block_id NOT IN"
+                        + " (SELECT block_id FROM pending_ops WHERE op='" + OP_DELETE + "' AND owner_id=? AND note_id=?)"
+                        + " ORDER BY idx",
+                new String[]{ownerId, noteId, ownerId, noteId})) {
+            while (c.moveToNext()) {
+                NoteBlock b = new NoteBlock();
+                b.setId(c.getString(0));
+                b.setIndex(c.getInt(1));
+                b.setType(c.getString(2));
+                b.setText(c.getString(3));
+                b.setVersion(c.getLong(4));
+                b.setUpdatedBy(c.getString(5));
+                b.setUpdatedByDisplayName(c.getString(6));
+                b.setUpdatedByEmail(c.getString(7));
+                if (!c.isNull(8)) b.setUpdatedAt(new Date(c.getLong(8)));
+                b.setLockHolder(c.getString(9));
+                if (!c.isNull(10)) b.setLockUntil(new Date(c.getLong(10)));
+                out.add(b);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 以伺服器快照取代本機內容；尚未同步的本機新增（local-）保留，
+     * 但快照裡已經有的（clientId 對得上，建立的回應還沒處理）就拿掉，不會出現兩次
+     */
+    public void replaceBlocks(String ownerId, String noteId, @NonNull List<NoteBlock> serverBlocks) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete("blocks", "owner_id=? AND note_id=? AND block_id NOT LIKE '" + LOCAL_ID_PREFIX + "%'",
+                    new String[]{ownerId, noteId});
+            for (NoteBlock b : serverBlocks) {
+                if (b == null || b.getId() == null) continue;
+                if (isLocalId(b.getClientId())) {
+                    db.delete("blocks", "owner_id=? AND note_id=? AND block_id=?",
+                            new String[]{ownerId, noteId, b.getClientId()});
+                }
+                db.insertWithOnConflict("blocks", null, toValues(ownerId, noteId, b),
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** 指定筆記（ownerId#noteId）的 block 文字：key → (blockId → text)，給搜尋索引暖機用 */
+    @NonNull
+    public Map<String, Map<String, String>> loadBlockTexts(@NonNull Set<String> noteKeys) {
+        Map<String, Map<String, String>> out = new HashMap<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT owner_id, note_id, block_id, text FROM blocks", null)) {
+            while (c.moveToNext()) {
+                String key = c.getString(0) + "#" + c.getString(1);
+                if (!noteKeys.contains(key)) continue;
+                Map<String, String> m = out.get(key);
+                if (m == null) {
+                    m = new HashMap<>();
+                    out.put(key, m);
+                }
+                m.put(c.getString(2), c.getString(3));
+            }
+        }
+        return out;
+    }
+
+    public void upsertBlock(String ownerId, String noteId, @NonNull NoteBlock b) {
+        getWritableDatabase().insertWithOnConflict("blocks", null, toValues(ownerId, noteId, b),
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public void removeBlock(String ownerId, String noteId, String blockId) {
+        getWritableDatabase().delete("blocks", "owner_id=? AND note_id=? AND block_id=?",
+                new String[]{ownerId, noteId, blockId});
+    }
+
+    private static ContentValues toValues(String ownerId, String noteId, NoteBlock b) {
+        ContentValues v = new ContentValues();
+        v.put("owner_id", ownerId);
+        v.put("note_id", noteId);
+        v.put("block_id", b.getId());
+        v.put("idx", b.getIndex());
+        v.put("type", b.getType());
+        v.put("text", b.getText());
+        v.put("version", b.getVersion());
+        v.put("updated_by", b.getUpdatedBy());
+        v.put("updated_by_name", b.getUpdatedByDisplayName());
+        v.put("updated_by_email", b.getUpdatedByEmail());
+        v.put("updated_at", b.getUpdatedAt() == null ? null : b.getUpdatedAt().getTime());
+        v.put("lock_holder", b.getLockHolder());
+        v.put("lock_until", b.getLockUntil() == null ? null : b.getLockUntil().getTime());
+        return v;
+    }
+
+    // ================== index_state ==================
+
+    /** 上次寫進搜尋索引時看到的 blocks；時間皆為毫秒 */
+    public static final class IndexState {
+        public final long newestUpdatedAt;
+        public final int blockCount;
+        public final long checkedAt;
+
+        public IndexState(long newestUpdatedAt, int blockCount, long checkedAt) {
+            this.newestUpdatedAt = newestUpdatedAt;
+            this.blockCount = blockCount;
+            this.checkedAt = checkedAt;
+        }
+
+        /** 由伺服器讀到的整份 blocks 算出；沒有 block 時 newestUpdatedAt = 0 */
+        public static IndexState of(@NonNull List<NoteBlock> serverBlocks, long checkedAt) {
+            long newest = 0;
+            for (NoteBlock b : serverBlocks) {
+                if (b.getUpdatedAt() != null) newest = Math.max(newest, b.getUpdatedAt().getTime());
+            }
+            return new IndexState(newest, serverBlocks.size(), checkedAt);
+        }
+    }
+
+    /** 指定筆記（ownerId#noteId）的狀態；沒記錄過的不在結果裡 */
+    @NonNull
+    public Map<String, IndexState> loadIndexStates(@NonNull Set<String> noteKeys) {
+        Map<String, IndexState> out = new HashMap<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT owner_id, note_id, newest_updated_at, block_count, checked_at FROM index_state", null)) {
+            while (c.moveToNext()) {
+                String key = c.getString(0) + "#" + c.getString(1);
+                if (noteKeys.contains(key)) out.put(key, new IndexState(c.getLong(2), c.getInt(3), c.getLong(4)));
+            }
+        }
+        return out;
+    }
+
+    public void putIndexState(String ownerId, String noteId, @NonNull IndexState s) {
+        ContentValues v = new ContentValues();
+        v.put("owner_id", ownerId);
+        v.put("note_id", noteId);
+        v.put("newest_updated_at", s.newestUpdatedAt);
+        v.put("block_count", s.blockCount);
+        v.put("checked_at", s.checkedAt);
+        getWritableDatabase().insertWithOnConflict("index_state", null, v, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // ================== drafts ==================
+
+    @NonNull
+    public Map<String, String> loadDrafts(String ownerId, String noteId) {
+        Map<String, String> out = new HashMap<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT block_id, text FROM drafts WHERE owner_id=? AND note_id=?",
+                new String[]{ownerId, noteId})) {
+            while (c.moveToNext()) out.put(c.getString(0), c.getString(1));
+        }
+        return out;
+    }
+
+    public void putDrafts(String ownerId, String noteId, @NonNull Map<String, String> drafts) {
+        if (drafts.isEmpty()) return;
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, String> e : drafts.entrySet()) {
+                ContentValues v = new ContentValues();
+                v.put("owner_id", ownerId);
+                v.put("note_id", noteId);
+                v.put("block_id", e.getKey());
+                v.put("text", e.getValue());
+                v.put("updated_at", now);
+                db.insertWithOnConflict("drafts", null, v, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void removeDraft(String ownerId, String noteId, String blockId) {
+        getWritableDatabase().delete("drafts", "owner_id=? AND note_id=? AND block_id=?",
+                new String[]{ownerId, noteId, blockId});
+    }
+
+    // ================== pending_ops ==================
+
+    public long enqueue(@NonNull PendingOp op) {
+        ContentValues v = new ContentValues();
+        v.put("op", op.op);
+        v.put("owner_id", op.ownerId);
+        v.put("note_id", op.noteId);
+        v.put("block_id", op.blockId);
+        v.put("idx", op.index);
+        v.put("type", op.type);
+        v.put("text", op.text);
+        v.put("expected_version", op.expectedVersion);
+        v.put("attempts", 0);
+        v.put("created_at", System.currentTimeMillis());
+        op.seq = getWritableDatabase().insert("pending_ops", null, v);
+        return op.seq;
+    }
+
+    /** 依送出順序找第一筆不屬於 skipNotes（key 見 noteKey）的操作；都沒有回 null */
+    @Nullable
+    public PendingOp peekNextOp(@NonNull Set<String> skipNotes) {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT seq, op, owner_id, note_id, block_id, idx, type, text, expected_version, attempts"
+                        + " FROM pending_ops ORDER BY seq", null)) {
+            while (c.moveToNext()) {
+                if (skipNotes.contains(noteKey(c.getString(2), c.getString(3)))) continue;
+                PendingOp op = new PendingOp();
+                op.seq = c.getLong(0);
+                op.op = c.getString(1);
+                op.ownerId = c.getString(2);
+                op.noteId = c.getString(3);
+                op.blockId = c.getString(4);
+                op.index = c.isNull(5) ? -1 : c.getInt(5);
+                op.type = c.getString(6);
+                op.text = c.getString(7);
+                op.expectedVersion = c.isNull(8) ? -1 : c.getInt(8);
+                op.attempts = c.getInt(9);
+                return op;
+            }
+        }
+        return null;
+    }
+
+    public static String noteKey(String ownerId, String noteId) {
+        return ownerId + "/" + noteId;
+    }
+
+    public void removeOp(long seq) {
+        getWritableDatabase().delete("pending_ops", "seq=?", new String[]{String.valueOf(seq)});
+    }
+
+    public void bumpAttempts(long seq) {
+        getWritableDatabase().execSQL("UPDATE pending_ops SET attempts = attempts + 1 WHERE seq=?",
+                new Object[]{seq});
+    }
+
+    /** 同一塊已有排隊中（尚未送出）的 update：直接改成最新文字，回傳是否有合併到 */
+    public boolean mergePendingUpdate(String ownerId, String noteId, String blockId,
+                                      String text, String type, int index, long excludeSeq) {
+        ContentValues v = new ContentValues();
+        v.put("text", text);
+        if (type != null) v.put("type", type);
+        if (index >= 0) v.put("idx", index);
+        return getWritableDatabase().update("pending_ops", v,
+                "op='" + OP_UPDATE + "' AND owner_id=? AND note_id=? AND block_id=? AND seq<>?",
+                new String[]{ownerId, noteId, blockId, String.valueOf(excludeSeq)}) > 0;
+    }
+
+    /**
+     * update 成功後伺服器版號變成 newVersion：同一塊後面排隊的 update 改以它為基準，
+     * 本機快取的版號也跟著更新（否則送出中又編輯的那筆會帶舊版號而 409）
+     */
+    public void rebaseUpdates(String ownerId, String noteId, String blockId, int newVersion) {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] args = new String[]{ownerId, noteId, blockId};
+        db.beginTransaction();
+        try {
+            ContentValues v = new ContentValues();
+            v.put("expected_version", newVersion);
+            db.update("pending_ops", v, "op='" + OP_UPDATE + "' AND owner_id=? AND note_id=? AND block_id=?", args);
+            ContentValues b = new ContentValues();
+            b.put("version", newVersion);
+            db.update("blocks", b, "owner_id=? AND note_id=? AND block_id=?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** 本機新增的 block 在同步前就被刪掉：整串排隊操作一起丟掉 */
+    public void dropOpsForBlock(String ownerId, String noteId, String blockId) {
+        getWritableDatabase().delete("pending_ops", "owner_id=? AND note_id=? AND block_id=?",
+                new String[]{ownerId, noteId, blockId});
+    }
+
+    /** 本機新增同步成功後，把後續操作 / 草稿改指向伺服器給的 id */
+    public void rekeyBlock(String ownerId, String noteId, String localId, String serverId) {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] args = new String[]{ownerId, noteId, localId};
+        db.beginTransaction();
+        try {
+            ContentValues v = new ContentValues();
+            v.put("block_id", serverId);
+            db.update("pending_ops", v, "owner_id=? AND note_id=? AND block_id=?", args);
+            db.updateWithOnConflict("drafts", v, "owner_id=? AND note_id=? AND block_id=?", args,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            // 快照還沒帶回伺服器那列前先沿用本機這列，畫面重讀時 block 不會消失；已經有了就以伺服器為準
+            db.updateWithOnConflict("blocks", v, "owner_id=? AND note_id=? AND block_id=?", args,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            db.delete("blocks", "owner_id=? AND note_id=? AND block_id=?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public boolean hasOpsForBlock(String ownerId, String noteId, String blockId) {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT 1 FROM pending_ops WHERE owner_id=? AND note_id=? AND block_id=? LIMIT 1",
+                new String[]{ownerId, noteId, blockId})) {
+            return c.moveToFirst();
+        }
+    }
+
+    public boolean hasPendingCreate(String ownerId, String noteId) {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT 1 FROM pending_ops WHERE op='" + OP_CREATE + "' AND owner_id=? AND note_id=? LIMIT 1",
+                new String[]{ownerId, noteId})) {
+            return c.moveToFirst();
+        }
+    }
+
+    public int pendingCount() {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM pending_ops", null)) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.ld.ainote.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 這台裝置持有的所有 block 鎖（可跨多篇筆記）
+ * - 每 RENEW_INTERVAL_MS 用一次 renewBlockLocks 全部續約（後端 TTL 30 秒）
+ * - 超過 IDLE_TIMEOUT_MS 沒有輸入的 block 不再續約，直接釋放，讓別人可以編輯
+ * - 續約結果不是 ok（被別人拿走 / block 已刪）就移除並通知
+ * - 只在主執行緒使用
+ */
+public final class LockLeaseManager {
+
+    private static final String TAG = "LockLeaseManager";
+    static final long RENEW_INTERVAL_MS = 20_000L;
+    static final long IDLE_TIMEOUT_MS = 120_000L;
+
+    /** 鎖沒了（idle=true 表示是因為太久沒輸入而主動釋放） */
+    public interface Listener {
+        void onLeaseLost(@NonNull String ownerId, @NonNull String noteId, @NonNull String blockId, boolean idle);
+    }
+
+    private static final class Lease {
+        final String ownerId, noteId, blockId;
+        long lastActivity;
+        Lease(String ownerId, String noteId, String blockId) {
+            this.ownerId = ownerId;
+            this.noteId = noteId;
+            this.blockId = blockId;
+            this.lastActivity = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static LockLeaseManager instance;
+
+    public static LockLeaseManager get() {
+        if (instance == null) instance = new LockLeaseManager();
+        return instance;
+    }
+
+    private final BlockRepository repo = new BlockRepository();
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Map<String, Lease> leases = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private boolean scheduled = false;
+    private boolean renewing = false;
+
+    private final Runnable tick = this::renewAll;
+
+    private LockLeaseManager() {}
+
+    public void addListener(@NonNull Listener l) { listeners.add(l); }
+    public void removeListener(@NonNull Listener l) { listeners.remove(l); }
+
+    private static String keyOf(String ownerId, String noteId, String blockId) {
+        return ownerId + "#" + noteId + "#" + blockId;
+    }
+
+    /** acquireLock 成功後登記 */
+    public void hold(@NonNull String ownerId, @NonNull String noteId, @NonNull String blockId) {
+        String k = keyOf(ownerId, noteId, blockId);
+        Lease l = leases.get(k);
+        if (l == null) leases.put(k, new Lease(ownerId, noteId, blockId));
+        else l.lastActivity = SystemClock.elapsedRealtime();
+        schedule();
+    }
+
+    /** 使用者還在這塊輸入 */
+    public void touch(@NonNull String ownerId, @NonNull String noteId, @NonNull String blockId) {
+        Lease l = leases.get(keyOf(ownerId, noteId, blockId));
+        if (l != null) l.lastActivity = SystemClock.elapsedRealtime();
+    }
+
+    public boolean isHeld(@NonNull String ownerId, @NonNull String noteId, @NonNull String blockId) {
+        return leases.containsKey(keyOf(ownerId, noteId, blockId));
+    }
+
+    /** 鎖已釋放（或即將釋放）：停止續約 */
+    public void release(@NonNull String ownerId, @NonNull String noteId, @NonNull String blockId) {
+        leases.remove(keyOf(ownerId, noteId, blockId));
+    }
+
+    /** 離開編輯頁：這篇的鎖都不再續約 */
+    public void releaseNote(@NonNull String ownerId, @NonNull String noteId) {
+        Iterator<Lease> it = leases.values().iterator();
+        while (it.hasNext()) {
+            Lease l = it.next();
+            if (l.ownerId.equals(ownerId) && l.noteId.equals(noteId)) it.remove();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled || leases.isEmpty()) return;
+        scheduled = true;
+        main.postDelayed(tick, RENEW_INTERVAL_MS);
+    }
+
+    private void renewAll() {
+        scheduled = false;
+        if (renewing) { schedule(); return; }
+
+        // 太久沒輸入的先釋放，其餘一次續約
+        long now = SystemClock.elapsedRealtime();
+        List<BlockRepository.LockRef> refs = new ArrayList<>();
+        Iterator<Lease> it = leases.values().iterator();
+        while (it.hasNext()) {
+            Lease l = it.next();
+            if (now - l.lastActivity > IDLE_TIMEOUT_MS) {
+                it.remove();
+                repo.releaseLock(l.ownerId, l.noteId, l.blockId);
+                notifyLost(l, true);
+            } else {
+                refs.add(new BlockRepository.LockRef(l.ownerId, l.noteId, l.blockId));
+            }
+        }
+        if (refs.isEmpty()) return;
+
+        renewing = true;
+        repo.renewLocksBatch(refs)
+                .addOnSuccessListener(results -> {
+                    for (BlockRepository.LockRenewal r : results) {
+                        if (r.isOk()) continue;
+                        Lease l = leases.remove(keyOf(r.ownerId, r.noteId, r.blockId));
+                        if (l != null) notifyLost(l, false);
+                    }
+                })
+                // 網路錯誤：保留 lease，下個週期再試（後端鎖可能在那之前過期，但沒被別人拿走就續得回來）
+                .addOnFailureListener(e -> Log.d(TAG, "renew failed: " + e.getMessage()))
+                .addOnCompleteListener(t -> {
+                    renewing = false;
+                    schedule();
+                });
+    }
+
+    private void notifyLost(Lease l, boolean idle) {
+        for (Listener x : listeners) x.onLeaseLost(l.ownerId, l.noteId, l.blockId, idle);
+    }
+}
@@ -0,0 +1,116 @@
+package com.ld.ainote.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.ld.ainote.models.Friend;
+import com.ld.ainote.models.Note;
+import com.ld.ainote.models.NoteBlock;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Firestore 文件 → 模型的手寫對應（取代 toObject 的反射對應）
+ * - 每個欄位直接 d.get(name) 再依型別轉換；型別不對就當作沒有，不會像 getString 一樣丟例外
+ * - 欄位清單與模型一致；模型加欄位時記得這裡也要加
+ */
+public final class ModelCodecs {
+
+    private ModelCodecs() {}
+
+    /** ownerIdFallback：文件沒存 ownerId 時使用（通常是路徑上的 users/{ownerId}） */
+    @NonNull
+    public static Note note(@NonNull DocumentSnapshot d, @Nullable String ownerIdFallback) {
+        Note n = new Note();
+        n.setId(d.getId());
+        String owner = str(d.get("ownerId"));
+        n.setOwnerId(owner != null ? owner : ownerIdFallback);
+        n.setTitle(str(d.get("title")));
+        n.setContent(str(d.get("content")));
+        n.setStack(str(d.get("stack")));
+        n.setCollaborators(strings(d.get("collaborators")));
+        n.setTags(strings(d.get("tags")));
+        n.setChapter(intOrNull(d.get("chapter")));
+        n.setSection(intOrNull(d.get("section")));
+        n.setTimestamp(date(d.get("timestamp")));
+        n.setCreatedAt(date(d.get("createdAt")));
+        n.setUpdatedAt(date(d.get("updatedAt")));
+        return n;
+    }
+
+    @NonNull
+    public static NoteBlock block(@NonNull DocumentSnapshot d) {
+        NoteBlock b = new NoteBlock();
+        b.setId(d.getId());
+        b.setIndex((int) num(d.get("index"), 0));
+        b.setType(str(d.get("type")));
+        b.setText(str(d.get("text")));
+        b.setVersion(num(d.get("version"), 0));
+        b.setUpdatedBy(str(d.get("updatedBy")));
+        b.setUpdatedByDisplayName(str(d.get("updatedByDisplayName")));
+        b.setUpdatedByEmail(str(d.get("updatedByEmail")));
+        b.setUpdatedAt(date(d.get("updatedAt")));
+        b.setLockHolder(str(d.get("lockHolder")));
+        b.setLockUntil(date(d.get("lockUntil")));
+        b.setClientId(str(d.get("clientId")));
+        return b;
+    }
+
+    @NonNull
+    public static Friend friend(@NonNull DocumentSnapshot d) {
+        Friend f = new Friend();
+        f.setUid(str(d.get("uid")));
+        f.setDisplayName(str(d.get("displayName")));
+        f.setEmail(str(d.get("email")));
+        Object lastOnline = d.get("lastOnline");
+        if (lastOnline instanceof Number) f.setLastOnline(((Number) lastOnline).longValue());
+        else {
+            Date dt = date(lastOnline);
+            if (dt != null) f.setLastOnline(dt.getTime());
+        }
+        f.setNoteCount((int) num(d.get("noteCount"), 0));
+        return f;
+    }
+
+    // ================== 型別轉換 ==================
+
+    @Nullable
+    private static String str(@Nullable Object v) {
+        return v instanceof String ? (String) v : null;
+    }
+
+    private static long num(@Nullable Object v, long fallback) {
+        return v instanceof Number ? ((Number) v).longValue() : fallback;
+    }
+
+    /** 舊資料的章節可能存成字串 "3"，一併接受 */
+    @Nullable
+    private static Integer intOrNull(@Nullable Object v) {
+        if (v instanceof Number) return ((Number) v).intValue();
+        if (v instanceof String) {
+            try { return Integer.parseInt(((String) v).trim()); }
+            catch (NumberFormatException ignore) { return null; }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Date date(@Nullable Object v) {
+        if (v instanceof Timestamp) return ((Timestamp) v).toDate();
+        if (v instanceof Date) return (Date) v;
+        return null;
+    }
+
+    @Nullable
+    private static List<String> strings(@Nullable Object v) {
+        if (!(v instanceof List)) return null;
+        List<?> src = (List<?>) v;
+        List<String> out = new ArrayList<>(src.size());
+        for (Object o : src) if (o != null) out.add(o.toString());
+        return out;
+    }
+}
@@ -0,0 +1,98 @@
+package com.ld.ainote.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ld.ainote.models.Note;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 「我的筆記」與「共筆」兩條監聽的增量合併（純 Java，不依賴 Firestore；:benchmarks 直接量這裡）
+ * - key = ownerId#noteId；兩邊都有時共筆來源優先
+ * - sorted() 依 NOTE_ORDER 保持排序，每筆變動只做一次二分搜尋插入 / 移除
+ */
+public final class NoteMerger {
+
+    // 類別 → 章 → 節 → 標題；最後以 ownerId#id 做決勝，讓二分搜尋能定位到唯一位置
+    public static final Comparator<Note> NOTE_ORDER = (a, b) -> {
+        int c = nullSafe(a.getStack()).compareToIgnoreCase(nullSafe(b.getStack()));
+        if (c != 0) return c;
+        c = Integer.compare(a.getChapter(), b.getChapter());
+        if (c != 0) return c;
+        c = Integer.compare(a.getSection(), b.getSection());
+        if (c != 0) return c;
+        c = nullSafe(a.getTitle()).compareToIgnoreCase(nullSafe(b.getTitle()));
+        if (c != 0) return c;
+        return (nullSafe(a.getOwnerId()) + "#" + nullSafe(a.getId()))
+                .compareTo(nullSafe(b.getOwnerId()) + "#" + nullSafe(b.getId()));
+    };
+
+    // 來源分離的快取：我的 / 共筆
+    private final Map<String, Note> mine = new HashMap<>();
+    private final Map<String, Note> shared = new HashMap<>();
+    // 合併結果
+    private final Map<String, Note> merged = new HashMap<>();
+    private final List<Note> sorted = new ArrayList<>();
+
+    /**
+     * 套用一筆文件變動；note 為 null 代表 REMOVED
+     * @return 合併結果有沒有換成別的 Note 物件（沒變就不必重建畫面 / 索引）
+     */
+    public boolean apply(@NonNull String key, @Nullable Note note, boolean fromMine) {
+        Map<String, Note> target = fromMine ? mine : shared;
+        if (note == null) target.remove(key);
+        else target.put(key, note);
+
+        Note before = merged.get(key);
+        Note after = shared.containsKey(key) ? shared.get(key) : mine.get(key);
+        if (before == after) return false;
+
+        if (before != null) removeSorted(before);
+        if (after != null) {
+            merged.put(key, after);
+            insertSorted(after);
+        } else {
+            merged.remove(key);
+        }
+        return true;
+    }
+
+    @Nullable
+    public Note get(@NonNull String key) { return merged.get(key); }
+
+    /** 依 NOTE_ORDER 排好的合併結果；呼叫端只讀，不要改 */
+    @NonNull
+    public List<Note> sorted() { return sorted; }
+
+    public void clear() {
+        mine.clear();
+        shared.clear();
+        merged.clear();
+        sorted.clear();
+    }
+
+    private void insertSorted(Note n) {
+        int i = Collections.binarySearch(sorted, n, NOTE_ORDER);
+        sorted.add(i < 0 ? -i - 1 : i, n);
+    }
+
+    private void removeSorted(Note n) {
+        int i = Collections.binarySearch(sorted, n, NOTE_ORDER);
+        if (i >= 0 && sorted.get(i) == n) {
+            sorted.remove(i);
+            return;
+        }
+        // 理論上不會發生；保險起見以參考比對找一次
+        for (int k = 0; k < sorted.size(); k++) {
+            if (sorted.get(k) == n) { sorted.remove(k); return; }
+        }
+    }
+
+    private static String nullSafe(String s) { return s == null ? "" : s; }
+}
@@ -7,29 +7,26 @@ import com.google.android.gms.tasks.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.*;
 import com.ld.ainote.models.Note;
+import com.ld.ainote.net.Endpoints;
+import com.ld.ainote.net.JsonBody;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class NoteRepository {
     private static final String TAG = "NoteRepository";
 
-    // ✅ Cloud Run 完整 URL（不使用 FUNCTION_BASE_URL）
-    private static final String FN_CREATE            = "https://createnote-qoe2g6zspa-de.a.run.app";
-    private static final String FN_UPDATE            = "https://updatenote-qoe2g6zspa-de.a.run.app";
-    private static final String FN_DELETE            = "https://deletenote-qoe2g6zspa-de.a.run.app";
-    private static final String FN_DELETE_BY_STACK   = "https://deletenotesbycategory-qoe2g6zspa-de.a.run.app";
-    private static final String FN_SET_COLLABORATORS = "https://setcollaborators-qoe2g6zspa-de.a.run.app";
+    // Cloud Run 完整 URL（API_BASE_URL 有設時改打本機 :devserver，見 Endpoints）
+    private static final String FN_CREATE            = Endpoints.url("createNote");
+    private static final String FN_UPDATE            = Endpoints.url("updateNote");
+    private static final String FN_DELETE            = Endpoints.url("deleteNote");
+    private static final String FN_DELETE_BY_STACK   = Endpoints.url("deleteNotesByCategory");
+    private static final String FN_SET_COLLABORATORS = Endpoints.url("setCollaborators");
 
-    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
+    // 單篇 note 文件讀取：同時間的相同讀取合併成一次，讀完 5 秒內重用（getNoteById / getCollaborators 共用）
+    private static final long NOTE_DOC_TTL_MS = 5_000L;
+    private static final SingleFlight<DocumentSnapshot> NOTE_DOCS = new SingleFlight<>(NOTE_DOC_TTL_MS);
 
     private final FirebaseFirestore db;
     private final String myUid;
@@ -66,11 +63,7 @@ public class NoteRepository {
                     List<Note> list = new ArrayList<>();
                     if (snap != null) {
                         for (DocumentSnapshot doc : snap.getDocuments()) {
-                            Note n = doc.toObject(Note.class);
-                            if (n == null) continue;
-                            n.setId(doc.getId());
-                            if (n.getOwnerId() == null) n.setOwnerId(myUid);
-                            list.add(n);
+                            list.add(ModelCodecs.note(doc, myUid));
                         }
                     }
                     listener.onNotesChanged(list);
@@ -97,10 +90,7 @@ public class NoteRepository {
                     final Map<String, Note> merged = new LinkedHashMap<>();
 
                     for (DocumentSnapshot doc : taskMy.getResult().getDocuments()) {
-                        Note n = doc.toObject(Note.class);
-                        if (n == null) continue;
-                        n.setId(doc.getId());
-                        if (n.getOwnerId() == null) n.setOwnerId(myUid);
+                        Note n = ModelCodecs.note(doc, myUid);
                         merged.put(n.getOwnerId() + "/" + n.getId(), n);
                     }
 
@@ -110,15 +100,9 @@ public class NoteRepository {
                             .addOnCompleteListener(taskShared -> {
                                 if (taskShared.isSuccessful()) {
                                     for (DocumentSnapshot doc : taskShared.getResult().getDocuments()) {
-                                        Note n = doc.toObject(Note.class);
-                                        if (n == null) continue;
-
                                         DocumentReference ref = doc.getReference();
                                         DocumentReference userDoc = ref.getParent().getParent();
-                                        String ownerId = userDoc != null ? userDoc.getId() : n.getOwnerId();
-
-                                        n.setId(doc.getId());
-                                        if (n.getOwnerId() == null) n.setOwnerId(ownerId);
+                                        Note n = ModelCodecs.note(doc, userDoc != null ? userDoc.getId() : null);
 
                                         if (!myUid.equals(n.getOwnerId())) {
                                             merged.put(n.getOwnerId() + "/" + n.getId(), n);
@@ -145,19 +129,28 @@ public class NoteRepository {
     }
 
     // ================== 單筆讀取 ==================
+    private Task<DocumentSnapshot> readNoteDoc(String ownerId, String noteId) {
+        return NOTE_DOCS.run(noteKey(ownerId, noteId), () ->
+                db.collection("users").document(ownerId)
+                        .collection("notes").document(noteId)
+                        .get());
+    }
+
+    private static String noteKey(String ownerId, String noteId) {
+        return ownerId + "/" + noteId;
+    }
+
+    /** 寫入後讓下一次讀取一定回到伺服器 */
+    public static void invalidateNote(String ownerId, String noteId) {
+        NOTE_DOCS.invalidate(noteKey(ownerId, noteId));
+    }
+
     public void getNoteById(String ownerId, String noteId,
                             final java.util.function.Consumer<Note> onOk,
                             final java.util.function.Consumer<Exception> onErr) {
-        db.collection("users").document(ownerId)
-                .collection("notes").document(noteId)
-                .get()
+        readNoteDoc(ownerId, noteId)
                 .addOnSuccessListener(doc -> {
-                    Note n = doc.toObject(Note.class);
-                    if (n != null) {
-                        n.setId(doc.getId());
-                        if (n.getOwnerId() == null) n.setOwnerId(ownerId);
-                    }
-                    onOk.accept(n);
+                    onOk.accept(doc.exists() ? ModelCodecs.note(doc, ownerId) : null);
                 })
                 .addOnFailureListener(onErr::accept);
     }
@@ -171,9 +164,7 @@ public class NoteRepository {
     public void getCollaborators(String ownerId, String noteId,
                                  final java.util.function.Consumer<List<String>> onOk,
                                  final java.util.function.Consumer<Exception> onErr) {
-        db.collection("users").document(ownerId)
-                .collection("notes").document(noteId)
-                .get()
+        readNoteDoc(ownerId, noteId)
                 .addOnSuccessListener(doc -> {
                     List<String> list = new ArrayList<>();
                     if (doc.exists()) {
@@ -200,19 +191,16 @@ public class NoteRepository {
             return;
         }
 
-        JSONObject body = new JSONObject();
-        try {
-            body.put("ownerId", ownerId);
-            // 同送兩個 key，確保後端不論吃哪個都可用
-            body.put("noteId", noteId);
-            body.put("id", noteId);
-            JSONArray arr = new JSONArray();
-            if (uids != null) for (String u : uids) arr.put(u);
-            body.put("collaborators", arr);
-        } catch (Exception ignore) {}
-
-        Task<Void> apiTask = callFunctionJson(FN_SET_COLLABORATORS, body)
-                .onSuccessTask(IO, resp -> {
+        String body = JsonBody.object()
+                .put("ownerId", ownerId)
+                // 同送兩個 key，確保後端不論吃哪個都可用
+                .put("noteId", noteId)
+                .put("id", noteId)
+                .putStrings("collaborators", uids)
+                .build();
+
+        Task<Void> apiTask = CloudRunCall.postJson(FN_SET_COLLABORATORS, body, IoScheduler.Priority.WRITE)
+                .onSuccessTask(IoScheduler.INLINE, resp -> {
                     try {
                         JSONObject js = new JSONObject(resp);
                         if (js.optBoolean("success") || js.optBoolean("noChange")) {
@@ -226,6 +214,7 @@ public class NoteRepository {
                 });
 
         apiTask.addOnCompleteListener(t -> {
+            invalidateNote(ownerId, noteId);
             if (t.isSuccessful()) {
                 if (callback != null) callback.onComplete(Tasks.forResult(null));
             } else {
@@ -263,17 +252,15 @@ public class NoteRepository {
                 title = "未命名筆記";
         }
 
-        JSONObject body = new JSONObject();
-        try {
-            body.put("title", title);
-            body.put("content", content);
-            if (note.getStack() != null) body.put("stack", note.getStack().trim());
-            if (note.getChapter() > 0) body.put("chapter", note.getChapter());
-            if (note.getSection() > 0) body.put("section", note.getSection());
-        } catch (Exception ignore) {}
-
-        Task<DocumentReference> task = callFunctionJson(FN_CREATE, body)
-                .onSuccessTask(IO, resp -> {
+        JsonBody body = JsonBody.object()
+                .put("title", title)
+                .put("content", content);
+        if (note.getStack() != null) body.put("stack", note.getStack().trim());
+        if (note.getChapter() > 0) body.put("chapter", note.getChapter());
+        if (note.getSection() > 0) body.put("section", note.getSection());
+
+        Task<DocumentReference> task = CloudRunCall.postJson(FN_CREATE, body.build(), IoScheduler.Priority.WRITE)
+                .onSuccessTask(IoScheduler.INLINE, resp -> {
                     try {
                         JSONObject js = new JSONObject(resp);
                         if (!js.optBoolean("success"))
@@ -303,18 +290,16 @@ public class NoteRepository {
     }
 
     private Task<Void> updateNoteInternal(Note note, @Nullable String ownerId) {
-        JSONObject body = new JSONObject();
-        try {
-            body.put("id", note.getId());
-            if (ownerId != null) body.put("ownerId", ownerId);
-            if (note.getTitle() != null) body.put("title", note.getTitle().trim());
-            if (note.getContent() != null) body.put("content", note.getContent());
-            if (note.getStack() != null) body.put("stack", note.getStack().trim());
-            if (note.getChapter() > 0) body.put("chapter", note.getChapter());
-            if (note.getSection() > 0) body.put("section", note.getSection());
-        } catch (Exception ignore) {}
-
-        return callFunctionJson(FN_UPDATE, body).onSuccessTask(IO, resp -> {
+        JsonBody body = JsonBody.object()
+                .put("id", note.getId())
+                .put("ownerId", ownerId);
+        if (note.getTitle() != null) body.put("title", note.getTitle().trim());
+        if (note.getContent() != null) body.put("content", note.getContent());
+        if (note.getStack() != null) body.put("stack", note.getStack().trim());
+        if (note.getChapter() > 0) body.put("chapter", note.getChapter());
+        if (note.getSection() > 0) body.put("section", note.getSection());
+
+        return CloudRunCall.postJson(FN_UPDATE, body.build(), IoScheduler.Priority.WRITE).onSuccessTask(IoScheduler.INLINE, resp -> {
             try {
                 JSONObject js = new JSONObject(resp);
                 if (js.optBoolean("success") || js.optBoolean("noChange"))
@@ -323,7 +308,8 @@ public class NoteRepository {
             } catch (Exception e) {
                 return Tasks.forException(e);
             }
-        });
+        }).addOnCompleteListener(IoScheduler.INLINE, t ->
+                invalidateNote(ownerId != null ? ownerId : myUid, note.getId()));
     }
 
     public Task<Void> deleteNote(String id) {
@@ -332,10 +318,9 @@ public class NoteRepository {
         if (id == null || id.isEmpty())
             return Tasks.forException(new IllegalArgumentException("id is required"));
 
-        JSONObject body = new JSONObject();
-        try { body.put("id", id); } catch (Exception ignore) {}
+        String body = JsonBody.object().put("id", id).build();
 
-        return callFunctionJson(FN_DELETE, body).onSuccessTask(IO, resp -> {
+        return CloudRunCall.postJson(FN_DELETE, body, IoScheduler.Priority.WRITE).onSuccessTask(IoScheduler.INLINE, resp -> {
             try {
                 JSONObject js = new JSONObject(resp);
                 if (js.optBoolean("success")) return Tasks.forResult(null);
@@ -343,7 +328,7 @@ public class NoteRepository {
             } catch (Exception e) {
                 return Tasks.forException(e);
             }
-        });
+        }).addOnCompleteListener(IoScheduler.INLINE, t -> invalidateNote(myUid, id));
     }
 
     public Task<Integer> deleteNotesByCategory(String stack) {
@@ -352,10 +337,9 @@ public class NoteRepository {
         if (stack == null || stack.trim().isEmpty())
             return Tasks.forException(new IllegalArgumentException("stack is required"));
 
-        JSONObject body = new JSONObject();
-        try { body.put("stack", stack.trim()); } catch (Exception ignore) {}
+        String body = JsonBody.object().put("stack", stack.trim()).build();
 
-        return callFunctionJson(FN_DELETE_BY_STACK, body).onSuccessTask(IO, resp -> {
+        return CloudRunCall.postJson(FN_DELETE_BY_STACK, body, IoScheduler.Priority.WRITE).onSuccessTask(IoScheduler.INLINE, resp -> {
             try {
                 JSONObject js = new JSONObject(resp);
                 if (js.optBoolean("success"))
@@ -364,72 +348,6 @@ public class NoteRepository {
             } catch (Exception e) {
                 return Tasks.forException(e);
             }
-        });
-    }
-
-    // ================== HTTP helpers ==================
-    private Task<String> callFunctionJson(String fullUrl, JSONObject body) {
-        TaskCompletionSource<String> tcs = new TaskCompletionSource<>();
-        IO.execute(() -> {
-            try {
-                FirebaseAuth auth = FirebaseAuth.getInstance();
-                if (auth.getCurrentUser() == null) {
-                    tcs.setException(new IllegalStateException("尚未登入"));
-                    return;
-                }
-                String idToken = Tasks.await(auth.getCurrentUser().getIdToken(true)).getToken();
-                if (idToken == null || idToken.isEmpty()) {
-                    tcs.setException(new IllegalStateException("取得 ID Token 失敗"));
-                    return;
-                }
-
-                if (!fullUrl.startsWith("http")) {
-                    tcs.setException(new IllegalArgumentException("無效的 URL：" + fullUrl));
-                    return;
-                }
-
-                String resp = postJson(fullUrl, idToken, body != null ? body.toString() : "{}");
-                tcs.setResult(resp);
-            } catch (Exception e) {
-                Log.e(TAG, "callFunctionJson error", e);
-                tcs.setException(e);
-            }
-        });
-        return tcs.getTask();
-    }
-
-    private String postJson(String urlStr, String idToken, String json) throws Exception {
-        HttpURLConnection conn = null;
-        try {
-            URL url = new URL(urlStr);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(30000);
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Authorization", "Bearer " + idToken);
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-
-            byte[] data = json.getBytes(StandardCharsets.UTF_8);
-            conn.setFixedLengthStreamingMode(data.length);
-            try (OutputStream os = new BufferedOutputStream(conn.getOutputStream())) {
-                os.write(data);
-                os.flush();
-            }
-
-            int code = conn.getResponseCode();
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    code >= 200 && code < 300 ? conn.getInputStream() : conn.getErrorStream(),
-                    StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line);
-            String resp = sb.toString();
-            if (code < 200 || code >= 300)
-                throw new Exception("HTTP " + code + ": " + resp);
-            return resp;
-        } finally {
-            if (conn != null) conn.disconnect();
-        }
+        }).addOnCompleteListener(IoScheduler.INLINE, t -> NOTE_DOCS.invalidatePrefix(myUid + "/"));
     }
 }
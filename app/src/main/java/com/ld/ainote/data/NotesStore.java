@@ -0,0 +1,184 @@
+package com.ld.ainote.data;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.ld.ainote.models.Note;
+import com.ld.ainote.utils.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 全 App 共用的「我的筆記 + 共筆」（取代各頁面自己掛監聽 / 一次性讀取）
+ * - 兩條 Firestore 監聽只掛一次，切換分頁、重開頁面都直接拿記憶體裡的結果（0 次讀取）
+ * - 快照只套用有變動的文件（NoteMerger），同時更新 SearchIndex.shared() 的筆記欄位
+ * - 訂閱者加入時若已載入，立刻收到目前內容；之後每次有變動再通知
+ * - 全部在主執行緒使用（Firestore 監聽 callback 預設就在主執行緒）
+ */
+public final class NotesStore {
+
+    private static final String TAG = "NotesStore";
+
+    public interface Listener {
+        /** notes 依 NoteMerger.NOTE_ORDER 排序，唯讀；沒變的筆記沿用同一個 Note 物件 */
+        void onNotesChanged(@NonNull List<Note> notes);
+        /** 監聽斷掉（規則 / 缺索引 / 網路）；fromMine = false 代表共筆那條 */
+        default void onError(@NonNull Exception e, boolean fromMine) {}
+    }
+
+    private static volatile NotesStore instance;
+
+    public static NotesStore get() {
+        NotesStore s = instance;
+        if (s == null) {
+            synchronized (NotesStore.class) {
+                s = instance;
+                if (s == null) {
+                    s = new NotesStore();
+                    instance = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    private final NoteMerger merger = new NoteMerger();
+    private final List<Note> readOnly = Collections.unmodifiableList(merger.sorted());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final SearchIndex searchIndex = SearchIndex.shared();
+
+    @Nullable private String uid;
+    @Nullable private ListenerRegistration regMine;
+    @Nullable private ListenerRegistration regShared;
+    private boolean loaded = false;
+
+    private NotesStore() {}
+
+    /**
+     * 開始監聽目前登入者的筆記；已在監聽同一個人時什麼都不做
+     * 換了帳號會先清掉舊資料；某條監聽出錯斷掉後再呼叫會只補掛那一條
+     */
+    public void start() {
+        String me = FirebaseAuth.getInstance().getCurrentUser() != null
+                ? FirebaseAuth.getInstance().getCurrentUser().getUid() : null;
+        if (TextUtils.isEmpty(me)) return;
+        if (uid != null && !TextUtils.equals(me, uid)) stop();
+        uid = me;
+
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        if (regMine == null) {
+            // 我的筆記：/users/{uid}/notes
+            regMine = db.collection("users").document(me).collection("notes")
+                    .addSnapshotListener((snap, err) -> onSnapshot(snap, err, true, me));
+        }
+        if (regShared == null) {
+            // 被分享給我的筆記：所有擁有者的 notes 中 collaborators 包含我的
+            regShared = db.collectionGroup("notes").whereArrayContains("collaborators", me)
+                    .addSnapshotListener((snap, err) -> onSnapshot(snap, err, false, me));
+        }
+    }
+
+    /**
+     * 登出時呼叫：移除監聽並清空內容與搜尋索引（筆記欄位與 block 文字都不留給下一個帳號）
+     * 訂閱者保留，下次 start() 後會收到新帳號的資料
+     */
+    public void stop() {
+        if (regMine != null) { regMine.remove(); regMine = null; }
+        if (regShared != null) { regShared.remove(); regShared = null; }
+        uid = null;
+        loaded = false;
+        merger.clear();
+        searchIndex.clear();
+    }
+
+    public void addListener(@NonNull Listener l) {
+        if (listeners.contains(l)) return;
+        listeners.add(l);
+        if (loaded) l.onNotesChanged(readOnly);
+    }
+
+    public void removeListener(@NonNull Listener l) {
+        listeners.remove(l);
+    }
+
+    /** 至少一條監聽收過第一個快照 */
+    public boolean isLoaded() { return loaded; }
+
+    /** 目前內容（唯讀、依 NOTE_ORDER 排序） */
+    @NonNull
+    public List<Note> notes() { return readOnly; }
+
+    @Nullable
+    public String uid() { return uid; }
+
+    private void onSnapshot(@Nullable QuerySnapshot snap, @Nullable Exception err, boolean fromMine, String me) {
+        if (!TextUtils.equals(me, uid)) return; // 已換帳號，舊監聽的尾巴
+        if (err != null) {
+            Log.w(TAG, (fromMine ? "mine" : "shared") + " listener failed", err);
+            // Firestore 監聽出錯後就不會再回呼，清掉讓下次 start() 重掛
+            if (fromMine) regMine = null; else regShared = null;
+            for (Listener l : new ArrayList<>(listeners)) l.onError(err, fromMine);
+            return;
+        }
+        if (snap == null) return;
+
+        // 只處理這次有變動的文件（第一次快照全部是 ADDED），沒變的 Note 物件沿用
+        boolean changed = false;
+        for (DocumentChange dc : snap.getDocumentChanges()) {
+            DocumentSnapshot d = dc.getDocument();
+            // 取得 ownerId：我的→me；共筆→由文件路徑取上層 users/{ownerId}
+            String ownerId = fromMine ? me : ownerIdFromPath(d);
+            String key = ownerId + "#" + d.getId();
+
+            Note incoming = dc.getType() == DocumentChange.Type.REMOVED ? null : toNote(d, ownerId, me);
+            if (!merger.apply(key, incoming, fromMine)) continue;
+            changed = true;
+
+            Note after = merger.get(key);
+            if (after != null) {
+                searchIndex.putNote(key, after.getTitle(), after.getStack(), after.getContent());
+            } else {
+                searchIndex.removeNote(key);
+            }
+        }
+
+        if (!changed && loaded) return;
+        loaded = true;
+        for (Listener l : new ArrayList<>(listeners)) l.onNotesChanged(readOnly);
+    }
+
+    private static Note toNote(DocumentSnapshot d, String ownerId, String myUid) {
+        Note n = ModelCodecs.note(d, ownerId);
+        n.setTitle(emptyIfNull(n.getTitle()));
+        n.setContent(emptyIfNull(n.getContent()));
+        n.setStack(emptyIfNull(n.getStack()));
+
+        n.setOwnerId(ownerId);
+        // 設定是否共筆：owner 不是自己即視為共筆
+        n.setShared(!TextUtils.equals(ownerId, myUid));
+        return n;
+    }
+
+    private static String ownerIdFromPath(DocumentSnapshot d) {
+        DocumentReference ref = d.getReference();
+        // ref: .../users/{ownerId}/notes/{noteId}
+        if (ref != null && ref.getParent() != null && ref.getParent().getParent() != null) {
+            return ref.getParent().getParent().getId();
+        }
+        return "";
+    }
+
+    private static String emptyIfNull(String s) { return s == null ? "" : s; }
+}
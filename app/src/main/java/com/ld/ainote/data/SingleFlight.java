@@ -0,0 +1,97 @@
+package com.ld.ainote.data;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.LongSupplier;
+
+/**
+ * 相同讀取合併 + 短暫快取
+ * - 同一個 key 還在讀：直接回傳同一個 Task，所有呼叫端拿到同一份結果
+ * - 讀完後 ttlMs 內再讀：直接回傳已完成的 Task，不再打網路
+ * - 失敗的結果不保留；寫入後請呼叫 invalidate，下次讀取一定重抓
+ */
+public final class SingleFlight<V> {
+
+    private static final class Entry<V> {
+        final Task<V> task;
+        long doneAt = -1; // 尚未完成為 -1
+        Entry(Task<V> task) { this.task = task; }
+    }
+
+    private static final int PRUNE_THRESHOLD = 64;
+
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final Map<String, Entry<V>> entries = new HashMap<>();
+
+    public SingleFlight(long ttlMs) {
+        this(ttlMs, SystemClock::elapsedRealtime);
+    }
+
+    /** 測試用：clock 取代 SystemClock.elapsedRealtime（毫秒） */
+    SingleFlight(long ttlMs, @NonNull LongSupplier clock) {
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /** loader 只負責送出請求並回傳 Task（不可在裡面等待結果），因此可以在鎖內呼叫 */
+    @NonNull
+    public Task<V> run(@NonNull String key, @NonNull Callable<Task<V>> loader) {
+        Entry<V> created;
+        synchronized (entries) {
+            Entry<V> e = entries.get(key);
+            if (e != null && (e.doneAt < 0 || clock.getAsLong() - e.doneAt <= ttlMs)) {
+                return e.task;
+            }
+            Task<V> task;
+            try {
+                task = loader.call();
+            } catch (Exception ex) {
+                return Tasks.forException(ex);
+            }
+            created = new Entry<>(task);
+            if (entries.size() >= PRUNE_THRESHOLD) pruneExpiredLocked();
+            entries.put(key, created);
+        }
+        created.task.addOnCompleteListener(IoScheduler.INLINE, t -> {
+            synchronized (entries) {
+                if (entries.get(key) != created) return; // 已被 invalidate 或取代
+                if (t.isSuccessful()) created.doneAt = clock.getAsLong();
+                else entries.remove(key);
+            }
+        });
+        return created.task;
+    }
+
+    private void pruneExpiredLocked() {
+        long now = clock.getAsLong();
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> e = it.next();
+            if (e.doneAt >= 0 && now - e.doneAt > ttlMs) it.remove();
+        }
+    }
+
+    public void invalidate(@NonNull String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /** 例如登出時，或以 owner/note 為前綴清掉一整篇 */
+    public void invalidatePrefix(@NonNull String prefix) {
+        synchronized (entries) {
+            Iterator<String> it = entries.keySet().iterator();
+            while (it.hasNext()) if (it.next().startsWith(prefix)) it.remove();
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.ld.ainote.fragments;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.*;
 import android.widget.*;
@@ -11,13 +13,22 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.material.button.MaterialButton;
 import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 import com.google.android.material.textfield.TextInputEditText;
 import com.ld.ainote.R;
 import com.ld.ainote.data.NoteRepository;
+import com.ld.ainote.data.NotesStore;
 import com.ld.ainote.models.Note;
 import com.ld.ainote.net.AiService;
+import com.ld.ainote.utils.QuestionPicker;
+import com.ld.ainote.utils.QuizJson;
+import com.ld.ainote.utils.QuizJsonStream;
+import com.ld.ainote.utils.QuizParser;
+import com.ld.ainote.utils.TextLruCache;
 
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
@@ -28,8 +39,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * AiFragment
@@ -61,9 +70,12 @@ public class AiFragment extends Fragment {
     private LinearLayout rowQuiz;
     private SeekBar seekCount;
     private TextView tvCount;
+    private CheckBox cbRegenerate;   // 出題目：略過快取重新生成
     private TextInputEditText etResult, etAge;
     private ProgressBar progress;
-    private View btnRun, btnSaveAsNote;
+    @Nullable private TextView tvLoadProgress; // 舊 layout 沒有時為 null
+    private MaterialButton btnRun;
+    private View btnSaveAsNote;
 
     // ===== 測驗 UI =====
     private LinearLayout quizHost;
@@ -72,11 +84,29 @@ public class AiFragment extends Fragment {
 
     // ===== 題庫（當前畫面顯示） =====
     private final List<Question> currentQuiz = new ArrayList<>();
-    // 🔴 新增：把每篇 note 的 blocks → 文字結果做快取，避免重複抓取
-    private final Map<String, String> blocksTextCache = new HashMap<>();
+    // 每篇 note 的 blocks → 文字結果快取：以總字數為上限的 LRU，
+    // 戳記 = 最新的 block.updatedAt（或 note.updatedAt）與 block 數，任一個變了就重抓
+    private static final long BLOCKS_CACHE_MAX_CHARS = 400_000L;
+    private final TextLruCache blocksTextCache = new TextLruCache(BLOCKS_CACHE_MAX_CHARS);
+
+    // 合併多篇筆記時：同時最多抓幾篇、單篇最多等多久（逾時改用 note.content，不卡住整批）
+    private static final int  FETCH_CONCURRENCY = 4;
+    private static final long FETCH_TIMEOUT_MS  = 8000L;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     // 本次 AI 出題時的章節 tags（供交卷寫入錯題庫）
     private List<String> currentContextTags = new ArrayList<>();
+    // NotesStore 在分頁隱藏時送來的變動，等切回來才重畫
+    private boolean notesDirty = false;
+
+    // ===== 串流（summary / integrate）=====
+    // 背景執行緒收到的文字先累積在 streamBuf，主執行緒每 STREAM_UI_INTERVAL_MS 才 append 一次到 etResult
+    private static final long STREAM_UI_INTERVAL_MS = 80L;
+    @Nullable private AiService.Handle aiStream;     // 進行中的串流（含出題）；按「停止」或離開畫面時 cancel
+    private final StringBuilder streamBuf = new StringBuilder();
+    private int streamGen = 0;                       // 以下皆由 streamBuf 鎖保護；換一次串流就 +1，舊回呼直接丟掉
+    private int streamShown = 0;
+    private boolean streamFlushPosted = false;
     private View tilAgeLayout;
 
     // ================== 小型資料結構 ==================
@@ -196,9 +226,11 @@ public class AiFragment extends Fragment {
         rowQuiz             = v.findViewById(R.id.rowQuiz);
         seekCount           = v.findViewById(R.id.seekCount);
         tvCount             = v.findViewById(R.id.tvCount);
+        cbRegenerate        = v.findViewById(R.id.cbRegenerate);
         etResult            = v.findViewById(R.id.etResult);
         etAge               = v.findViewById(R.id.etAge);
         progress            = v.findViewById(R.id.progress);
+        tvLoadProgress      = v.findViewById(R.id.tvLoadProgress);
         btnRun              = v.findViewById(R.id.btnRun);
         btnSaveAsNote       = v.findViewById(R.id.btnSaveAsNote);
 
@@ -226,6 +258,8 @@ public class AiFragment extends Fragment {
 
         // 任務切換：出題/錯誤複習 → 顯示測驗 UI；其他 → 純文字結果
         chipsTask.setOnCheckedStateChangeListener((group, ids) -> {
+            // 換任務就停掉還在生成的結果（否則串流出題會繼續把題目加進新畫面）
+            if (aiStream != null) cancelStream();
             boolean isQuiz = chQuiz.isChecked();                 // 只有「出題目」
             boolean isWrongReview = chReviewWrong.isChecked();   // 錯誤複習
             boolean anyQuizMode = isQuiz || isWrongReview;       // 測驗畫面要不要開
@@ -241,6 +275,9 @@ public class AiFragment extends Fragment {
             if (tilAgeLayout != null) {
                 tilAgeLayout.setVisibility(isQuiz ? View.VISIBLE : View.GONE);
             }
+            // 「重新出題」只對 AI 出題有意義（錯誤複習是從題庫抽）
+            cbRegenerate.setVisibility(isQuiz ? View.VISIBLE : View.GONE);
+            if (!isQuiz) cbRegenerate.setChecked(false);
 
             if (anyQuizMode) {
                 seekCount.setProgress(QUIZ_COUNT_MAX);
@@ -249,24 +286,51 @@ public class AiFragment extends Fragment {
             }
         });
 
-        // 載入（我的 + 共編）筆記 → 一律顯示（不做範圍切換）
-        NoteRepository repo = new NoteRepository();
-        repo.getMyAndSharedOnce(new NoteRepository.NotesOnceListener() {
-            @Override public void onLoaded(List<Note> list) {
-                notes.clear();
-                if (list != null) notes.addAll(list);
-                buildCategoryMap();
-                if (getActivity() == null) return;
-                getActivity().runOnUiThread(() -> renderAllCategories());
-            }
-            @Override public void onError(Exception e) { toast("載入筆記失敗：" + e.getMessage()); }
-        });
+        // （我的 + 共編）筆記 → 一律顯示（不做範圍切換）
+        // 來源是全 App 共用的 NotesStore：已載入就立刻畫出來，之後有變動再重畫，不另外讀 Firestore
+        NotesStore.get().start();
+        NotesStore.get().addListener(notesListener);
 
-        btnRun.setOnClickListener(c -> runTask());
+        btnRun.setOnClickListener(c -> {
+            if (aiStream != null) cancelStream(); else runTask();
+        });
         btnSaveAsNote.setOnClickListener(c -> saveAsNewNote());
         btnSubmitQuiz.setOnClickListener(c -> submitQuiz());
     }
 
+    private final NotesStore.Listener notesListener = new NotesStore.Listener() {
+        @Override public void onNotesChanged(@NonNull List<Note> list) {
+            if (!isAdded()) return;
+            notes.clear();
+            notes.addAll(list);
+            // 藏在背景的分頁先記著，切回來再畫
+            if (isHidden()) { notesDirty = true; return; }
+            refreshCategories();
+        }
+
+        @Override public void onError(@NonNull Exception e, boolean fromMine) {
+            // 共筆那條失敗（缺索引 / 規則）時照舊只顯示自己的筆記
+            if (fromMine && isAdded()) toast("載入筆記失敗：" + e.getMessage());
+        }
+    };
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        if (!hidden && notesDirty) {
+            notesDirty = false;
+            refreshCategories();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        NotesStore.get().removeListener(notesListener);
+        if (aiStream != null) aiStream.cancel();
+        endStream();
+    }
+
     // ================== 任務執行 ==================
 
     private void runTask() {
@@ -321,175 +385,203 @@ public class AiFragment extends Fragment {
 
         // 先把 blocks 合併成文字，再呼叫 AI
         buildCombinedNoteTextAsync(picked, combined -> {
-            String text = combined;
-            if (chQuiz.isChecked()) {
-                text = buildQuizRules(n) + "\n\n" + text;
+            if (!chQuiz.isChecked()) {
+                // 純文字結果：邊生成邊顯示
+                startStreaming(task, combined, n, age);
+                return;
             }
 
-            AiService.ask(task, text, n, age, new AiService.Callback() {
-                @Override public void onSuccess(String out) {
-                    if (getActivity()==null) return;
-                    getActivity().runOnUiThread(() -> {
-                        setLoading(false);
-                        Log.d(TAG, "AI output length=" + (out==null?0:out.length())
-                                + ", preview=\n" + truncateForLog(out, 1200));
-
-                        if (chQuiz.isChecked()) {
-                            if (parseQuiz(out, currentQuiz)) {
-                                renderQuizUI(currentQuiz);
-                                quizHost.setVisibility(View.VISIBLE);
-                                requireView().findViewById(R.id.tilResult).setVisibility(View.GONE);
-                            } else {
-                                etResult.setText(out);
-                                quizHost.setVisibility(View.GONE);
-                                requireView().findViewById(R.id.tilResult).setVisibility(View.VISIBLE);
-                                toast("格式略有偏差，已以文字方式顯示");
-                                Log.e(TAG, "parseQuiz=false; fallback to text. Raw (truncated):\n"
-                                        + truncateForLog(out, 4000));
-                            }
-                        } else {
-                            etResult.setText(out);
-                            quizHost.setVisibility(View.GONE);
-                            requireView().findViewById(R.id.tilResult).setVisibility(View.VISIBLE);
-                        }
-                    });
-                }
-                @Override public void onError(Exception e) {
-                    if (getActivity()==null) return;
-                    getActivity().runOnUiThread(() -> {
-                        setLoading(false);
-                        toast("AI 呼叫失敗：" + e.getMessage());
-                        Log.e(TAG, "AiService.ask error", e);
-                    });
+            // 出題：要求 JSON（json_schema），邊收邊解析，收齊一題就先顯示一題
+            startQuizStreaming(combined, n, age, cbRegenerate.isChecked());
+        });
+    }
+
+    // ================== 串流顯示 ==================
+
+    private void startStreaming(String task, String text, int n, @Nullable Integer age) {
+        if (!isAdded() || getView() == null) return;
+        final int gen;
+        synchronized (streamBuf) {
+            gen = ++streamGen;
+            streamBuf.setLength(0);
+            streamShown = 0;
+            streamFlushPosted = false;
+        }
+        etResult.setText("");
+        quizHost.setVisibility(View.GONE);
+        requireView().findViewById(R.id.tilResult).setVisibility(View.VISIBLE);
+        // 進度條留到第一段文字出現；執行鈕改成「停止」
+        btnRun.setEnabled(true);
+        btnRun.setText("停止");
+
+        aiStream = AiService.askStreaming(task, text, n, age, new AiService.StreamCallback() {
+            @Override public void onDelta(String delta) {
+                synchronized (streamBuf) {
+                    if (gen != streamGen) return;
+                    streamBuf.append(delta);
+                    if (streamFlushPosted) return;
+                    streamFlushPosted = true;
                 }
-            });
+                mainHandler.postDelayed(streamFlush, STREAM_UI_INTERVAL_MS);
+            }
+            @Override public void onProgress(int done, int total) {
+                // 筆記太多時 AiService 會先分段整理，這段期間還沒有文字可顯示
+                mainHandler.post(() -> {
+                    if (!isStreamCurrent(gen) || tvLoadProgress == null) return;
+                    tvLoadProgress.setVisibility(View.VISIBLE);
+                    tvLoadProgress.setText("分段整理 " + done + "/" + total);
+                });
+            }
+            @Override public void onSuccess(String out) {
+                mainHandler.post(() -> {
+                    if (!isStreamCurrent(gen)) return;
+                    endStream();
+                    Log.d(TAG, "AI stream done, length=" + out.length());
+                    etResult.setText(out); // 以完整結果為準（已去掉頭尾空白）
+                });
+            }
+            @Override public void onError(Exception e) {
+                mainHandler.post(() -> {
+                    if (!isStreamCurrent(gen)) return;
+                    streamFlush.run(); // 已收到的部分留著
+                    endStream();
+                    toast("AI 呼叫失敗：" + e.getMessage());
+                    Log.e(TAG, "AiService.askStreaming error", e);
+                });
+            }
         });
     }
 
-    // ================== Quiz 規則（請 AI 用 Q1:） ==================
-
-    private String buildQuizRules(int count) {
-        return "【出題規則】\n"
-                + "1) 依照使用者勾選的內容，出 " + count + " 題『單選選擇題』。\n"
-                + "2) 每題 4 個選項（A、B、C、D），且只有 1 個正確答案。\n"
-                + "3) 題目請使用題號格式：Q1:、Q2:、Q3: ...（題號後加冒號），接著換行列出 A.~D. 選項。\n"
-                + "4) 盡量考理解/應用，不要只考死背；難度依年齡自動調整；題目涵蓋不同章節重點、避免重複。\n"
-                + "【輸出格式（範例）】\n"
-                + "Q1: 題目敘述\n"
-                + "A. 選項A\n"
-                + "B. 選項B\n"
-                + "C. 選項C\n"
-                + "D. 選項D\n"
-                + "...\n"
-                + "【答案】\n"
-                + "1. C\n"
-                + "2. A\n"
-                + "3. D\n"
-                + "...\n";
+    /**
+     * 出題也走串流：QuizJsonStream 每收齊一題就丟到主執行緒 append 一題，可以先作答前面的題目
+     * 交卷鈕等全部出完（endStream → setLoading(false)）才會打開；中途按停止則保留已出的題目
+     */
+    private void startQuizStreaming(String text, int n, @Nullable Integer age, boolean regenerate) {
+        if (!isAdded() || getView() == null) return;
+        final int gen;
+        synchronized (streamBuf) {
+            gen = ++streamGen;
+            streamBuf.setLength(0);
+            streamShown = 0;
+            streamFlushPosted = false;
+        }
+        clearQuizUI();
+        quizHost.setVisibility(View.VISIBLE);
+        requireView().findViewById(R.id.tilResult).setVisibility(View.GONE);
+        btnRun.setEnabled(true);
+        btnRun.setText("停止");
+
+        // onDelta 由 AiScheduler 在這個請求的 delivery 鎖內依序送出，parser 不需要再加鎖
+        QuizJsonStream parser = new QuizJsonStream(it -> mainHandler.post(() -> {
+            if (!isStreamCurrent(gen)) return;
+            progress.setVisibility(View.GONE);
+            Question q = toQuestion(it);
+            currentQuiz.add(q);
+            appendQuizQuestion(q, currentQuiz.size() - 1);
+        }));
+
+        aiStream = AiService.askQuizStreaming(text, n, age, regenerate, new AiService.StreamCallback() {
+            @Override public void onDelta(String delta) {
+                parser.feed(delta);
+            }
+            @Override public void onSuccess(String out) {
+                // 與上面 post 的題目同一個 Handler，一定排在它們後面
+                mainHandler.post(() -> {
+                    if (!isStreamCurrent(gen)) return;
+                    endStream();
+                    Log.d(TAG, "AI quiz done, streamed=" + parser.emittedCount() + ", length=" + out.length());
+                    if (!currentQuiz.isEmpty()) return;
+
+                    // 一題都沒解出來（不是 JSON）：整份再交給文字格式解析
+                    if (parseQuiz(out, currentQuiz)) {
+                        renderQuizUI(currentQuiz);
+                    } else {
+                        etResult.setText(out);
+                        quizHost.setVisibility(View.GONE);
+                        requireView().findViewById(R.id.tilResult).setVisibility(View.VISIBLE);
+                        toast("格式略有偏差，已以文字方式顯示");
+                        Log.e(TAG, "parseQuiz=false; fallback to text. Raw (truncated):\n"
+                                + truncateForLog(out, 4000));
+                    }
+                });
+            }
+            @Override public void onError(Exception e) {
+                mainHandler.post(() -> {
+                    if (!isStreamCurrent(gen)) return;
+                    endStream();
+                    toast("AI 呼叫失敗：" + e.getMessage());
+                    Log.e(TAG, "AiService.askQuizStreaming error", e);
+                });
+            }
+        });
+    }
+
+    /** 把還沒顯示的串流文字一次 append 上去（主執行緒） */
+    private final Runnable streamFlush = () -> {
+        String chunk;
+        synchronized (streamBuf) {
+            streamFlushPosted = false;
+            chunk = streamBuf.substring(streamShown);
+            streamShown = streamBuf.length();
+        }
+        if (chunk.isEmpty() || getView() == null) return;
+        progress.setVisibility(View.GONE);
+        if (tvLoadProgress != null) tvLoadProgress.setVisibility(View.GONE);
+        etResult.append(chunk);
+    };
+
+    private boolean isStreamCurrent(int gen) {
+        synchronized (streamBuf) {
+            if (gen != streamGen) return false;
+        }
+        return aiStream != null && getView() != null;
+    }
+
+    /** 使用者按「停止」：中斷連線，已顯示的文字保留 */
+    private void cancelStream() {
+        if (aiStream != null) aiStream.cancel();
+        streamFlush.run();
+        endStream();
+        toast("已停止生成");
+    }
+
+    private void endStream() {
+        synchronized (streamBuf) {
+            streamGen++;
+            streamFlushPosted = false;
+        }
+        mainHandler.removeCallbacks(streamFlush);
+        aiStream = null;
+        if (getView() == null) return;
+        btnRun.setText("開始分析");
+        setLoading(false);
     }
 
     // ================== Quiz 解析 ==================
 
-    /** 同時支援「Q1:」與「1. / 1)」題號；答案區支援「1. C / 1) C / Q1: C」。 */
+    /**
+     * 先當結構化 JSON 解析（QuizJson）；不是 JSON 或一題都沒有才退回文字格式的 QuizParser
+     * （同時支援「Q1:」與「1. / 1)」題號；答案區支援「1. C / 1) C / Q1: C」）
+     */
     private boolean parseQuiz(String raw, List<Question> out) {
         try {
             Log.d(TAG, "parseQuiz: start, rawLen=" + (raw == null ? 0 : raw.length()));
             out.clear();
-            if (raw == null) return false;
-
-            // 標準化空白
-            String norm = raw.replace('\u00A0',' ').replace('\u3000',' ');
-
-            // 分成 題目區 / 答案區（答案區開頭獨立行「【答案】」）
-            String[] parts = norm.split("(?m)^\\s*【答案】\\s*$");
-            String qPart = parts[0];
-            String aPart = (parts.length > 1) ? parts[1] : "";
-
-            Log.d(TAG, "qPartLen=" + qPart.length() + ", aPartLen=" + aPart.length());
-            Log.d(TAG, "qPart preview:\n" + truncateForLog(qPart, 800));
-            Log.d(TAG, "aPart preview:\n" + truncateForLog(aPart, 400));
-
-            // 解析答案：允許「1. C」「1) C」「Q1: C」「Q1 C」
-            Map<Integer, Integer> answerMap = new HashMap<>();
-            Pattern ansPat = Pattern.compile("^\\s*(?:Q\\s*)?(\\d+)\\s*[\\.|\\):：]??\\s*([A-Da-d])\\s*$", Pattern.MULTILINE);
-            Matcher ma = ansPat.matcher(aPart);
-            while (ma.find()) {
-                int idx = safeInt(ma.group(1));
-                char letter = Character.toUpperCase(ma.group(2).charAt(0));
-                if (idx > 0 && letter >= 'A' && letter <= 'D') {
-                    answerMap.put(idx, letter - 'A');
-                    Log.d(TAG, "ans: #" + idx + " -> " + letter);
-                }
+            List<QuizParser.Item> items = QuizJson.parse(raw);
+            if (items.isEmpty()) {
+                Log.w(TAG, "parseQuiz: not structured JSON, fallback to text parser");
+                items = QuizParser.parse(raw);
             }
-            if (answerMap.isEmpty()) Log.w(TAG, "answerMap is empty");
-
-            // 以題號切題：支援 Qn: 或 n. / n)（保留題首）
-            Pattern qStart = Pattern.compile("(?m)^(?=\\s*(?:Q\\s*)?\\d+\\s*[\\.:：\\)])");
-            String[] blocks = qStart.split(qPart);
-            int parsed = 0;
-
-            // 標頭（題號 + 題幹）正則
-            Pattern headPat = Pattern.compile("^\\s*(?:Q\\s*)?(\\d+)\\s*[\\.:：\\)]\\s*(.*)$", Pattern.MULTILINE);
-
-            for (String blk : blocks) {
-                String b = blk.trim();
-                if (b.isEmpty()) continue;
-
-                Matcher mh = headPat.matcher(b);
-                if (!mh.find()) {
-                    Log.w(TAG, "skip block (no header): " + truncateForLog(b, 200));
-                    continue;
-                }
-                int number = safeInt(mh.group(1));
-                int headerEnd = mh.end();
-                String afterHeader = b.substring(headerEnd).trim();
-
-                // 題幹
-                Matcher mApos = Pattern.compile("(?m)^\\s*A[\\.|\\)．、]\\s").matcher(afterHeader);
-                String stem;
-                if (mApos.find()) {
-                    stem = (mh.group(2) + "\n" + afterHeader.substring(0, mApos.start())).trim();
-                } else {
-                    stem = (mh.group(2) + "\n" + afterHeader).trim();
-                }
-                stem = stem.replaceAll("^[\\r\\n\\s]+|[\\r\\n\\s]+$", "");
-                Log.d(TAG, "#" + number + " stem len=" + stem.length());
-
-                // 取 A..D
-                List<String> opts = new ArrayList<>(4);
-                for (char c='A'; c<='D'; c++) {
-                    Matcher mo = Pattern.compile("(?m)^\\s*" + c + "[\\.|\\)．、]\\s*(.*)$").matcher(b);
-                    if (mo.find()) {
-                        String opt = mo.group(1).trim();
-                        opts.add(opt);
-                        Log.d(TAG, "#" + number + " opt " + c + ": " + truncateForLog(opt, 120));
-                    } else {
-                        Log.w(TAG, "#" + number + " missing option " + c);
-                    }
-                }
-                if (opts.size() != 4) {
-                    Log.w(TAG, "#" + number + " options!=4, got=" + opts.size() + " block=\n" + truncateForLog(b, 400));
-                    continue;
-                }
-
-                Question q = new Question();
-                q.number = number;
-                q.stem = stem.isEmpty() ? ("第 " + number + " 題") : stem;
-                for (int i=0;i<4;i++) q.options[i] = opts.get(i);
-                if (answerMap.containsKey(number)) q.correct = answerMap.get(number);
-                else Log.w(TAG, "#" + number + " has no answer");
-
+            for (QuizParser.Item it : items) {
+                Question q = toQuestion(it);
+                if (q.correct < 0) Log.w(TAG, "#" + q.number + " has no answer");
                 out.add(q);
-                parsed++;
             }
-
-            if (parsed == 0) {
+            if (out.isEmpty()) {
                 Log.e(TAG, "no question parsed");
                 return false;
             }
-
-            out.sort(Comparator.comparingInt(q -> q.number));
-            Log.d(TAG, "parseQuiz success, parsed=" + parsed);
+            Log.d(TAG, "parseQuiz success, parsed=" + out.size());
             return true;
 
         } catch (Exception e) {
@@ -498,6 +590,15 @@ public class AiFragment extends Fragment {
         }
     }
 
+    private static Question toQuestion(QuizParser.Item it) {
+        Question q = new Question();
+        q.number = it.number;
+        q.stem = it.stem;
+        System.arraycopy(it.options, 0, q.options, 0, 4);
+        q.correct = it.correct;
+        return q;
+    }
+
     // ================== Quiz 呈現 / 批改 ==================
 
     private void clearQuizUI() {
@@ -507,33 +608,34 @@ public class AiFragment extends Fragment {
 
     private void renderQuizUI(List<Question> quiz) {
         quizList.removeAllViews();
-        int pad = dp(8);
-        for (int i = 0; i < quiz.size(); i++) {
-            Question q = quiz.get(i);
+        for (int i = 0; i < quiz.size(); i++) appendQuizQuestion(quiz.get(i), i);
+    }
 
-            TextView tv = new TextView(requireContext());
-            tv.setText((i+1) + ". " + q.stem);
-            tv.setTextSize(16f);
-            tv.setPadding(pad, pad, pad, pad);
-            quizList.addView(tv);
-            q.tvStem = tv;
-
-            RadioGroup rg = new RadioGroup(requireContext());
-            rg.setOrientation(RadioGroup.VERTICAL);
-            rg.setPadding(pad, 0, pad, pad);
-
-            for (int j = 0; j < 4; j++) {
-                RadioButton rb = new RadioButton(requireContext());
-                rb.setText((char)('A'+j) + ". " + q.options[j]);
-                int finalJ = j;
-                rb.setOnCheckedChangeListener((buttonView, isChecked) -> {
-                    if (isChecked) q.chosen = finalJ;
-                });
-                rg.addView(rb);
-            }
-            quizList.addView(rg);
-            q.group = rg;
+    /** 在題目清單最後加一題（串流出題時每收齊一題呼叫一次） */
+    private void appendQuizQuestion(Question q, int i) {
+        int pad = dp(8);
+        TextView tv = new TextView(requireContext());
+        tv.setText((i+1) + ". " + q.stem);
+        tv.setTextSize(16f);
+        tv.setPadding(pad, pad, pad, pad);
+        quizList.addView(tv);
+        q.tvStem = tv;
+
+        RadioGroup rg = new RadioGroup(requireContext());
+        rg.setOrientation(RadioGroup.VERTICAL);
+        rg.setPadding(pad, 0, pad, pad);
+
+        for (int j = 0; j < 4; j++) {
+            RadioButton rb = new RadioButton(requireContext());
+            rb.setText((char)('A'+j) + ". " + q.options[j]);
+            int finalJ = j;
+            rb.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                if (isChecked) q.chosen = finalJ;
+            });
+            rg.addView(rb);
         }
+        quizList.addView(rg);
+        q.group = rg;
     }
 
     private void submitQuiz() {
@@ -603,11 +705,22 @@ public class AiFragment extends Fragment {
 
     // ================== 類別/章節 UI ==================
 
+    /** 筆記有變動時重畫；保留使用者已勾選的章節與展開中的類別 */
+    private void refreshCategories() {
+        Set<String> checked = new HashSet<>();
+        for (List<ItemRef> refs : itemsByCategory.values()) {
+            for (ItemRef ref : refs) {
+                if (ref.cb.isChecked()) checked.add(ref.note.getOwnerId() + "#" + ref.note.getId());
+            }
+        }
+        buildCategoryMap();
+        renderAllCategories(checked);
+    }
+
     private void buildCategoryMap() {
         byCategory.clear();
         categories.clear();
         itemsByCategory.clear();
-        expanded.clear();
 
         for (Note n : notes) {
             String key = normalizeStack(n.getStack());
@@ -615,6 +728,7 @@ public class AiFragment extends Fragment {
         }
         categories.addAll(byCategory.keySet());
         Collections.sort(categories, String::compareToIgnoreCase);
+        expanded.retainAll(byCategory.keySet());
 
         for (List<Note> group : byCategory.values()) {
             group.sort((a,b) -> {
@@ -625,8 +739,8 @@ public class AiFragment extends Fragment {
         }
     }
 
-    /** 一律全部顯示：每個類別預設收合，可點標題展開 */
-    private void renderAllCategories() {
+    /** 一律全部顯示：每個類別預設收合，可點標題展開；checked = 要維持勾選的 ownerId#noteId */
+    private void renderAllCategories(Set<String> checked) {
         containerCategories.removeAllViews();
         itemsByCategory.clear();
 
@@ -639,7 +753,8 @@ public class AiFragment extends Fragment {
 
             // 類別標題（可點擊收合）
             TextView header = new TextView(requireContext());
-            header.setText(buildHeaderTitle(cat, group.size(), false)); // 預設收合
+            boolean isExpanded = expanded.contains(cat);
+            header.setText(buildHeaderTitle(cat, group.size(), isExpanded)); // 預設收合
             header.setTextSize(14f);
             header.setTextColor(0xFF000000);
             header.setBackgroundColor(0xFFFFFFFF);
@@ -653,7 +768,7 @@ public class AiFragment extends Fragment {
             LinearLayout secContainer = new LinearLayout(requireContext());
             secContainer.setOrientation(LinearLayout.VERTICAL);
             secContainer.setPadding(pad8, pad8, pad8, pad8);
-            secContainer.setVisibility(View.GONE); // 預設收合
+            secContainer.setVisibility(isExpanded ? View.VISIBLE : View.GONE);
 
             List<ItemRef> itemRefs = new ArrayList<>();
             for (Note n : group) {
@@ -661,7 +776,7 @@ public class AiFragment extends Fragment {
                 String prefix = buildIndexPrefix(n.getChapter(), n.getSection());
                 String title  = n.getTitle() == null ? "(無標題)" : n.getTitle();
                 cb.setText(prefix.isEmpty() ? title : (prefix + " " + title));
-                cb.setChecked(false); // 預設勾選
+                cb.setChecked(checked.contains(n.getOwnerId() + "#" + n.getId()));
                 cb.setPadding(pad8, dp(6), pad8, dp(6));
                 secContainer.addView(cb);
                 itemRefs.add(new ItemRef(cb, n));
@@ -777,6 +892,7 @@ public class AiFragment extends Fragment {
 
     private void setLoading(boolean on){
         progress.setVisibility(on ? View.VISIBLE : View.GONE);
+        if (!on && tvLoadProgress != null) tvLoadProgress.setVisibility(View.GONE);
 
         if (btnRun != null)        btnRun.setEnabled(!on);
         if (btnSaveAsNote != null) btnSaveAsNote.setEnabled(!on);
@@ -812,10 +928,6 @@ public class AiFragment extends Fragment {
         });
     }
 
-    private static int safeInt(String s) {
-        try { return Integer.parseInt(s.trim()); } catch (Exception e) { return -1; }
-    }
-
     // ================== Firestore helpers ==================
 
     private FirebaseFirestore db() { return FirebaseFirestore.getInstance(); }
@@ -989,23 +1101,11 @@ public class AiFragment extends Fragment {
     }
 
     private List<StoredQuestion> pickFromBank(List<StoredQuestion> bank, int n){
-        if (bank.isEmpty()) return Collections.emptyList();
-        ArrayList<StoredQuestion> tmp = new ArrayList<>(bank);
-        Collections.shuffle(tmp, new Random());
-        if (n >= tmp.size()) return tmp;
-        return new ArrayList<>(tmp.subList(0, n));
+        return QuestionPicker.pick(bank, n, new Random());
     }
 
     private List<StoredQuestion> filterByTags(List<StoredQuestion> list, Set<String> wantedTags){
-        if (wantedTags == null || wantedTags.isEmpty()) return list;
-        List<StoredQuestion> out = new ArrayList<>();
-        for (StoredQuestion s : list) {
-            if (s.tags == null || s.tags.isEmpty()) continue;
-            for (String t : s.tags) {
-                if (wantedTags.contains(t)) { out.add(s); break; }
-            }
-        }
-        return out;
+        return QuestionPicker.filterByTags(list, wantedTags, s -> s.tags);
     }
 
     private void showStoredQuestions(List<StoredQuestion> pickedSq) {
@@ -1021,7 +1121,11 @@ public class AiFragment extends Fragment {
         return requireContext().getSharedPreferences(SP_NAME, Context.MODE_PRIVATE);
     }
 
-    /** 取得單一 Note 的「blocks 純文字」。優先 blocks；若沒有 blocks 就回退 note.content。 */
+    /**
+     * 取得單一 Note 的「blocks 純文字」。優先 blocks；若沒有 blocks 就回退 note.content。
+     * 快取裡有這篇時，先查「最新一個 block」+「block 數」（共約 2 次讀取）比對戳記，沒變才用快取；
+     * 讀取失敗的結果不進快取。戳記不寫在 note 文件上，避免每次改 block 都觸發 notes 監聽
+     */
     private void fetchNoteBlocksText(@NonNull Note note, @NonNull OnString cb) {
         // 嘗試用 Note 模型上的 ownerId；沒有就先用本人
         String owner = note.getOwnerId() != null ? note.getOwnerId() : uid();
@@ -1033,66 +1137,96 @@ public class AiFragment extends Fragment {
 
         // 🔑 快取 key：避免不同擁有者下同名 noteId 混淆
         String cacheKey = owner + "/" + noteId;
+        DocumentReference noteDoc = FirebaseFirestore.getInstance()
+                .collection("users").document(owner)
+                .collection("notes").document(noteId);
 
-        // 命中快取直接回傳
-        if (blocksTextCache.containsKey(cacheKey)) {
-            cb.onResult(blocksTextCache.get(cacheKey));
+        if (!blocksTextCache.contains(cacheKey)) {
+            // 第一次抓：戳記直接從讀到的 blocks 算
+            loadBlocksText(note, noteDoc, cacheKey, true, cb);
             return;
         }
 
-        // 讀取 Firestore blocks
-        FirebaseFirestore.getInstance()
-                .collection("users").document(owner)
-                .collection("notes").document(noteId)
-                .collection("blocks")
+        CollectionReference blocks = noteDoc.collection("blocks");
+        Task<QuerySnapshot> latest = blocks.orderBy("updatedAt", Query.Direction.DESCENDING).limit(1).get();
+        Task<AggregateQuerySnapshot> count = blocks.count().get(AggregateSource.SERVER);
+        Tasks.whenAllSuccess(latest, count)
+                .addOnSuccessListener(r -> {
+                    QuerySnapshot top = latest.getResult();
+                    Date newest = top == null || top.isEmpty() ? null
+                            : dateOf(top.getDocuments().get(0).getTimestamp("updatedAt"));
+                    String hit = blocksTextCache.get(cacheKey, latestMillis(note.getUpdatedAt(), newest),
+                            count.getResult().getCount());
+                    if (hit != null) {
+                        cb.onResult(hit);
+                    } else {
+                        loadBlocksText(note, noteDoc, cacheKey, true, cb);
+                    }
+                })
+                // 驗證不了就當沒快取，直接重抓（這次不寫回）
+                .addOnFailureListener(e -> loadBlocksText(note, noteDoc, cacheKey, false, cb));
+    }
+
+    /** 讀 blocks 組成純文字；cache 為 true 時以這次讀到的 blocks 算戳記寫入快取 */
+    private void loadBlocksText(@NonNull Note note, @NonNull DocumentReference noteDoc,
+                                @NonNull String cacheKey, boolean cache, @NonNull OnString cb) {
+        String fallback = note.getContent() == null ? "" : note.getContent();
+        noteDoc.collection("blocks")
                 .orderBy("index")
                 .get()
                 .addOnSuccessListener(snap -> {
-                    if (snap == null || snap.isEmpty()) {
-                        // 沒有 blocks → 回退 NOTE.content
-                        String fallback = note.getContent() == null ? "" : note.getContent();
-                        blocksTextCache.put(cacheKey, fallback);
-                        cb.onResult(fallback);
-                        return;
-                    }
-
                     StringBuilder sb = new StringBuilder();
-                    for (DocumentSnapshot d : snap.getDocuments()) {
-                        // 只取文字型 block
-                        String type = String.valueOf(d.getString("type"));
-                        if (type == null) type = "";
-                        type = type.toLowerCase();
-
-                        if (type.isEmpty() || "text".equals(type) || "paragraph".equals(type)) {
-                            String t = d.getString("text");
-                            if (t != null && !t.trim().isEmpty()) {
-                                if (sb.length() > 0) sb.append('\n');
-                                sb.append(t.trim());
+                    Date newest = null;
+                    int count = 0;
+                    if (snap != null) {
+                        for (DocumentSnapshot d : snap.getDocuments()) {
+                            count++;
+                            Date u = dateOf(d.getTimestamp("updatedAt"));
+                            if (u != null && (newest == null || u.after(newest))) newest = u;
+                            // 只取文字型 block
+                            String type = String.valueOf(d.getString("type")).toLowerCase();
+                            if (type.isEmpty() || "null".equals(type) || "text".equals(type) || "paragraph".equals(type)) {
+                                String t = d.getString("text");
+                                if (t != null && !t.trim().isEmpty()) {
+                                    if (sb.length() > 0) sb.append('\n');
+                                    sb.append(t.trim());
+                                }
                             }
                         }
                     }
 
-                    String out = sb.toString();
-                    if (out.isEmpty()) {
-                        // blocks 都是空字/非文字 → 再退回 note.content
-                        out = note.getContent() == null ? "" : note.getContent();
-                    }
-                    blocksTextCache.put(cacheKey, out);
+                    // 沒有 blocks，或 blocks 都是空字/非文字 → 退回 note.content
+                    String out = sb.length() > 0 ? sb.toString() : fallback;
+                    if (cache) blocksTextCache.put(cacheKey, latestMillis(note.getUpdatedAt(), newest), count, out);
                     cb.onResult(out);
                 })
-                .addOnFailureListener(e -> {
-                    // 讀取失敗也回退 NOTE.content，避免整個流程卡住
-                    String fallback = note.getContent() == null ? "" : note.getContent();
-                    blocksTextCache.put(cacheKey, fallback);
-                    cb.onResult(fallback);
-                });
+                // 讀取失敗回退 note.content 讓流程繼續，但不快取，下次還會再試
+                .addOnFailureListener(e -> cb.onResult(fallback));
+    }
+
+    /**
+     * 新增 / 修改 block 會動到最新的 updatedAt；刪除不會，所以快取另外比對 block 數。
+     * note.updatedAt 顧到沒有 blocks 時退回的 note.content
+     */
+    private static long latestMillis(@Nullable Date noteUpdatedAt, @Nullable Date newestBlock) {
+        long a = noteUpdatedAt == null ? 0L : noteUpdatedAt.getTime();
+        long b = newestBlock == null ? 0L : newestBlock.getTime();
+        return Math.max(a, b);
+    }
+
+    @Nullable
+    private static Date dateOf(@Nullable Timestamp ts) {
+        return ts == null ? null : ts.toDate();
     }
 
     private interface OnString {
         void onResult(String text);
     }
 
-    /** 把多篇 Note 的 blocks 文本非同步合併；組出「【大類別】/《章節》/《內容》」格式。 */
+    /**
+     * 把多篇 Note 的 blocks 文本非同步合併；組出「【大類別】/《章節》/《內容》」格式。
+     * 同時最多抓 FETCH_CONCURRENCY 篇，結果依排序順序接上（前面的還沒回來，後面的先暫存）
+     */
     private void buildCombinedNoteTextAsync(@NonNull List<Note> list, @NonNull OnString cb) {
         if (list.isEmpty()) { cb.onResult(""); return; }
 
@@ -1106,30 +1240,84 @@ public class AiFragment extends Fragment {
             return Integer.compare(a.getSection(), b.getSection());
         });
 
-        // 逐篇抓 blocks → 串起來
-        StringBuilder finalSb = new StringBuilder();
-        String[] lastCat = { null }; // 用陣列包起來給 inner lambda 改
-        int total = sorted.size();
-        int[] done = { 0 };
-
-        for (Note n : sorted) {
-            fetchNoteBlocksText(n, blocksText -> {
-                String cat = normalizeStack(n.getStack());
-                if (!Objects.equals(lastCat[0], cat)) {
-                    if (finalSb.length() > 0) finalSb.append('\n');
-                    finalSb.append("【大類別】").append(cat).append('\n');
-                    lastCat[0] = cat;
-                }
-                String prefix = buildIndexPrefix(n.getChapter(), n.getSection());
-                String title  = n.getTitle() == null ? "" : n.getTitle();
-                finalSb.append("《章節》").append(prefix.isEmpty() ? title : (prefix + " " + title)).append('\n');
-                finalSb.append("《內容》\n").append(blocksText == null ? "" : blocksText).append("\n\n");
+        new CombineJob(sorted, cb).start();
+    }
 
-                done[0]++;
-                if (done[0] == total) {
-                    cb.onResult(finalSb.toString().trim());
-                }
-            });
+    /** 一次合併工作；所有 callback 都在主執行緒，不需要鎖 */
+    private final class CombineJob {
+        private final List<Note> notes;
+        private final OnString cb;
+        private final String[] texts;      // 已回來但還沒接上的內容
+        private final boolean[] settled;   // 該篇已有結果（成功 / 失敗 / 逾時）
+        private final StringBuilder sb = new StringBuilder();
+        private String lastCat = null;
+        private int started = 0, finished = 0, emitted = 0;
+
+        CombineJob(List<Note> notes, OnString cb) {
+            this.notes = notes;
+            this.cb = cb;
+            this.texts = new String[notes.size()];
+            this.settled = new boolean[notes.size()];
+        }
+
+        void start() {
+            reportProgress();
+            launchMore();
+        }
+
+        private void launchMore() {
+            // 畫面已關掉就不再發新請求
+            while (isAdded() && started < notes.size() && started - finished < FETCH_CONCURRENCY) {
+                int i = started++;
+                Note n = notes.get(i);
+                Runnable timeout = () -> settle(i, n.getContent() == null ? "" : n.getContent());
+                mainHandler.postDelayed(timeout, FETCH_TIMEOUT_MS);
+                fetchNoteBlocksText(n, text -> {
+                    mainHandler.removeCallbacks(timeout);
+                    settle(i, text);
+                });
+            }
+        }
+
+        private void settle(int i, String text) {
+            if (settled[i]) return; // 逾時後才回來的結果直接忽略（快取仍會寫入，下次可用）
+            settled[i] = true;
+            texts[i] = text == null ? "" : text;
+            finished++;
+
+            // 依序接上已就緒的前綴
+            while (emitted < notes.size() && settled[emitted]) {
+                append(notes.get(emitted), texts[emitted]);
+                texts[emitted] = null;
+                emitted++;
+            }
+            reportProgress();
+
+            if (finished == notes.size()) {
+                Log.d(TAG, "combine done: " + notes.size() + " notes, " + blocksTextCache);
+                cb.onResult(sb.toString().trim());
+            } else {
+                launchMore();
+            }
+        }
+
+        private void append(Note n, String blocksText) {
+            String cat = normalizeStack(n.getStack());
+            if (!Objects.equals(lastCat, cat)) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append("【大類別】").append(cat).append('\n');
+                lastCat = cat;
+            }
+            String prefix = buildIndexPrefix(n.getChapter(), n.getSection());
+            String title  = n.getTitle() == null ? "" : n.getTitle();
+            sb.append("《章節》").append(prefix.isEmpty() ? title : (prefix + " " + title)).append('\n');
+            sb.append("《內容》\n").append(blocksText).append("\n\n");
+        }
+
+        private void reportProgress() {
+            if (tvLoadProgress == null || !isAdded() || notes.size() < 2) return;
+            tvLoadProgress.setVisibility(View.VISIBLE);
+            tvLoadProgress.setText("讀取筆記 " + finished + "/" + notes.size());
         }
     }
 }
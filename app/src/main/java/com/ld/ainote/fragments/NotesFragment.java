@@ -32,36 +32,24 @@ import com.google.android.material.textfield.MaterialAutoCompleteTextView;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.CollectionReference;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QuerySnapshot;
 import com.ld.ainote.NoteEditActivity;
 import com.ld.ainote.R;
 import com.ld.ainote.adapters.NoteAdapter;
 import com.ld.ainote.data.BlockRepository;
+import com.ld.ainote.data.BlockTextIndexer;
+import com.ld.ainote.data.NotesStore;
 import com.ld.ainote.data.NoteRepository;
 import com.ld.ainote.models.Note;
+import com.ld.ainote.utils.SearchIndex;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class NotesFragment extends Fragment {
 
-    // Firestore
-    private FirebaseFirestore db;
-    private ListenerRegistration regMine;
-    private ListenerRegistration regShared;
-
     // 既有 Repo（用於新增/刪除）
     private NoteRepository repo;
 
@@ -74,20 +62,21 @@ public class NotesFragment extends Fragment {
     private MaterialButton btnAdd;
     private TextView tvScope; // 可為 null（舊 layout 沒有時不會崩潰）
 
-    // Adapter 與本地快取
+    // Adapter 與共用的筆記內容（NotesStore 依 NoteMerger.NOTE_ORDER 排好、快照只增量調整；唯讀）
     private NoteAdapter adapter;
-    private final List<Note> notesCache = new ArrayList<>();
+    private final NotesStore store = NotesStore.get();
+    private final List<Note> notesCache = store.notes();
     private final Set<String> categoriesLocal = new HashSet<>();
 
     // 群組模式下：展開中的類別
     private final Set<String> expandedCategories = new HashSet<>();
 
-    // 合併兩條監聽資料的暫存（key = ownerId#noteId）
-    private final Map<String, Note> mergeMap = new HashMap<>();
+    // 第一次收到內容才套用「群組預設收起」，之後的增量更新不動使用者的展開狀態
+    private boolean initialLoaded = false;
 
-    // 來源分離的快取：我的 / 共筆
-    private final Map<String, Note> mapMine   = new HashMap<>();
-    private final Map<String, Note> mapShared = new HashMap<>();
+    // 全文索引：筆記欄位由 NotesStore 隨快照增量更新；block 內文由 indexer 從本機快取 / 背景補抓
+    private final SearchIndex searchIndex = SearchIndex.shared();
+    private BlockTextIndexer blockIndexer;
 
     @Nullable
     @Override
@@ -102,7 +91,6 @@ public class NotesFragment extends Fragment {
         super.onViewCreated(v, s);
 
         // Init
-        db = FirebaseFirestore.getInstance();
         repo = new NoteRepository();
 
         etSearch = v.findViewById(R.id.etSearch);
@@ -120,6 +108,10 @@ public class NotesFragment extends Fragment {
         rv.setLayoutManager(new LinearLayoutManager(getContext()));
         adapter = new NoteAdapter();
         rv.setAdapter(adapter);
+        // 列是在背景重建後才套用，空清單提示要等套用完成再更新
+        adapter.setOnRowsCommitted(() -> { if (isAdded()) updateEmpty(); });
+        adapter.setSearchIndex(searchIndex);
+        blockIndexer = new BlockTextIndexer(requireContext(), () -> { if (isAdded()) adapter.refreshSearch(); });
 
         adapter.setOnItemClickListener(note -> {
             // 進編輯頁時要帶真正擁有者的 ownerId（共筆時不能用自己的 UID）
@@ -218,137 +210,59 @@ public class NotesFragment extends Fragment {
         // 一進頁面就啟用群組模式 + 全部收起
         swGroup.setChecked(true);
 
-        // 啟動 Firestore 監聽：我的 + 共筆
+        // 訂閱共用的筆記內容：我的 + 共筆
         startListening();
     }
 
-    // ===================== Firestore 監聽合併 =====================
+    // ===================== 筆記來源（NotesStore） =====================
 
-    private void startListening() {
-        stopListening(); // 先移除舊監聽（保險）
+    // 「我的 + 共筆」兩條監聽由 NotesStore 全 App 共用；這頁只訂閱，切分頁 / 重開頁面不重抓
+    private final NotesStore.Listener storeListener = new NotesStore.Listener() {
+        @Override public void onNotesChanged(@NonNull List<Note> notes) {
+            if (isAdded()) onNotesChanged();
+        }
 
-        String myUid = FirebaseAuth.getInstance().getCurrentUser() != null
-                ? FirebaseAuth.getInstance().getCurrentUser().getUid() : null;
+        @Override public void onError(@NonNull Exception e, boolean fromMine) {
+            if (!isAdded()) return;
+            setLoading(false);
+            Toast.makeText(requireContext(),
+                    (fromMine ? "同步失敗（我的筆記）：" : "同步失敗（共筆）：") + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+    };
 
-        if (TextUtils.isEmpty(myUid)) {
+    private void startListening() {
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) {
             Toast.makeText(requireContext(), "尚未登入", Toast.LENGTH_SHORT).show();
             return;
         }
-
-        setLoading(true);
-
-        // 我的筆記：/users/{uid}/notes
-        CollectionReference myNotesCol = db.collection("users").document(myUid).collection("notes");
-        regMine = myNotesCol.addSnapshotListener((snap, err) -> {
-            if (!isAdded()) return;
-            if (err != null) {
-                setLoading(false);
-                Toast.makeText(requireContext(), "同步失敗（我的筆記）：" + err.getMessage(), Toast.LENGTH_LONG).show();
-                return;
-            }
-            mergeFromSnapshot(snap, /*fromMine=*/true, myUid);
-        });
-
-        // 被分享給我的筆記：
-        // 假設每個 Note 有欄位 collaborators:Array<String>，放共編者 uid
-        // 用 collectionGroup("notes") + array-contains 查到所有擁有者的 notes 中「包含我」的
-        Query sharedQuery = db.collectionGroup("notes").whereArrayContains("collaborators", myUid);
-        regShared = sharedQuery.addSnapshotListener((snap, err) -> {
-            if (!isAdded()) return;
-            if (err != null) {
-                setLoading(false);
-                Log.d("ERROR", "startListening: err ="+ err.getMessage());
-                Toast.makeText(requireContext(), "同步失敗（共筆）：" + err.getMessage(), Toast.LENGTH_LONG).show();
-                return;
-            }
-            mergeFromSnapshot(snap, /*fromMine=*/false, myUid);
-        });
+        initialLoaded = false;
+        setLoading(!store.isLoaded());
+        store.start();                     // 已在監聽時不做事
+        store.addListener(storeListener);  // 已載入時會立刻收到目前內容
     }
 
     private void stopListening() {
-        if (regMine != null) { regMine.remove(); regMine = null; }
-        if (regShared != null) { regShared.remove(); regShared = null; }
+        store.removeListener(storeListener);
     }
 
-    private void mergeFromSnapshot(@Nullable QuerySnapshot snap, boolean fromMine, @NonNull String myUid) {
-        if (snap == null) return;
-
-        // 針對「此次回來的來源」先清空，再重建（這一步修正了刪除後殘留的問題）
-        Map<String, Note> target = fromMine ? mapMine : mapShared;
-        target.clear();
-
-        for (DocumentSnapshot d : snap.getDocuments()) {
-            Note n = new Note();
-            n.setId(d.getId());
-            n.setTitle(emptyIfNull(d.getString("title")));
-            n.setContent(emptyIfNull(d.getString("content")));
-            n.setStack(emptyIfNull(d.getString("stack")));
-            n.setChapter(intFrom(d.get("chapter")));
-            n.setSection(intFrom(d.get("section")));
-
-            // 讀 collaborators（若有）
-            List<String> collabs = (List<String>) d.get("collaborators");
-            if (collabs != null) n.setCollaborators(collabs);
-
-            // 讀 timestamp（若有）
-            Date ts = d.getDate("timestamp");
-            if (ts != null) n.setTimestamp(ts);
-
-            // 取得 ownerId：我的→myUid；共筆→由文件路徑取上層 users/{ownerId}
-            String ownerId;
-            if (fromMine) {
-                ownerId = myUid;
-            } else {
-                DocumentReference ref = d.getReference();
-                // ref: .../users/{ownerId}/notes/{noteId}
-                ownerId = "";
-                if (ref != null && ref.getParent() != null && ref.getParent().getParent() != null) {
-                    ownerId = ref.getParent().getParent().getId();
-                }
-            }
-            n.setOwnerId(ownerId);
-
-            // ✅ 設定是否共筆：owner 不是自己即視為共筆
-            n.setShared(!TextUtils.equals(ownerId, myUid));
-
-            String key = ownerId + "#" + n.getId();
-            target.put(key, n);
-        }
-
-        // 重新組合兩個來源的快取 → 給 Adapter
-        mergeMap.clear();
-        mergeMap.putAll(mapMine);
-        mergeMap.putAll(mapShared);
-
-        // 轉 List、排序、更新本地快取與 UI
-        List<Note> merged = new ArrayList<>(mergeMap.values());
-
-        notesCache.clear();
-        notesCache.addAll(merged);
+    private void onNotesChanged() {
         rebuildCategoriesFromNotes();
+        // 只把有變動的列派給 RecyclerView
+        adapter.submitAll(notesCache);
+        // 新筆記先從本機載入 block 內文，沒抓過或過期的再排進背景補抓
+        blockIndexer.sync(notesCache);
 
-        Collections.sort(merged, (a, b) -> {
-            String sa = nullSafe(a.getStack());
-            String sb = nullSafe(b.getStack());
-            int c = sa.compareToIgnoreCase(sb);
-            if (c != 0) return c;
-            c = Integer.compare(a.getChapter(), b.getChapter());
-            if (c != 0) return c;
-            c = Integer.compare(a.getSection(), b.getSection());
-            if (c != 0) return c;
-            return nullSafe(a.getTitle()).compareToIgnoreCase(nullSafe(b.getTitle()));
-        });
-
-        adapter.submitAll(merged);
-
-        if (swGroup != null && swGroup.isChecked()) {
-            expandedCategories.clear(); // 群組模式下維持預設收起
+        if (!initialLoaded && swGroup != null && swGroup.isChecked()) {
+            expandedCategories.clear(); // 群組模式下預設收起
             adapter.setExpandedCategories(expandedCategories);
         }
+        initialLoaded = true;
 
         setLoading(false);
         updateEmpty();
     }
+
     // ===================== 新增類別/筆記 =====================
 
     private void showCreateCategoryDialog() {
@@ -556,12 +470,12 @@ public class NotesFragment extends Fragment {
     public void onDestroyView() {
         super.onDestroyView();
         stopListening();
+        if (blockIndexer != null) blockIndexer.stop();
     }
 
     // ===================== 小工具 =====================
 
     private interface IntCallback { void accept(int v); }
-    private static String nullSafe(String s) { return s == null ? "" : s; }
     private static String s(TextInputEditText et) { return et.getText() == null ? "" : et.getText().toString().trim(); }
 
     private static int safeParse(CharSequence cs) {
@@ -571,14 +485,6 @@ public class NotesFragment extends Fragment {
         } catch (Exception e) { return 0; }
     }
 
-    private static String emptyIfNull(String s) { return s == null ? "" : s; }
-
-    private static int intFrom(Object v) {
-        if (v == null) return 0;
-        if (v instanceof Number) return ((Number) v).intValue();
-        try { return Integer.parseInt(String.valueOf(v).trim()); }
-        catch (Exception e) { return 0; }
-    }
 
     /**
      * 只攔截「Header 單擊」；點 Note 不攔截（單擊直接進編輯）
@@ -19,9 +19,12 @@ import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.*;
 import com.google.firebase.firestore.*;
+import com.ld.ainote.BuildConfig;
+import com.ld.ainote.EndpointMetricsActivity;
 import com.ld.ainote.LoginActivity;
 import com.ld.ainote.R;
 import com.ld.ainote.adapters.FriendAdapter;
+import com.ld.ainote.data.NotesStore;
 import com.ld.ainote.models.Friend;
 
 import java.security.SecureRandom;
@@ -114,6 +117,7 @@ public class ProfileFragment extends Fragment {
         });
 
         btnLogout.setOnClickListener(view -> {
+            NotesStore.get().stop();
             auth.signOut();
             if (getActivity() != null) {
                 Intent it = new Intent(getActivity(), LoginActivity.class);
@@ -124,19 +128,33 @@ public class ProfileFragment extends Fragment {
 
         btnAddFriend.setOnClickListener(view -> addFriendByCode());
 
+        MaterialButton btnMetrics = v.findViewById(R.id.btnEndpointMetrics);
+        if (BuildConfig.DEBUG) {
+            btnMetrics.setVisibility(View.VISIBLE);
+            btnMetrics.setOnClickListener(view ->
+                    startActivity(new Intent(requireContext(), EndpointMetricsActivity.class)));
+        }
+
         listenMyFriends();
     }
 
+    // 分頁改成 show / hide 後，隱藏中的分頁仍是 resumed：上線狀態改看「正在顯示」
     @Override
     public void onResume() {
         super.onResume();
-        setPresence(true);
+        if (!isHidden()) setPresence(true);
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        setPresence(false);
+        if (!isHidden()) setPresence(false);
+    }
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        if (isResumed()) setPresence(!hidden);
     }
 
     @Override
@@ -16,6 +16,8 @@ public class NoteBlock {
     // 🆕 顯示資訊欄位
     private String updatedByDisplayName;
     private String updatedByEmail;
+    // 建立時用戶端帶的 id（離線新增的 local-），本機用來認出快照裡已經是哪一塊
+    private String clientId;
     public NoteBlock() {}
 
     // ----- Getters / Setters -----
@@ -52,4 +54,7 @@ public class NoteBlock {
     public String getUpdatedByEmail() { return updatedByEmail; }
     public void setUpdatedByEmail(String updatedByEmail) { this.updatedByEmail = updatedByEmail; }
 
+    public String getClientId() { return clientId; }
+    public void setClientId(String clientId) { this.clientId = clientId; }
+
 }
@@ -0,0 +1,336 @@
+package com.ld.ainote.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AI 請求排程器（取代 AiService 每次 new Thread）
+ * - 同時最多 MAX_CONCURRENT 個請求連線，其餘排隊
+ * - 相同 key 還在進行中：直接併入同一個請求，不重打 API；串流中途加入的會先補上已收到的文字
+ * - 每個呼叫端各自一個 Handle；全部呼叫端都取消了才中斷底層連線（排隊中的直接丟掉）
+ * - token bucket 限速：連點不會一次送出一堆請求；收到 429 時清空並暫停到 Retry-After，之後放慢再慢慢恢復
+ * - 429 重試不佔 worker：等到限速器會放行時才重新排進 worker
+ * - 回呼在每個請求自己的 delivery 鎖裡依序送出，不拿全域鎖（慢的 onDelta 不會卡住其他請求）
+ */
+public final class AiScheduler {
+
+    /** 實際的工作（在 worker 執行緒上跑）；要打 API 前先 t.awaitPermit() */
+    interface Job {
+        String run(Ticket t) throws Exception;
+    }
+
+    /** 交給 Job 使用的介面 */
+    interface Ticket {
+        /** 要綁在 OkHttp Call 上的 Handle（attach 後取消會中斷連線） */
+        @NonNull AiService.Handle handle();
+        /** 等待限速器放行；期間被取消會丟 CancellationException */
+        void awaitPermit() throws InterruptedException;
+        /** 串流時每段新文字呼叫一次 */
+        void emit(@NonNull String delta);
+    }
+
+    /** 429：retryAfterMs < 0 代表伺服器沒給 Retry-After */
+    static final class RateLimitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final long retryAfterMs;
+
+        RateLimitedException(long retryAfterMs) {
+            super("OpenAI HTTP 429");
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    // 大範圍摘要會一次送出好幾段（AiService.MapReduce），總耗時約 段數 / MAX_CONCURRENT
+    private static final int MAX_CONCURRENT = 4;
+    private static final int MAX_RETRIES_429 = 2;
+
+    // 平常：最多連續 8 個（夠一次分段摘要用），之後每秒補 1 個
+    private static final double BUCKET_CAPACITY = 8;
+    private static final double BASE_RATE_PER_SEC = 1.0;
+    private static final double MIN_RATE_PER_SEC = 1.0 / 30;
+    private static final long DEFAULT_BACKOFF_MS = 5000;
+
+    private static volatile AiScheduler instance;
+
+    public static AiScheduler get() {
+        AiScheduler s = instance;
+        if (s == null) {
+            synchronized (AiScheduler.class) {
+                s = instance;
+                if (s == null) {
+                    s = new AiScheduler();
+                    instance = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /** 一個呼叫端 */
+    private static final class Sub {
+        final AiService.Callback cb;
+        final AiService.Handle handle;
+        Sub(AiService.Callback cb, AiService.Handle handle) { this.cb = cb; this.handle = handle; }
+    }
+
+    /**
+     * 一個實際送出的請求（可能有多個呼叫端）
+     * subs / streamed 由 AiScheduler.this 保護；回呼只在 delivery 鎖內送出（先拿 delivery 再拿全域鎖）
+     */
+    private final class Flight implements Ticket {
+        final String key;
+        final Job job;
+        final List<Sub> subs = new ArrayList<>();
+        final StringBuilder streamed = new StringBuilder();
+        final AiService.Handle call = new AiService.Handle(); // 底層連線
+        final Object delivery = new Object();
+        int retries429 = 0; // 只在 execute 裡改（同一時間只有一個 worker 跑這個 flight）
+
+        Flight(String key, Job job) { this.key = key; this.job = job; }
+
+        @NonNull @Override public AiService.Handle handle() { return call; }
+
+        @Override public void awaitPermit() throws InterruptedException { acquire(call); }
+
+        @Override public void emit(@NonNull String delta) {
+            synchronized (delivery) {
+                List<Sub> targets;
+                synchronized (AiScheduler.this) {
+                    if (call.isCancelled()) return;
+                    streamed.append(delta);
+                    targets = new ArrayList<>(subs);
+                }
+                // delivery 鎖內送出：中途加入的呼叫端不會漏段或重複，每個呼叫端收到的順序也一致
+                for (Sub s : targets) {
+                    if (s.cb instanceof AiService.StreamCallback && !s.handle.isCancelled()) {
+                        ((AiService.StreamCallback) s.cb).onDelta(delta);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Map<String, Flight> inFlight = new HashMap<>();
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor retryTimer;
+
+    // token bucket（由 this 鎖保護）
+    private double tokens = BUCKET_CAPACITY;
+    private double ratePerSec = BASE_RATE_PER_SEC;
+    private long refilledAt = System.nanoTime();
+    private long pausedUntil = 0; // nanoTime；429 之後在這之前一律不放行
+
+    // 指標
+    private long submitted, joined, throttled, cancelled;
+
+    private AiScheduler() {
+        AtomicInteger seq = new AtomicInteger();
+        workers = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "ai-worker-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+        retryTimer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "ai-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 送出（或併入）一個請求；回傳這個呼叫端專屬的 Handle
+     * cancel() 之後這個呼叫端不會再收到任何回呼
+     */
+    @NonNull
+    AiService.Handle submit(@NonNull String key, @NonNull AiService.Callback cb, @NonNull Job job) {
+        AiService.Handle h = new AiService.Handle();
+        Sub sub = new Sub(cb, h);
+        Flight f;
+        boolean created = false;
+        while (true) {
+            synchronized (this) {
+                f = inFlight.get(key);
+                if (f == null) {
+                    f = new Flight(key, job);
+                    inFlight.put(key, f);
+                    f.subs.add(sub);
+                    created = true;
+                    submitted++;
+                    break;
+                }
+            }
+            if (join(f, sub)) break;
+            // 等 delivery 鎖時那個請求剛好結束了：重來（會變成新的請求）
+        }
+        Flight flight = f;
+        h.onCancel(() -> detach(flight, sub));
+        if (created) workers.execute(() -> execute(flight));
+        return h;
+    }
+
+    /** 併入進行中的請求，先補上已收到的文字；請求已結束回傳 false */
+    private boolean join(Flight f, Sub sub) {
+        synchronized (f.delivery) {
+            String replay;
+            synchronized (this) {
+                if (inFlight.get(f.key) != f) return false;
+                f.subs.add(sub);
+                joined++;
+                replay = f.streamed.toString();
+            }
+            if (!replay.isEmpty() && sub.cb instanceof AiService.StreamCallback) {
+                ((AiService.StreamCallback) sub.cb).onDelta(replay);
+            }
+            return true;
+        }
+    }
+
+    private void detach(Flight f, Sub sub) {
+        boolean abort = false;
+        synchronized (this) {
+            if (!f.subs.remove(sub)) return;
+            if (f.subs.isEmpty() && inFlight.get(f.key) == f) {
+                inFlight.remove(f.key);
+                cancelled++;
+                abort = true;
+            }
+        }
+        if (abort) f.call.cancel();
+    }
+
+    private void execute(Flight f) {
+        String result = null;
+        Exception error = null;
+        if (!f.call.isCancelled()) {
+            try {
+                result = f.job.run(f);
+                onSuccessfulCall();
+            } catch (RateLimitedException e) {
+                onRateLimited(e.retryAfterMs);
+                // 串流的 429 在第一段文字之前就回來，重試不會重複輸出
+                if (f.retries429 < MAX_RETRIES_429 && !f.call.isCancelled()) {
+                    f.retries429++;
+                    requeue(f);
+                    return;
+                }
+                error = e;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        // delivery 鎖：最後一段 onDelta（含中途加入者的補送）送完才 onSuccess
+        synchronized (f.delivery) {
+            List<Sub> subs;
+            synchronized (this) {
+                if (inFlight.get(f.key) == f) inFlight.remove(f.key);
+                subs = new ArrayList<>(f.subs);
+                f.subs.clear();
+            }
+            if (f.call.isCancelled()) return;
+            for (Sub s : subs) {
+                if (s.handle.isCancelled()) continue;
+                if (error == null) s.cb.onSuccess(result);
+                else s.cb.onError(error);
+            }
+        }
+    }
+
+    /** 429 之後不在 worker 上睡：等到限速器會放行時再排回 worker（期間仍在 inFlight，可被併入 / 取消） */
+    private void requeue(Flight f) {
+        long waitMs;
+        synchronized (this) {
+            waitMs = permitWaitLocked(System.nanoTime());
+        }
+        retryTimer.schedule(() -> workers.execute(() -> execute(f)), waitMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ================== token bucket ==================
+
+    private void acquire(AiService.Handle h) throws InterruptedException {
+        while (true) {
+            if (h.isCancelled()) throw new CancellationException("cancelled while waiting for rate limit");
+            long waitMs;
+            synchronized (this) {
+                waitMs = permitWaitLocked(System.nanoTime());
+                if (waitMs == 0) {
+                    tokens -= 1;
+                    return;
+                }
+            }
+            // 分段睡，被取消時最多晚 200ms 發現
+            Thread.sleep(Math.max(1, Math.min(waitMs, 200)));
+        }
+    }
+
+    /** 還要等多久才拿得到 token（不消耗）；0 = 現在就有 */
+    private long permitWaitLocked(long now) {
+        refillLocked(now);
+        if (now < pausedUntil) return TimeUnit.NANOSECONDS.toMillis(pausedUntil - now) + 1;
+        if (tokens >= 1) return 0;
+        return (long) Math.ceil((1 - tokens) / ratePerSec * 1000);
+    }
+
+    private void refillLocked(long now) {
+        long from = Math.max(refilledAt, pausedUntil);
+        if (now > from) tokens = Math.min(BUCKET_CAPACITY, tokens + (now - from) / 1e9 * ratePerSec);
+        refilledAt = now;
+    }
+
+    /** 429：清空、暫停，補充速度減半 */
+    private synchronized void onRateLimited(long retryAfterMs) {
+        throttled++;
+        long now = System.nanoTime();
+        refillLocked(now);
+        tokens = 0;
+        long pauseMs = retryAfterMs >= 0 ? retryAfterMs : DEFAULT_BACKOFF_MS;
+        pausedUntil = Math.max(pausedUntil, now + TimeUnit.MILLISECONDS.toNanos(pauseMs));
+        ratePerSec = Math.max(MIN_RATE_PER_SEC, ratePerSec / 2);
+    }
+
+    /** 成功：補充速度慢慢回到正常 */
+    private synchronized void onSuccessfulCall() {
+        ratePerSec = Math.min(BASE_RATE_PER_SEC, ratePerSec + BASE_RATE_PER_SEC / 4);
+    }
+
+    /** OpenAI 的 Retry-After 是秒數；另有 retry-after-ms 時以它為準 */
+    static long parseRetryAfterMs(@Nullable String retryAfterMs, @Nullable String retryAfterSec) {
+        try {
+            if (retryAfterMs != null) return (long) Double.parseDouble(retryAfterMs.trim());
+            if (retryAfterSec != null) return (long) (Double.parseDouble(retryAfterSec.trim()) * 1000);
+        } catch (NumberFormatException ignore) {
+            // HTTP-date 格式就不解析了，走預設退避
+        }
+        return -1;
+    }
+
+    // ================== 指標 ==================
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "AiScheduler{inFlight=" + inFlight.size()
+                + ", queued=" + workers.getQueue().size()
+                + ", retryWait=" + retryTimer.getQueue().size()
+                + ", running=" + workers.getActiveCount() + "/" + MAX_CONCURRENT
+                + ", submitted=" + submitted + ", deduped=" + joined
+                + ", cancelled=" + cancelled + ", throttled429=" + throttled
+                + ", rate=" + String.format(Locale.ROOT, "%.2f/s", ratePerSec) + "}";
+    }
+}
@@ -2,38 +2,283 @@ package com.ld.ainote.net;
 
 import android.util.Log;
 import androidx.annotation.Nullable;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ld.ainote.data.AiResultCache;
+import com.ld.ainote.utils.TextChunker;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
 
 import com.ld.ainote.BuildConfig; // 需在 module 的 build.gradle 中有 buildConfigField OPENAI_API_KEY
 
 public class AiService {
 
+    private static final String OPENAI_URL = "https://api.openai.com/v1/chat/completions";
+    // 生成較慢：沿用共用連線池，只把逾時拉長到 60 秒
+    private static final OkHttpClient OPENAI_CLIENT = HttpTransport.withTimeouts(60000, 60000);
+    private static final String MODEL = "gpt-4o-mini";
+
+    // 摘要 / 融會貫通：筆記超過這個量就改走分段（map-reduce），避免爆 context 或單一請求跑太久
+    private static final int SINGLE_PASS_MAX_TOKENS = 12000;
+    private static final int CHUNK_MAX_TOKENS = 6000;
+    private static final int REDUCE_MAX_ROUNDS = 3;
+
+    // 結果快取（MyApp 啟動時設定）；null = 不快取
+    @Nullable private static volatile AiResultCache cache;
+
+    public static void setCache(@Nullable AiResultCache c) {
+        cache = c;
+    }
+
     public interface Callback {
         void onSuccess(String out);
         void onError(Exception e);
     }
 
+    /** 串流版：每收到一段文字就 onDelta（背景執行緒，只給新增的那段），結束時照樣 onSuccess(全文) */
+    public interface StreamCallback extends Callback {
+        void onDelta(String delta);
+        /** 分段整理時的進度（已完成段數 / 總段數），第一段文字出現前可拿來顯示 */
+        default void onProgress(int done, int total) {}
+    }
+
+    /**
+     * 進行中的請求；cancel() 之後不會再有任何回呼
+     * 同一個請求的所有呼叫端都取消時，AiScheduler 才會中斷底層連線
+     */
+    public static final class Handle {
+        private volatile boolean cancelled;
+        private volatile Call call;
+        private volatile Runnable onCancel;
+
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            Call c = call;
+            if (c != null) c.cancel();
+            Runnable r = onCancel;
+            if (r != null) r.run();
+        }
+
+        public boolean isCancelled() { return cancelled; }
+
+        void attach(Call c) {
+            call = c;
+            if (cancelled) c.cancel(); // execute 前就被取消
+        }
+
+        void onCancel(Runnable r) {
+            onCancel = r;
+            if (cancelled) r.run();
+        }
+    }
+
     // 相容舊呼叫
-    public static void ask(String task, String text, int n, Callback cb) {
-        ask(task, text, n, null, cb);
+    public static Handle ask(String task, String text, int n, Callback cb) {
+        return ask(task, text, n, null, cb);
     }
 
     // 新版：可帶 age，出題時依年齡調整難度
-    public static void ask(String task, String text, int n, @Nullable Integer age, Callback cb) {
-        new Thread(() -> {
-            try {
-                String prompt = buildPrompt(task, text, n, age);
-                String result = callOpenAI(prompt);
-                cb.onSuccess(result);
-            } catch (Exception e) {
-                cb.onError(e);
+    public static Handle ask(String task, String text, int n, @Nullable Integer age, Callback cb) {
+        return ask(task, text, n, age, false, cb);
+    }
+
+    /**
+     * bypassCache = true：不讀快取、強制重新生成（新結果仍會寫回快取）
+     * 交給 AiScheduler 排程；回傳的 Handle 在離開畫面時 cancel()
+     */
+    public static Handle ask(String task, String text, int n, @Nullable Integer age, boolean bypassCache, Callback cb) {
+        return askPrompt(task, age, buildPrompt(task, text, n, age), false, bypassCache, cb);
+    }
+
+    /**
+     * 結構化出題：response_format = json_schema（strict），回傳的是符合 QUIZ schema 的 JSON 字串
+     * 交給 QuizJson.parse 解析；舊的「Q1: / 【答案】」文字格式只剩解析失敗時的備援
+     */
+    public static Handle askQuiz(String text, int n, @Nullable Integer age, boolean bypassCache, Callback cb) {
+        return askPrompt("quiz_json", age, buildQuizJsonPrompt(text, n, age), true, bypassCache, cb);
+    }
+
+    private static Handle askPrompt(String task, @Nullable Integer age, String prompt, boolean quizSchema,
+                                    boolean bypassCache, Callback cb) {
+        String key = AiResultCache.key(task, MODEL, age, prompt);
+        return AiScheduler.get().submit(flightKey(key, false, bypassCache), cb, t -> {
+            String cached = bypassCache ? null : cacheGet(key);
+            if (cached != null) return cached;
+            t.awaitPermit();
+            Reply r = callOpenAI(prompt, quizSchema, t.handle());
+            if (r.complete) cachePut(key, r.text);
+            return r.text;
+        });
+    }
+
+    /**
+     * 串流模式（stream=true，server-sent events）：第一段文字通常 1 秒內就到，不必等整篇生成完
+     * 回傳的 Handle 可在中途 cancel()（離開畫面 / 使用者按停止）
+     * 快取命中時不連線：整篇用一次 onDelta 送出後直接 onSuccess
+     * summary / integrate 的筆記太長時改走 MapReduce（只有最後合併那一步是串流）
+     */
+    public static Handle askStreaming(String task, String text, int n, @Nullable Integer age, StreamCallback cb) {
+        return askStreaming(task, text, n, age, false, cb);
+    }
+
+    public static Handle askStreaming(String task, String text, int n, @Nullable Integer age,
+                                      boolean bypassCache, StreamCallback cb) {
+        if (("summary".equals(task) || "integrate".equals(task))
+                && TextChunker.estimateTokens(text) > SINGLE_PASS_MAX_TOKENS) {
+            return new MapReduce(task, n, age, bypassCache, cb).start(text);
+        }
+        return streamPrompt(task, age, buildPrompt(task, text, n, age), false, bypassCache, cb);
+    }
+
+    /**
+     * 結構化出題的串流版：onDelta 收到的是 JSON 片段，交給 QuizJsonStream 就能每收齊一題先顯示一題
+     * 與 askQuiz 共用快取（同一份 JSON），命中時一次 onDelta 送出整份
+     */
+    public static Handle askQuizStreaming(String text, int n, @Nullable Integer age, boolean bypassCache,
+                                          StreamCallback cb) {
+        return streamPrompt("quiz_json", age, buildQuizJsonPrompt(text, n, age), true, bypassCache, cb);
+    }
+
+    private static Handle streamPrompt(String task, @Nullable Integer age, String prompt, boolean quizSchema,
+                                       boolean bypassCache, StreamCallback cb) {
+        String key = AiResultCache.key(task, MODEL, age, prompt);
+        return AiScheduler.get().submit(flightKey(key, true, bypassCache), cb, t -> {
+            String cached = bypassCache ? null : cacheGet(key);
+            if (cached != null) {
+                t.emit(cached);
+                return cached;
             }
-        }).start();
+            t.awaitPermit();
+            Reply r = streamOpenAI(prompt, quizSchema, t);
+            // 中途取消 / 被截斷的是半篇，不寫快取
+            if (r.complete && !t.handle().isCancelled()) cachePut(key, r.text);
+            return r.text;
+        });
+    }
+
+    /**
+     * 大範圍的摘要 / 融會貫通
+     * 1) TextChunker 依【大類別】/《章節》切成每段 ≤ CHUNK_MAX_TOKENS
+     * 2) map：各段同時送出整理重點（併發與限速交給 AiScheduler），每段結果各自進快取，只改一章時其他段直接命中
+     * 3) reduce：把各段重點合併成最後的 summary / integrate（串流）；合起來還是太長就再切一輪
+     */
+    private static final class MapReduce {
+        private final String task;
+        private final int n;
+        @Nullable private final Integer age;
+        private final boolean bypassCache;
+        private final StreamCallback cb;
+        private final Handle outer = new Handle();
+        private final List<Handle> children = new ArrayList<>();
+
+        MapReduce(String task, int n, @Nullable Integer age, boolean bypassCache, StreamCallback cb) {
+            this.task = task;
+            this.n = n;
+            this.age = age;
+            this.bypassCache = bypassCache;
+            this.cb = cb;
+        }
+
+        Handle start(String text) {
+            outer.onCancel(this::cancelChildren);
+            map(text, 1);
+            return outer;
+        }
+
+        private void map(String text, int round) {
+            List<String> chunks = TextChunker.split(text, CHUNK_MAX_TOKENS);
+            int total = chunks.size();
+            String[] parts = new String[total];
+            AtomicInteger remaining = new AtomicInteger(total);
+            AtomicBoolean failed = new AtomicBoolean();
+            Log.d("AiService", "map-reduce round " + round + ": " + total + " chunks");
+            cb.onProgress(0, total);
+            for (int i = 0; i < total; i++) {
+                int idx = i;
+                track(askPrompt("chunk", null, buildChunkPrompt(chunks.get(i)), false, bypassCache, new Callback() {
+                    @Override public void onSuccess(String out) {
+                        parts[idx] = out;
+                        int left = remaining.decrementAndGet();
+                        if (outer.isCancelled() || failed.get()) return;
+                        cb.onProgress(total - left, total);
+                        if (left == 0) reduce(parts, round);
+                    }
+                    @Override public void onError(Exception e) {
+                        if (!failed.compareAndSet(false, true)) return;
+                        cancelChildren();
+                        if (!outer.isCancelled()) cb.onError(e);
+                    }
+                }));
+            }
+        }
+
+        private void reduce(String[] parts, int round) {
+            String joined = String.join("\n\n", parts);
+            if (TextChunker.estimateTokens(joined) > SINGLE_PASS_MAX_TOKENS && round < REDUCE_MAX_ROUNDS) {
+                map(joined, round + 1);
+                return;
+            }
+            String text = "（以下內容已先分段整理成重點，請合併、去除重複後再依上述要求輸出）\n" + joined;
+            track(streamPrompt(task, age, buildPrompt(task, text, n, age), false, bypassCache, cb));
+        }
+
+        private void track(Handle h) {
+            synchronized (children) {
+                if (!outer.isCancelled()) {
+                    children.add(h);
+                    return;
+                }
+            }
+            h.cancel();
+        }
+
+        private void cancelChildren() {
+            List<Handle> copy;
+            synchronized (children) {
+                copy = new ArrayList<>(children);
+                children.clear();
+            }
+            for (Handle h : copy) h.cancel();
+        }
+    }
+
+    /** 分段整理（map）：只整理這段，保留標題，方便最後合併 */
+    private static String buildChunkPrompt(String text) {
+        return "你是專業的讀書助教。以下是一大份筆記的其中一段，之後會和其他段的整理合併成完整重點。" +
+                "\n- 語言用繁體中文。" +
+                "\n- 保留原本的【大類別】與《章節》標題行，在每個章節下條列重點，每點 1~2 句。" +
+                "\n- 只整理這段裡有的內容，不要加前言或總結。" +
+                "\n- 若文中有 [[這樣的標記]]，保留標記原文（合併時要優先呈現）。" +
+                "\n\n【筆記內容】\n" + text;
+    }
+
+    /** 合併進行中請求用的 key：串流 / 非串流、讀快取 / 強制重生 各自分開 */
+    private static String flightKey(String cacheKey, boolean stream, boolean bypassCache) {
+        return (stream ? "stream|" : "once|") + (bypassCache ? "fresh|" : "") + cacheKey;
+    }
+
+    @Nullable
+    private static String cacheGet(String key) {
+        AiResultCache c = cache;
+        return c == null ? null : c.get(key);
+    }
+
+    private static void cachePut(String key, String result) {
+        AiResultCache c = cache;
+        if (c != null && result != null && !result.isEmpty()) c.put(key, result);
     }
 
     private static String buildPrompt(String task, String text, int n, @Nullable Integer age) {
@@ -56,74 +301,215 @@ public class AiService {
 
             case "quiz":
             default:
-                // 依年齡調整出題風格
-                String ageGuide;
-                if (age == null) {
-                    ageGuide = "難度以一般大學生為準；詞彙中等、題型兼具選擇與簡答。";
-                } else if (age <= 10) {
-                    ageGuide = "使用淺白詞彙與生活化例子；多用四選一選擇題；每題後附一句提示。";
-                } else if (age <= 15) {
-                    ageGuide = "詞彙簡潔、概念清楚；選擇題與是非題為主；偶有簡答題。";
-                } else if (age <= 18) {
-                    ageGuide = "混合選擇題與短答題，著重理解與應用。";
-                } else if (age <= 25) {
-                    ageGuide = "偏向理解與應用的短答/情境題；必要時附關鍵術語。";
-                } else {
-                    ageGuide = "可加入實務情境與批判思考題；題幹精煉，術語完整。";
-                }
-
                 return "你是出題老師。請根據筆記內容出 " + Math.max(1, n) + " 題練習題（繁體中文）。" +
                         "\n- 題目難度需依讀者年齡調整：" + userAge +
-                        "\n- 出題風格指南：" + ageGuide +
+                        "\n- 出題風格指南：" + quizAgeGuide(age) +
                         "\n- 若筆記含有 [[這樣的標記]]，題目要優先圍繞其重點。" +
                         "\n- 請用「Q1, Q2, ...」編號，必要時附答案或解析（簡短）。" +
                         "\n\n【筆記內容】\n" + text;
         }
     }
 
-    private static String callOpenAI(String prompt) throws Exception {
-        URL url = new URL("https://api.openai.com/v1/chat/completions");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setReadTimeout(60000);
-        conn.setConnectTimeout(60000);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setRequestProperty("Authorization", "Bearer " + BuildConfig.OPENAI_API_KEY);
-        conn.setDoOutput(true);
+    // 依年齡調整出題風格
+    private static String quizAgeGuide(@Nullable Integer age) {
+        if (age == null) return "難度以一般大學生為準；詞彙中等、題型兼具選擇與簡答。";
+        if (age <= 10) return "使用淺白詞彙與生活化例子；多用四選一選擇題；每題後附一句提示。";
+        if (age <= 15) return "詞彙簡潔、概念清楚；選擇題與是非題為主；偶有簡答題。";
+        if (age <= 18) return "混合選擇題與短答題，著重理解與應用。";
+        if (age <= 25) return "偏向理解與應用的短答/情境題；必要時附關鍵術語。";
+        return "可加入實務情境與批判思考題；題幹精煉，術語完整。";
+    }
+
+    /** 結構化出題：格式由 json_schema 保證，這裡只講內容要求 */
+    private static String buildQuizJsonPrompt(String text, int n, @Nullable Integer age) {
+        return "你是出題老師。請根據筆記內容出 " + Math.max(1, n) + " 題『單選選擇題』（繁體中文）。" +
+                "\n- 每題 4 個選項（A、B、C、D），只有 1 個正確答案；answer 填正確選項的字母。" +
+                "\n- question 只放題幹，不要加題號；選項內容不要加「A.」之類的前綴。" +
+                "\n- 題目難度需依讀者年齡調整：" + (age == null ? "未指定" : (age + " 歲")) +
+                "\n- 出題風格指南：" + quizAgeGuide(age) +
+                "\n- 盡量考理解/應用，不要只考死背；題目涵蓋不同章節重點、避免重複。" +
+                "\n- 若筆記含有 [[這樣的標記]]，題目要優先圍繞其重點。" +
+                "\n\n【筆記內容】\n" + text;
+    }
+
+    private static String requestBody(String prompt, boolean stream, boolean quizSchema) {
+        JsonBody body = JsonBody.object()
+                .put("model", MODEL)
+                .beginArray("messages")
+                .beginObject().put("role", "system").put("content", "你是一位中文學習助理。").endObject()
+                .beginObject().put("role", "user").put("content", prompt).endObject()
+                .endArray()
+                .put("temperature", 0.7);
+        if (stream) body.put("stream", true);
+        if (quizSchema) putQuizSchema(body);
+        return body.build();
+    }
 
-        JSONObject req = new JSONObject();
-        req.put("model", "gpt-4o-mini");
+    /**
+     * Structured Outputs（strict）：{ questions: [ { question, options: {A,B,C,D}, answer: "A"~"D" } ] }
+     * 選項用物件而不是陣列：strict 模式不支援 minItems / maxItems，用 A~D 四個必填欄位才能保證剛好 4 個
+     */
+    private static void putQuizSchema(JsonBody body) {
+        List<String> letters = Arrays.asList("A", "B", "C", "D");
+        body.beginObject("response_format")
+                .put("type", "json_schema")
+                .beginObject("json_schema")
+                .put("name", "quiz")
+                .put("strict", true)
+                .beginObject("schema")
+                .put("type", "object")
+                .put("additionalProperties", false)
+                .putStrings("required", Collections.singletonList("questions"))
+                .beginObject("properties")
+                .beginObject("questions")
+                .put("type", "array")
+                .beginObject("items")
+                .put("type", "object")
+                .put("additionalProperties", false)
+                .putStrings("required", Arrays.asList("question", "options", "answer"))
+                .beginObject("properties")
+                .beginObject("question").put("type", "string").endObject()
+                .beginObject("options")
+                .put("type", "object")
+                .put("additionalProperties", false)
+                .putStrings("required", letters)
+                .beginObject("properties");
+        for (String l : letters) body.beginObject(l).put("type", "string").endObject();
+        body.endObject()                                   // options.properties
+                .endObject()                               // options
+                .beginObject("answer").put("type", "string").putStrings("enum", letters).endObject()
+                .endObject()                               // items.properties
+                .endObject()                               // items
+                .endObject()                               // questions
+                .endObject()                               // schema.properties
+                .endObject()                               // schema
+                .endObject()                               // json_schema
+                .endObject();                              // response_format
+    }
 
-        JSONArray messages = new JSONArray();
-        messages.put(new JSONObject().put("role", "system").put("content", "你是一位中文學習助理。"));
-        messages.put(new JSONObject().put("role", "user").put("content", prompt));
-        req.put("messages", messages);
-        req.put("temperature", 0.7);
+    /** 一次 OpenAI 回應；complete = finish_reason 是 stop，只有完整的才寫快取 */
+    private static final class Reply {
+        final String text;
+        final boolean complete;
+        Reply(String text, boolean complete) { this.text = text; this.complete = complete; }
+    }
 
-        try(OutputStream os = conn.getOutputStream()) {
-            os.write(req.toString().getBytes(StandardCharsets.UTF_8));
+    /**
+     * finish_reason 檢查：stop 才算完整；length（超過 max tokens）回傳已生成的部分但不快取；
+     * content_filter 或其他原因直接當錯誤
+     */
+    private static Reply finish(String text, @Nullable String finishReason) throws IOException {
+        if ("stop".equals(finishReason)) return new Reply(text, true);
+        if ("length".equals(finishReason)) {
+            Log.w("AiService", "OpenAI output truncated (finish_reason=length), not cached");
+            return new Reply(text, false);
         }
+        throw new IOException("AI 回應未完成（finish_reason=" + finishReason + "）");
+    }
+
+    private static Reply callOpenAI(String prompt, boolean quizSchema, Handle h) throws Exception {
+        // 走共用 HttpTransport：與 Cloud Run 呼叫共用連線池（OpenAI 不收 gzip 請求，body 不壓縮）
+        Call call = HttpTransport.newPostCall(OPENAI_CLIENT, OPENAI_URL,
+                BuildConfig.OPENAI_API_KEY, requestBody(prompt, false, quizSchema), false);
+        h.attach(call);
 
-        int code = conn.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? conn.getInputStream() : conn.getErrorStream();
         String body;
-        try(BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while((line = br.readLine()) != null) sb.append(line);
-            body = sb.toString();
+        try (okhttp3.Response r = call.execute()) {
+            ResponseBody rbody = r.body();
+            body = rbody == null ? "" : rbody.string();
+            checkStatus(r, body);
         }
 
-        if (code < 200 || code >= 300) {
-            Log.e("AiService", "OpenAI error: " + body);
-            throw new IOException("OpenAI HTTP " + code);
+        JsonObject choice = JsonParser.parseString(body).getAsJsonObject()
+                .getAsJsonArray("choices")
+                .get(0).getAsJsonObject();
+        JsonObject message = choice.getAsJsonObject("message");
+        JsonElement content = message.get("content");
+        if (content == null || content.isJsonNull()) {
+            // structured output 被模型拒答時 content 是 null，原因在 refusal
+            JsonElement refusal = message.get("refusal");
+            throw new IOException(refusal != null && !refusal.isJsonNull()
+                    ? "AI 拒絕回答：" + refusal.getAsString() : "OpenAI empty content");
         }
+        return finish(content.getAsString().trim(), stringOrNull(choice.get("finish_reason")));
+    }
+
+    /** 串流的累積狀態：內容、拒答、最後的 finish_reason、有沒有收到 [DONE] */
+    private static final class StreamState {
+        final StringBuilder content = new StringBuilder();
+        final StringBuilder refusal = new StringBuilder();
+        @Nullable String finishReason;
+        boolean done;
+    }
+
+    /**
+     * 每個事件是一段 chat.completion.chunk，取 choices[0].delta.content 接起來；[DONE] 代表結束
+     * 沒收到 [DONE] 就斷線、或 finish_reason 不是 stop 的都不算完整（見 finish）
+     */
+    private static Reply streamOpenAI(String prompt, boolean quizSchema, AiScheduler.Ticket t) throws IOException {
+        Handle h = t.handle();
+        Call call = HttpTransport.newPostCall(OPENAI_CLIENT, OPENAI_URL,
+                BuildConfig.OPENAI_API_KEY, requestBody(prompt, true, quizSchema), false);
+        h.attach(call);
+
+        StreamState st = new StreamState();
+        try (okhttp3.Response r = call.execute()) {
+            ResponseBody rbody = r.body();
+            if (!r.isSuccessful()) checkStatus(r, rbody == null ? "" : rbody.string());
+            if (rbody == null) throw new IOException("OpenAI empty response");
+            SseReader.read(rbody.charStream(), data -> {
+                if ("[DONE]".equals(data)) {
+                    st.done = true;
+                    return false;
+                }
+                String delta = readChunk(data, st);
+                if (delta != null && !delta.isEmpty() && !h.isCancelled()) {
+                    st.content.append(delta);
+                    t.emit(delta);
+                }
+                return !h.isCancelled();
+            });
+        }
+        String text = st.content.toString().trim();
+        if (h.isCancelled()) return new Reply(text, false);
+        if (st.refusal.length() > 0) throw new IOException("AI 拒絕回答：" + st.refusal);
+        if (!st.done) throw new IOException("AI 回應中斷（串流沒有正常結束）");
+        return finish(text, st.finishReason);
+    }
+
+    /** 非 2xx 丟例外；429 帶上 Retry-After 交給 AiScheduler 退避重試 */
+    private static void checkStatus(okhttp3.Response r, String body) throws IOException {
+        if (r.isSuccessful()) return;
+        Log.e("AiService", "OpenAI error: " + body);
+        if (r.code() == 429) {
+            throw new AiScheduler.RateLimitedException(AiScheduler.parseRetryAfterMs(
+                    r.header("retry-after-ms"), r.header("Retry-After")));
+        }
+        throw new IOException("OpenAI HTTP " + r.code());
+    }
+
+    /** 回傳這段的 delta.content；順便記下 delta.refusal 與 finish_reason */
+    @Nullable
+    private static String readChunk(String data, StreamState st) {
+        try {
+            JsonArray choices = JsonParser.parseString(data).getAsJsonObject().getAsJsonArray("choices");
+            if (choices == null || choices.size() == 0) return null;
+            JsonObject choice = choices.get(0).getAsJsonObject();
+            String reason = stringOrNull(choice.get("finish_reason"));
+            if (reason != null) st.finishReason = reason;
+            JsonObject delta = choice.getAsJsonObject("delta");
+            if (delta == null) return null;
+            String refusal = stringOrNull(delta.get("refusal"));
+            if (refusal != null) st.refusal.append(refusal);
+            return stringOrNull(delta.get("content"));
+        } catch (JsonParseException | IllegalStateException | ClassCastException e) {
+            Log.w("AiService", "skip malformed chunk: " + data);
+            return null;
+        }
+    }
 
-        JSONObject json = new JSONObject(body);
-        String out = json.getJSONArray("choices")
-                .getJSONObject(0)
-                .getJSONObject("message")
-                .getString("content");
-        return out.trim();
+    @Nullable
+    private static String stringOrNull(@Nullable JsonElement e) {
+        return e == null || e.isJsonNull() ? null : e.getAsString();
     }
 }
@@ -0,0 +1,279 @@
+package com.ld.ainote.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cloud Run 端點的延遲 / 錯誤統計（只存在記憶體，App 重啟歸零）
+ * 每次呼叫一個 Sample，分段記錄：
+ * - queue：送進 IoScheduler 到開始執行
+ * - token：取 ID token（快取命中幾乎為 0；401 重試的強制刷新也算在內）
+ * - connect：建立 TCP+TLS（重用連線池時為 0，次數記在 reused）
+ * - ttfb：請求送出到收到回應標頭（伺服器處理時間；冷啟動會反映在這裡）
+ * - total：開始執行到讀完回應（不含 queue）
+ * 另記請求 / 回應的傳輸位元組、HTTP 狀態碼、409 / 423 次數，以及批次回應中個別塊的 conflict / locked
+ */
+public final class EndpointMetrics {
+
+    /** 直方圖上界（ms），最後一格為 > 最大值 */
+    static final long[] BOUNDS_MS = { 25, 50, 100, 200, 400, 800, 1600, 3200, 6400, 12800 };
+
+    private static final EndpointMetrics INSTANCE = new EndpointMetrics();
+
+    public static EndpointMetrics get() { return INSTANCE; }
+
+    private final Map<String, Stats> byEndpoint = new TreeMap<>();
+    private long sinceMs = System.currentTimeMillis();
+
+    EndpointMetrics() {}
+
+    // ================== 記錄 ==================
+
+    /** 在送進排程器的當下呼叫（開始算 queue） */
+    @NonNull
+    public Sample begin(@NonNull String url) {
+        return new Sample(endpointName(url));
+    }
+
+    /** 批次回應中個別塊的結果（HTTP 200 但某塊 conflict / locked） */
+    public void recordItemStatus(@NonNull String url, @Nullable String status) {
+        if (status == null) return;
+        Stats s = stats(endpointName(url));
+        synchronized (s) {
+            if ("conflict".equals(status)) s.itemConflicts++;
+            else if ("locked".equals(status)) s.itemLocked++;
+        }
+    }
+
+    public void reset() {
+        synchronized (byEndpoint) {
+            byEndpoint.clear();
+            sinceMs = System.currentTimeMillis();
+        }
+    }
+
+    private Stats stats(String endpoint) {
+        synchronized (byEndpoint) {
+            Stats s = byEndpoint.get(endpoint);
+            if (s == null) {
+                s = new Stats();
+                byEndpoint.put(endpoint, s);
+            }
+            return s;
+        }
+    }
+
+    /** https://updateblock-xxxx-de.a.run.app → updateblock；http://10.0.2.2:8080/updateblock → updateblock */
+    @NonNull
+    static String endpointName(@NonNull String url) {
+        String host = null, path = null;
+        try {
+            URI uri = URI.create(url);
+            host = uri.getHost();
+            path = uri.getPath();
+        } catch (IllegalArgumentException ignore) {
+        }
+        if (path != null && path.length() > 1) return path.substring(path.lastIndexOf('/') + 1);
+        if (host == null || host.isEmpty()) return url;
+        int dash = host.indexOf('-');
+        if (dash > 0) return host.substring(0, dash);
+        int dot = host.indexOf('.');
+        return dot > 0 ? host.substring(0, dot) : host;
+    }
+
+    // ================== 單次呼叫 ==================
+
+    /** 一次呼叫的各段時間；同一次呼叫只在一條執行緒上推進，finish 後才寫進統計 */
+    public final class Sample {
+        final String endpoint;
+        private final long queuedAt = System.nanoTime();
+        private long startedAt = -1;
+        private long tokenNanos;
+        private long tokenStart = -1;
+        private long connectNanos;
+        private long connectStart = -1;
+        private boolean connected;
+        private long requestSentAt = -1;
+        private long ttfbNanos = -1;
+        private long requestBytes;
+        private long responseBytes;
+        private boolean finished;
+
+        Sample(String endpoint) { this.endpoint = endpoint; }
+
+        public void started()       { startedAt = System.nanoTime(); }
+        public void tokenStart()    { tokenStart = System.nanoTime(); }
+        public void tokenEnd() {
+            if (tokenStart >= 0) tokenNanos += System.nanoTime() - tokenStart;
+            tokenStart = -1;
+        }
+
+        // 以下由 HttpTransport 的 EventListener 呼叫（401 重試時會進來兩次，connect / 位元組累加、ttfb 取最後一次）
+        void connectStart()         { connectStart = System.nanoTime(); }
+        void connectEnd() {
+            if (connectStart >= 0) connectNanos += System.nanoTime() - connectStart;
+            connectStart = -1;
+            connected = true;
+        }
+        void requestSent()          { requestSentAt = System.nanoTime(); }
+        void firstByte() {
+            if (requestSentAt >= 0) ttfbNanos = System.nanoTime() - requestSentAt;
+        }
+        void requestBytes(long n)   { requestBytes += Math.max(0, n); }
+        void responseBytes(long n)  { responseBytes += Math.max(0, n); }
+
+        /** code：最後一次的 HTTP 狀態碼；沒拿到回應（逾時 / 斷線）傳 0 */
+        public void finish(int code, @Nullable Throwable error) {
+            if (finished) return;
+            finished = true;
+            long end = System.nanoTime();
+            long start = startedAt >= 0 ? startedAt : queuedAt;
+            Stats s = stats(endpoint);
+            synchronized (s) {
+                s.calls++;
+                s.queue.add(ms(start - queuedAt));
+                s.token.add(ms(tokenNanos));
+                if (connected) s.connect.add(ms(connectNanos));
+                else s.reused++;
+                if (ttfbNanos >= 0) s.ttfb.add(ms(ttfbNanos));
+                s.total.add(ms(end - start));
+                s.requestBytes.add(requestBytes);
+                s.responseBytes.add(responseBytes);
+                s.status.merge(code, 1, Integer::sum);
+                if (code == 409) s.conflicts++;
+                if (code == 423) s.locked++;
+                if (error != null && code == 0) s.networkErrors++;
+            }
+        }
+    }
+
+    private static long ms(long nanos) { return Math.max(0, nanos / 1_000_000L); }
+
+    // ================== 彙總 ==================
+
+    static final class Histogram {
+        final long[] buckets = new long[BOUNDS_MS.length + 1];
+        long count, sum, max;
+
+        void add(long ms) {
+            int i = 0;
+            while (i < BOUNDS_MS.length && ms > BOUNDS_MS[i]) i++;
+            buckets[i]++;
+            count++;
+            sum += ms;
+            if (ms > max) max = ms;
+        }
+
+        /** 以所在格的上界估計百分位（最後一格用 max） */
+        long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return i < BOUNDS_MS.length ? Math.min(BOUNDS_MS[i], max) : max;
+            }
+            return max;
+        }
+
+        long avg() { return count == 0 ? 0 : sum / count; }
+    }
+
+    /** 位元組只記總和 / 最大值 */
+    static final class Size {
+        long count, sum, max;
+        void add(long n) {
+            count++;
+            sum += n;
+            if (n > max) max = n;
+        }
+        long avg() { return count == 0 ? 0 : sum / count; }
+    }
+
+    static final class Stats {
+        long calls, reused, conflicts, locked, itemConflicts, itemLocked, networkErrors;
+        final Histogram queue = new Histogram();
+        final Histogram token = new Histogram();
+        final Histogram connect = new Histogram();
+        final Histogram ttfb = new Histogram();
+        final Histogram total = new Histogram();
+        final Size requestBytes = new Size();
+        final Size responseBytes = new Size();
+        final Map<Integer, Integer> status = new TreeMap<>();
+    }
+
+    // ================== 輸出 ==================
+
+    /** 依 total p95 由慢到快排序的文字報表（除錯畫面與匯出共用） */
+    @NonNull
+    public String report() {
+        List<Map.Entry<String, Stats>> entries;
+        long since;
+        synchronized (byEndpoint) {
+            entries = new ArrayList<>(byEndpoint.entrySet());
+            since = sinceMs;
+        }
+        List<Map.Entry<Long, String>> rows = new ArrayList<>();
+        for (Map.Entry<String, Stats> e : entries) {
+            Stats s = e.getValue();
+            StringBuilder sb = new StringBuilder();
+            long p95;
+            synchronized (s) {
+                p95 = s.total.percentile(0.95);
+                sb.append("■ ").append(e.getKey()).append("  呼叫 ").append(s.calls)
+                        .append("  狀態 ").append(s.status).append('\n');
+                line(sb, "total", s.total);
+                line(sb, "queue", s.queue);
+                line(sb, "token", s.token);
+                line(sb, "ttfb", s.ttfb);
+                line(sb, "connect", s.connect);
+                sb.append("  重用連線 ").append(s.reused).append(" / 新連線 ").append(s.connect.count).append('\n');
+                sb.append("  送出 avg ").append(s.requestBytes.avg()).append("B max ").append(s.requestBytes.max)
+                        .append("B｜收到 avg ").append(s.responseBytes.avg()).append("B max ")
+                        .append(s.responseBytes.max).append("B\n");
+                sb.append("  409 ").append(s.conflicts).append("  423 ").append(s.locked)
+                        .append("  批次內 conflict ").append(s.itemConflicts)
+                        .append(" / locked ").append(s.itemLocked)
+                        .append("  連線失敗 ").append(s.networkErrors).append('\n');
+            }
+            rows.add(new AbstractMap.SimpleEntry<>(p95, sb.toString()));
+        }
+        Collections.sort(rows, (a, b) -> Long.compare(b.getKey(), a.getKey()));
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        StringBuilder out = new StringBuilder();
+        out.append("端點統計（自 ").append(fmt.format(new Date(since))).append("，單位 ms）\n\n");
+        if (rows.isEmpty()) out.append("尚無資料\n");
+        for (Map.Entry<Long, String> r : rows) out.append(r.getValue()).append('\n');
+        return out.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, Histogram h) {
+        sb.append("  ").append(name).append(": n=").append(h.count)
+                .append(" avg=").append(h.avg())
+                .append(" p50=").append(h.percentile(0.50))
+                .append(" p95=").append(h.percentile(0.95))
+                .append(" max=").append(h.max)
+                .append("  [");
+        boolean first = true;
+        for (int i = 0; i < h.buckets.length; i++) {
+            if (h.buckets[i] == 0) continue; // 空格不列
+            if (!first) sb.append(' ');
+            first = false;
+            sb.append(i < BOUNDS_MS.length ? "≤" + BOUNDS_MS[i] : ">" + BOUNDS_MS[BOUNDS_MS.length - 1])
+                    .append(':').append(h.buckets[i]);
+        }
+        sb.append("]\n");
+    }
+}
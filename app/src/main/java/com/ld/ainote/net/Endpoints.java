@@ -0,0 +1,37 @@
+package com.ld.ainote.net;
+
+import androidx.annotation.NonNull;
+
+import com.ld.ainote.BuildConfig;
+
+import java.util.Locale;
+
+/**
+ * Cloud Run 端點網址
+ * - 預設：https://{函式名小寫}-qoe2g6zspa-de.a.run.app（每支函式各自一個服務）
+ * - local.properties 設了 API_BASE_URL 時改成 {base}/{函式名小寫}，例如模擬器連本機 :devserver
+ *   API_BASE_URL=http://10.0.2.2:8080
+ */
+public final class Endpoints {
+
+    private static final String CLOUD_RUN_SUFFIX = "-qoe2g6zspa-de.a.run.app";
+
+    private Endpoints() {}
+
+    /** fn：functions/index.js 的 export 名稱，例如 "updateBlock" */
+    @NonNull
+    public static String url(@NonNull String fn) {
+        return url(BuildConfig.API_BASE_URL, fn);
+    }
+
+    @NonNull
+    static String url(String baseUrl, @NonNull String fn) {
+        String name = fn.toLowerCase(Locale.ROOT);
+        if (baseUrl == null || baseUrl.trim().isEmpty()) {
+            return "https://" + name + CLOUD_RUN_SUFFIX;
+        }
+        String base = baseUrl.trim();
+        while (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+        return base + "/" + name;
+    }
+}
@@ -0,0 +1,205 @@
+package com.ld.ainote.net;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+/**
+ * 全 App 共用的 HTTP 傳輸層（NoteRepository / BlockRepository / AiService 都走這裡）
+ * - 單一 OkHttpClient：keep-alive 連線池，同主機的請求重用 TCP+TLS 連線
+ * - 伺服器支援時自動走 HTTP/2（同一條連線多工）
+ * - 回應：OkHttp 自動帶 Accept-Encoding: gzip 並透明解壓
+ * - 請求：較大的 body 可選擇 gzip 壓縮後送出（Cloud Run / Functions 會自動解壓）
+ */
+public final class HttpTransport {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // 太小的 body 壓縮反而變大，超過門檻才 gzip
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    private static volatile OkHttpClient client;
+
+    private HttpTransport() {}
+
+    /** 回應結果：狀態碼 + 文字內容（非 2xx 也照樣回傳，交給呼叫端決定如何處理） */
+    public static final class Response {
+        public final int code;
+        public final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body == null ? "" : body;
+        }
+
+        public boolean isSuccessful() { return code >= 200 && code < 300; }
+    }
+
+    /** 串流讀取 2xx 回應內容（在呼叫端執行緒上邊下載邊讀） */
+    public interface BodyReader {
+        void read(Reader body) throws IOException;
+    }
+
+    /** 共用 client（15s 連線 / 30s 讀取，與原本 HttpURLConnection 設定一致） */
+    public static OkHttpClient client() {
+        OkHttpClient c = client;
+        if (c == null) {
+            synchronized (HttpTransport.class) {
+                c = client;
+                if (c == null) {
+                    c = new OkHttpClient.Builder()
+                            .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(15, TimeUnit.SECONDS)
+                            .readTimeout(30, TimeUnit.SECONDS)
+                            .writeTimeout(30, TimeUnit.SECONDS)
+                            .retryOnConnectionFailure(true)
+                            .eventListenerFactory(HttpTransport::metricsListener)
+                            .build();
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /** 需要較長逾時的呼叫（例如 OpenAI）：newBuilder() 會沿用同一個連線池與 dispatcher */
+    public static OkHttpClient withTimeouts(long connectMs, long readMs) {
+        return client().newBuilder()
+                .connectTimeout(connectMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static Response postJson(String url, @Nullable String bearer, String json,
+                                    boolean gzipBody) throws IOException {
+        return postJson(client(), url, bearer, json, gzipBody, null);
+    }
+
+    /** sample 不為 null 時，連線 / TTFB / 傳輸位元組會記進 EndpointMetrics */
+    public static Response postJson(String url, @Nullable String bearer, String json,
+                                    boolean gzipBody, @Nullable EndpointMetrics.Sample sample) throws IOException {
+        return postJson(client(), url, bearer, json, gzipBody, sample);
+    }
+
+    public static Response postJson(OkHttpClient c, String url, @Nullable String bearer, String json,
+                                    boolean gzipBody) throws IOException {
+        return postJson(c, url, bearer, json, gzipBody, null);
+    }
+
+    private static Response postJson(OkHttpClient c, String url, @Nullable String bearer, String json,
+                                     boolean gzipBody, @Nullable EndpointMetrics.Sample sample) throws IOException {
+        try (okhttp3.Response r = c.newCall(buildPost(url, bearer, json, gzipBody, sample)).execute()) {
+            ResponseBody rbody = r.body();
+            return new Response(r.code(), rbody == null ? "" : rbody.string());
+        }
+    }
+
+    /** 呼叫端要能中途取消時用：只建好 Call，由呼叫端 execute() 並保留 Call 以便 cancel() 中斷連線 */
+    public static Call newPostCall(OkHttpClient c, String url, @Nullable String bearer, String json,
+                                   boolean gzipBody) throws IOException {
+        return c.newCall(buildPost(url, bearer, json, gzipBody, null));
+    }
+
+    /**
+     * 同 postJson，但 2xx 時把回應交給 reader 串流解析（不先轉成整份字串），回傳的 body 為空字串；
+     * 非 2xx 照舊讀成文字回傳，方便組錯誤訊息
+     */
+    public static Response postJsonStreaming(String url, @Nullable String bearer, String json,
+                                             boolean gzipBody, BodyReader reader,
+                                             @Nullable EndpointMetrics.Sample sample) throws IOException {
+        Request request = buildPost(url, bearer, json, gzipBody, sample);
+        try (okhttp3.Response r = client().newCall(request).execute()) {
+            ResponseBody rbody = r.body();
+            if (!r.isSuccessful() || rbody == null) {
+                return new Response(r.code(), rbody == null ? "" : rbody.string());
+            }
+            reader.read(rbody.charStream());
+            return new Response(r.code(), "");
+        }
+    }
+
+    private static Request buildPost(String url, @Nullable String bearer, String json, boolean gzipBody,
+                                     @Nullable EndpointMetrics.Sample sample) throws IOException {
+        byte[] data = (json == null ? "{}" : json).getBytes(StandardCharsets.UTF_8);
+
+        Request.Builder rb = new Request.Builder().url(url);
+        if (bearer != null) rb.header("Authorization", "Bearer " + bearer);
+        if (sample != null) rb.tag(EndpointMetrics.Sample.class, sample);
+
+        RequestBody body;
+        if (gzipBody && data.length >= GZIP_MIN_BYTES) {
+            body = RequestBody.create(gzip(data), JSON);
+            rb.header("Content-Encoding", "gzip");
+        } else {
+            body = RequestBody.create(data, JSON);
+        }
+        return rb.post(body).build();
+    }
+
+    // ================== 指標 ==================
+
+    /** 只有帶 Sample tag 的請求（Cloud Run 端點）才掛 listener，其餘（例如 OpenAI）不記 */
+    private static EventListener metricsListener(Call call) {
+        EndpointMetrics.Sample s = call.request().tag(EndpointMetrics.Sample.class);
+        return s == null ? EventListener.NONE : new MetricsListener(s);
+    }
+
+    /** 同步 execute()：事件都在呼叫端執行緒上觸發，直接寫進 Sample */
+    private static final class MetricsListener extends EventListener {
+        private final EndpointMetrics.Sample s;
+
+        MetricsListener(EndpointMetrics.Sample s) { this.s = s; }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress addr, Proxy proxy) { s.connectStart(); }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress addr, Proxy proxy, Protocol protocol) { s.connectEnd(); }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress addr, Proxy proxy, Protocol protocol,
+                                  IOException ioe) { s.connectEnd(); }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) { s.requestSent(); }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            s.requestBytes(byteCount);
+            s.requestSent();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) { s.firstByte(); }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) { s.responseBytes(byteCount); }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+            gz.write(data);
+        }
+        return bos.toByteArray();
+    }
+}
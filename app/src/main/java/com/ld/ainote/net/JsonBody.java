@@ -0,0 +1,99 @@
+package com.ld.ainote.net;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * 請求 body 直接寫成 JSON 字串（Gson JsonWriter），不先組 JSONObject 樹再 toString
+ * 用法：JsonBody.object().put("ownerId", o).put("noteId", n).build()
+ * - put 的值為 null 時略過該欄位（與 JSONObject.put(key, null) 的效果一致）
+ * - 巢狀：beginArray("updates").beginObject()...endObject().endArray()
+ */
+public final class JsonBody {
+
+    private final StringWriter out = new StringWriter(128);
+    private final JsonWriter w = new JsonWriter(out);
+
+    private JsonBody() {
+        w.setSerializeNulls(false);
+    }
+
+    public static JsonBody object() {
+        return new JsonBody().beginObject();
+    }
+
+    public JsonBody put(String name, String value) {
+        if (value == null) return this;
+        try { w.name(name).value(value); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    public JsonBody put(String name, long value) {
+        try { w.name(name).value(value); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    public JsonBody put(String name, double value) {
+        try { w.name(name).value(value); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    public JsonBody put(String name, boolean value) {
+        try { w.name(name).value(value); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    /** 字串陣列（null 視為空陣列，null 元素略過） */
+    public JsonBody putStrings(String name, Iterable<String> values) {
+        beginArray(name);
+        if (values != null) {
+            for (String v : values) if (v != null) value(v);
+        }
+        return endArray();
+    }
+
+    public JsonBody beginObject(String name) {
+        try { w.name(name).beginObject(); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    /** 陣列中的物件 */
+    public JsonBody beginObject() {
+        try { w.beginObject(); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    public JsonBody endObject() {
+        try { w.endObject(); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    public JsonBody beginArray(String name) {
+        try { w.name(name).beginArray(); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    public JsonBody endArray() {
+        try { w.endArray(); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    /** 陣列中的字串元素 */
+    public JsonBody value(String v) {
+        try { w.value(v); } catch (IOException e) { throw new IllegalStateException(e); }
+        return this;
+    }
+
+    /** 結束最外層物件並回傳字串 */
+    public String build() {
+        try {
+            w.endObject();
+            w.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.ld.ainote.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Server-Sent Events 的最小解析（OpenAI stream=true 的回應格式）
+ * - 一個事件 = 連續的 data: 行，遇到空行結束；多行 data 以 \n 接起來
+ * - 「:」開頭是註解 / keep-alive，event: / id: / retry: 用不到直接略過
+ * - 邊下載邊解析：readLine 只等到下一行，不等整份回應
+ */
+public final class SseReader {
+
+    public interface EventHandler {
+        /** 回傳 false 代表不用再讀（例如收到 [DONE]） */
+        boolean onData(String data) throws IOException;
+    }
+
+    private SseReader() {}
+
+    public static void read(Reader in, EventHandler handler) throws IOException {
+        BufferedReader br = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        StringBuilder data = new StringBuilder();
+        boolean hasData = false;
+        for (String line; (line = br.readLine()) != null; ) {
+            if (line.isEmpty()) {
+                if (hasData && !handler.onData(data.toString())) return;
+                data.setLength(0);
+                hasData = false;
+            } else if (line.startsWith("data:")) {
+                String v = line.startsWith("data: ") ? line.substring(6) : line.substring(5);
+                if (hasData) data.append('\n');
+                data.append(v);
+                hasData = true;
+            }
+        }
+        // 連線結束前最後一個事件沒有空行收尾
+        if (hasData) handler.onData(data.toString());
+    }
+}
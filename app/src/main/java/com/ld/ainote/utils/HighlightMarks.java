@@ -0,0 +1,70 @@
+package com.ld.ainote.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * [[重點]] 標記的純文字解析（不依賴 Android；HighlightUtils 再套上 Span，:benchmarks 直接量這裡）
+ * 沒有成對的 [[ ]] 會原樣保留
+ */
+public final class HighlightMarks {
+
+    /** 去掉標記後的文字 + 每段重點的 [start, end) 區間（依序成對存放） */
+    public static final class Parsed {
+        public final String text;
+        public final int[] ranges;
+
+        Parsed(String text, int[] ranges) {
+            this.text = text;
+            this.ranges = ranges;
+        }
+
+        public int count() { return ranges.length / 2; }
+    }
+
+    private static final int[] NO_RANGES = new int[0];
+
+    private HighlightMarks() {}
+
+    public static Parsed parse(CharSequence raw) {
+        if (raw == null) return new Parsed("", NO_RANGES);
+        String s = raw.toString();
+        int first = s.indexOf("[[");
+        if (first < 0) return new Parsed(s, NO_RANGES);
+
+        StringBuilder out = new StringBuilder(s.length());
+        int[] ranges = new int[8];
+        int n = 0;
+        int i = 0;
+        int open = first;
+        while (open >= 0) {
+            int close = s.indexOf("]]", open + 2);
+            if (close < 0) break;
+            out.append(s, i, open);
+            if (n + 2 > ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[n++] = out.length();
+            out.append(s, open + 2, close);
+            ranges[n++] = out.length();
+            i = close + 2;
+            open = s.indexOf("[[", i);
+        }
+        out.append(s, i, s.length());
+        return new Parsed(out.toString(), Arrays.copyOf(ranges, n));
+    }
+
+    public static List<String> extract(String raw) {
+        List<String> res = new ArrayList<>();
+        if (raw == null) return res;
+        int i = 0;
+        while (i < raw.length()) {
+            int open = raw.indexOf("[[", i);
+            if (open < 0) break;
+            int close = raw.indexOf("]]", open + 2);
+            if (close < 0) break;
+            res.add(raw.substring(open + 2, close));
+            i = close + 2;
+        }
+        return res;
+    }
+}
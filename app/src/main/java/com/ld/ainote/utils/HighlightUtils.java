@@ -4,48 +4,26 @@ import android.text.SpannableStringBuilder;
 import android.text.style.BackgroundColorSpan;
 import android.widget.EditText;
 import android.widget.TextView;
-import java.util.ArrayList;
 import java.util.List;
 
 public class HighlightUtils {
 
     public static final int HIGHLIGHT_YELLOW = 0x66FFF59D;
 
+    /** 解析交給 HighlightMarks，這裡只一次建好字串再掛 Span */
     public static CharSequence buildHighlighted(CharSequence raw) {
         if (raw == null) return "";
-        String s = raw.toString();
-        SpannableStringBuilder out = new SpannableStringBuilder();
-
-        int i = 0;
-        while (i < s.length()) {
-            int open = s.indexOf("[[", i);
-            if (open < 0) { out.append(s.substring(i)); break; }
-            out.append(s, i, open);
-            int close = s.indexOf("]]", open + 2);
-            if (close < 0) { out.append(s.substring(open)); break; }
-
-            int start = out.length();
-            out.append(s, open + 2, close);
-            int end = out.length();
-            out.setSpan(new BackgroundColorSpan(HIGHLIGHT_YELLOW), start, end, 0);
-            i = close + 2;
+        HighlightMarks.Parsed p = HighlightMarks.parse(raw);
+        if (p.count() == 0) return p.text;
+        SpannableStringBuilder out = new SpannableStringBuilder(p.text);
+        for (int k = 0; k < p.ranges.length; k += 2) {
+            out.setSpan(new BackgroundColorSpan(HIGHLIGHT_YELLOW), p.ranges[k], p.ranges[k + 1], 0);
         }
         return out;
     }
 
     public static List<String> extractHighlights(String raw) {
-        List<String> res = new ArrayList<>();
-        if (raw == null) return res;
-        int i = 0;
-        while (i < raw.length()) {
-            int open = raw.indexOf("[[", i);
-            if (open < 0) break;
-            int close = raw.indexOf("]]", open + 2);
-            if (close < 0) break;
-            res.add(raw.substring(open + 2, close));
-            i = close + 2;
-        }
-        return res;
+        return HighlightMarks.extract(raw);
     }
 
     public static void addMark(EditText et) {
@@ -0,0 +1,41 @@
+package com.ld.ainote.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 錯題本的標籤過濾與抽題（不依賴 Android；AiFragment 與 :benchmarks 共用）
+ * 題目型別由呼叫端決定，只要給得出 tags
+ */
+public final class QuestionPicker {
+
+    private QuestionPicker() {}
+
+    /** 任一 tag 命中就留下；wantedTags 為空代表不過濾（回傳原清單） */
+    public static <T> List<T> filterByTags(List<T> list, Set<String> wantedTags,
+                                           Function<T, List<String>> tagsOf) {
+        if (wantedTags == null || wantedTags.isEmpty()) return list;
+        List<T> out = new ArrayList<>();
+        for (T item : list) {
+            List<String> tags = tagsOf.apply(item);
+            if (tags == null || tags.isEmpty()) continue;
+            for (String t : tags) {
+                if (wantedTags.contains(t)) { out.add(item); break; }
+            }
+        }
+        return out;
+    }
+
+    /** 隨機抽 n 題；n 大於題庫時全部回傳（順序打亂） */
+    public static <T> List<T> pick(List<T> bank, int n, Random random) {
+        if (bank.isEmpty()) return Collections.emptyList();
+        ArrayList<T> tmp = new ArrayList<>(bank);
+        Collections.shuffle(tmp, random);
+        if (n >= tmp.size()) return tmp;
+        return new ArrayList<>(tmp.subList(0, n));
+    }
+}
@@ -0,0 +1,146 @@
+package com.ld.ainote.utils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 結構化出題結果的解析（Gson JsonReader 串流讀，不建 JsonObject 樹；純 Java）
+ * 格式與 AiService 送出的 json_schema 相同：
+ *   { "questions": [ { "question": "...", "options": { "A": "...", "B": "...", "C": "...", "D": "..." }, "answer": "C" } ] }
+ * - 不合格的題目（缺題幹、選項不滿 4 個、答案不是 A~D）略過，不影響其他題
+ * - 回應被截斷（finish_reason = length）時，保留已讀完的題目
+ * - 題號依出現順序 1, 2, 3 ...
+ */
+public final class QuizJson {
+
+    private QuizJson() {}
+
+    public static List<QuizParser.Item> parse(String json) {
+        if (json == null) return new ArrayList<>();
+        return parse(new StringReader(json));
+    }
+
+    public static List<QuizParser.Item> parse(Reader in) {
+        List<QuizParser.Item> out = new ArrayList<>();
+        JsonReader r = new JsonReader(in);
+        r.setLenient(true); // 容許前後多出空白 / 換行
+        try {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return out;
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!"questions".equals(r.nextName()) || r.peek() != JsonToken.BEGIN_ARRAY) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                while (r.hasNext()) {
+                    QuizParser.Item it = readQuestion(r, out.size() + 1);
+                    if (it != null) out.add(it);
+                }
+                r.endArray();
+            }
+            r.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // 截斷或格式壞掉：已完整讀到的題目照樣回傳
+        }
+        return out;
+    }
+
+    /** 單獨一題的 JSON 物件（QuizJsonStream 收齊一題時用）；不合格回傳 null */
+    public static QuizParser.Item parseQuestion(String objectJson, int number) {
+        JsonReader r = new JsonReader(new StringReader(objectJson));
+        r.setLenient(true);
+        try {
+            return readQuestion(r, number);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** 不合 schema 回傳 null（該題的值已整個讀掉） */
+    private static QuizParser.Item readQuestion(JsonReader r, int number) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_OBJECT) {
+            r.skipValue();
+            return null;
+        }
+        String stem = null;
+        String[] options = new String[4];
+        int correct = -1;
+
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            switch (name) {
+                case "question":
+                    stem = readString(r);
+                    break;
+                case "options":
+                    readOptions(r, options);
+                    break;
+                case "answer":
+                    correct = readAnswer(r);
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+
+        if (stem == null || stem.isEmpty() || correct < 0) return null;
+        for (String o : options) if (o == null || o.isEmpty()) return null;
+        return new QuizParser.Item(number, stem, options, correct);
+    }
+
+    /** 正式格式是 {A,B,C,D}；模型偶爾回陣列也收 */
+    private static void readOptions(JsonReader r, String[] options) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.BEGIN_OBJECT) {
+            r.beginObject();
+            while (r.hasNext()) {
+                int i = letterIndex(r.nextName());
+                String v = readString(r);
+                if (i >= 0) options[i] = v;
+            }
+            r.endObject();
+        } else if (t == JsonToken.BEGIN_ARRAY) {
+            r.beginArray();
+            for (int i = 0; r.hasNext(); i++) {
+                String v = readString(r);
+                if (i < 4) options[i] = v;
+            }
+            r.endArray();
+        } else {
+            r.skipValue();
+        }
+    }
+
+    /** "C" / "c" / "C." 或 0~3 的索引 */
+    private static int readAnswer(JsonReader r) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.NUMBER) {
+            int i = r.nextInt();
+            return i >= 0 && i < 4 ? i : -1;
+        }
+        String s = readString(r);
+        return s == null || s.isEmpty() ? -1 : letterIndex(s.substring(0, 1));
+    }
+
+    private static String readString(JsonReader r) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.STRING || t == JsonToken.NUMBER) return r.nextString().trim();
+        r.skipValue();
+        return null;
+    }
+
+    private static int letterIndex(String s) {
+        if (s.length() != 1) return -1;
+        char c = Character.toUpperCase(s.charAt(0));
+        return c >= 'A' && c <= 'D' ? c - 'A' : -1;
+    }
+}
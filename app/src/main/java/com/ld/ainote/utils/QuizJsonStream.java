@@ -0,0 +1,82 @@
+package com.ld.ainote.utils;
+
+/**
+ * 結構化出題結果的「邊收邊解」版本（純 Java）
+ * - feed() 餵進串流收到的任意片段（可能切在字串、跳脫字元中間）
+ * - 只追蹤 JSON 的巢狀層級 / 字串狀態；questions 陣列裡某一題的 } 一出現就交給 QuizJson 解析並 onQuestion
+ * - 只暫存「目前這一題」的文字，整份回應不會重複掃描
+ * 格式同 QuizJson：{ "questions": [ { question, options: {A..D}, answer }, ... ] }
+ * 呼叫端自己保證同一個實例不會同時被多個執行緒 feed
+ */
+public final class QuizJsonStream {
+
+    public interface Listener {
+        /** 依序呼叫；number 從 1 開始，不合格被略過的題目不佔號 */
+        void onQuestion(QuizParser.Item item);
+    }
+
+    private static final int MAX_DEPTH = 16;
+
+    private final Listener listener;
+    private final char[] stack = new char[MAX_DEPTH]; // 每層是 '{' 或 '['
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private final StringBuilder current = new StringBuilder(); // 正在收的那一題
+    private boolean capturing = false;
+    private int emitted = 0;
+
+    public QuizJsonStream(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int emittedCount() {
+        return emitted;
+    }
+
+    public void feed(CharSequence chunk) {
+        if (chunk == null) return;
+        for (int i = 0, n = chunk.length(); i < n; i++) {
+            char c = chunk.charAt(i);
+            if (capturing) current.append(c);
+
+            if (inString) {
+                if (escaped) escaped = false;
+                else if (c == '\\') escaped = true;
+                else if (c == '"') inString = false;
+                continue;
+            }
+            switch (c) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    // 根物件 → questions 陣列 → 題目物件：第 3 層、上一層是陣列的物件就是一題
+                    if (c == '{' && depth == 2 && stack[1] == '[' && !capturing) {
+                        capturing = true;
+                        current.setLength(0);
+                        current.append(c);
+                    }
+                    if (depth < MAX_DEPTH) stack[depth] = c;
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth > 0) depth--;
+                    if (capturing && c == '}' && depth == 2) {
+                        capturing = false;
+                        QuizParser.Item it = QuizJson.parseQuestion(current.toString(), emitted + 1);
+                        current.setLength(0);
+                        if (it != null) {
+                            emitted++;
+                            listener.onQuestion(it);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
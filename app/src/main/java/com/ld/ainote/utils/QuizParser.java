@@ -0,0 +1,109 @@
+package com.ld.ainote.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * AI 出題結果的純文字解析（不依賴 Android；AiFragment 轉成畫面用的 Question，:benchmarks 直接量這裡）
+ * - 題號同時支援「Q1:」與「1. / 1)」；答案區（獨立一行「【答案】」之後）支援「1. C / 1) C / Q1: C」
+ * - 正則全部預先編譯，避免每題 × 每個選項重編一次
+ */
+public final class QuizParser {
+
+    /** 一題；correct = -1 代表答案區沒有這題 */
+    public static final class Item {
+        public final int number;
+        public final String stem;
+        public final String[] options;
+        public final int correct;
+
+        Item(int number, String stem, String[] options, int correct) {
+            this.number = number;
+            this.stem = stem;
+            this.options = options;
+            this.correct = correct;
+        }
+    }
+
+    private static final Pattern ANSWER_SPLIT = Pattern.compile("(?m)^\\s*【答案】\\s*$");
+    private static final Pattern ANSWER = Pattern.compile(
+            "^\\s*(?:Q\\s*)?(\\d+)\\s*[\\.|\\):：]??\\s*([A-Da-d])\\s*$", Pattern.MULTILINE);
+    private static final Pattern QUESTION_START = Pattern.compile("(?m)^(?=\\s*(?:Q\\s*)?\\d+\\s*[\\.:：\\)])");
+    private static final Pattern HEADER = Pattern.compile(
+            "^\\s*(?:Q\\s*)?(\\d+)\\s*[\\.:：\\)]\\s*(.*)$", Pattern.MULTILINE);
+    private static final Pattern OPTION_A_START = Pattern.compile("(?m)^\\s*A[\\.|\\)．、]\\s");
+    private static final Pattern EDGE_SPACE = Pattern.compile("^[\\r\\n\\s]+|[\\r\\n\\s]+$");
+    private static final Pattern[] OPTIONS = new Pattern[4];
+    static {
+        for (int i = 0; i < 4; i++) {
+            OPTIONS[i] = Pattern.compile("(?m)^\\s*" + (char) ('A' + i) + "[\\.|\\)．、]\\s*(.*)$");
+        }
+    }
+
+    private QuizParser() {}
+
+    /** 依題號排序；選項不足 4 個的題目略過，一題都解不出來回傳空清單 */
+    public static List<Item> parse(String raw) {
+        List<Item> out = new ArrayList<>();
+        if (raw == null) return out;
+
+        // 標準化空白
+        String norm = raw.replace('\u00A0', ' ').replace('\u3000', ' ');
+
+        String[] parts = ANSWER_SPLIT.split(norm);
+        String qPart = parts[0];
+        String aPart = (parts.length > 1) ? parts[1] : "";
+
+        Map<Integer, Integer> answerMap = new HashMap<>();
+        Matcher ma = ANSWER.matcher(aPart);
+        while (ma.find()) {
+            int idx = safeInt(ma.group(1));
+            char letter = Character.toUpperCase(ma.group(2).charAt(0));
+            if (idx > 0 && letter >= 'A' && letter <= 'D') answerMap.put(idx, letter - 'A');
+        }
+
+        for (String blk : QUESTION_START.split(qPart)) {
+            String b = blk.trim();
+            if (b.isEmpty()) continue;
+
+            Matcher mh = HEADER.matcher(b);
+            if (!mh.find()) continue;
+            int number = safeInt(mh.group(1));
+            String afterHeader = b.substring(mh.end()).trim();
+
+            // 題幹 = 標頭同一行 + A 選項之前的內容
+            Matcher mApos = OPTION_A_START.matcher(afterHeader);
+            String stem = mApos.find()
+                    ? mh.group(2) + "\n" + afterHeader.substring(0, mApos.start())
+                    : mh.group(2) + "\n" + afterHeader;
+            stem = EDGE_SPACE.matcher(stem.trim()).replaceAll("");
+
+            String[] opts = new String[4];
+            boolean complete = true;
+            for (int i = 0; i < 4 && complete; i++) {
+                Matcher mo = OPTIONS[i].matcher(b);
+                if (mo.find()) opts[i] = mo.group(1).trim();
+                else complete = false;
+            }
+            if (!complete) continue;
+
+            Integer correct = answerMap.get(number);
+            out.add(new Item(number,
+                    stem.isEmpty() ? ("第 " + number + " 題") : stem,
+                    opts,
+                    correct == null ? -1 : correct));
+        }
+
+        out.sort(Comparator.comparingInt(q -> q.number));
+        return out;
+    }
+
+    private static int safeInt(String s) {
+        try { return Integer.parseInt(s.trim()); } catch (Exception e) { return -1; }
+    }
+}
@@ -0,0 +1,279 @@
+package com.ld.ainote.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 筆記全文檢索用的倒排索引（純 Java，不依賴 Android）
+ * - 斷詞：英數連續字元為一個詞；中日韓文字切成 bigram（每段最後一字另外存 unigram，單字查詢也找得到）
+ * - 每份文件（ownerId#noteId）分欄位存：標題 / 類別 / 舊 content / 各 block，欄位可單獨更新
+ * - 查詢：所有詞都要命中（AND），最後一個詞當前綴；依欄位權重 × 詞頻加總排序
+ *   前綴再短也回傳完整結果，不會因為展開的詞太多而漏掉文件
+ * - 所有方法皆 synchronized：監聽器在主執行緒寫入，列表在背景執行緒查詢
+ */
+public final class SearchIndex {
+
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_STACK = "stack";
+    public static final String FIELD_CONTENT = "content";
+    private static final String BLOCK_FIELD_PREFIX = "b:";
+
+    private static final int WEIGHT_TITLE = 8;
+    private static final int WEIGHT_STACK = 4;
+    private static final int WEIGHT_BODY = 1;
+
+    // 前綴展開超過這麼多詞、而且還有其他詞可以先縮小範圍時，改成只檢查候選文件自己的詞
+    private static final int MAX_PREFIX_TERMS = 256;
+
+    private static volatile SearchIndex shared;
+
+    /** App 共用的索引（筆記列表 / 編輯頁 / 同步佇列都寫這一份） */
+    public static SearchIndex shared() {
+        SearchIndex s = shared;
+        if (s == null) {
+            synchronized (SearchIndex.class) {
+                s = shared;
+                if (s == null) {
+                    s = new SearchIndex();
+                    shared = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    // term → (docKey → 分數)；TreeMap 讓前綴查詢可以用 subMap
+    private final TreeMap<String, Map<String, Integer>> postings = new TreeMap<>();
+    // docKey → (欄位 → 該欄位貢獻的 term 分數)，更新 / 刪除時用來扣回
+    private final Map<String, Map<String, Map<String, Integer>>> docs = new HashMap<>();
+
+    // ================== 寫入 ==================
+
+    public synchronized void putNote(String docKey, String title, String stack, String content) {
+        putFieldLocked(docKey, FIELD_TITLE, title, WEIGHT_TITLE);
+        putFieldLocked(docKey, FIELD_STACK, stack, WEIGHT_STACK);
+        putFieldLocked(docKey, FIELD_CONTENT, content, WEIGHT_BODY);
+    }
+
+    public synchronized void putBlock(String docKey, String blockId, String text) {
+        putFieldLocked(docKey, BLOCK_FIELD_PREFIX + blockId, text, WEIGHT_BODY);
+    }
+
+    /** 以整份 block 清單取代（不在清單中的舊 block 會被移除） */
+    public synchronized void putBlocks(String docKey, Map<String, String> blockTexts) {
+        Map<String, Map<String, Integer>> fields = docs.get(docKey);
+        if (fields != null) {
+            for (String f : new ArrayList<>(fields.keySet())) {
+                if (f.startsWith(BLOCK_FIELD_PREFIX)
+                        && !blockTexts.containsKey(f.substring(BLOCK_FIELD_PREFIX.length()))) {
+                    removeFieldLocked(docKey, f);
+                }
+            }
+        }
+        for (Map.Entry<String, String> e : blockTexts.entrySet()) {
+            putFieldLocked(docKey, BLOCK_FIELD_PREFIX + e.getKey(), e.getValue(), WEIGHT_BODY);
+        }
+    }
+
+    public synchronized void removeBlock(String docKey, String blockId) {
+        removeFieldLocked(docKey, BLOCK_FIELD_PREFIX + blockId);
+    }
+
+    public synchronized void removeNote(String docKey) {
+        Map<String, Map<String, Integer>> fields = docs.get(docKey);
+        if (fields == null) return;
+        for (String f : new ArrayList<>(fields.keySet())) removeFieldLocked(docKey, f);
+    }
+
+    public synchronized boolean hasBlocks(String docKey) {
+        Map<String, Map<String, Integer>> fields = docs.get(docKey);
+        if (fields == null) return false;
+        for (String f : fields.keySet()) if (f.startsWith(BLOCK_FIELD_PREFIX)) return true;
+        return false;
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        docs.clear();
+    }
+
+    public synchronized int docCount() { return docs.size(); }
+    public synchronized int termCount() { return postings.size(); }
+
+    private void putFieldLocked(String docKey, String field, String text, int weight) {
+        Map<String, Integer> next = new HashMap<>();
+        for (String t : tokenize(text)) next.merge(t, weight, Integer::sum);
+
+        Map<String, Map<String, Integer>> fields = docs.get(docKey);
+        Map<String, Integer> prev = fields == null ? null : fields.get(field);
+        if (prev != null && prev.equals(next)) return; // 內容沒變，不動索引
+
+        if (prev != null) removeFieldLocked(docKey, field);
+        if (next.isEmpty()) return;
+
+        if (fields == null) {
+            fields = new HashMap<>();
+            docs.put(docKey, fields);
+        }
+        fields.put(field, next);
+        for (Map.Entry<String, Integer> e : next.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new HashMap<>())
+                    .merge(docKey, e.getValue(), Integer::sum);
+        }
+    }
+
+    private void removeFieldLocked(String docKey, String field) {
+        Map<String, Map<String, Integer>> fields = docs.get(docKey);
+        if (fields == null) return;
+        Map<String, Integer> prev = fields.remove(field);
+        if (prev != null) {
+            for (Map.Entry<String, Integer> e : prev.entrySet()) {
+                Map<String, Integer> p = postings.get(e.getKey());
+                if (p == null) continue;
+                Integer cur = p.get(docKey);
+                if (cur == null) continue;
+                int left = cur - e.getValue();
+                if (left > 0) p.put(docKey, left);
+                else p.remove(docKey);
+                if (p.isEmpty()) postings.remove(e.getKey());
+            }
+        }
+        if (fields.isEmpty()) docs.remove(docKey);
+    }
+
+    // ================== 查詢 ==================
+
+    /** 回傳命中的 docKey → 分數（沒有可用的詞時回傳 null，代表「不過濾」） */
+    public synchronized Map<String, Integer> query(String q) {
+        List<String> terms = tokenize(q, true);
+        if (terms.isEmpty()) return null;
+
+        // 先把每個詞的候選集合找出來，從最小的開始交集
+        int lastIdx = terms.size() - 1;
+        List<Map<String, Integer>> lists = new ArrayList<>(terms.size());
+        for (int i = 0; i < lastIdx; i++) {
+            Map<String, Integer> m = postings.get(terms.get(i));
+            if (m == null || m.isEmpty()) return Collections.emptyMap();
+            lists.add(m);
+        }
+        String prefix = terms.get(lastIdx);
+        SortedMap<String, Map<String, Integer>> range = postings.subMap(prefix, prefix + Character.MAX_VALUE);
+        if (range.isEmpty()) return Collections.emptyMap();
+
+        // 前綴很短、展開的詞很多：先用其他詞交集，再逐篇檢查候選文件有沒有這個前綴
+        boolean scanCandidates = !lists.isEmpty() && range.size() > MAX_PREFIX_TERMS;
+        if (!scanCandidates) lists.add(prefixPostings(range));
+
+        Map<String, Integer> result = intersect(lists);
+        if (scanCandidates) {
+            Iterator<Map.Entry<String, Integer>> it = result.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Integer> e = it.next();
+                int s = prefixScoreLocked(e.getKey(), prefix);
+                if (s == 0) it.remove();
+                else e.setValue(e.getValue() + s);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> intersect(List<Map<String, Integer>> lists) {
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Map<String, Integer> result = new HashMap<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            Map<String, Integer> other = lists.get(i);
+            result.entrySet().removeIf(e -> !other.containsKey(e.getKey()));
+            for (Map.Entry<String, Integer> e : result.entrySet()) {
+                e.setValue(e.getValue() + other.get(e.getKey()));
+            }
+        }
+        return result;
+    }
+
+    /** 依分數由高到低排序的 docKey */
+    public List<String> search(String q, int limit) {
+        Map<String, Integer> hits = query(q);
+        if (hits == null) return Collections.emptyList();
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(hits.entrySet());
+        entries.sort((a, b) -> {
+            int c = Integer.compare(b.getValue(), a.getValue());
+            return c != 0 ? c : a.getKey().compareTo(b.getKey());
+        });
+        List<String> out = new ArrayList<>(Math.min(limit, entries.size()));
+        for (int i = 0; i < entries.size() && out.size() < limit; i++) out.add(entries.get(i).getKey());
+        return out;
+    }
+
+    // 前綴命中：完全相同的詞 + 以它開頭的詞（分數取各詞最大值，避免長詞典把分數灌高）
+    private static Map<String, Integer> prefixPostings(SortedMap<String, Map<String, Integer>> range) {
+        if (range.size() == 1) return range.values().iterator().next();
+        Map<String, Integer> merged = new HashMap<>();
+        for (Map<String, Integer> p : range.values()) {
+            for (Map.Entry<String, Integer> e : p.entrySet()) merged.merge(e.getKey(), e.getValue(), Math::max);
+        }
+        return merged;
+    }
+
+    // 同 prefixPostings 的分數規則，但只看單一文件自己的詞；沒有命中回 0
+    private int prefixScoreLocked(String docKey, String prefix) {
+        Map<String, Map<String, Integer>> fields = docs.get(docKey);
+        if (fields == null) return 0;
+        int best = 0;
+        for (Map<String, Integer> terms : fields.values()) {
+            for (String t : terms.keySet()) {
+                if (t.startsWith(prefix)) best = Math.max(best, postings.get(t).get(docKey));
+            }
+        }
+        return best;
+    }
+
+    // ================== 斷詞 ==================
+
+    /** 英數 → 小寫詞；CJK → bigram（每段最後一字補 unigram）；其餘字元當分隔 */
+    public static List<String> tokenize(String text) {
+        return tokenize(text, false);
+    }
+
+    // 查詢時兩字以上的 CJK 段只需要 bigram；補 unigram 只會讓前綴展開變大、不會多篩掉任何文件
+    private static List<String> tokenize(String text, boolean forQuery) {
+        List<String> out = new ArrayList<>();
+        if (text == null || text.isEmpty()) return out;
+        String s = text.toLowerCase(Locale.ROOT);
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < n && isCjk(s.charAt(i))) i++;
+                for (int k = start; k + 1 < i; k++) out.add(s.substring(k, k + 2));
+                if (!forQuery || i - start == 1) out.add(s.substring(i - 1, i));
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(s.charAt(i)) && !isCjk(s.charAt(i))) i++;
+                out.add(s.substring(start, i));
+            } else {
+                i++;
+            }
+        }
+        return out;
+    }
+
+    static boolean isCjk(char c) {
+        Character.UnicodeBlock b = Character.UnicodeBlock.of(c);
+        return b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || b == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+                || b == Character.UnicodeBlock.HIRAGANA
+                || b == Character.UnicodeBlock.KATAKANA
+                || b == Character.UnicodeBlock.HANGUL_SYLLABLES
+                || b == Character.UnicodeBlock.BOPOMOFO;
+    }
+}
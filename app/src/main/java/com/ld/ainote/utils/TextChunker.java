@@ -0,0 +1,188 @@
+package com.ld.ainote.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把 AiFragment 合併出來的筆記文字切成多段（純 Java）
+ * - 只在「【大類別】」/「《章節》」邊界切，每段估計 token 數不超過上限
+ * - 段落開頭不是新的大類別時，會補上所屬的【大類別】標題，讓每段單獨看也知道在講什麼
+ * - 單一章節本身就超過上限：依行切開，後續段落補「《章節》標題（續）」；單行就太長才硬切
+ */
+public final class TextChunker {
+
+    public static final String CATEGORY_MARK = "【大類別】";
+    public static final String CHAPTER_MARK = "《章節》";
+
+    private TextChunker() {}
+
+    /**
+     * 粗估 token 數：中日韓文字約 1 字 1 token，其餘（英數、標點、空白）約 4 字元 1 token
+     * 只用來決定要不要切、切多大，寧可估高
+     */
+    public static int estimateTokens(CharSequence s) {
+        if (s == null) return 0;
+        int cjk = 0, other = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x2E80 && !Character.isLowSurrogate(c)) cjk++;
+            else if (!Character.isLowSurrogate(c)) other++;
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /** 一個章節（含內容）；category 為 null 代表第一個【大類別】之前的文字 */
+    private static final class Unit {
+        final String category;
+        final String title;      // 《章節》那一行（沒有就是 null）
+        final List<String> lines = new ArrayList<>();
+        Unit(String category, String title) { this.category = category; this.title = title; }
+    }
+
+    public static List<String> split(String text, int maxTokens) {
+        List<String> out = new ArrayList<>();
+        if (text == null || text.trim().isEmpty()) return out;
+        if (maxTokens <= 0) throw new IllegalArgumentException("maxTokens must be > 0");
+        if (estimateTokens(text) <= maxTokens) {
+            out.add(text);
+            return out;
+        }
+
+        Builder b = new Builder(out, maxTokens);
+        for (Unit u : parse(text)) b.add(u);
+        b.flush();
+        return out;
+    }
+
+    private static List<Unit> parse(String text) {
+        List<Unit> units = new ArrayList<>();
+        String category = null;
+        Unit cur = null;
+        for (String line : text.split("\n", -1)) {
+            if (line.startsWith(CATEGORY_MARK)) {
+                category = line.substring(CATEGORY_MARK.length()).trim();
+                cur = null;
+            } else if (line.startsWith(CHAPTER_MARK)) {
+                cur = new Unit(category, line);
+                units.add(cur);
+            } else {
+                if (cur == null) {
+                    if (line.trim().isEmpty()) continue;
+                    cur = new Unit(category, null);
+                    units.add(cur);
+                }
+                cur.lines.add(line);
+            }
+        }
+        return units;
+    }
+
+    /** 貪婪地把章節塞進目前這段，塞不下就換下一段 */
+    private static final class Builder {
+        private final List<String> out;
+        private final int max;
+        private final StringBuilder sb = new StringBuilder();
+        private int tokens = 0;
+        private String chunkCategory = null;
+        private boolean hasCategory = false;
+
+        Builder(List<String> out, int max) {
+            this.out = out;
+            this.max = max;
+        }
+
+        void add(Unit u) {
+            String body = body(u.title, u.lines, 0, u.lines.size());
+            int cost = estimateTokens(headerFor(u.category)) + estimateTokens(body);
+            if (tokens > 0 && tokens + cost > max) flush();
+            if (cost <= max) {
+                append(u.category, body);
+                return;
+            }
+            // 單一章節就超過上限：依行切（單行就太長的先硬切成好幾行）
+            if (tokens > 0) flush();
+            String contTitle = u.title == null ? null : u.title + "（續）";
+            int budget = Math.max(1, max - estimateTokens(headerFor(u.category))
+                    - estimateTokens(contTitle == null ? "" : contTitle + "\n"));
+            List<String> atoms = new ArrayList<>();
+            for (String line : u.lines) {
+                if (estimateTokens(line) + 1 <= budget) atoms.add(line);
+                else atoms.addAll(hardSplit(line, Math.max(1, budget * 3 / 4))); // 留點空間給前後的短行
+            }
+            int from = 0;
+            while (from < atoms.size()) {
+                int to = from, used = 0;
+                while (to < atoms.size()) {
+                    int t = estimateTokens(atoms.get(to)) + 1;
+                    if (to > from && used + t > budget) break;
+                    used += t;
+                    to++;
+                }
+                append(u.category, body(from == 0 ? u.title : contTitle, atoms, from, to));
+                flush();
+                from = to;
+            }
+        }
+
+        private void append(String category, String body) {
+            if (!hasCategory || !eq(chunkCategory, category)) {
+                String h = headerFor(category);
+                if (sb.length() > 0 && !h.isEmpty()) sb.append('\n');
+                sb.append(h);
+                tokens += estimateTokens(h);
+                chunkCategory = category;
+                hasCategory = true;
+            }
+            sb.append(body);
+            tokens += estimateTokens(body);
+        }
+
+        void flush() {
+            String s = sb.toString().trim();
+            if (!s.isEmpty()) out.add(s);
+            sb.setLength(0);
+            tokens = 0;
+            chunkCategory = null;
+            hasCategory = false;
+        }
+    }
+
+    private static String headerFor(String category) {
+        return category == null ? "" : CATEGORY_MARK + category + "\n";
+    }
+
+    private static String body(String title, List<String> lines, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        if (title != null) sb.append(title).append('\n');
+        for (int i = from; i < to; i++) sb.append(lines.get(i)).append('\n');
+        return sb.toString();
+    }
+
+    /** 依估計 token 硬切（不切在代理對中間） */
+    private static List<String> hardSplit(String line, int budget) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < line.length()) {
+            int end = start;
+            int cjk = 0, other = 0;
+            while (end < line.length()) {
+                char c = line.charAt(end);
+                int nc = cjk, no = other;
+                if (c >= 0x2E80 && !Character.isLowSurrogate(c)) nc++;
+                else if (!Character.isLowSurrogate(c)) no++;
+                if (end > start && nc + (no + 3) / 4 > budget) break;
+                cjk = nc;
+                other = no;
+                end++;
+            }
+            if (end < line.length() && Character.isLowSurrogate(line.charAt(end)) && end - 1 > start) end--;
+            pieces.add(line.substring(start, end));
+            start = end;
+        }
+        return pieces;
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,55 @@
+package com.ld.ainote.utils;
+
+/**
+ * block 文字差異（純 Java）
+ * - 以共同前綴 / 後綴找出唯一變動區段：在 pos 刪掉 del 個字元、插入 ins
+ * - 位置以 UTF-16 code unit 計算（與 JS 字串索引一致），不會切在代理對中間
+ * - 一次儲存通常只改一處，單一區段就夠；改動分散時區段變大，呼叫端可比較大小改送全文
+ */
+public final class TextDelta {
+
+    public final int baseLength; // 伺服器端先比對長度，基準不一致直接拒絕
+    public final int pos;
+    public final int del;
+    public final String ins;
+
+    private TextDelta(int baseLength, int pos, int del, String ins) {
+        this.baseLength = baseLength;
+        this.pos = pos;
+        this.del = del;
+        this.ins = ins;
+    }
+
+    public static TextDelta compute(String base, String next) {
+        if (base == null) base = "";
+        if (next == null) next = "";
+        int bl = base.length(), nl = next.length();
+        int max = Math.min(bl, nl);
+
+        int pre = 0;
+        while (pre < max && base.charAt(pre) == next.charAt(pre)) pre++;
+        if (pre > 0 && pre < max && Character.isHighSurrogate(base.charAt(pre - 1))) pre--;
+
+        int suf = 0;
+        while (suf < max - pre && base.charAt(bl - 1 - suf) == next.charAt(nl - 1 - suf)) suf++;
+        if (suf > 0 && suf < max - pre && Character.isLowSurrogate(base.charAt(bl - suf))) suf--;
+
+        return new TextDelta(bl, pre, bl - pre - suf, next.substring(pre, nl - suf));
+    }
+
+    public boolean isEmpty() {
+        return del == 0 && ins.isEmpty();
+    }
+
+    /** 套用到 base；長度或範圍不符回 null */
+    public String applyTo(String base) {
+        if (base == null || base.length() != baseLength) return null;
+        if (pos < 0 || del < 0 || pos + del > base.length()) return null;
+        return base.substring(0, pos) + ins + base.substring(pos + del);
+    }
+
+    /** 送差異大約要多少字元（用來和送全文比較） */
+    public int payloadChars() {
+        return ins.length() + 32;
+    }
+}
@@ -0,0 +1,106 @@
+package com.ld.ainote.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 以「總字元數」為上限的 LRU 文字快取（純 Java）
+ * - 每筆附兩個版本欄位：stamp（例如最後修改時間）與 count（例如項目數），取用時任一個不同就視為過期
+ * - 超過上限時從最久沒用的開始淘汰；單筆超過上限則不收
+ * - 非執行緒安全：呼叫端請在同一條執行緒使用（AiFragment 都在主執行緒）
+ */
+public final class TextLruCache {
+
+    private static final class Entry {
+        final String text;
+        final long stamp;
+        final long count;
+        Entry(String text, long stamp, long count) { this.text = text; this.stamp = stamp; this.count = count; }
+    }
+
+    private final long maxChars;
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars = 0;
+    private long hits = 0, misses = 0, stale = 0;
+
+    public TextLruCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * 有沒有這個 key（不管戳記）；用來決定要不要先做一次便宜的版本檢查。
+     * 沒有時直接記一次未命中，呼叫端不必再 get
+     */
+    public boolean contains(String key) {
+        if (map.containsKey(key)) return true;
+        misses++;
+        return false;
+    }
+
+    /** stamp 與 count 都相符才回傳內容；不符會順便移除舊內容 */
+    public String get(String key, long stamp, long count) {
+        Entry e = map.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (e.stamp != stamp || e.count != count) {
+            stale++;
+            misses++;
+            removeEntry(key);
+            return null;
+        }
+        hits++;
+        return e.text;
+    }
+
+    public void put(String key, long stamp, long count, String text) {
+        if (text == null) text = "";
+        removeEntry(key);
+        if (text.length() > maxChars) return;
+        map.put(key, new Entry(text, stamp, count));
+        totalChars += text.length();
+        trim();
+    }
+
+    public void remove(String key) { removeEntry(key); }
+
+    public void clear() {
+        map.clear();
+        totalChars = 0;
+    }
+
+    public int size() { return map.size(); }
+    public long totalChars() { return totalChars; }
+    public long hits() { return hits; }
+    public long misses() { return misses; }
+
+    /** 0~1；還沒有任何查詢時回 0 */
+    public double hitRate() {
+        long all = hits + misses;
+        return all == 0 ? 0 : (double) hits / all;
+    }
+
+    @Override
+    public String toString() {
+        return "TextLruCache{entries=" + map.size() + ", chars=" + totalChars + "/" + maxChars
+                + ", hits=" + hits + ", misses=" + misses + " (stale " + stale + ")"
+                + ", hitRate=" + String.format(Locale.ROOT, "%.2f", hitRate()) + "}";
+    }
+
+    private void removeEntry(String key) {
+        Entry old = map.remove(key);
+        if (old != null) totalChars -= old.text.length();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while (totalChars > maxChars && it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            totalChars -= e.getValue().text.length();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ld.ainote.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AiResultCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void putThenGet_roundTripsMultilineText() throws IOException {
+        AiResultCache c = new AiResultCache(tmp.newFolder(), 1 << 20, DAY);
+        String key = AiResultCache.key("summary", "m", 12, "prompt");
+        c.put(key, "第一行\n第二行");
+        assertEquals("第一行\n第二行", c.get(key));
+        assertNull(c.get(AiResultCache.key("summary", "m", 13, "prompt")));
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        File dir = tmp.newFolder();
+        new AiResultCache(dir, 1 << 20, DAY).put("k", "v");
+        assertEquals("v", new AiResultCache(dir, 1 << 20, DAY).get("k"));
+    }
+
+    @Test
+    public void expiredEntryIsMissAndDeleted() throws Exception {
+        File dir = tmp.newFolder();
+        AiResultCache c = new AiResultCache(dir, 1 << 20, 1);
+        c.put("k", "v");
+        Thread.sleep(20);
+        assertNull(c.get("k"));
+        String[] left = dir.list();
+        assertNotNull(left);
+        assertEquals(0, left.length);
+    }
+
+    @Test
+    public void trimsLeastRecentlyUsedOverMaxBytes() throws IOException {
+        // 每筆約 15 位數時間 + 換行 + 100 bytes；上限只放得下兩筆
+        AiResultCache c = new AiResultCache(tmp.newFolder(), 250, DAY);
+        String body = new String(new char[100]).replace('\0', 'x');
+        c.put("a", body);
+        c.put("b", body);
+        assertNotNull(c.get("a")); // a 變成最近使用
+        c.put("c", body);
+        assertNotNull(c.get("a"));
+        assertNull(c.get("b"));
+        assertNotNull(c.get("c"));
+    }
+
+    @Test
+    public void clearRemovesEverything() throws IOException {
+        AiResultCache c = new AiResultCache(tmp.newFolder(), 1 << 20, DAY);
+        c.put("k", "v");
+        c.clear();
+        assertNull(c.get("k"));
+    }
+}
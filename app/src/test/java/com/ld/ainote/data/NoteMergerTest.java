@@ -0,0 +1,78 @@
+package com.ld.ainote.data;
+
+import com.ld.ainote.models.Note;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NoteMergerTest {
+
+    private static Note note(String owner, String id, String stack, int chapter, int section, String title) {
+        Note n = new Note(title, "");
+        n.setId(id);
+        n.setOwnerId(owner);
+        n.setStack(stack);
+        n.setChapter(chapter);
+        n.setSection(section);
+        return n;
+    }
+
+    private static List<String> titles(NoteMerger m) {
+        List<String> out = new ArrayList<>();
+        for (Note n : m.sorted()) out.add(n.getTitle());
+        return out;
+    }
+
+    @Test
+    public void sharedCopyWinsOverMine() {
+        NoteMerger m = new NoteMerger();
+        Note mine = note("me", "1", "數學", 1, 1, "我的版本");
+        Note shared = note("me", "1", "數學", 1, 1, "共筆版本");
+        assertTrue(m.apply("me#1", mine, true));
+        assertTrue(m.apply("me#1", shared, false));
+        assertSame(shared, m.get("me#1"));
+
+        // 我的那份再更新也不會蓋掉共筆
+        assertFalse(m.apply("me#1", note("me", "1", "數學", 1, 1, "我的新版"), true));
+        assertSame(shared, m.get("me#1"));
+
+        // 共筆移除後退回我的
+        assertTrue(m.apply("me#1", null, false));
+        assertEquals("我的新版", m.get("me#1").getTitle());
+        assertEquals(1, m.sorted().size());
+    }
+
+    @Test
+    public void sortedFollowsStackChapterSectionTitle() {
+        NoteMerger m = new NoteMerger();
+        m.apply("me#1", note("me", "1", "數學", 2, 1, "b"), true);
+        m.apply("me#2", note("me", "2", "數學", 1, 2, "c"), true);
+        m.apply("me#3", note("me", "3", "數學", 1, 1, "d"), true);
+        m.apply("me#4", note("me", "4", "國文", 9, 9, "a"), true);
+        List<Note> expected = new ArrayList<>(m.sorted());
+        expected.sort(NoteMerger.NOTE_ORDER);
+        assertEquals(expected, m.sorted());
+        assertEquals("d", m.sorted().get(m.sorted().size() - 3).getTitle());
+    }
+
+    @Test
+    public void updateMovesNoteToNewPosition() {
+        NoteMerger m = new NoteMerger();
+        m.apply("me#1", note("me", "1", "數學", 1, 1, "第一"), true);
+        m.apply("me#2", note("me", "2", "數學", 2, 1, "第二"), true);
+        m.apply("me#3", note("me", "3", "數學", 3, 1, "第三"), true);
+        assertEquals(Arrays.asList("第一", "第二", "第三"), titles(m));
+
+        m.apply("me#1", note("me", "1", "數學", 4, 1, "第一"), true);
+        assertEquals(Arrays.asList("第二", "第三", "第一"), titles(m));
+
+        m.apply("me#3", null, true);
+        assertEquals(Arrays.asList("第二", "第一"), titles(m));
+        assertNull(m.get("me#3"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.ld.ainote.data;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private final long[] now = {1_000L};
+    private final SingleFlight<String> flight = new SingleFlight<>(500, () -> now[0]);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Task<String> load(String key, TaskCompletionSource<String> src) {
+        return flight.run(key, () -> {
+            loads.incrementAndGet();
+            return src.getTask();
+        });
+    }
+
+    @Test
+    public void concurrentCallsShareOneLoad() {
+        TaskCompletionSource<String> src = new TaskCompletionSource<>();
+        Task<String> a = load("k", src);
+        Task<String> b = load("k", new TaskCompletionSource<>());
+        assertSame(a, b);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void resultReusedWithinTtlThenReloaded() {
+        TaskCompletionSource<String> first = new TaskCompletionSource<>();
+        Task<String> a = load("k", first);
+        first.setResult("v1");
+
+        now[0] += 500;
+        assertSame(a, load("k", new TaskCompletionSource<>()));
+        assertEquals(1, loads.get());
+
+        now[0] += 1;
+        Task<String> b = load("k", new TaskCompletionSource<>());
+        assertNotSame(a, b);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void failureIsNotCached() {
+        TaskCompletionSource<String> first = new TaskCompletionSource<>();
+        load("k", first);
+        first.setException(new Exception("boom"));
+        load("k", new TaskCompletionSource<>());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void invalidateForcesReload() {
+        TaskCompletionSource<String> first = new TaskCompletionSource<>();
+        load("owner/a", first);
+        first.setResult("v");
+        load("owner/b", new TaskCompletionSource<>());
+        flight.invalidatePrefix("owner/");
+        load("owner/a", new TaskCompletionSource<>());
+        load("owner/b", new TaskCompletionSource<>());
+        assertEquals(4, loads.get());
+    }
+}
@@ -0,0 +1,51 @@
+package com.ld.ainote.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QuizJsonStreamTest {
+
+    private static final String Q1 = "{\"question\":\"1+1=?\",\"options\":{\"A\":\"1\",\"B\":\"2\",\"C\":\"3\",\"D\":\"4\"},\"answer\":\"B\"}";
+    private static final String Q2 = "{\"question\":\"引號 \\\"x\\\" 與 \\\\ 反斜線，還有 } 和 ]\","
+            + "\"options\":{\"A\":\"甲\",\"B\":\"乙\",\"C\":\"丙\",\"D\":\"丁\\n換行\"},\"answer\":\"d\"}";
+    private static final String QUIZ = "{\"questions\":[" + Q1 + "," + Q2 + "]}";
+
+    @Test
+    public void emitsSameQuestionsForAnyChunking() {
+        for (int size = 1; size <= QUIZ.length(); size += 7) {
+            List<QuizParser.Item> got = new ArrayList<>();
+            QuizJsonStream s = new QuizJsonStream(got::add);
+            for (int i = 0; i < QUIZ.length(); i += size) {
+                s.feed(QUIZ.substring(i, Math.min(QUIZ.length(), i + size)));
+            }
+            assertEquals("chunk size " + size, 2, got.size());
+            assertEquals(2, s.emittedCount());
+            assertEquals("1+1=?", got.get(0).stem);
+            assertEquals("引號 \"x\" 與 \\ 反斜線，還有 } 和 ]", got.get(1).stem);
+        }
+    }
+
+    @Test
+    public void splitInsideEscapeSequence() {
+        List<QuizParser.Item> got = new ArrayList<>();
+        QuizJsonStream s = new QuizJsonStream(got::add);
+        int cut = QUIZ.indexOf("\\\"x") + 1; // 切在反斜線和引號中間
+        s.feed(QUIZ.substring(0, cut));
+        s.feed(QUIZ.substring(cut));
+        assertEquals(2, got.size());
+        assertEquals("引號 \"x\" 與 \\ 反斜線，還有 } 和 ]", got.get(1).stem);
+    }
+
+    @Test
+    public void truncatedTailEmitsOnlyCompletedQuestions() {
+        List<QuizParser.Item> got = new ArrayList<>();
+        QuizJsonStream s = new QuizJsonStream(got::add);
+        s.feed(QUIZ.substring(0, QUIZ.length() - 10));
+        assertEquals(1, got.size());
+        assertEquals(1, s.emittedCount());
+    }
+}
@@ -0,0 +1,50 @@
+package com.ld.ainote.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QuizJsonTest {
+
+    private static final String Q1 = "{\"question\":\"1+1=?\",\"options\":{\"A\":\"1\",\"B\":\"2\",\"C\":\"3\",\"D\":\"4\"},\"answer\":\"B\"}";
+    private static final String Q2 = "{\"question\":\"引號 \\\"x\\\" 與 \\\\ 反斜線，還有 } 和 ]\","
+            + "\"options\":{\"A\":\"甲\",\"B\":\"乙\",\"C\":\"丙\",\"D\":\"丁\\n換行\"},\"answer\":\"d\"}";
+    private static final String QUIZ = "{\"questions\":[" + Q1 + "," + Q2 + "]}";
+
+    @Test
+    public void parse_readsAllQuestionsInOrder() {
+        List<QuizParser.Item> items = QuizJson.parse(QUIZ);
+        assertEquals(2, items.size());
+        assertEquals(1, items.get(0).number);
+        assertEquals("1+1=?", items.get(0).stem);
+        assertEquals(1, items.get(0).correct);
+        assertEquals(2, items.get(1).number);
+        assertEquals("引號 \"x\" 與 \\ 反斜線，還有 } 和 ]", items.get(1).stem);
+        assertEquals("丁\n換行", items.get(1).options[3]);
+        assertEquals(3, items.get(1).correct);
+    }
+
+    @Test
+    public void parse_skipsInvalidQuestionsWithoutTakingANumber() {
+        String bad = "{\"question\":\"缺選項\",\"options\":{\"A\":\"1\",\"B\":\"2\"},\"answer\":\"A\"}";
+        List<QuizParser.Item> items = QuizJson.parse("{\"questions\":[" + bad + "," + Q1 + "]}");
+        assertEquals(1, items.size());
+        assertEquals(1, items.get(0).number);
+    }
+
+    @Test
+    public void parse_truncatedTailKeepsCompletedQuestions() {
+        String truncated = QUIZ.substring(0, QUIZ.indexOf(Q2) + Q2.length() / 2);
+        List<QuizParser.Item> items = QuizJson.parse(truncated);
+        assertEquals(1, items.size());
+        assertEquals("1+1=?", items.get(0).stem);
+    }
+
+    @Test
+    public void parse_nullOrGarbageGivesEmptyList() {
+        assertTrue(QuizJson.parse((String) null).isEmpty());
+        assertTrue(QuizJson.parse("not json").isEmpty());
+    }
+}
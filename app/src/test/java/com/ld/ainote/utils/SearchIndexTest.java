@@ -0,0 +1,91 @@
+package com.ld.ainote.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    private static SearchIndex sample() {
+        SearchIndex idx = new SearchIndex();
+        idx.putNote("me#1", "光合作用", "生物", "植物利用光能製造養分");
+        idx.putNote("me#2", "呼吸作用", "生物", "細胞分解養分產生能量");
+        idx.putNote("me#3", "English grammar", "英文", "tense and clause");
+        return idx;
+    }
+
+    @Test
+    public void tokenize_cjkBigramsPlusTrailingUnigram() {
+        assertEquals(Arrays.asList("光合", "合作", "作用", "用"), SearchIndex.tokenize("光合作用"));
+        assertEquals(Arrays.asList("dna", "基因", "因"), SearchIndex.tokenize("DNA 基因"));
+    }
+
+    @Test
+    public void query_cjkMatchesAllBigrams() {
+        Map<String, Integer> hits = sample().query("光合作用");
+        assertEquals(Collections.singleton("me#1"), hits.keySet());
+    }
+
+    @Test
+    public void query_sharedBigramHitsBoth() {
+        assertEquals(2, sample().query("作用").size());
+    }
+
+    @Test
+    public void query_singleCharAndLatinPrefix() {
+        SearchIndex idx = sample();
+        assertEquals(2, idx.query("養").size());
+        assertEquals(Collections.singleton("me#3"), idx.query("gram").keySet());
+        assertEquals(Collections.singleton("me#3"), idx.query("GRAMMAR").keySet());
+    }
+
+    @Test
+    public void query_shortPrefixOverManyTermsIsComplete() {
+        // 1000 個 s 開頭的不同英文詞，遠超過前綴展開的門檻
+        SearchIndex idx = new SearchIndex();
+        for (int i = 0; i < 1000; i++) {
+            idx.putNote("me#" + i, "note", "", "s" + i + (i % 2 == 0 ? " 細胞" : ""));
+        }
+        idx.putNote("me#x", "note", "", "other 細胞");
+        assertEquals(1000, idx.query("s").size());
+        // 有其他詞先縮小範圍時：只留同時含「細胞」與 s 開頭詞的文件
+        Map<String, Integer> both = idx.query("細胞 s");
+        assertEquals(500, both.size());
+        assertFalse(both.containsKey("me#x"));
+        assertTrue(both.containsKey("me#998"));
+        assertEquals(idx.query("細胞 s998").get("me#998"), both.get("me#998"));
+    }
+
+    @Test
+    public void query_andAcrossTerms() {
+        SearchIndex idx = sample();
+        assertEquals(Collections.singleton("me#2"), idx.query("細胞 能量").keySet());
+        assertTrue(idx.query("細胞 grammar").isEmpty());
+    }
+
+    @Test
+    public void query_blankMeansNoFilter() {
+        assertNull(sample().query("  "));
+    }
+
+    @Test
+    public void search_titleOutranksBody() {
+        SearchIndex idx = sample();
+        idx.putNote("me#4", "其他", "生物", "這篇內文提到光合作用");
+        List<String> ranked = idx.search("光合作用", 10);
+        assertEquals(Arrays.asList("me#1", "me#4"), ranked);
+    }
+
+    @Test
+    public void removeNote_dropsPostings() {
+        SearchIndex idx = sample();
+        idx.removeNote("me#1");
+        assertTrue(idx.query("光合作用").isEmpty());
+        assertEquals(2, idx.docCount());
+    }
+}
@@ -0,0 +1,82 @@
+package com.ld.ainote.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TextChunkerTest {
+
+    private static String chapter(String title, int lines, String line) {
+        StringBuilder sb = new StringBuilder(TextChunker.CHAPTER_MARK).append(title).append('\n');
+        for (int i = 0; i < lines; i++) sb.append(line).append('\n');
+        return sb.toString();
+    }
+
+    @Test
+    public void estimateTokens_cjkOnePerCharLatinFourPerToken() {
+        assertEquals(0, TextChunker.estimateTokens(""));
+        assertEquals(4, TextChunker.estimateTokens("光合作用"));
+        assertEquals(2, TextChunker.estimateTokens("abcdefgh"));
+        assertEquals(1, TextChunker.estimateTokens("😀")); // 代理對只算一次
+    }
+
+    @Test
+    public void split_shortTextIsOneChunk() {
+        List<String> out = TextChunker.split("短短的筆記", 100);
+        assertEquals(1, out.size());
+        assertEquals("短短的筆記", out.get(0));
+    }
+
+    @Test
+    public void split_cutsOnChapterBoundariesAndRepeatsCategory() {
+        String text = TextChunker.CATEGORY_MARK + "生物\n"
+                + chapter("細胞", 3, "細胞是生命的基本單位")
+                + chapter("遺傳", 3, "基因位於染色體上面")
+                + chapter("演化", 3, "天擇造成族群改變");
+        List<String> out = TextChunker.split(text, 45);
+        assertTrue(out.size() >= 2);
+        for (String chunk : out) {
+            assertTrue(chunk, chunk.startsWith(TextChunker.CATEGORY_MARK + "生物"));
+            assertTrue(chunk, TextChunker.estimateTokens(chunk) <= 45);
+        }
+        // 每個章節完整落在同一段
+        for (String title : new String[]{"細胞", "遺傳", "演化"}) {
+            int n = 0;
+            for (String chunk : out) if (chunk.contains(TextChunker.CHAPTER_MARK + title)) n++;
+            assertEquals(title, 1, n);
+        }
+    }
+
+    @Test
+    public void split_oversizedChapterContinuesWithTitle() {
+        String text = chapter("長章", 20, "這一行大約有十二個字喔");
+        List<String> out = TextChunker.split(text, 40);
+        assertTrue(out.size() > 1);
+        assertTrue(out.get(0).startsWith(TextChunker.CHAPTER_MARK + "長章\n"));
+        for (int i = 1; i < out.size(); i++) {
+            assertTrue(out.get(i), out.get(i).startsWith(TextChunker.CHAPTER_MARK + "長章（續）"));
+        }
+        for (String chunk : out) assertTrue(chunk, TextChunker.estimateTokens(chunk) <= 40);
+    }
+
+    @Test
+    public void split_singleHugeLineIsHardSplitUnderCap() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 500; i++) line.append('字');
+        List<String> out = TextChunker.split(line.toString(), 60);
+        assertTrue(out.size() >= 500 / 60);
+        int total = 0;
+        for (String chunk : out) {
+            assertTrue(TextChunker.estimateTokens(chunk) <= 60);
+            total += chunk.replace("\n", "").length(); // 硬切的片段以換行接在同一段
+        }
+        assertEquals(500, total);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void split_rejectsNonPositiveCap() {
+        TextChunker.split("【大類別】x\n" + chapter("a", 1, "b"), 0);
+    }
+}
@@ -0,0 +1,55 @@
+package com.ld.ainote.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextDeltaTest {
+
+    private static void roundTrip(String base, String next) {
+        TextDelta d = TextDelta.compute(base, next);
+        assertEquals(base.length(), d.baseLength);
+        assertEquals(next, d.applyTo(base));
+    }
+
+    @Test
+    public void computeThenApply_reproducesNext() {
+        roundTrip("", "新內容");
+        roundTrip("光合作用", "");
+        roundTrip("hello world", "hello brave world");
+        roundTrip("光合作用的原料", "光合作用的產物");
+        roundTrip("abcabc", "abc");
+        roundTrip("same", "same");
+    }
+
+    @Test
+    public void compute_singleEditIsMinimal() {
+        TextDelta d = TextDelta.compute("hello world", "hello brave world");
+        assertEquals(6, d.pos);
+        assertEquals(0, d.del);
+        assertEquals("brave ", d.ins);
+    }
+
+    @Test
+    public void compute_identicalTextIsEmpty() {
+        assertTrue(TextDelta.compute("不變", "不變").isEmpty());
+        assertTrue(TextDelta.compute(null, null).isEmpty());
+    }
+
+    @Test
+    public void compute_neverSplitsSurrogatePairs() {
+        // 😀 與 😁 的 high surrogate 相同，只差 low surrogate
+        TextDelta d = TextDelta.compute("a😀b", "a😁b");
+        assertEquals(1, d.pos);
+        assertEquals(2, d.del);
+        assertEquals("😁", d.ins);
+        assertEquals("a😁b", d.applyTo("a😀b"));
+    }
+
+    @Test
+    public void applyTo_rejectsWrongBase() {
+        TextDelta d = TextDelta.compute("abc", "abXc");
+        assertNull(d.applyTo("abcd"));
+        assertNull(d.applyTo(null));
+    }
+}
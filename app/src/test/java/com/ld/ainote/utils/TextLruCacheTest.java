@@ -0,0 +1,58 @@
+package com.ld.ainote.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextLruCacheTest {
+
+    @Test
+    public void get_requiresMatchingStamp() {
+        TextLruCache c = new TextLruCache(100);
+        c.put("a", 1L, 0L, "內容");
+        assertEquals("內容", c.get("a", 1L, 0L));
+        assertNull(c.get("a", 2L, 0L));   // 戳記變了 → 過期並移除
+        assertFalse(c.contains("a"));
+    }
+
+    @Test
+    public void get_requiresMatchingCount() {
+        TextLruCache c = new TextLruCache(100);
+        c.put("a", 5L, 3L, "內容");
+        assertEquals("內容", c.get("a", 5L, 3L));
+        assertNull(c.get("a", 5L, 2L));   // 時間沒變但筆數少了（刪除）→ 過期
+        assertFalse(c.contains("a"));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedByChars() {
+        TextLruCache c = new TextLruCache(10);
+        c.put("a", 0L, 0L, "aaaa");
+        c.put("b", 0L, 0L, "bbbb");
+        assertNotNull(c.get("a", 0L, 0L)); // a 變成最近使用
+        c.put("c", 0L, 0L, "cccc");        // 超過 10 字：淘汰 b
+        assertTrue(c.contains("a"));
+        assertFalse(c.contains("b"));
+        assertTrue(c.contains("c"));
+        assertEquals(8, c.totalChars());
+    }
+
+    @Test
+    public void put_skipsEntryLargerThanCap() {
+        TextLruCache c = new TextLruCache(3);
+        c.put("a", 0L, 0L, "abcd");
+        assertEquals(0, c.size());
+        assertEquals(0, c.totalChars());
+    }
+
+    @Test
+    public void hitRate_countsHitsAndMisses() {
+        TextLruCache c = new TextLruCache(100);
+        c.put("a", 0L, 0L, "x");
+        c.get("a", 0L, 0L);
+        c.get("b", 0L, 0L);
+        assertEquals(1, c.hits());
+        assertEquals(1, c.misses());
+        assertEquals(0.5, c.hitRate(), 1e-9);
+    }
+}
@@ -0,0 +1,64 @@
+// 純 Java 熱點的 JMH 基準（UI / 列表執行緒上跑的解析、過濾、分組、合併），不依賴 Android 模擬器
+//   ./gradlew :benchmarks:jmh                          全部跑，結果寫到 results/jmh-result.json
+//   ./gradlew :benchmarks:jmh -Pbench=NoteRows         只跑名稱符合的
+//   ./gradlew :benchmarks:jmhCompare                   和 results/baseline.json 比，列出每項變化
+// 要留基準線：把某次的 jmh-result.json 複製成 baseline.json 一起 commit
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    // 直接編 app 的原始碼（不複製），只挑不碰 Android / Firebase SDK 的類別
+    main {
+        java {
+            setSrcDirs(listOf("../app/src/main/java"))
+            include(
+                "com/ld/ainote/models/Note.java",
+                "com/ld/ainote/utils/HighlightMarks.java",
+                "com/ld/ainote/utils/QuizParser.java",
+                "com/ld/ainote/utils/QuizJson.java",
+                "com/ld/ainote/utils/QuizJsonStream.java",
+                "com/ld/ainote/utils/QuestionPicker.java",
+                "com/ld/ainote/utils/SearchIndex.java",
+                "com/ld/ainote/adapters/NoteRows.java",
+                "com/ld/ainote/data/NoteMerger.java",
+            )
+        }
+    }
+    // Note 上的 @Exclude / @ServerTimestamp 只在編譯時需要，JVM 執行時找不到註解類別會直接忽略
+    create("stubs")
+}
+
+dependencies {
+    compileOnly(sourceSets["stubs"].output)
+    compileOnly("androidx.annotation:annotation:1.3.0")
+    implementation("com.google.code.gson:gson:2.10.1") // QuizJson（app 本身也依賴同版本）
+}
+
+val resultsDir = layout.projectDirectory.dir("results")
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    timeOnIteration.set("1s")
+    warmup.set("1s")
+    resultFormat.set("JSON")
+    resultsFile.set(resultsDir.file("jmh-result.json"))
+    (findProperty("bench") as String?)?.let { includes.add(it) }
+}
+
+tasks.register<JavaExec>("jmhCompare") {
+    group = "verification"
+    description = "比較 results/baseline.json 與最新一次 jmh-result.json，變慢超過門檻的項目標 REGRESSION"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.ld.ainote.bench.ResultDiff")
+    args(resultsDir.file("baseline.json").asFile.path, resultsDir.file("jmh-result.json").asFile.path, "10")
+}
@@ -0,0 +1,145 @@
+package com.ld.ainote.bench;
+
+import com.ld.ainote.models.Note;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 固定種子的假資料，形狀照實際使用者的筆記：
+ * - 8 個科目 + 少量未分類，每科 1~12 章、每章 1~8 節
+ * - 內容 200~1500 字中英混排，約每 150 字一個 [[重點]]
+ * - 約 15% 是別人分享給我的共筆
+ */
+final class BenchData {
+
+    static final String MY_UID = "me";
+
+    static final String[] STACKS = {"國文", "英文", "數學", "歷史", "地理", "物理", "化學", "生物", ""};
+
+    private static final String[] WORDS = {
+            "函數", "極限", "導數", "積分", "向量", "矩陣", "機率", "統計", "細胞", "基因",
+            "光合作用", "牛頓", "動量", "能量", "電場", "磁場", "氧化", "還原", "酸鹼", "平衡",
+            "唐詩", "宋詞", "文言文", "修辭", "朝代", "戰爭", "條約", "氣候", "板塊", "河流",
+            "vocabulary", "grammar", "tense", "clause", "essay", "reading", "DNA", "pH", "sin", "log"
+    };
+
+    private BenchData() {}
+
+    static List<Note> notes(int count, long seed) {
+        Random r = new Random(seed);
+        List<Note> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) out.add(note(r, i));
+        return out;
+    }
+
+    static Note note(Random r, int i) {
+        boolean shared = r.nextInt(100) < 15;
+        Note n = new Note(title(r), content(r, 200 + r.nextInt(1300)));
+        n.setId("n" + i);
+        n.setOwnerId(shared ? "friend" + r.nextInt(20) : MY_UID);
+        n.setShared(shared);
+        n.setStack(STACKS[r.nextInt(STACKS.length)]);
+        n.setChapter(1 + r.nextInt(12));
+        n.setSection(1 + r.nextInt(8));
+        return n;
+    }
+
+    /** 同一篇筆記改過一次（新物件、key 相同），模擬快照的 MODIFIED */
+    static Note edited(Note old, Random r) {
+        Note n = new Note(old.getTitle(), old.getContent() + word(r));
+        n.setId(old.getId());
+        n.setOwnerId(old.getOwnerId());
+        n.setShared(old.isShared());
+        n.setStack(old.getStack());
+        n.setChapter(old.getChapter());
+        n.setSection(old.getSection());
+        return n;
+    }
+
+    static String key(Note n) { return n.getOwnerId() + "#" + n.getId(); }
+
+    static String title(Random r) {
+        return word(r) + "與" + word(r) + " 重點整理";
+    }
+
+    static String content(Random r, int chars) {
+        StringBuilder sb = new StringBuilder(chars + 32);
+        int nextMark = 100 + r.nextInt(100);
+        while (sb.length() < chars) {
+            if (sb.length() >= nextMark) {
+                sb.append("[[").append(word(r)).append(word(r)).append("]]");
+                nextMark = sb.length() + 100 + r.nextInt(100);
+            } else {
+                sb.append(word(r));
+            }
+            sb.append(r.nextInt(6) == 0 ? "。\n" : "，");
+        }
+        return sb.toString();
+    }
+
+    static String word(Random r) { return WORDS[r.nextInt(WORDS.length)]; }
+
+    /** 跟 AiFragment 出題 prompt 要求的格式一樣，題號混用「Qn:」「n.」，最後是【答案】區 */
+    static String quiz(int questions, long seed) {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int q = 1; q <= questions; q++) {
+            sb.append(q % 3 == 0 ? "Q" + q + ": " : q + ". ")
+              .append("下列關於「").append(word(r)).append("」的敘述，何者正確？\n");
+            if (r.nextBoolean()) sb.append("（提示：").append(word(r)).append(word(r)).append("）\n");
+            for (char c = 'A'; c <= 'D'; c++) {
+                sb.append(c).append(r.nextInt(4) == 0 ? ") " : ". ")
+                  .append(word(r)).append("會影響").append(word(r)).append('\n');
+            }
+            sb.append('\n');
+        }
+        sb.append("【答案】\n");
+        for (int q = 1; q <= questions; q++) {
+            sb.append(q).append(". ").append((char) ('A' + r.nextInt(4))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** 同一份測驗的結構化版本（AiService.askQuiz 的 json_schema 格式） */
+    static String quizJson(int questions, long seed) {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder("{\"questions\":[");
+        for (int q = 1; q <= questions; q++) {
+            if (q > 1) sb.append(',');
+            sb.append("{\"question\":\"下列關於「").append(word(r)).append("」的敘述，何者正確？");
+            if (r.nextBoolean()) sb.append("\\n（提示：").append(word(r)).append(word(r)).append("）");
+            sb.append("\",\"options\":{");
+            for (char c = 'A'; c <= 'D'; c++) {
+                if (c > 'A') sb.append(',');
+                sb.append('"').append(c).append("\":\"").append(word(r)).append("會影響").append(word(r)).append('"');
+            }
+            sb.append("},\"answer\":\"").append((char) ('A' + r.nextInt(4))).append("\"}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    /** 錯題本的一題：tags 例如 ["數學", "數學|3-2"] */
+    static final class Question {
+        final String stem;
+        final List<String> tags;
+
+        Question(String stem, List<String> tags) {
+            this.stem = stem;
+            this.tags = tags;
+        }
+    }
+
+    static List<Question> bank(int count, long seed) {
+        Random r = new Random(seed);
+        List<Question> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String stack = STACKS[r.nextInt(STACKS.length - 1)];
+            String chapter = stack + "|" + (1 + r.nextInt(12)) + "-" + (1 + r.nextInt(8));
+            out.add(new Question(word(r) + "？", Arrays.asList(stack, chapter)));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,49 @@
+package com.ld.ainote.bench;
+
+import com.ld.ainote.models.Note;
+import com.ld.ainote.utils.HighlightMarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HighlightUtils.extractHighlights / buildHighlighted 的純文字部分，一次掃過所有筆記內容
+ * （buildHighlighted 再掛 BackgroundColorSpan 的成本要在裝置上量，這裡不含）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HighlightBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int notes;
+
+    private List<String> contents;
+
+    @Setup
+    public void setup() {
+        contents = new ArrayList<>(notes);
+        for (Note n : BenchData.notes(notes, 42)) contents.add(n.getContent());
+    }
+
+    @Benchmark
+    public void extractHighlights(Blackhole bh) {
+        for (String c : contents) bh.consume(HighlightMarks.extract(c));
+    }
+
+    @Benchmark
+    public void buildHighlighted(Blackhole bh) {
+        for (String c : contents) bh.consume(HighlightMarks.parse(c));
+    }
+}
@@ -0,0 +1,72 @@
+package com.ld.ainote.bench;
+
+import com.ld.ainote.data.NoteMerger;
+import com.ld.ainote.models.Note;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NotesFragment.mergeFromSnapshot 的合併 + 排序
+ * - initialLoad：兩條監聽的第一個快照（全部 ADDED）灌進空的 merger
+ * - singleEdit：已載入的狀態下，一篇筆記被改（快照只帶一筆 MODIFIED）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteMergerBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int notes;
+
+    private List<Note> mine;
+    private List<Note> shared;
+
+    private NoteMerger loaded;
+    private List<Note> edits;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        mine = new ArrayList<>();
+        shared = new ArrayList<>();
+        for (Note n : BenchData.notes(notes, 42)) (n.isShared() ? shared : mine).add(n);
+
+        loaded = new NoteMerger();
+        load(loaded);
+
+        // 預先做好一輪「改過的版本」，量測時只輪流套用，不把產生物件的成本算進去
+        Random r = new Random(9);
+        edits = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) edits.add(BenchData.edited(mine.get(r.nextInt(mine.size())), r));
+    }
+
+    private void load(NoteMerger m) {
+        for (Note n : mine) m.apply(BenchData.key(n), n, true);
+        for (Note n : shared) m.apply(BenchData.key(n), n, false);
+    }
+
+    @Benchmark
+    public List<Note> initialLoad() {
+        NoteMerger m = new NoteMerger();
+        load(m);
+        return m.sorted();
+    }
+
+    @Benchmark
+    public boolean singleEdit() {
+        Note n = edits.get(cursor++ & 255);
+        return loaded.apply(BenchData.key(n), n, true);
+    }
+}
@@ -0,0 +1,71 @@
+package com.ld.ainote.bench;
+
+import com.ld.ainote.adapters.NoteRows;
+import com.ld.ainote.models.Note;
+import com.ld.ainote.utils.SearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NoteAdapter.rebuild 在背景執行緒做的事：過濾 → 扁平或依 stack 分組 → 章節排序
+ * - keyword 空字串 = 沒在搜尋；有關鍵字時分別量「倒排索引命中」與「沒有索引時的 contains」
+ * - keyword 涵蓋 CJK bigram、英文單字、中英混合三種查詢
+ * - query 單獨量 SearchIndex.query 本身（與 grouped 無關）
+ * - 群組模式展開其中兩個類別
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteRowsBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int notes;
+
+    @Param({"false", "true"})
+    public boolean grouped;
+
+    @Param({"", "光合作用", "grammar", "DNA 基因"})
+    public String keyword;
+
+    private List<Note> all;
+    private SearchIndex index;
+    private Map<String, Integer> hits;
+    private final Set<String> expanded = new HashSet<>(Arrays.asList("數學", "國文"));
+
+    @Setup
+    public void setup() {
+        all = BenchData.notes(notes, 42);
+        index = new SearchIndex();
+        for (Note n : all) index.putNote(BenchData.key(n), n.getTitle(), n.getStack(), n.getContent());
+        hits = keyword.isEmpty() ? null : index.query(keyword);
+    }
+
+    @Benchmark
+    public List<NoteRows.Row> withIndex() {
+        return NoteRows.build(all, grouped, keyword.isEmpty() ? null : keyword, hits, expanded);
+    }
+
+    @Benchmark
+    public Map<String, Integer> query() {
+        return index.query(keyword);
+    }
+
+    @Benchmark
+    public List<NoteRows.Row> withoutIndex() {
+        return NoteRows.build(all, grouped, keyword.isEmpty() ? null : keyword, null, expanded);
+    }
+}
@@ -0,0 +1,48 @@
+package com.ld.ainote.bench;
+
+import com.ld.ainote.utils.QuestionPicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** AiFragment 錯題練習：filterByTags（選了一科 + 兩個章節）再 pickFromBank 抽 10 題 */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QuestionPickerBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int questions;
+
+    private List<BenchData.Question> bank;
+    private final Set<String> wanted = new HashSet<>(Arrays.asList("歷史", "數學|3-2", "物理|1-1"));
+    private final Random random = new Random(3);
+
+    @Setup
+    public void setup() {
+        bank = BenchData.bank(questions, 42);
+    }
+
+    @Benchmark
+    public List<BenchData.Question> filterByTags() {
+        return QuestionPicker.filterByTags(bank, wanted, q -> q.tags);
+    }
+
+    @Benchmark
+    public List<BenchData.Question> filterAndPick() {
+        return QuestionPicker.pick(QuestionPicker.filterByTags(bank, wanted, q -> q.tags), 10, random);
+    }
+}
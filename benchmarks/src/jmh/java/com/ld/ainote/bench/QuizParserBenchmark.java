@@ -0,0 +1,62 @@
+package com.ld.ainote.bench;
+
+import com.ld.ainote.utils.QuizJson;
+import com.ld.ainote.utils.QuizJsonStream;
+import com.ld.ainote.utils.QuizParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** AiFragment.parseQuiz：AI 回一份測驗（一次出 5 / 20 / 50 題）解析成題目；結構化 JSON 與文字格式各量一次 */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QuizParserBenchmark {
+
+    @Param({"5", "20", "50"})
+    public int questions;
+
+    private String raw;
+    private String json;
+    private String[] deltas; // SSE 每段 delta 大約幾個字
+
+    @Setup
+    public void setup() {
+        raw = BenchData.quiz(questions, 7);
+        if (QuizParser.parse(raw).size() != questions) throw new IllegalStateException("generator / parser mismatch");
+        json = BenchData.quizJson(questions, 7);
+        if (QuizJson.parse(json).size() != questions) throw new IllegalStateException("json generator / parser mismatch");
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < json.length(); i += 6) parts.add(json.substring(i, Math.min(json.length(), i + 6)));
+        deltas = parts.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public List<QuizParser.Item> parseQuiz() {
+        return QuizParser.parse(raw);
+    }
+
+    @Benchmark
+    public List<QuizParser.Item> parseQuizJson() {
+        return QuizJson.parse(json);
+    }
+
+    /** 串流出題：同一份 JSON 切成小段餵進 QuizJsonStream */
+    @Benchmark
+    public List<QuizParser.Item> parseQuizJsonStreamed() {
+        List<QuizParser.Item> out = new ArrayList<>(questions);
+        QuizJsonStream p = new QuizJsonStream(out::add);
+        for (String d : deltas) p.feed(d);
+        return out;
+    }
+}
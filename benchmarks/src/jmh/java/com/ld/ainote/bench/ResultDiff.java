@@ -0,0 +1,83 @@
+package com.ld.ainote.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 兩份 JMH JSON 結果逐項比較（分數皆為 AverageTime，越小越好）
+ * 參數：baseline.json current.json [門檻 %，預設 10]
+ */
+public final class ResultDiff {
+
+    private ResultDiff() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ResultDiff baseline.json current.json [thresholdPercent]");
+            System.exit(2);
+        }
+        Path basePath = Paths.get(args[0]);
+        Path curPath = Paths.get(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        if (!Files.exists(basePath)) {
+            System.out.println("沒有 " + basePath + "：先跑 :benchmarks:jmh，再把 jmh-result.json 複製成 baseline.json");
+            return;
+        }
+        Map<String, Double> base = load(basePath);
+        Map<String, Double> cur = load(curPath);
+
+        int regressions = 0;
+        for (Map.Entry<String, Double> e : cur.entrySet()) {
+            Double before = base.get(e.getKey());
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "%-90s %12s %12.3f   (new)%n", e.getKey(), "-", e.getValue());
+                continue;
+            }
+            double change = (e.getValue() - before) / before * 100;
+            String mark = change > threshold ? "  REGRESSION" : change < -threshold ? "  improved" : "";
+            if (change > threshold) regressions++;
+            System.out.printf(Locale.ROOT, "%-90s %12.3f %12.3f %+7.1f%%%s%n",
+                    e.getKey(), before, e.getValue(), change, mark);
+        }
+        for (String k : base.keySet()) {
+            if (!cur.containsKey(k)) System.out.printf(Locale.ROOT, "%-90s   (removed)%n", k);
+        }
+        System.out.println(regressions == 0 ? "沒有超過 " + threshold + "% 的退步"
+                : regressions + " 項變慢超過 " + threshold + "%");
+    }
+
+    /** key = 基準名稱 + 排序後的參數，例如 NoteRowsBenchmark.withIndex{grouped=true, notes=1000} */
+    private static Map<String, Double> load(Path path) throws IOException {
+        Map<String, Double> out = new LinkedHashMap<>();
+        try (Reader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            JsonArray runs = JsonParser.parseReader(r).getAsJsonArray();
+            for (JsonElement el : runs) {
+                JsonObject run = el.getAsJsonObject();
+                String name = run.get("benchmark").getAsString();
+                name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+                Map<String, String> params = new TreeMap<>();
+                if (run.has("params")) {
+                    for (Map.Entry<String, JsonElement> p : run.getAsJsonObject("params").entrySet()) {
+                        params.put(p.getKey(), p.getValue().getAsString());
+                    }
+                }
+                double score = run.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+                out.put(params.isEmpty() ? name : name + params, score);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,4 @@
+package com.google.firebase.firestore;
+
+/** 編譯用替身（見 build.gradle.kts 的 stubs source set） */
+public @interface ServerTimestamp {}
@@ -0,0 +1,27 @@
+// Cloud Run API 的本機替身 + 壓力測試（純 JVM，不依賴 Android / Firebase）
+//   ./gradlew :devserver:run --args="--port 8080"
+//   ./gradlew :devserver:loadTest --args="--editors 16 --hot-blocks 4 --seconds 30"
+plugins {
+    java
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation("com.google.code.gson:gson:2.10.1")
+}
+
+application {
+    mainClass.set("com.ld.ainote.devserver.DevServer")
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "模擬 N 位使用者同時編輯同一篇筆記，輸出吞吐量 / 延遲 / 衝突率 / 等鎖時間"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.ld.ainote.devserver.LoadHarness")
+}
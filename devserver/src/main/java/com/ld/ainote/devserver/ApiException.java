@@ -0,0 +1,20 @@
+package com.ld.ainote.devserver;
+
+/** 對應 Cloud Functions 裡 err.code = 4xx 的錯誤；DevServer 會轉成同樣的狀態碼與 { error } */
+final class ApiException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    ApiException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    static ApiException badRequest(String message) { return new ApiException(400, message); }
+    static ApiException forbidden()                { return new ApiException(403, "Permission denied"); }
+    static ApiException notFound()                 { return new ApiException(404, "Not found"); }
+    static ApiException conflict()                 { return new ApiException(409, "Version conflict"); }
+    static ApiException locked()                   { return new ApiException(423, "Locked"); }
+}
@@ -0,0 +1,214 @@
+package com.ld.ainote.devserver;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Cloud Run API 的本機替身（只替換 HTTP API；App 直接讀寫的 Firestore 不在這裡）
+ * 路徑 = 函式名稱小寫：POST http://host:port/createnote、/updateblock ...
+ * App 端在 local.properties 設 API_BASE_URL=http://10.0.2.2:8080（模擬器連本機）即可改打這裡
+ *
+ * 驗證：只檢查有沒有 Bearer，不驗簽；JWT 取 payload 的 user_id / sub，其餘字串直接當 uid
+ * （LoadHarness 用 "Bearer editor-3" 扮演不同使用者）
+ *
+ * 參數：--port 8080 --lock-ttl-sec 30 --delay-ms 0（每個請求額外延遲，模擬網路 / 冷啟動）
+ */
+public final class DevServer {
+
+    interface Handler {
+        Map<String, Object> handle(String uid, JsonObject body) throws ApiException;
+    }
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+    private static final Logger LOG = Logger.getLogger("DevServer");
+
+    private final HttpServer server;
+    private final ExecutorService pool;
+    private final long delayMs;
+
+    private DevServer(HttpServer server, ExecutorService pool, long delayMs) {
+        this.server = server;
+        this.pool = pool;
+        this.delayMs = delayMs;
+    }
+
+    /** port = 0 時由系統挑一個空的 port（LoadHarness 內嵌啟動用） */
+    static DevServer start(int port, long lockTtlSec, long delayMs) throws IOException {
+        // 預設會等 Nagle / delayed ACK，本機每個請求平白多 40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        MemoryStore store = new MemoryStore(lockTtlSec);
+        HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+        ExecutorService pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "devserver");
+            t.setDaemon(true);
+            return t;
+        });
+        DevServer s = new DevServer(http, pool, delayMs);
+
+        Map<String, Handler> routes = new LinkedHashMap<>();
+        routes.put("createNote", store::createNote);
+        routes.put("updateNote", store::updateNote);
+        routes.put("deleteNote", store::deleteNote);
+        routes.put("deleteNotesByCategory", store::deleteNotesByCategory);
+        routes.put("setCollaborators", store::setCollaborators);
+        routes.put("listBlocks", store::listBlocks);
+        routes.put("createBlock", store::createBlock);
+        routes.put("updateBlock", store::updateBlock);
+        routes.put("deleteBlock", store::deleteBlock);
+        routes.put("updateBlocksBatch", store::updateBlocksBatch);
+        routes.put("acquireBlockLock", store::acquireLock);
+        routes.put("renewBlockLock", store::renewLock);
+        routes.put("renewBlockLocks", store::renewLocks);
+        routes.put("releaseBlockLock", store::releaseLock);
+        for (Map.Entry<String, Handler> e : routes.entrySet()) {
+            String name = e.getKey();
+            Handler h = e.getValue();
+            http.createContext("/" + name.toLowerCase(Locale.ROOT), ex -> s.dispatch(ex, name, h));
+        }
+        http.setExecutor(pool);
+        http.start();
+        return s;
+    }
+
+    int port() { return server.getAddress().getPort(); }
+
+    void stop() {
+        server.stop(0);
+        pool.shutdownNow();
+    }
+
+    private void dispatch(HttpExchange ex, String name, Handler h) throws IOException {
+        try {
+            ex.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            if ("OPTIONS".equals(ex.getRequestMethod())) {
+                send(ex, 204, null);
+                return;
+            }
+            if (!"POST".equals(ex.getRequestMethod())) {
+                send(ex, 405, error("Method not allowed"));
+                return;
+            }
+            String uid = uidFrom(ex.getRequestHeaders().getFirst("Authorization"));
+            if (uid == null) {
+                send(ex, 401, error("Missing Bearer token"));
+                return;
+            }
+            JsonObject body;
+            try {
+                JsonElement parsed = JsonParser.parseString(readBody(ex));
+                body = parsed.isJsonObject() ? parsed.getAsJsonObject() : new JsonObject();
+            } catch (JsonParseException bad) {
+                send(ex, 400, error("Invalid JSON"));
+                return;
+            }
+            if (delayMs > 0) Thread.sleep(delayMs);
+            send(ex, 200, h.handle(uid, body));
+        } catch (ApiException e) {
+            send(ex, e.status, error(e.getMessage()));
+        } catch (Exception e) {
+            // 同 functions/index.js 的 console.error("<name> error:", err)，回應 body 不帶細節
+            LOG.log(Level.SEVERE, name + " error", e);
+            send(ex, 500, error("Internal error"));
+        } finally {
+            ex.close();
+        }
+    }
+
+    /** client 的 body 超過 1KB 會 gzip（HttpTransport） */
+    private static String readBody(HttpExchange ex) throws IOException {
+        InputStream in = ex.getRequestBody();
+        if ("gzip".equalsIgnoreCase(ex.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0; ) bos.write(buf, 0, n);
+        return bos.size() == 0 ? "{}" : new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange ex, int status, Object body) throws IOException {
+        if (body == null) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] data = GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, data.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    /** 不驗簽：Firebase ID token 取 user_id / sub，其他字串原樣當 uid */
+    static String uidFrom(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) return null;
+        String token = authorization.substring("Bearer ".length()).trim();
+        if (token.isEmpty()) return null;
+        String[] parts = token.split("\\.");
+        if (parts.length == 3) {
+            try {
+                String json = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+                JsonObject claims = JsonParser.parseString(json).getAsJsonObject();
+                if (claims.has("user_id")) return claims.get("user_id").getAsString();
+                if (claims.has("sub")) return claims.get("sub").getAsString();
+            } catch (RuntimeException ignore) {
+                // 不是 JWT，當一般字串
+            }
+        }
+        return token;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Args a = new Args(args);
+        DevServer s = start(a.intOf("--port", 8080), a.intOf("--lock-ttl-sec", 30), a.intOf("--delay-ms", 0));
+        System.out.println("AINote dev server on http://localhost:" + s.port()
+                + "  (模擬器請用 http://10.0.2.2:" + s.port() + ")");
+        Thread.currentThread().join();
+    }
+
+    /** 極簡 --name value 參數 */
+    static final class Args {
+        private final Map<String, String> values = new LinkedHashMap<>();
+
+        Args(String[] args) {
+            for (int i = 0; i + 1 < args.length; i += 2) values.put(args[i], args[i + 1]);
+        }
+
+        int intOf(String name, int fallback) {
+            String v = values.get(name);
+            return v == null ? fallback : Integer.parseInt(v);
+        }
+
+        String strOf(String name, String fallback) {
+            String v = values.get(name);
+            return v == null ? fallback : v;
+        }
+    }
+}
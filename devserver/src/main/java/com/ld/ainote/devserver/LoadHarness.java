@@ -0,0 +1,395 @@
+package com.ld.ainote.devserver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * N 位使用者同時編輯同一篇筆記的壓力測試（流程對齊 NoteEditActivity）
+ * 每位 editor 反覆：acquireBlockLock（423 就退避重試，記錄等鎖時間）→ 修改文字 →
+ * 存檔（batch：updateBlocksBatch 連同釋放鎖；single：updateBlock + releaseBlockLock）→ 思考時間
+ * 版號過期（409 / conflict）時先 listBlocks 重新同步再重送，與 App 收到衝突後重抓的行為一致
+ * App 平常靠 Firestore 快照得知別人的新版號；這裡用共用的 feed 模擬，別人存檔後 snapshot-lag-ms 才看得到
+ *
+ * 參數（皆可省略）：
+ *   --url http://localhost:8080   不給就在程序內啟動 DevServer
+ *   --editors 8 --blocks 20 --hot-blocks 20（editor 只挑前 K 塊，越小競爭越激烈）
+ *   --seconds 20 --think-ms 50 --save batch|single --locks on|off
+ *   --max-lock-wait-ms 5000 --snapshot-lag-ms 300 --delay-ms 0（內嵌 server 的每請求延遲）
+ */
+public final class LoadHarness {
+
+    private static final int MAX_SAVE_RETRIES = 3;
+    private static final Logger LOG = Logger.getLogger("LoadHarness");
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final String baseUrl;
+    private final Stats stats = new Stats();
+
+    /** 模擬快照推播：每塊最後一次成功存檔的結果 */
+    private static final class Published {
+        final long version;
+        final String text;
+        final long atNanos;
+        Published(long version, String text, long atNanos) {
+            this.version = version;
+            this.text = text;
+            this.atNanos = atNanos;
+        }
+    }
+
+    private final Map<String, Published> feed = new ConcurrentHashMap<>();
+    private long snapshotLagNanos;
+
+    private LoadHarness(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        DevServer.Args a = new DevServer.Args(args);
+        int editors = a.intOf("--editors", 8);
+        int blocks = a.intOf("--blocks", 20);
+        int hot = Math.max(1, Math.min(blocks, a.intOf("--hot-blocks", blocks)));
+        int seconds = a.intOf("--seconds", 20);
+        int thinkMs = a.intOf("--think-ms", 50);
+        int maxLockWaitMs = a.intOf("--max-lock-wait-ms", 5000);
+        boolean batch = !"single".equals(a.strOf("--save", "batch"));
+        boolean useLocks = !"off".equals(a.strOf("--locks", "on"));
+        int snapshotLagMs = a.intOf("--snapshot-lag-ms", 300);
+
+        String url = a.strOf("--url", null);
+        DevServer embedded = null;
+        if (url == null) {
+            embedded = DevServer.start(0, 30, a.intOf("--delay-ms", 0));
+            url = "http://localhost:" + embedded.port();
+        }
+        try {
+            LoadHarness h = new LoadHarness(url);
+            h.snapshotLagNanos = snapshotLagMs * 1_000_000L;
+            h.run(editors, blocks, hot, seconds, thinkMs, maxLockWaitMs, batch, useLocks);
+        } finally {
+            if (embedded != null) embedded.stop();
+        }
+    }
+
+    private void run(int editors, int blocks, int hot, int seconds, int thinkMs, int maxLockWaitMs,
+                     boolean batch, boolean useLocks) throws Exception {
+        // ---- 準備：editor-0 建筆記、加協作者、建 blocks ----
+        String owner = "editor-0";
+        Call created = call(owner, "createNote", obj("title", "load test"), false);
+        String noteId = created.json.get("id").getAsString();
+        JsonArray collabs = new JsonArray();
+        for (int i = 1; i < editors; i++) collabs.add("editor-" + i);
+        JsonObject sc = obj("ownerId", owner);
+        sc.addProperty("noteId", noteId);
+        sc.add("collaborators", collabs);
+        call(owner, "setCollaborators", sc, false);
+        List<String> blockIds = new ArrayList<>();
+        for (int i = 0; i < blocks; i++) {
+            JsonObject cb = noteBody(owner, noteId);
+            cb.addProperty("index", i);
+            cb.addProperty("type", "text");
+            cb.addProperty("text", "block " + i);
+            blockIds.add(call(owner, "createBlock", cb, false).json.get("id").getAsString());
+        }
+
+        System.out.printf(Locale.US,
+                "editors=%d blocks=%d hot=%d seconds=%d think=%dms save=%s locks=%s snapshot-lag=%dms url=%s%n",
+                editors, blocks, hot, seconds, thinkMs, batch ? "batch" : "single", useLocks ? "on" : "off",
+                snapshotLagNanos / 1_000_000L, baseUrl);
+
+        // ---- 執行 ----
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(editors);
+        long startNs = System.nanoTime();
+        for (int e = 0; e < editors; e++) {
+            String uid = "editor-" + e;
+            Thread t = new Thread(() -> {
+                try {
+                    new Editor(uid, owner, noteId, blockIds.subList(0, hot), batch, useLocks, thinkMs, maxLockWaitMs)
+                            .loop(deadline);
+                } catch (Exception ex) {
+                    stats.errors.incrementAndGet();
+                    LOG.log(Level.WARNING, uid + " stopped", ex);
+                } finally {
+                    done.countDown();
+                }
+            }, uid);
+            t.start();
+        }
+        done.await();
+        double elapsedSec = (System.nanoTime() - startNs) / 1e9;
+        System.out.println(stats.report(elapsedSec));
+    }
+
+    // ================== 單一 editor ==================
+
+    private final class Editor {
+        final String uid, owner, noteId;
+        final List<String> blocks;
+        final boolean batch, useLocks;
+        final int thinkMs, maxLockWaitMs;
+        final Map<String, Long> versions = new HashMap<>();
+        final Map<String, String> texts = new HashMap<>();
+        int seq;
+
+        Editor(String uid, String owner, String noteId, List<String> blocks, boolean batch, boolean useLocks,
+               int thinkMs, int maxLockWaitMs) {
+            this.uid = uid;
+            this.owner = owner;
+            this.noteId = noteId;
+            this.blocks = blocks;
+            this.batch = batch;
+            this.useLocks = useLocks;
+            this.thinkMs = thinkMs;
+            this.maxLockWaitMs = maxLockWaitMs;
+        }
+
+        void loop(long deadline) throws Exception {
+            refresh();
+            while (System.nanoTime() < deadline) {
+                String blockId = blocks.get(ThreadLocalRandom.current().nextInt(blocks.size()));
+                if (useLocks && !acquire(blockId)) continue;
+                catchUp(blockId);
+                String next = texts.getOrDefault(blockId, "") + " " + uid + "#" + (++seq);
+                save(blockId, next);
+                if (thinkMs > 0) Thread.sleep(ThreadLocalRandom.current().nextInt(thinkMs + 1));
+            }
+        }
+
+        /** 423 時退避重試；回傳是否拿到鎖 */
+        boolean acquire(String blockId) throws Exception {
+            long start = System.nanoTime();
+            long backoff = 20;
+            while (true) {
+                Call c = call(uid, "acquireBlockLock", blockBody(blockId), true);
+                stats.lockAttempts.incrementAndGet();
+                if (c.status == 200) {
+                    stats.lockWait.add(System.nanoTime() - start);
+                    return true;
+                }
+                if (c.status != 423) return false;
+                stats.lockContended.incrementAndGet();
+                if ((System.nanoTime() - start) / 1_000_000L + backoff > maxLockWaitMs) {
+                    stats.lockTimeouts.incrementAndGet();
+                    return false;
+                }
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+                backoff = Math.min(400, backoff * 2);
+            }
+        }
+
+        void save(String blockId, String text) throws Exception {
+            for (int attempt = 0; attempt <= MAX_SAVE_RETRIES; attempt++) {
+                stats.saveAttempts.incrementAndGet();
+                Long expected = versions.get(blockId);
+                String status;
+                long newVersion = -1;
+                if (batch) {
+                    JsonObject u = obj("blockId", blockId);
+                    u.addProperty("text", text);
+                    if (expected != null) u.addProperty("expectedVersion", expected);
+                    JsonArray updates = new JsonArray();
+                    updates.add(u);
+                    JsonArray releases = new JsonArray();
+                    if (useLocks) releases.add(blockId);
+                    JsonObject body = noteBody(owner, noteId);
+                    body.add("updates", updates);
+                    body.add("releases", releases);
+                    Call c = call(uid, "updateBlocksBatch", body, true);
+                    JsonObject r = c.status == 200 ? c.json.getAsJsonArray("results").get(0).getAsJsonObject() : null;
+                    status = r != null ? r.get("status").getAsString() : "http_" + c.status;
+                    if (r != null && r.has("version")) newVersion = r.get("version").getAsLong();
+                } else {
+                    JsonObject body = blockBody(blockId);
+                    body.addProperty("text", text);
+                    if (expected != null) body.addProperty("expectedVersion", expected);
+                    Call c = call(uid, "updateBlock", body, true);
+                    status = c.status == 200 ? "ok" : c.status == 409 ? "conflict" : c.status == 423 ? "locked" : "http_" + c.status;
+                    if (c.status == 200) newVersion = c.json.get("version").getAsLong();
+                }
+
+                if ("ok".equals(status)) {
+                    stats.commits.incrementAndGet();
+                    versions.put(blockId, newVersion);
+                    texts.put(blockId, text);
+                    publish(blockId, newVersion, text);
+                    break;
+                }
+                if ("conflict".equals(status)) {
+                    stats.conflicts.incrementAndGet();
+                    refresh(); // 與 App 一樣：重抓最新版號再送
+                    text = texts.getOrDefault(blockId, "") + " " + uid + "#" + seq;
+                    continue;
+                }
+                if ("locked".equals(status)) stats.saveLocked.incrementAndGet();
+                else stats.errors.incrementAndGet();
+                break;
+            }
+            if (useLocks && !batch) call(uid, "releaseBlockLock", blockBody(blockId), true);
+        }
+
+        /** 套用已經「推播到」這位 editor 的較新版本 */
+        void catchUp(String blockId) {
+            Published p = feed.get(blockId);
+            if (p == null || System.nanoTime() - p.atNanos < snapshotLagNanos) return;
+            if (p.version > versions.getOrDefault(blockId, 0L)) {
+                versions.put(blockId, p.version);
+                texts.put(blockId, p.text);
+            }
+        }
+
+        void refresh() throws Exception {
+            Call c = call(uid, "listBlocks", noteBody(owner, noteId), true);
+            if (c.status != 200) return;
+            for (JsonElement e : c.json.getAsJsonArray("blocks")) {
+                JsonObject b = e.getAsJsonObject();
+                versions.put(b.get("id").getAsString(), b.get("version").getAsLong());
+                texts.put(b.get("id").getAsString(), b.get("text").getAsString());
+            }
+        }
+
+        JsonObject blockBody(String blockId) {
+            JsonObject o = noteBody(owner, noteId);
+            o.addProperty("blockId", blockId);
+            o.addProperty("id", blockId);
+            return o;
+        }
+    }
+
+    private void publish(String blockId, long version, String text) {
+        Published next = new Published(version, text, System.nanoTime());
+        feed.merge(blockId, next, (old, n) -> n.version > old.version ? n : old);
+    }
+
+    // ================== HTTP ==================
+
+    private static final class Call {
+        final int status;
+        final JsonObject json;
+        Call(int status, JsonObject json) { this.status = status; this.json = json; }
+    }
+
+    /** record = false 的呼叫（準備資料）不算進統計 */
+    private Call call(String uid, String fn, JsonObject body, boolean record) throws IOException, InterruptedException {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(baseUrl + "/" + fn.toLowerCase(Locale.ROOT)))
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", "Bearer " + uid)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        long t0 = System.nanoTime();
+        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        long took = System.nanoTime() - t0;
+        if (record) stats.endpoint(fn).add(took, resp.statusCode());
+        JsonElement parsed = resp.body().isEmpty() ? new JsonObject() : JsonParser.parseString(resp.body());
+        if (!record && resp.statusCode() != 200) {
+            throw new IOException(fn + " HTTP " + resp.statusCode() + ": " + resp.body());
+        }
+        return new Call(resp.statusCode(), parsed.isJsonObject() ? parsed.getAsJsonObject() : new JsonObject());
+    }
+
+    private static JsonObject obj(String k, String v) {
+        JsonObject o = new JsonObject();
+        o.addProperty(k, v);
+        return o;
+    }
+
+    private static JsonObject noteBody(String ownerId, String noteId) {
+        JsonObject o = obj("ownerId", ownerId);
+        o.addProperty("noteId", noteId);
+        return o;
+    }
+
+    // ================== 統計 ==================
+
+    /** 延遲保留原始值（壓測量級不大），報表時排序取精確百分位 */
+    private static final class Latencies {
+        private final List<Long> nanos = new ArrayList<>();
+        private final Map<Integer, Integer> status = new TreeMap<>();
+
+        synchronized void add(long n) { nanos.add(n); }
+
+        synchronized void add(long n, int code) {
+            nanos.add(n);
+            status.merge(code, 1, Integer::sum);
+        }
+
+        synchronized String summary() {
+            if (nanos.isEmpty()) return "n=0";
+            List<Long> s = new ArrayList<>(nanos);
+            Collections.sort(s);
+            return String.format(Locale.US, "n=%d p50=%.1fms p99=%.1fms max=%.1fms%s",
+                    s.size(), pct(s, 0.50), pct(s, 0.99), s.get(s.size() - 1) / 1e6,
+                    status.isEmpty() ? "" : " status=" + status);
+        }
+
+        synchronized int count() { return nanos.size(); }
+
+        private static double pct(List<Long> sorted, double p) {
+            int i = (int) Math.ceil(p * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, i))) / 1e6;
+        }
+    }
+
+    private static final class Stats {
+        final Map<String, Latencies> byEndpoint = new TreeMap<>();
+        final Latencies lockWait = new Latencies();
+        final AtomicLong lockAttempts = new AtomicLong(), lockContended = new AtomicLong(), lockTimeouts = new AtomicLong();
+        final AtomicLong saveAttempts = new AtomicLong(), commits = new AtomicLong(), conflicts = new AtomicLong();
+        final AtomicLong saveLocked = new AtomicLong(), errors = new AtomicLong();
+
+        synchronized Latencies endpoint(String fn) {
+            return byEndpoint.computeIfAbsent(fn, k -> new Latencies());
+        }
+
+        String report(double elapsedSec) {
+            StringBuilder sb = new StringBuilder();
+            long requests = 0;
+            synchronized (this) {
+                for (Latencies l : byEndpoint.values()) requests += l.count();
+            }
+            sb.append(String.format(Locale.US, "%n經過 %.1fs：請求 %d（%.1f req/s），成功存檔 %d（%.1f 次/s）%n",
+                    elapsedSec, requests, requests / elapsedSec, commits.get(), commits.get() / elapsedSec));
+            sb.append(String.format(Locale.US, "版本衝突率 %.2f%%（%d / %d 次送出），存檔遇鎖 %d，其他錯誤 %d%n",
+                    pct(conflicts.get(), saveAttempts.get()), conflicts.get(), saveAttempts.get(),
+                    saveLocked.get(), errors.get()));
+            sb.append(String.format(Locale.US, "鎖競爭率 %.2f%%（423 %d / 嘗試 %d），等鎖逾時 %d%n",
+                    pct(lockContended.get(), lockAttempts.get()), lockContended.get(), lockAttempts.get(),
+                    lockTimeouts.get()));
+            sb.append("等鎖時間 ").append(lockWait.summary()).append('\n');
+            synchronized (this) {
+                for (Map.Entry<String, Latencies> e : byEndpoint.entrySet()) {
+                    sb.append(String.format(Locale.US, "  %-18s %s%n", e.getKey(), e.getValue().summary()));
+                }
+            }
+            return sb.toString();
+        }
+
+        private static double pct(long a, long b) { return b == 0 ? 0 : 100.0 * a / b; }
+    }
+}
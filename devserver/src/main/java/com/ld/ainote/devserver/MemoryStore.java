@@ -0,0 +1,584 @@
+package com.ld.ainote.devserver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * functions/index.js 的記憶體版：同樣的欄位、版號、鎖與錯誤碼
+ * - 每篇筆記一個 monitor，等同 Firestore transaction（同篇互斥、不同篇可並行）
+ * - 時間欄位輸出成 Firestore Timestamp 的 JSON 形式 { _seconds, _nanoseconds }，client 解析方式不變
+ * - 沒有使用者資料庫：updatedByDisplayName / updatedByEmail 一律空字串
+ */
+final class MemoryStore {
+
+    static final int MAX_TAGS = 20;
+    static final int MAX_RENEW_LOCKS = 400;
+    static final int MAX_BATCH_BLOCKS = 400;
+
+    private static final String ID_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private static final class NoteRec {
+        final String ownerId;
+        final String id;
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        List<String> collaborators = new ArrayList<>();
+        final Map<String, BlockRec> blocks = new HashMap<>();
+        NoteRec(String ownerId, String id) { this.ownerId = ownerId; this.id = id; }
+    }
+
+    private static final class BlockRec {
+        final String id;
+        int index;
+        String type;
+        String text;
+        long version = 1;
+        String updatedBy;
+        long updatedAtMs;
+        String lockHolder;
+        long lockUntilMs; // 0 = 無
+        String clientId;  // 用戶端建立時帶的 id（離線新增的 local-），重送時用來認出同一塊
+        BlockRec(String id) { this.id = id; }
+    }
+
+    private final Map<String, NoteRec> notes = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long lockTtlMs;
+
+    MemoryStore(long lockTtlSec) {
+        this.lockTtlMs = lockTtlSec * 1000L;
+    }
+
+    // ================== Notes ==================
+
+    Map<String, Object> createNote(String uid, JsonObject body) throws ApiException {
+        String title = str(body, "title");
+        String content = str(body, "content");
+        if (isEmpty(title) && isEmpty(content)) throw ApiException.badRequest("title or content required");
+
+        NoteRec n = new NoteRec(uid, newId());
+        Object now = ts(System.currentTimeMillis());
+        n.fields.put("title", title != null ? title.trim() : "");
+        n.fields.put("content", content != null ? content : "");
+        n.fields.put("stack", str(body, "stack") != null ? str(body, "stack").trim() : "");
+        n.fields.put("chapter", intOrNull(body, "chapter"));
+        n.fields.put("section", intOrNull(body, "section"));
+        n.fields.put("tags", tags(body));
+        n.fields.put("ownerId", uid);
+        n.fields.put("owner", uid);
+        n.fields.put("timestamp", now);
+        n.fields.put("createdAt", now);
+        n.fields.put("updatedAt", now);
+        notes.put(key(uid, n.id), n);
+
+        Map<String, Object> out = ok();
+        out.put("id", n.id);
+        return out;
+    }
+
+    Map<String, Object> updateNote(String uid, JsonObject body) throws ApiException {
+        String id = str(body, "id");
+        if (isEmpty(id)) throw ApiException.badRequest("id required");
+        NoteRec n = readable(orDefault(str(body, "ownerId"), uid), id, uid);
+
+        Map<String, Object> patch = new LinkedHashMap<>();
+        if (str(body, "title") != null) patch.put("title", str(body, "title").trim());
+        if (str(body, "content") != null) patch.put("content", str(body, "content"));
+        if (str(body, "stack") != null) patch.put("stack", str(body, "stack").trim());
+        if (intOrNull(body, "chapter") != null) patch.put("chapter", intOrNull(body, "chapter"));
+        if (intOrNull(body, "section") != null) patch.put("section", intOrNull(body, "section"));
+        if (body.has("tags") && body.get("tags").isJsonArray()) patch.put("tags", tags(body));
+        if (patch.isEmpty()) {
+            Map<String, Object> out = ok();
+            out.put("noChange", true);
+            return out;
+        }
+        synchronized (n) {
+            n.fields.putAll(patch);
+            n.fields.put("updatedAt", ts(System.currentTimeMillis()));
+        }
+        return ok();
+    }
+
+    Map<String, Object> deleteNote(String uid, JsonObject body) throws ApiException {
+        String id = str(body, "id");
+        if (isEmpty(id)) throw ApiException.badRequest("id required");
+        String owner = orDefault(str(body, "ownerId"), uid);
+        readable(owner, id, uid);
+        notes.remove(key(owner, id));
+        return ok();
+    }
+
+    Map<String, Object> deleteNotesByCategory(String uid, JsonObject body) throws ApiException {
+        String stack = str(body, "stack");
+        if (isEmpty(stack)) throw ApiException.badRequest("stack required");
+        int deleted = 0;
+        for (NoteRec n : new ArrayList<>(notes.values())) {
+            if (n.ownerId.equals(uid) && stack.trim().equals(n.fields.get("stack"))) {
+                notes.remove(key(n.ownerId, n.id));
+                deleted++;
+            }
+        }
+        Map<String, Object> out = ok();
+        out.put("deleted", deleted);
+        return out;
+    }
+
+    Map<String, Object> setCollaborators(String uid, JsonObject body) throws ApiException {
+        String ownerId = str(body, "ownerId");
+        String noteId = orDefault(str(body, "noteId"), str(body, "id"));
+        if (isEmpty(ownerId) || isEmpty(noteId)) throw ApiException.badRequest("ownerId and noteId required");
+        if (!uid.equals(ownerId)) throw new ApiException(403, "Only owner can set collaborators");
+        NoteRec n = notes.get(key(ownerId, noteId));
+        if (n == null) throw new ApiException(404, "Note not found");
+
+        List<String> next = strings(body, "collaborators");
+        synchronized (n) {
+            List<String> a = new ArrayList<>(n.collaborators), b = new ArrayList<>(next);
+            Collections.sort(a);
+            Collections.sort(b);
+            if (a.equals(b)) {
+                Map<String, Object> out = ok();
+                out.put("noChange", true);
+                return out;
+            }
+            n.collaborators = next;
+            n.fields.put("updatedAt", ts(System.currentTimeMillis()));
+        }
+        Map<String, Object> out = ok();
+        out.put("count", next.size());
+        return out;
+    }
+
+    // ================== Blocks ==================
+
+    Map<String, Object> listBlocks(String uid, JsonObject body) throws ApiException {
+        NoteRec n = requireNote(uid, body);
+        List<Map<String, Object>> blocks = new ArrayList<>();
+        synchronized (n) {
+            List<BlockRec> sorted = new ArrayList<>(n.blocks.values());
+            sorted.sort(Comparator.<BlockRec>comparingInt(b -> b.index).thenComparing(b -> b.id));
+            for (BlockRec b : sorted) blocks.add(blockJson(b));
+        }
+        Map<String, Object> out = ok();
+        out.put("blocks", blocks);
+        return out;
+    }
+
+    Map<String, Object> createBlock(String uid, JsonObject body) throws ApiException {
+        String ownerId = str(body, "ownerId"), noteId = str(body, "noteId");
+        JsonElement idx = body.get("index");
+        if (isEmpty(ownerId) || isEmpty(noteId) || idx == null || !isNumber(idx)) {
+            throw ApiException.badRequest("ownerId, noteId, index required");
+        }
+        NoteRec n = readable(ownerId, noteId, uid);
+        BlockRec b = new BlockRec(newId());
+        b.index = Math.max(0, idx.getAsInt());
+        b.type = str(body, "type") != null ? str(body, "type") : "paragraph";
+        b.text = str(body, "text") != null ? str(body, "text") : "";
+        b.updatedBy = uid;
+        b.updatedAtMs = System.currentTimeMillis();
+        b.clientId = str(body, "clientId");
+        Map<String, Object> block;
+        synchronized (n) {
+            BlockRec same = b.clientId == null ? null : findByClientId(n, b.clientId);
+            if (same != null) b = same; // 上次其實建好了，只是回應沒收到
+            else n.blocks.put(b.id, b);
+            block = blockJson(b);
+        }
+        Map<String, Object> out = ok();
+        out.put("id", b.id);
+        out.put("block", block);
+        return out;
+    }
+
+    Map<String, Object> deleteBlock(String uid, JsonObject body) throws ApiException {
+        NoteRec n = requireNote(uid, body);
+        String blockId = requireBlockId(body);
+        synchronized (n) {
+            BlockRec b = n.blocks.get(blockId);
+            if (b == null) return ok();
+            if (lockedByOther(b, uid)) throw ApiException.locked();
+            n.blocks.remove(blockId);
+        }
+        return ok();
+    }
+
+    Map<String, Object> acquireLock(String uid, JsonObject body) throws ApiException {
+        NoteRec n = requireNote(uid, body);
+        String blockId = requireBlockId(body);
+        long until = System.currentTimeMillis() + lockTtlMs;
+        synchronized (n) {
+            BlockRec b = n.blocks.get(blockId);
+            if (b == null) throw ApiException.notFound();
+            if (lockedByOther(b, uid)) throw ApiException.locked();
+            b.lockHolder = uid;
+            b.lockUntilMs = until;
+        }
+        return lockResponse(uid, until);
+    }
+
+    Map<String, Object> renewLock(String uid, JsonObject body) throws ApiException {
+        NoteRec n = requireNote(uid, body);
+        String blockId = requireBlockId(body);
+        long until = System.currentTimeMillis() + lockTtlMs;
+        synchronized (n) {
+            BlockRec b = n.blocks.get(blockId);
+            if (b == null) throw ApiException.notFound();
+            if (!uid.equals(b.lockHolder)) throw ApiException.locked();
+            b.lockUntilMs = until;
+        }
+        return lockResponse(uid, until);
+    }
+
+    Map<String, Object> releaseLock(String uid, JsonObject body) throws ApiException {
+        NoteRec n = requireNote(uid, body);
+        String blockId = requireBlockId(body);
+        synchronized (n) {
+            BlockRec b = n.blocks.get(blockId);
+            if (b == null) throw ApiException.notFound();
+            if (!uid.equals(b.lockHolder)) throw ApiException.locked();
+            b.lockHolder = null;
+            b.lockUntilMs = 0;
+        }
+        return ok();
+    }
+
+    Map<String, Object> renewLocks(String uid, JsonObject body) throws ApiException {
+        List<String[]> locks = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        JsonElement raw = body.get("locks");
+        if (raw != null && raw.isJsonArray()) {
+            for (JsonElement e : raw.getAsJsonArray()) {
+                if (!e.isJsonObject()) continue;
+                JsonObject l = e.getAsJsonObject();
+                String o = str(l, "ownerId"), nId = str(l, "noteId"), bId = str(l, "blockId");
+                if (isEmpty(o) || isEmpty(nId) || isEmpty(bId)) continue;
+                if (seen.add(o + "/" + nId + "/" + bId)) locks.add(new String[] { o, nId, bId });
+            }
+        }
+        if (locks.size() > MAX_RENEW_LOCKS) {
+            throw ApiException.badRequest("Too many locks (max " + MAX_RENEW_LOCKS + ")");
+        }
+        long until = System.currentTimeMillis() + lockTtlMs;
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String[] l : locks) {
+            String status = "lost";
+            NoteRec n = notes.get(key(l[0], l[1]));
+            if (n != null && canRead(n, uid)) {
+                synchronized (n) {
+                    BlockRec b = n.blocks.get(l[2]);
+                    if (b == null) {
+                        status = "not_found";
+                    } else if (uid.equals(b.lockHolder)) {
+                        b.lockUntilMs = until;
+                        status = "ok";
+                    }
+                }
+            }
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("ownerId", l[0]);
+            r.put("noteId", l[1]);
+            r.put("blockId", l[2]);
+            r.put("status", status);
+            results.add(r);
+        }
+        Map<String, Object> out = ok();
+        out.put("lockUntil", Instant.ofEpochMilli(until).toString());
+        out.put("results", results);
+        return out;
+    }
+
+    Map<String, Object> updateBlock(String uid, JsonObject body) throws ApiException {
+        String ownerId = str(body, "ownerId"), noteId = str(body, "noteId"), blockId = str(body, "blockId");
+        if (isEmpty(ownerId) || isEmpty(noteId) || isEmpty(blockId)) {
+            throw ApiException.badRequest("ownerId, noteId, blockId required");
+        }
+        String text = str(body, "text");
+        Long expected = intOrNullLong(body, "expectedVersion");
+        JsonObject delta = text == null && body.has("delta") && body.get("delta").isJsonObject()
+                ? body.getAsJsonObject("delta") : null;
+        boolean useDelta = text == null && body.has("delta") && !body.get("delta").isJsonNull();
+        if (useDelta && (delta == null || !isTextDelta(delta) || expected == null)) {
+            throw ApiException.badRequest("delta requires { baseLength, pos, del, ins } and expectedVersion");
+        }
+        NoteRec n = readable(ownerId, noteId, uid);
+
+        long newVersion;
+        synchronized (n) {
+            BlockRec b = n.blocks.get(blockId);
+            if (b == null) throw ApiException.notFound();
+            if (lockedByOther(b, uid)) throw ApiException.locked();
+            if (expected != null && b.version != expected) throw ApiException.conflict();
+            String nextText = text;
+            if (useDelta) {
+                nextText = applyTextDelta(b.text, delta);
+                if (nextText == null) throw ApiException.conflict();
+            }
+            if (nextText != null) b.text = nextText;
+            if (str(body, "type") != null) b.type = str(body, "type");
+            Integer index = intOrNull(body, "index");
+            if (index != null) b.index = index;
+            b.version = b.version + 1;
+            b.updatedBy = uid;
+            b.updatedAtMs = System.currentTimeMillis();
+            newVersion = b.version;
+        }
+        Map<String, Object> out = ok();
+        out.put("version", newVersion);
+        return out;
+    }
+
+    Map<String, Object> updateBlocksBatch(String uid, JsonObject body) throws ApiException {
+        String ownerId = str(body, "ownerId"), noteId = str(body, "noteId");
+        Map<String, JsonObject> updateById = new LinkedHashMap<>();
+        JsonElement ups = body.get("updates");
+        if (ups != null && ups.isJsonArray()) {
+            for (JsonElement e : ups.getAsJsonArray()) {
+                if (!e.isJsonObject()) continue;
+                String id = str(e.getAsJsonObject(), "blockId");
+                if (!isEmpty(id)) updateById.put(id, e.getAsJsonObject()); // 同一塊只保留最後一筆
+            }
+        }
+        Set<String> releases = new LinkedHashSet<>(strings(body, "releases"));
+        if (isEmpty(ownerId) || isEmpty(noteId)) throw ApiException.badRequest("ownerId, noteId required");
+
+        Set<String> ids = new LinkedHashSet<>(updateById.keySet());
+        ids.addAll(releases);
+        if (ids.isEmpty()) {
+            Map<String, Object> out = ok();
+            out.put("results", new ArrayList<>());
+            return out;
+        }
+        if (ids.size() > MAX_BATCH_BLOCKS) {
+            throw ApiException.badRequest("Too many blocks (max " + MAX_BATCH_BLOCKS + ")");
+        }
+        NoteRec n = readable(ownerId, noteId, uid);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        synchronized (n) {
+            long now = System.currentTimeMillis();
+            for (String blockId : ids) {
+                Map<String, Object> r = new LinkedHashMap<>();
+                r.put("blockId", blockId);
+                BlockRec b = n.blocks.get(blockId);
+                if (b == null) {
+                    r.put("status", "not_found");
+                    r.put("released", false);
+                    results.add(r);
+                    continue;
+                }
+                r.put("status", "ok");
+                r.put("released", false);
+
+                JsonObject u = updateById.get(blockId);
+                if (u != null) {
+                    Long expected = intOrNullLong(u, "expectedVersion");
+                    String text = str(u, "text");
+                    boolean useDelta = text == null && u.has("delta") && !u.get("delta").isJsonNull();
+                    String applied = null;
+                    if (useDelta && u.get("delta").isJsonObject() && isTextDelta(u.getAsJsonObject("delta"))) {
+                        applied = applyTextDelta(b.text, u.getAsJsonObject("delta"));
+                    }
+                    if (lockedByOther(b, uid)) {
+                        r.put("status", "locked");
+                    } else if (expected != null && b.version != expected) {
+                        r.put("status", "conflict");
+                        r.put("version", b.version);
+                    } else if (useDelta && (expected == null || applied == null)) {
+                        r.put("status", "conflict");
+                        r.put("version", b.version);
+                    } else {
+                        if (text != null) b.text = text;
+                        else if (useDelta) b.text = applied;
+                        if (str(u, "type") != null) b.type = str(u, "type");
+                        Integer index = intOrNull(u, "index");
+                        if (index != null) b.index = index;
+                        b.version = b.version + 1;
+                        b.updatedBy = uid;
+                        b.updatedAtMs = now;
+                        r.put("version", b.version);
+                    }
+                }
+                // 不論內容是否寫入成功，都釋放 caller 自己的鎖
+                if (releases.contains(blockId) && uid.equals(b.lockHolder)) {
+                    b.lockHolder = null;
+                    b.lockUntilMs = 0;
+                    r.put("released", true);
+                }
+                results.add(r);
+            }
+        }
+        Map<String, Object> out = ok();
+        out.put("results", results);
+        return out;
+    }
+
+    // ================== 權限 / 共用 ==================
+
+    private NoteRec requireNote(String uid, JsonObject body) throws ApiException {
+        String ownerId = str(body, "ownerId"), noteId = str(body, "noteId");
+        if (isEmpty(ownerId) || isEmpty(noteId)) throw ApiException.badRequest("ownerId and noteId required");
+        return readable(ownerId, noteId, uid);
+    }
+
+    private static String requireBlockId(JsonObject body) throws ApiException {
+        String blockId = str(body, "blockId");
+        if (isEmpty(blockId)) throw ApiException.badRequest("ownerId, noteId, blockId required");
+        return blockId;
+    }
+
+    /** 同 assertCanReadNote：擁有者或協作者 */
+    private NoteRec readable(String ownerId, String noteId, String uid) throws ApiException {
+        NoteRec n = notes.get(key(ownerId, noteId));
+        if (n == null) throw ApiException.notFound();
+        if (!canRead(n, uid)) throw ApiException.forbidden();
+        return n;
+    }
+
+    private static boolean canRead(NoteRec n, String uid) {
+        synchronized (n) {
+            return n.ownerId.equals(uid) || n.collaborators.contains(uid);
+        }
+    }
+
+    private boolean lockedByOther(BlockRec b, String uid) {
+        return b.lockHolder != null && !b.lockHolder.equals(uid) && b.lockUntilMs > System.currentTimeMillis();
+    }
+
+    private static Map<String, Object> lockResponse(String uid, long until) {
+        Map<String, Object> out = ok();
+        out.put("lockHolder", uid);
+        out.put("lockUntil", Instant.ofEpochMilli(until).toString());
+        return out;
+    }
+
+    private static BlockRec findByClientId(NoteRec n, String clientId) {
+        for (BlockRec b : n.blocks.values()) {
+            if (clientId.equals(b.clientId)) return b;
+        }
+        return null;
+    }
+
+    private static Map<String, Object> blockJson(BlockRec b) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", b.id);
+        m.put("index", b.index);
+        m.put("type", b.type);
+        m.put("text", b.text);
+        m.put("version", b.version);
+        m.put("updatedBy", b.updatedBy);
+        m.put("updatedByDisplayName", "");
+        m.put("updatedByEmail", "");
+        m.put("updatedAt", ts(b.updatedAtMs));
+        m.put("lockHolder", b.lockHolder);
+        m.put("lockUntil", b.lockUntilMs > 0 ? ts(b.lockUntilMs) : null);
+        if (b.clientId != null) m.put("clientId", b.clientId);
+        return m;
+    }
+
+    private static boolean isTextDelta(JsonObject d) {
+        return isInt(d.get("baseLength")) && isInt(d.get("pos")) && isInt(d.get("del"))
+                && d.has("ins") && d.get("ins").isJsonPrimitive() && d.getAsJsonPrimitive("ins").isString();
+    }
+
+    /** 與 applyTextDelta 相同：長度或範圍不符回 null */
+    private static String applyTextDelta(String base, JsonObject d) {
+        String cur = base != null ? base : "";
+        int baseLength = d.get("baseLength").getAsInt(), pos = d.get("pos").getAsInt(), del = d.get("del").getAsInt();
+        if (cur.length() != baseLength) return null;
+        if (pos < 0 || del < 0 || pos + del > cur.length()) return null;
+        return cur.substring(0, pos) + d.get("ins").getAsString() + cur.substring(pos + del);
+    }
+
+    private static Map<String, Object> ok() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("success", true);
+        return m;
+    }
+
+    /** Firestore Timestamp 經 res.json 後的形狀 */
+    private static Map<String, Object> ts(long ms) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("_seconds", Math.floorDiv(ms, 1000L));
+        m.put("_nanoseconds", Math.floorMod(ms, 1000L) * 1_000_000L);
+        return m;
+    }
+
+    private String newId() {
+        StringBuilder sb = new StringBuilder(20);
+        for (int i = 0; i < 20; i++) sb.append(ID_CHARS.charAt(random.nextInt(ID_CHARS.length())));
+        return sb.toString();
+    }
+
+    private static String key(String ownerId, String noteId) { return ownerId + "/" + noteId; }
+
+    private static boolean isEmpty(String s) { return s == null || s.isEmpty(); }
+
+    private static String orDefault(String s, String fallback) { return isEmpty(s) ? fallback : s; }
+
+    private static String str(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return e != null && e.isJsonPrimitive() && e.getAsJsonPrimitive().isString() ? e.getAsString() : null;
+    }
+
+    private static boolean isNumber(JsonElement e) {
+        return e.isJsonPrimitive() && e.getAsJsonPrimitive().isNumber();
+    }
+
+    /** 對應 Number.isInteger */
+    private static boolean isInt(JsonElement e) {
+        if (e == null || !isNumber(e)) return false;
+        double v = e.getAsDouble();
+        return v == Math.rint(v) && !Double.isInfinite(v);
+    }
+
+    private static Integer intOrNull(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return isInt(e) ? e.getAsInt() : null;
+    }
+
+    private static Long intOrNullLong(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return isInt(e) ? e.getAsLong() : null;
+    }
+
+    private static List<String> strings(JsonObject o, String name) {
+        List<String> out = new ArrayList<>();
+        JsonElement e = o.get(name);
+        if (e == null || !e.isJsonArray()) return out;
+        for (JsonElement x : e.getAsJsonArray()) {
+            if (x.isJsonPrimitive() && ((JsonPrimitive) x).isString() && !x.getAsString().isEmpty()) {
+                out.add(x.getAsString());
+            }
+        }
+        return out;
+    }
+
+    private static List<String> tags(JsonObject o) {
+        List<String> all = new ArrayList<>();
+        JsonElement e = o.get("tags");
+        if (e instanceof JsonArray) {
+            for (JsonElement x : (JsonArray) e) {
+                if (all.size() >= MAX_TAGS) break;
+                all.add(x.isJsonPrimitive() ? x.getAsString() : x.toString());
+            }
+        }
+        return all;
+    }
+}
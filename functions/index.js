@@ -4,11 +4,13 @@
  *  - Notes CRUD: createNote / updateNote / deleteNote / deleteNotesByCategory
  *  - NoteBlocks: listBlocks / createBlock / updateBlock / deleteBlock
  *                acquireBlockLock / renewBlockLock / releaseBlockLock
+ *                updateBlocksBatch
  *
  * Auth: Firebase ID Token (Authorization: Bearer <token>)
  */
 const { onRequest } = require("firebase-functions/v2/https");
 const admin = require("firebase-admin");
+const { isTextDelta, applyTextDelta } = require("./textDelta");
 
 admin.initializeApp();
 const db = admin.firestore();
@@ -328,12 +330,13 @@ exports.createBlock = onRequest({ region: REGION }, async (req, res) => {
   if (!decoded) return;
 
   try {
-    let { ownerId, noteId, index, type, text } = req.body || {};
+    let { ownerId, noteId, index, type, text, clientId } = req.body || {};
     if (!ownerId || !noteId || (typeof index !== "number")) {
       setCors(res);
       return res.status(400).json({ error: "ownerId, noteId, index required" });
     }
     if (index < 0) index = 0;
+    if (typeof clientId !== "string" || !clientId || clientId.length > 128) clientId = null;
 
     await assertCanWriteNote({
       targetOwnerId: ownerId,
@@ -359,6 +362,16 @@ exports.createBlock = onRequest({ region: REGION }, async (req, res) => {
       lockHolder: null,
       lockUntil: null,
     };
+    if (clientId) {
+      // 離線新增的重送：上次其實建好了（只是回應沒收到）就回同一塊
+      const same = await blocksCol(ownerId, noteId).where("clientId", "==", clientId).limit(1).get();
+      if (!same.empty) {
+        const d = same.docs[0];
+        setCors(res);
+        return res.json({ success: true, id: d.id, block: { id: d.id, ...d.data() } });
+      }
+      doc.clientId = clientId;
+    }
     const ref = await blocksCol(ownerId, noteId).add(doc);
 
     setCors(res);
@@ -527,6 +540,95 @@ exports.renewBlockLock = onRequest({ region: REGION }, async (req, res) => {
   }
 });
 
+/** Renew many locks at once（client 的 lease manager 每個週期只打這一支）
+ * body: { locks: [{ ownerId, noteId, blockId }, ...] }   // 可跨多篇筆記
+ * 只續約 caller 仍持有的鎖；已過期但沒被別人拿走的也一併續回
+ * 回傳: { success, lockUntil, results: [{ ownerId, noteId, blockId, status }] }
+ *   status: "ok" | "not_found" | "lost"（被別人拿走 / 已釋放 / 無權限）
+ */
+const MAX_RENEW_LOCKS = 400;
+
+exports.renewBlockLocks = onRequest({ region: REGION }, async (req, res) => {
+  if (maybeHandlePreflight(req, res)) return;
+  if (!ensurePost(req, res)) return;
+  const decoded = await requireAuth(req, res);
+  if (!decoded) return;
+
+  try {
+    const raw = Array.isArray((req.body || {}).locks) ? req.body.locks : [];
+    const locks = [];
+    const seen = new Set();
+    for (const l of raw) {
+      if (!l || typeof l.ownerId !== "string" || typeof l.noteId !== "string" || typeof l.blockId !== "string") continue;
+      if (!l.ownerId || !l.noteId || !l.blockId) continue;
+      const key = `${l.ownerId}/${l.noteId}/${l.blockId}`;
+      if (seen.has(key)) continue;
+      seen.add(key);
+      locks.push({ ownerId: l.ownerId, noteId: l.noteId, blockId: l.blockId });
+    }
+    if (locks.length > MAX_RENEW_LOCKS) {
+      setCors(res);
+      return res.status(400).json({ error: `Too many locks (max ${MAX_RENEW_LOCKS})` });
+    }
+    const until = tsAfterSeconds(LOCK_TTL_SEC);
+    if (locks.length === 0) {
+      setCors(res);
+      return res.json({ success: true, lockUntil: until.toDate().toISOString(), results: [] });
+    }
+
+    // 權限以「篇」為單位檢查一次；沒權限的整篇視為 lost
+    const noteKeys = Array.from(new Set(locks.map((l) => `${l.ownerId}/${l.noteId}`)));
+    const allowed = new Set();
+    await Promise.all(noteKeys.map(async (k) => {
+      const [ownerId, noteId] = k.split("/");
+      try {
+        await assertCanReadNote({ ownerId, noteId, uid: decoded.uid });
+        allowed.add(k);
+      } catch (e) {
+        if (e.code !== 403 && e.code !== 404) throw e;
+      }
+    }));
+
+    const targets = locks.filter((l) => allowed.has(`${l.ownerId}/${l.noteId}`));
+    const statusByKey = new Map();
+
+    if (targets.length > 0) {
+      const refs = targets.map((l) => blocksCol(l.ownerId, l.noteId).doc(l.blockId));
+      await db.runTransaction(async (tx) => {
+        statusByKey.clear(); // transaction 可能重跑
+        const snaps = await tx.getAll(...refs);
+        snaps.forEach((snap, i) => {
+          const l = targets[i];
+          const key = `${l.ownerId}/${l.noteId}/${l.blockId}`;
+          if (!snap.exists) {
+            statusByKey.set(key, "not_found");
+            return;
+          }
+          const b = snap.data() || {};
+          if (b.lockHolder !== decoded.uid) {
+            statusByKey.set(key, "lost");
+            return;
+          }
+          tx.update(snap.ref, { lockUntil: until });
+          statusByKey.set(key, "ok");
+        });
+      });
+    }
+
+    const results = locks.map((l) => ({
+      ...l,
+      status: statusByKey.get(`${l.ownerId}/${l.noteId}/${l.blockId}`) || "lost",
+    }));
+
+    setCors(res);
+    return res.json({ success: true, lockUntil: until.toDate().toISOString(), results });
+  } catch (err) {
+    console.error("renewBlockLocks error:", err);
+    setCors(res);
+    return res.status(500).json({ error: "Internal error" });
+  }
+});
+
 /** Release lock
  * body: { ownerId, noteId, blockId }
  * 只有持鎖者能釋放
@@ -575,10 +677,11 @@ exports.releaseBlockLock = onRequest({ region: REGION }, async (req, res) => {
 });
 
 /** Update block (with version & lock checking)
- * body: { ownerId, noteId, blockId, text?, type?, index?, expectedVersion? }
+ * body: { ownerId, noteId, blockId, text? | delta?, type?, index?, expectedVersion? }
  * 規則：
  *  - 若 block 有鎖且鎖主≠caller 且未過期 → 423
  *  - 若傳入 expectedVersion，且現版號≠它 → 409
+ *  - delta（{ baseLength, pos, del, ins }）必須搭配 expectedVersion；基準長度 / 範圍不符 → 409
  *  - 成功後 version + 1，updatedBy/At 更新
  */
 exports.updateBlock = onRequest({ region: REGION }, async (req, res) => {
@@ -588,11 +691,17 @@ exports.updateBlock = onRequest({ region: REGION }, async (req, res) => {
   if (!decoded) return;
 
   try {
-    const { ownerId, noteId, blockId, text, type, index, expectedVersion } = req.body || {};
+    const { ownerId, noteId, blockId, text, type, index, expectedVersion, delta } = req.body || {};
     if (!ownerId || !noteId || !blockId) {
       setCors(res);
       return res.status(400).json({ error: "ownerId, noteId, blockId required" });
     }
+    // 差異模式一定要帶基準版號，否則無法保證套在正確的內容上
+    const useDelta = typeof text !== "string" && delta != null;
+    if (useDelta && (!isTextDelta(delta) || !Number.isInteger(expectedVersion))) {
+      setCors(res);
+      return res.status(400).json({ error: "delta requires { baseLength, pos, del, ins } and expectedVersion" });
+    }
     await assertCanWriteNote({
       targetOwnerId: ownerId,
       noteId,
@@ -629,6 +738,15 @@ exports.updateBlock = onRequest({ region: REGION }, async (req, res) => {
 
       const patch = {};
       if (typeof text === "string") patch.text = text;
+      if (useDelta) {
+        const applied = applyTextDelta(b.text, delta);
+        if (applied === null) {
+          const err = new Error("Delta base mismatch");
+          err.code = 409;
+          throw err;
+        }
+        patch.text = applied;
+      }
       if (typeof type === "string") patch.type = type;
       if (Number.isInteger(index)) patch.index = index;
       newVersion = (b.version || 1) + 1;
@@ -654,6 +772,134 @@ exports.updateBlock = onRequest({ region: REGION }, async (req, res) => {
   }
 });
 
+/** Batch update blocks + release locks（底部「儲存」一次送出）
+ * body: {
+ *   ownerId, noteId,
+ *   updates: [{ blockId, text? | delta?, type?, index?, expectedVersion? }, ...],
+ *            // delta = { baseLength, pos, del, ins }，需搭配 expectedVersion
+ *   releases: [blockId, ...]   // 要一併釋放的鎖（只釋放 caller 自己持有的）
+ * }
+ * 規則同 updateBlock，但逐塊判斷：某塊 404 / 423 / 409 不影響其他塊
+ * 回傳: { success, results: [{ blockId, status, version?, released }] }
+ *   status: "ok" | "not_found" | "locked" | "conflict"
+ */
+const MAX_BATCH_BLOCKS = 400; // 單一 transaction 最多 500 筆寫入，預留空間
+
+exports.updateBlocksBatch = onRequest({ region: REGION }, async (req, res) => {
+  if (maybeHandlePreflight(req, res)) return;
+  if (!ensurePost(req, res)) return;
+  const decoded = await requireAuth(req, res);
+  if (!decoded) return;
+
+  try {
+    const body = req.body || {};
+    const { ownerId, noteId } = body;
+    const updates = Array.isArray(body.updates)
+      ? body.updates.filter((u) => u && typeof u.blockId === "string" && u.blockId)
+      : [];
+    const releases = Array.isArray(body.releases)
+      ? body.releases.filter((id) => typeof id === "string" && id)
+      : [];
+    if (!ownerId || !noteId) {
+      setCors(res);
+      return res.status(400).json({ error: "ownerId, noteId required" });
+    }
+
+    // 同一塊只保留最後一筆 update
+    const updateById = new Map();
+    for (const u of updates) updateById.set(u.blockId, u);
+    const releaseSet = new Set(releases);
+    const ids = Array.from(new Set([...updateById.keys(), ...releaseSet]));
+    if (ids.length === 0) {
+      setCors(res);
+      return res.json({ success: true, results: [] });
+    }
+    if (ids.length > MAX_BATCH_BLOCKS) {
+      setCors(res);
+      return res.status(400).json({ error: `Too many blocks (max ${MAX_BATCH_BLOCKS})` });
+    }
+
+    await assertCanWriteNote({
+      targetOwnerId: ownerId,
+      noteId,
+      callerUid: decoded.uid,
+    });
+
+    const user = await admin.auth().getUser(decoded.uid);
+    const displayName = user.displayName || "";
+    const email = user.email || "";
+
+    const col = blocksCol(ownerId, noteId);
+    const refs = ids.map((id) => col.doc(id));
+    let results = [];
+
+    await db.runTransaction(async (tx) => {
+      results = []; // transaction 可能重跑
+      const snaps = await tx.getAll(...refs);
+      const now = nowTs();
+
+      snaps.forEach((snap, i) => {
+        const blockId = ids[i];
+        const u = updateById.get(blockId);
+        const wantRelease = releaseSet.has(blockId);
+
+        if (!snap.exists) {
+          results.push({ blockId, status: "not_found", released: false });
+          return;
+        }
+        const b = snap.data() || {};
+        const lockedByOther = b.lockHolder && b.lockHolder !== decoded.uid && isLockActive(b.lockUntil);
+        const patch = {};
+        const r = { blockId, status: "ok", released: false };
+
+        if (u) {
+          if (lockedByOther) {
+            r.status = "locked";
+          } else if (Number.isInteger(u.expectedVersion) && b.version !== u.expectedVersion) {
+            r.status = "conflict";
+            r.version = b.version || 1;
+          } else if (typeof u.text !== "string" && u.delta != null &&
+              (!isTextDelta(u.delta) || !Number.isInteger(u.expectedVersion) ||
+               applyTextDelta(b.text, u.delta) === null)) {
+            r.status = "conflict";
+            r.version = b.version || 1;
+          } else {
+            if (typeof u.text === "string") patch.text = u.text;
+            else if (u.delta != null) patch.text = applyTextDelta(b.text, u.delta);
+            if (typeof u.type === "string") patch.type = u.type;
+            if (Number.isInteger(u.index)) patch.index = u.index;
+            r.version = (b.version || 1) + 1;
+            patch.version = r.version;
+            patch.updatedBy = decoded.uid;
+            patch.updatedByDisplayName = displayName;
+            patch.updatedByEmail = email;
+            patch.updatedAt = now;
+          }
+        }
+
+        // 不論內容是否寫入成功，都釋放 caller 自己的鎖（與原本「存完再逐塊釋放」一致）
+        if (wantRelease && b.lockHolder === decoded.uid) {
+          patch.lockHolder = null;
+          patch.lockUntil = null;
+          r.released = true;
+        }
+
+        if (Object.keys(patch).length > 0) tx.update(snap.ref, patch);
+        results.push(r);
+      });
+    });
+
+    setCors(res);
+    return res.json({ success: true, results });
+  } catch (err) {
+    console.error("updateBlocksBatch error:", err);
+    setCors(res);
+    if (err.code === 404) return res.status(404).json({ error: "Not found" });
+    if (err.code === 403) return res.status(403).json({ error: "Permission denied" });
+    return res.status(500).json({ error: "Internal error" });
+  }
+});
+
 /**
  * Set Collaborators
  * body: { ownerId, noteId (或 id), collaborators: [uid1, uid2, ...] }
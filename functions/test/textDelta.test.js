@@ -0,0 +1,35 @@
+// node --test（Node 內建 test runner，不需額外套件）
+const test = require("node:test");
+const assert = require("node:assert/strict");
+const { isTextDelta, applyTextDelta } = require("../textDelta");
+
+test("套用插入 / 刪除 / 取代", () => {
+  assert.equal(applyTextDelta("hello", { baseLength: 5, pos: 5, del: 0, ins: " world" }), "hello world");
+  assert.equal(applyTextDelta("hello world", { baseLength: 11, pos: 5, del: 6, ins: "" }), "hello");
+  assert.equal(applyTextDelta("光合作用", { baseLength: 4, pos: 2, del: 2, ins: "速率" }), "光合速率");
+});
+
+test("索引以 UTF-16 計算，與 Java 的 TextDelta 一致", () => {
+  // 😀 在 UTF-16 佔 2 個 code unit
+  assert.equal(applyTextDelta("a😀b", { baseLength: 4, pos: 3, del: 1, ins: "c" }), "a😀c");
+});
+
+test("base 為 null / 非字串時當成空字串", () => {
+  assert.equal(applyTextDelta(undefined, { baseLength: 0, pos: 0, del: 0, ins: "x" }), "x");
+  assert.equal(applyTextDelta(null, { baseLength: 1, pos: 0, del: 0, ins: "x" }), null);
+});
+
+test("基準長度不符或範圍越界回 null", () => {
+  assert.equal(applyTextDelta("abc", { baseLength: 4, pos: 0, del: 0, ins: "x" }), null);
+  assert.equal(applyTextDelta("abc", { baseLength: 3, pos: 2, del: 2, ins: "" }), null);
+  assert.equal(applyTextDelta("abc", { baseLength: 3, pos: -1, del: 0, ins: "" }), null);
+  assert.equal(applyTextDelta("abc", { baseLength: 3, pos: 0, del: -1, ins: "" }), null);
+});
+
+test("isTextDelta 檢查欄位型別", () => {
+  assert.ok(isTextDelta({ baseLength: 0, pos: 0, del: 0, ins: "" }));
+  assert.ok(!isTextDelta(null));
+  assert.ok(!isTextDelta({ baseLength: "1", pos: 0, del: 0, ins: "" }));
+  assert.ok(!isTextDelta({ baseLength: 1, pos: 0.5, del: 0, ins: "" }));
+  assert.ok(!isTextDelta({ baseLength: 1, pos: 0, del: 0, ins: 3 }));
+});
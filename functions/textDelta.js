@@ -0,0 +1,19 @@
+/**
+ * 文字差異：{ baseLength, pos, del, ins }，以 UTF-16 索引計算（與 Java String / TextDelta 一致）
+ * 獨立成模組：index.js 使用，test/textDelta.test.js 不必載入 firebase-admin 就能測
+ */
+
+function isTextDelta(d) {
+  return !!d && Number.isInteger(d.baseLength) && Number.isInteger(d.pos) &&
+    Number.isInteger(d.del) && typeof d.ins === "string";
+}
+
+/** 基準長度或範圍不符回 null（呼叫端視為版本衝突） */
+function applyTextDelta(base, d) {
+  const cur = typeof base === "string" ? base : "";
+  if (cur.length !== d.baseLength) return null;
+  if (d.pos < 0 || d.del < 0 || d.pos + d.del > cur.length) return null;
+  return cur.slice(0, d.pos) + d.ins + cur.slice(d.pos + d.del);
+}
+
+module.exports = { isTextDelta, applyTextDelta };
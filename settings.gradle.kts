@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "AiNotePJ"
 include(":app")
- 
\ No newline at end of file
+include(":devserver")
+include(":benchmarks")